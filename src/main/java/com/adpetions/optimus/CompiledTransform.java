@@ -0,0 +1,278 @@
+package com.adpetions.optimus;
+
+import com.adpetions.optimus.entities.EntityReferenceResolver;
+import com.adpetions.optimus.exceptions.TransformException;
+import com.adpetions.optimus.factories.XMLFactoryProvider;
+import com.adpetions.optimus.io.TransformInput;
+import com.adpetions.optimus.namespaces.TransformNamespaceContext;
+import com.adpetions.optimus.templating.OptimusTransformTemplate;
+
+import javax.xml.namespace.QName;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * A compiled (immutable) transform
+ *
+ * <p>Holds the registered handlers (already parsed into their path maps) and the transform options
+ * so that any number of documents can be transformed without the handlers (or template) having to be
+ * registered/built again for each document.</p>
+ *
+ * <p>A compiled transform is thread-safe - each document is transformed by its own transformer obtained
+ * from newTransformer() (and those transformers are not thread-safe and should not be shared across threads).</p>
+ *
+ * <p>A compiled transform can be created either from a Transformer with handlers registered (see Transformer.compile())
+ * or from a template.  When created from a template, template instances are created for each transformer
+ * obtained (using the template supplier) - as templates hold transform state.</p>
+ *
+ * @param <T> the type of the cargo that will be passed to registered EventHandler.handle() methods
+ */
+public class CompiledTransform<T> {
+    private final TransformNamespaceContext namespaceContext;
+    private final EntityReferenceResolver entityReferenceResolver;
+    private final boolean suppressWhitespace;
+    private final boolean trackAttributes;
+    private final boolean trackIndexes;
+    private final boolean fastSkipping;
+    private final boolean forceNonSelfClosing;
+    private final Set<QName> allowSelfClosing;
+    private final boolean coalescing;
+    private final boolean pipelined;
+    private final boolean omitXmlDeclaration;
+    private final XMLFactoryProvider xmlFactoryProvider;
+
+    private final Supplier<? extends OptimusTransformTemplate> templateSupplier;
+    private final List<Class<?>> templateClasses;
+
+    private final EventHandlerPathMap startElementHandlers;
+    private final EventHandlerPathMap endElementHandlers;
+    private final EventHandlerPathMap attributeHandlers;
+    private final EventHandlerPathMap beforeAttributesHandlers;
+    private final EventHandlerPathMap afterAttributesHandlers;
+    private final EventHandlerPathMap beforeNamespacesHandlers;
+    private final EventHandlerPathMap afterNamespacesHandlers;
+    private final EventHandlerPathMap afterStartElementHandlers;
+    private final EventHandlerPathMap processingInstructionHandlers;
+    private final EventHandlerPathMap commentHandlers;
+    private final EventHandlerPathMap charactersHandlers;
+    private final EventHandlerPathMap cDataHandlers;
+    private final EventHandlerPathMap whitespaceHandlers;
+    private final EventHandlerList startDocumentHandlers;
+    private final EventHandlerList endDocumentHandlers;
+    private final EventHandlerList entityReferenceHandlers;
+    private final EventHandlerList namespaceHandlers;
+
+    // <editor-fold desc="Constructors">
+    /**
+     * Compiles a transform from a template
+     *
+     * <p>NB. The same template instance will be used by every transformer obtained - so the
+     * transformers must not be used concurrently.  Use the supplier constructor where
+     * transformers are to be used concurrently.</p>
+     *
+     * @param template the template
+     * @throws TransformException if the template cannot be built
+     */
+    public CompiledTransform(OptimusTransformTemplate template) throws TransformException {
+        this(() -> template);
+    }
+
+    /**
+     * Compiles a transform from a template supplier
+     *
+     * <p>The supplier is called once to build the handlers and then once for each transform performed
+     * (and it should supply a new template instance on each call).</p>
+     *
+     * @param templateSupplier the supplier of template instances
+     * @throws TransformException if the template cannot be built
+     */
+    public CompiledTransform(Supplier<? extends OptimusTransformTemplate> templateSupplier) throws TransformException {
+        this(compileTemplate(templateSupplier.get()), templateSupplier);
+    }
+
+    /**
+     * Compiles the handlers and options of a transformer
+     * NB. The handlers of the transformer are frozen (no more handlers may be registered with it)
+     *
+     * @param source the transformer with the handlers registered
+     * @param templateSupplier the supplier of template instances (or null if not template based)
+     */
+    CompiledTransform(Transformer<T> source, Supplier<? extends OptimusTransformTemplate> templateSupplier) {
+        this.namespaceContext = new TransformNamespaceContext(source.namespaceContext);
+        this.entityReferenceResolver = source.entityReferenceResolver;
+        this.suppressWhitespace = source.suppressWhitespace;
+        this.trackAttributes = source.trackAttributes;
+        this.trackIndexes = source.trackIndexes;
+        this.fastSkipping = source.fastSkipping;
+        this.forceNonSelfClosing = source.forceNonSelfClosing;
+        this.allowSelfClosing = Collections.unmodifiableSet(new HashSet<>(source.allowSelfClosing));
+        this.coalescing = source.coalescing;
+        this.pipelined = source.pipelined;
+        this.omitXmlDeclaration = source.omitXmlDeclaration;
+        this.xmlFactoryProvider = source.xmlFactoryProvider;
+        this.templateSupplier = templateSupplier;
+        if (templateSupplier != null) {
+            List<Class<?>> classes = new ArrayList<>();
+            for (OptimusTransformTemplate template : source.templates) {
+                classes.add(template.getClass());
+            }
+            this.templateClasses = Collections.unmodifiableList(classes);
+        } else {
+            this.templateClasses = Collections.emptyList();
+        }
+        startElementHandlers = source.startElementHandlers.freeze();
+        endElementHandlers = source.endElementHandlers.freeze();
+        attributeHandlers = source.attributeHandlers.freeze();
+        beforeAttributesHandlers = source.beforeAttributesHandlers.freeze();
+        afterAttributesHandlers = source.afterAttributesHandlers.freeze();
+        beforeNamespacesHandlers = source.beforeNamespacesHandlers.freeze();
+        afterNamespacesHandlers = source.afterNamespacesHandlers.freeze();
+        afterStartElementHandlers = source.afterStartElementHandlers.freeze();
+        processingInstructionHandlers = source.processingInstructionHandlers.freeze();
+        commentHandlers = source.commentHandlers.freeze();
+        charactersHandlers = source.charactersHandlers.freeze();
+        cDataHandlers = source.cDataHandlers.freeze();
+        whitespaceHandlers = source.whitespaceHandlers.freeze();
+        startDocumentHandlers = source.startDocumentHandlers.freeze();
+        endDocumentHandlers = source.endDocumentHandlers.freeze();
+        entityReferenceHandlers = source.entityReferenceHandlers.freeze();
+        namespaceHandlers = source.namespaceHandlers.freeze();
+    }
+
+    private static <T> Transformer<T> compileTemplate(OptimusTransformTemplate template) throws TransformException {
+        Transformer<T> result = new Transformer<>();
+        try {
+            result.buildTemplating(template);
+        } catch (Exception ex) {
+            throw new TransformException("Exception reading templates", ex);
+        }
+        return result;
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Transformer methods">
+    /**
+     * Obtains a new transformer to transform the given input XML string
+     *
+     * @param xml the input XML string
+     * @return the transformer
+     */
+    public Transformer<T> newTransformer(String xml) {
+        return new Transformer<>(this, TransformInput.of(xml));
+    }
+
+    /**
+     * Obtains a new transformer to transform the given input XML reader
+     *
+     * @param reader the input XML reader
+     * @return the transformer
+     */
+    public Transformer<T> newTransformer(Reader reader) {
+        return new Transformer<>(this, TransformInput.of(reader));
+    }
+
+    /**
+     * Obtains a new transformer to transform the given input (e.g. bytes, byte buffer, file etc.)
+     *
+     * @param input the input XML
+     * @return the transformer
+     */
+    public Transformer<T> newTransformer(TransformInput input) {
+        return new Transformer<>(this, input);
+    }
+
+    /**
+     * Get the path map cache statistics (for all event types) - across all transforms performed
+     * by the compiled transform
+     * @return the path map cache statistics
+     */
+    public PathMatchCacheStatistics getPathMapCacheStatistics() {
+        PathMatchCacheStatistics result = new PathMatchCacheStatistics(0, 0, 0);
+        for (EventHandlerPathMap pathMap : new EventHandlerPathMap[] {
+                startElementHandlers, endElementHandlers, attributeHandlers, beforeAttributesHandlers,
+                afterAttributesHandlers, beforeNamespacesHandlers, afterNamespacesHandlers, afterStartElementHandlers,
+                processingInstructionHandlers, commentHandlers, charactersHandlers, cDataHandlers, whitespaceHandlers}) {
+            result = result.plus(pathMap.getCacheStatistics());
+        }
+        return result;
+    }
+
+    /**
+     * Get whether the compiled transform is template based
+     * @return whether the compiled transform is template based
+     */
+    public boolean isTemplated() {
+        return templateSupplier != null;
+    }
+
+    TransformNamespaceContext getNamespaceContext() {
+        return namespaceContext;
+    }
+
+    void initializeTransformer(Transformer<T> transformer) {
+        transformer.namespaceContext = namespaceContext;
+        transformer.entityReferenceResolver = entityReferenceResolver;
+        transformer.suppressWhitespace = suppressWhitespace;
+        transformer.trackAttributes = trackAttributes;
+        transformer.trackIndexes = trackIndexes;
+        transformer.fastSkipping = fastSkipping;
+        transformer.forceNonSelfClosing = forceNonSelfClosing;
+        transformer.allowSelfClosing = new HashSet<>(allowSelfClosing);
+        transformer.coalescing = coalescing;
+        transformer.pipelined = pipelined;
+        transformer.omitXmlDeclaration = omitXmlDeclaration;
+        transformer.xmlFactoryProvider = xmlFactoryProvider;
+        transformer.templated = isTemplated();
+        transformer.startElementHandlers = startElementHandlers;
+        transformer.endElementHandlers = endElementHandlers;
+        transformer.attributeHandlers = attributeHandlers;
+        transformer.beforeAttributesHandlers = beforeAttributesHandlers;
+        transformer.afterAttributesHandlers = afterAttributesHandlers;
+        transformer.beforeNamespacesHandlers = beforeNamespacesHandlers;
+        transformer.afterNamespacesHandlers = afterNamespacesHandlers;
+        transformer.afterStartElementHandlers = afterStartElementHandlers;
+        transformer.processingInstructionHandlers = processingInstructionHandlers;
+        transformer.commentHandlers = commentHandlers;
+        transformer.charactersHandlers = charactersHandlers;
+        transformer.cDataHandlers = cDataHandlers;
+        transformer.whitespaceHandlers = whitespaceHandlers;
+        transformer.startDocumentHandlers = startDocumentHandlers;
+        transformer.endDocumentHandlers = endDocumentHandlers;
+        transformer.entityReferenceHandlers = entityReferenceHandlers;
+        transformer.namespaceHandlers = namespaceHandlers;
+        transformer.collectHandlerPathMaps();
+    }
+
+    /**
+     * Creates the template instances (the template and its imports) for a transform
+     *
+     * @return the template instances - in the same order as they were compiled
+     * @throws TransformException if the supplied templates do not match those compiled
+     */
+    List<OptimusTransformTemplate> createTemplates() throws TransformException {
+        List<OptimusTransformTemplate> result = new ArrayList<>(templateClasses.size());
+        try {
+            OptimusTransformTemplate template = templateSupplier.get();
+            result.add(template);
+            Transformer.collectImportedTemplates(template, result);
+        } catch (Exception ex) {
+            throw new TransformException("Exception creating templates", ex);
+        }
+        if (result.size() != templateClasses.size()) {
+            throw new TransformException("Supplied template imports do not match the compiled template imports");
+        }
+        for (int i = 0, imax = result.size(); i < imax; i++) {
+            if (!templateClasses.get(i).equals(result.get(i).getClass())) {
+                throw new TransformException("Supplied template class '" + result.get(i).getClass().getName()
+                        + "' does not match compiled template class '" + templateClasses.get(i).getName() + "'");
+            }
+        }
+        return result;
+    }
+    // </editor-fold>
+}
@@ -3,7 +3,6 @@ package com.adpetions.optimus;
 import com.adpetions.optimus.exceptions.TransformException;
 
 import javax.xml.stream.XMLStreamException;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
 /**
@@ -21,10 +20,13 @@ class EventHandlerHolder {
 
     HandlerType handlerType;
     int priority = 0;
+    // the order in which the holder was added to its path map (used to order holders of equal priority)...
+    int sequence = 0;
     String matchPath;
     EventHandler handler;
-    Object ownerObject;
-    Method method;
+    int templateIndex;
+    String methodName;
+    TemplateMethodInvoker invoker;
 
     EventHandlerHolder(String matchPath, int priority, EventHandler handler) {
         this.matchPath = matchPath;
@@ -33,12 +35,42 @@ class EventHandlerHolder {
         this.handler = handler;
     }
 
-    EventHandlerHolder(String matchPath, int priority, Method method, Object ownerObject) {
+    /**
+     * Constructs a holder for a template method
+     *
+     * <p>The template instance on which the method is invoked is not held - it is looked up (by index) from
+     * the templates of the transformer performing the transform, so that the same holder can be shared by
+     * transforms of a compiled transform.</p>
+     *
+     * <p>The template method is bound to an invoker once (here) rather than being reflectively invoked for each call.</p>
+     *
+     * @param matchPath the path to match
+     * @param priority the priority of the handler
+     * @param method the template method
+     * @param templateIndex the index of the owning template in the transformer's templates
+     * @throws TransformException if the template method cannot be bound
+     */
+    EventHandlerHolder(String matchPath, int priority, Method method, int templateIndex) throws TransformException {
+        this(matchPath, priority, method.getName(), TemplateMethodInvoker.forMethod(method), templateIndex);
+    }
+
+    /**
+     * Constructs a holder for a template method with an already bound invoker
+     * (e.g. one that calls through a generated TemplateDispatcher)
+     *
+     * @param matchPath the path to match
+     * @param priority the priority of the handler
+     * @param methodName the name of the template method
+     * @param invoker the invoker of the template method
+     * @param templateIndex the index of the owning template in the transformer's templates
+     */
+    EventHandlerHolder(String matchPath, int priority, String methodName, TemplateMethodInvoker invoker, int templateIndex) {
         this.matchPath = matchPath;
         this.priority = priority;
         this.handlerType = HandlerType.TEMPLATE_METHOD;
-        this.ownerObject = ownerObject;
-        this.method = method;
+        this.templateIndex = templateIndex;
+        this.methodName = methodName;
+        this.invoker = invoker;
     }
 
     ContinueState call(TransformContext context) throws TransformException, XMLStreamException {
@@ -47,11 +79,11 @@ class EventHandlerHolder {
             result = handler.handle(context, context.transformer.cargo, context.transformer.xmlWriter);
         } else {
             try {
-                result = (ContinueState) method.invoke(ownerObject);
-            } catch (IllegalAccessException e) {
-                throw new TransformException("Illegal access exception calling method '" + method.getName() + "'", e);
-            } catch (InvocationTargetException e) {
-                throw new TransformException("Invocation target exception in method '" + method.getName() + "'", e);
+                result = invoker.invoke(context.transformer.templates.get(templateIndex));
+            } catch (TransformException | XMLStreamException e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new TransformException("Exception in template method '" + methodName + "'", e);
             }
         }
         return result;
@@ -6,19 +6,21 @@ import javax.xml.stream.XMLStreamException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
-import java.util.Stack;
 
 /**
  * Provides a wrapper around a list of event handlers
- * Has built in capability to sort those handlers by priority and to convert
- * the list to a stack.
+ * Has built in capability to sort those handlers by priority and to provide
+ * the (cached) priority ordered call chain of handlers.
  * The EventHandlerList is also used by the EventHandlerPathMap when matching
  * elements against the current transformation path.
  */
 class EventHandlerList extends ArrayList<EventHandlerHolder> {
     private static Comparator<EventHandlerHolder> eventHandlerHolderPriorityComparator = (holder1, holder2) -> Integer.compare(holder2.priority, holder1.priority);
+    private static final EventHandlerHolder[] NO_HANDLERS = new EventHandlerHolder[0];
 
     private boolean sorted = false;
+    private boolean frozen = false;
+    private EventHandlerHolder[] callChain;
 
     EventHandlerList() {
         super();
@@ -36,73 +38,119 @@ class EventHandlerList extends ArrayList<EventHandlerHolder> {
         return this;
     }
 
-    Stack<EventHandlerHolder> toStack() {
-        // get sorted by priority (in case not already sorted)...
-        ensurePrioritySorted();
-        // create a new stack (so that original list isn't lost!)...
-        Stack<EventHandlerHolder> result = new Stack<>();
-        // add items to stack in reverse order...
-        for (int i = size() - 1; i >= 0; i--) {
-            result.push(get(i));
+    /**
+     * Freezes the list - sorting it by priority and preventing any further modification
+     * (once frozen, the list may be safely shared between transforms running on different threads)
+     *
+     * @return this list
+     */
+    EventHandlerList freeze() {
+        // build the call chain now (so that the frozen list is never modified when shared)...
+        getCallChain();
+        frozen = true;
+        return this;
+    }
+
+    boolean isFrozen() {
+        return frozen;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new IllegalStateException("Handlers may not be registered once the transform has been compiled");
+        }
+    }
+
+    /**
+     * Get the handlers as a priority ordered call chain
+     *
+     * <p>The chain is built once (and re-used until the list is modified) - callers must not modify it.</p>
+     *
+     * @return the priority ordered handlers
+     */
+    EventHandlerHolder[] getCallChain() {
+        EventHandlerHolder[] result = callChain;
+        if (result == null) {
+            // get sorted by priority (in case not already sorted)...
+            ensurePrioritySorted();
+            result = (isEmpty() ? NO_HANDLERS : toArray(new EventHandlerHolder[size()]));
+            callChain = result;
         }
         return result;
     }
 
     ContinueState callAll(TransformContext context) throws TransformException, XMLStreamException {
-        return context.callStack(this.toStack());
+        return context.callChain(getCallChain());
     }
 
     @Override
     public boolean add(EventHandlerHolder eventHandlerHolder) {
+        checkNotFrozen();
         sorted = false;
+        callChain = null;
         return super.add(eventHandlerHolder);
     }
 
     @Override
     public void add(int index, EventHandlerHolder element) {
+        checkNotFrozen();
         sorted = false;
+        callChain = null;
         super.add(index, element);
     }
 
     @Override
     public boolean addAll(Collection<? extends EventHandlerHolder> c) {
+        checkNotFrozen();
         sorted = false;
+        callChain = null;
         return super.addAll(c);
     }
 
     @Override
     public boolean addAll(int index, Collection<? extends EventHandlerHolder> c) {
+        checkNotFrozen();
         sorted = false;
+        callChain = null;
         return super.addAll(index, c);
     }
 
     @Override
     public boolean remove(Object o) {
+        checkNotFrozen();
         sorted = false;
+        callChain = null;
         return super.remove(o);
     }
 
     @Override
     public boolean removeAll(Collection<?> c) {
+        checkNotFrozen();
         sorted = false;
+        callChain = null;
         return super.removeAll(c);
     }
 
     @Override
     public boolean retainAll(Collection<?> c) {
+        checkNotFrozen();
         sorted = false;
+        callChain = null;
         return super.retainAll(c);
     }
 
     @Override
     public void sort(Comparator<? super EventHandlerHolder> c) {
         sorted = false;
+        callChain = null;
         super.sort(eventHandlerHolderPriorityComparator);
     }
 
     @Override
     public EventHandlerHolder set(int index, EventHandlerHolder element) {
+        checkNotFrozen();
         sorted = false;
+        callChain = null;
         return super.set(index, element);
     }
 
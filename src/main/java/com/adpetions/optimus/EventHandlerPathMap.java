@@ -7,15 +7,22 @@ import com.adpetions.optimus.namespaces.TransformNamespaceContext;
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLStreamException;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
 /**
  * Class used to map a path to matching handlers
+ *
+ * <p>The match paths of the handlers are mapped into a (forward) trie of path nodes - which is
+ * then used as an automaton that is stepped through, as the path is pushed, one element at a time.
+ * The states of the automaton (see PathMatchState) are built lazily and remembered - so that once
+ * a transform has warmed up, matching a path is just a lookup (by name) of the next state for each
+ * element pushed and a lookup (by name) of the matching handlers for each event.</p>
  */
 class EventHandlerPathMap {
     /**
@@ -29,16 +36,82 @@ class EventHandlerPathMap {
         PROCESSING_INSTRUCTION
     }
 
+    /**
+     * A node in the path matching trie
+     */
+    static class PathMatchNode {
+        final int id;
+        final Map<QName, PathMatchNode> children = new HashMap<>();
+        // steps with predicates...
+        final List<PathMatchGuard> guards = new ArrayList<>();
+        // the node from which descendant steps are mapped...
+        PathMatchNode descendantAnchor;
+        // whether this node is a descendant anchor (which stays live once reached)...
+        boolean anchor;
+        EventHandlerList mappedHere;
+
+        PathMatchNode(int id) {
+            this.id = id;
+        }
+
+        boolean hasSteps() {
+            return !children.isEmpty() || !guards.isEmpty();
+        }
+    }
+
+    /**
+     * A resolved step of a match path
+     */
+    static class PathStep {
+        final QName name;
+        final boolean descendant;
+        final PathPredicate[] predicates;
+
+        PathStep(QName name, boolean descendant, PathPredicate[] predicates) {
+            this.name = name;
+            this.descendant = descendant;
+            this.predicates = predicates;
+        }
+    }
+
+    /**
+     * The default maximum number of names for which each path match state remembers results
+     */
+    static final int DEFAULT_CACHE_SIZE = 512;
+    private static final String ANCESTOR_WILDCARD = "*";
+    private static final QName ANCESTOR_ANY = new QName(ANCESTOR_WILDCARD);
+    private static final QName ROOT = QNameTable.DOCUMENT;
+    private static final PathPredicate[] NO_PREDICATES = new PathPredicate[0];
+    private static final Pattern POSITION_PREDICATE = Pattern.compile("\\d{1,9}");
+    private static final EventHandlerList NO_HOLDERS = new EventHandlerList().freeze();
+    private static final Comparator<EventHandlerHolder> matchOrderComparator = (holder1, holder2) -> {
+        int result = Integer.compare(holder2.priority, holder1.priority);
+        return (result != 0 ? result : Integer.compare(holder1.sequence, holder2.sequence));
+    };
+
     private NodeType nodeType;
     private Transformer ownerTransformer;
-    private Map<String,EventHandlerList> patchMatchCache;
     private String wildcard = "*";
+    private QName leafAny;
     private boolean isSpecial = false;
     private String specialWildcard;
     private String nodeTypePrefix;
-    private Map<QName, EventHandlerPathMap> pathMap;
-    private Object mappedHere;
     private TransformNamespaceContext namespaceContext;
+    private boolean attributePredicates = false;
+    private boolean positionPredicates = false;
+    private boolean frozen = false;
+    private boolean frozenCaching;
+    // the index of this map in the owning transformer's handler path maps...
+    int slot = -1;
+
+    // the path matching trie and automaton...
+    private final List<PathMatchNode> nodesById = new ArrayList<>();
+    private final PathMatchNode startNode;
+    private int holderSequence = 0;
+    private volatile PathMatchState initialState;
+    private final Map<BitSet, PathMatchState> states = new ConcurrentHashMap<>();
+    private int cacheSize = DEFAULT_CACHE_SIZE;
+    final PathMatchCache.Counters cacheCounters = new PathMatchCache.Counters();
 
     /**
      * Constructs a new instance of a EventHandlerPathMap
@@ -49,7 +122,6 @@ class EventHandlerPathMap {
     EventHandlerPathMap(Transformer transformer, TransformNamespaceContext namespaceContext, NodeType nodeType) {
         this.nodeType = nodeType;
         this.ownerTransformer = transformer;
-        this.patchMatchCache = new HashMap<>();
         switch (nodeType) {
             case ELEMENT:
                 nodeTypePrefix = null;
@@ -81,210 +153,632 @@ class EventHandlerPathMap {
             default:
                 throw new BadMatchPathException("Unexpected node type (" + nodeType + ")");
         }
-        pathMap = new HashMap<>();
+        leafAny = new QName(wildcard);
         this.namespaceContext = namespaceContext;
+        startNode = newNode();
     }
 
     ContinueState callAll(TransformContext context) throws XMLStreamException, TransformException {
-        Stack<EventHandlerHolder> stack = this.getHolders(context.path).toStack();
-        return context.callStack(stack);
-    }
-
-    /**
-     * Constructs a new instance of a EventHandlerPathMap
-     * Used internally by EventHandlerPathMap - to map ancestry path
-     * NB. Because this is used as ancestry path, the node type is always
-     * an element because all other nodes can only ever be parented by an element
-     *
-     * @param namespaceContext the namespace context used to resolve prefixes to URIs
-     */
-    private EventHandlerPathMap(TransformNamespaceContext namespaceContext) {
-        pathMap = new HashMap<>();
-        this.namespaceContext = namespaceContext;
+        return context.callChain(context.getMatchingHolders(this).getCallChain());
     }
 
     /**
      * Adds a handler to the map - tracking the specified pathing ancestry
      *
+     * <p>Match paths may be unions (separated by '|') of paths - where each path may be absolute
+     * (starting with '/') or relative and may contain descendant steps ('//') and predicates
+     * on element steps - positional (e.g. {@code item[2]}) or attribute (e.g. {@code item[@type]}
+     * or {@code item[@type='x']}).</p>
+     *
      * @param holder the event handler holder
      */
     void add(EventHandlerHolder holder) throws BadMatchPathException {
-        String pathMatch = holder.matchPath;
+        if (frozen) {
+            throw new IllegalStateException("Handlers may not be registered once the transform has been compiled");
+        }
+        holder.sequence = ++holderSequence;
         // break the path match by unions...
-        String[] pathUnions = pathMatch.split("\\|");
-        String unionPart;
-        String[] pathParts;
-        String[] qNameParts;
-        String prefix;
-        String localName;
-        String namespaceURI;
-        QName qname;
-        ///List<String> resolvedPath;
-        List<QName> resolvedPath;
-        String defaultNamespaceURI = namespaceContext.getDefaultNamespaceURI();
-        for (String pathUnion : pathUnions) {
-            unionPart = pathUnion.replaceAll(" ", "");
+        List<String> pathUnions = splitOutsidePredicates(holder.matchPath, '|');
+        for (int u = 0, umax = pathUnions.size(); u < umax; u++) {
+            String unionPart = removeWhitespace(pathUnions.get(u));
+            if (unionPart.isEmpty() && u == umax - 1 && u > 0) {
+                // a trailing empty union is ignored...
+                break;
+            } else if (unionPart.isEmpty()) {
+                throw new BadMatchPathException("Empty path in match path '" + holder.matchPath + "'");
+            }
             // break the path apart...
-            pathParts = unionPart.split("/");
+            List<String> pathParts = splitOutsidePredicates(unionPart, '/');
+            // trailing empty path parts are ignored...
+            while (!pathParts.isEmpty() && pathParts.get(pathParts.size() - 1).isEmpty()) {
+                pathParts.remove(pathParts.size() - 1);
+            }
             // process each path part...
-            resolvedPath = new ArrayList<>();
-            int imax = pathParts.length - 1;
-            for (int i = imax; i >= 0; i--) {
-                localName = pathParts[i];
-                if (!localName.equals("")) {
-                    prefix = "";
-                    namespaceURI = null;
-                    // resolve any namespace prefixes...
-                    if (localName.contains(":")) {
-                        qNameParts = localName.split(":");
-                        prefix = qNameParts[0];
-                        localName = qNameParts[1];
-                        if (nodeTypePrefix != null && prefix.startsWith(nodeTypePrefix)) {
-                            prefix = prefix.substring(1);
-                            localName = nodeTypePrefix + localName;
-                        }
-                        namespaceURI = namespaceContext.getNamespaceURI(prefix);
-                    } else if (i == imax && localName.equals("*")) {
-                        localName = (isSpecial ? specialWildcard : wildcard);
-                    } else if (defaultNamespaceURI != null && !localName.equals(wildcard) && !(nodeTypePrefix != null && localName.startsWith(nodeTypePrefix))) {
-                        namespaceURI = defaultNamespaceURI;
-                    }
-                    qname = new QName(namespaceURI, localName, prefix);
+            List<PathStep> resolvedPath = new ArrayList<>();
+            boolean descendant = false;
+            int imax = pathParts.size() - 1;
+            for (int i = 0; i <= imax; i++) {
+                String pathPart = pathParts.get(i);
+                if (!pathPart.isEmpty()) {
+                    resolvedPath.add(parseStep(pathPart, i == imax, descendant, unionPart));
+                    descendant = false;
                 } else if (i == 0) {
                     // an empty path part at the beginning means root...
-                    qname = new QName("/");
+                    resolvedPath.add(new PathStep(ROOT, false, NO_PREDICATES));
+                } else if (!descendant) {
+                    // an empty path part elsewhere means the next step is a descendant step ('//')...
+                    descendant = true;
                 } else {
-                    // an empty path part anywhere else is invalid
-                    // (descendant path isn't yet supported)
-                    throw new BadMatchPathException("Descendant path not supported by Transformer '" + unionPart + "'");
+                    throw new BadMatchPathException("Invalid descendant path in match path '" + unionPart + "'");
                 }
-                // build the reverse path...
-                resolvedPath.add(qname);
+            }
+            if (resolvedPath.isEmpty() || (resolvedPath.size() == 1 && resolvedPath.get(0).name == ROOT)) {
+                throw new BadMatchPathException("No steps in match path '" + unionPart + "'");
             }
             // and map the resolved path...
-            mapHandler(holder, resolvedPath, 0, resolvedPath.size() - 1);
+            mapHandler(holder, resolvedPath);
+        }
+        // the automaton needs to be rebuilt...
+        initialState = null;
+        states.clear();
+    }
+
+    /**
+     * Splits a path at the given separator - ignoring separators within predicates (or quotes)
+     *
+     * @param path the path to split
+     * @param separator the separator
+     * @return the split parts
+     */
+    private static List<String> splitOutsidePredicates(String path, char separator) {
+        List<String> result = new ArrayList<>();
+        int bracketDepth = 0;
+        char quote = 0;
+        int start = 0;
+        for (int i = 0, imax = path.length(); i < imax; i++) {
+            char ch = path.charAt(i);
+            if (quote != 0) {
+                if (ch == quote) {
+                    quote = 0;
+                }
+            } else if (ch == '\'' || ch == '"') {
+                quote = ch;
+            } else if (ch == '[') {
+                bracketDepth++;
+            } else if (ch == ']') {
+                bracketDepth--;
+            } else if (ch == separator && bracketDepth == 0) {
+                result.add(path.substring(start, i));
+                start = i + 1;
+            }
+        }
+        result.add(path.substring(start));
+        return result;
+    }
+
+    private static String removeWhitespace(String path) {
+        StringBuilder builder = new StringBuilder(path.length());
+        char quote = 0;
+        for (int i = 0, imax = path.length(); i < imax; i++) {
+            char ch = path.charAt(i);
+            if (quote != 0) {
+                if (ch == quote) {
+                    quote = 0;
+                }
+            } else if (ch == '\'' || ch == '"') {
+                quote = ch;
+            } else if (Character.isWhitespace(ch)) {
+                continue;
+            }
+            builder.append(ch);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Parses a step (name and any predicates) of a match path
+     *
+     * @param pathPart the path part for the step
+     * @param leaf whether the step is the last in the path
+     * @param descendant whether the step is a descendant step
+     * @param unionPart the full path (for error messages)
+     * @return the parsed step
+     */
+    private PathStep parseStep(String pathPart, boolean leaf, boolean descendant, String unionPart) {
+        int predicatesStart = pathPart.indexOf('[');
+        String name = (predicatesStart < 0 ? pathPart : pathPart.substring(0, predicatesStart));
+        if (name.isEmpty()) {
+            throw new BadMatchPathException("Missing step name in match path '" + unionPart + "'");
+        }
+        PathPredicate[] predicates = NO_PREDICATES;
+        if (predicatesStart >= 0) {
+            if (leaf && nodeType != NodeType.ELEMENT) {
+                throw new BadMatchPathException("Predicates are only supported on element steps in match path '" + unionPart + "'");
+            }
+            predicates = parsePredicates(pathPart.substring(predicatesStart), unionPart);
+        }
+        return new PathStep(resolveStepName(name, leaf), descendant, predicates);
+    }
+
+    private QName resolveStepName(String localName, boolean leaf) {
+        String prefix = "";
+        String namespaceURI = null;
+        String defaultNamespaceURI = namespaceContext.getDefaultNamespaceURI();
+        // resolve any namespace prefixes...
+        if (localName.contains(":")) {
+            String[] qNameParts = localName.split(":");
+            prefix = qNameParts[0];
+            localName = qNameParts[1];
+            if (nodeTypePrefix != null && prefix.startsWith(nodeTypePrefix)) {
+                prefix = prefix.substring(1);
+                localName = nodeTypePrefix + localName;
+            }
+            namespaceURI = namespaceContext.getNamespaceURI(prefix);
+        } else if (leaf && localName.equals("*")) {
+            localName = (isSpecial ? specialWildcard : wildcard);
+        } else if (defaultNamespaceURI != null && !localName.equals(wildcard) && !(nodeTypePrefix != null && localName.startsWith(nodeTypePrefix))) {
+            namespaceURI = defaultNamespaceURI;
+        }
+        return new QName(namespaceURI, localName, prefix);
+    }
+
+    private PathPredicate[] parsePredicates(String predicatesPart, String unionPart) {
+        List<PathPredicate> result = new ArrayList<>();
+        int position = 0;
+        while (position < predicatesPart.length()) {
+            if (predicatesPart.charAt(position) != '[') {
+                throw new BadMatchPathException("Invalid predicate in match path '" + unionPart + "'");
+            }
+            int predicateEnd = -1;
+            char quote = 0;
+            for (int i = position + 1, imax = predicatesPart.length(); i < imax && predicateEnd < 0; i++) {
+                char ch = predicatesPart.charAt(i);
+                if (quote != 0) {
+                    if (ch == quote) {
+                        quote = 0;
+                    }
+                } else if (ch == '\'' || ch == '"') {
+                    quote = ch;
+                } else if (ch == ']') {
+                    predicateEnd = i;
+                }
+            }
+            if (predicateEnd < 0) {
+                throw new BadMatchPathException("Unterminated predicate in match path '" + unionPart + "'");
+            }
+            result.add(parsePredicate(predicatesPart.substring(position + 1, predicateEnd), unionPart));
+            position = predicateEnd + 1;
+        }
+        return result.toArray(new PathPredicate[result.size()]);
+    }
+
+    private PathPredicate parsePredicate(String expression, String unionPart) {
+        if (POSITION_PREDICATE.matcher(expression).matches()) {
+            int position = Integer.parseInt(expression);
+            if (position < 1) {
+                throw new BadMatchPathException("Invalid position predicate [" + expression + "] in match path '" + unionPart + "'");
+            }
+            positionPredicates = true;
+            return new PathPredicate.Position(position);
+        } else if (expression.startsWith("@")) {
+            int equals = expression.indexOf('=');
+            String attributeName = (equals < 0 ? expression.substring(1) : expression.substring(1, equals));
+            String value = null;
+            if (equals >= 0) {
+                String quoted = expression.substring(equals + 1);
+                if (quoted.length() < 2 || (quoted.charAt(0) != '\'' && quoted.charAt(0) != '"')
+                        || quoted.charAt(quoted.length() - 1) != quoted.charAt(0)) {
+                    throw new BadMatchPathException("Invalid attribute predicate [" + expression + "] in match path '" + unionPart + "'");
+                }
+                value = quoted.substring(1, quoted.length() - 1);
+            }
+            if (attributeName.isEmpty() || attributeName.equals("*")) {
+                throw new BadMatchPathException("Invalid attribute predicate [" + expression + "] in match path '" + unionPart + "'");
+            }
+            QName attributeQName;
+            if (attributeName.contains(":")) {
+                String[] qNameParts = attributeName.split(":");
+                attributeQName = new QName(namespaceContext.getNamespaceURI(qNameParts[0]), qNameParts[1], qNameParts[0]);
+            } else {
+                // unprefixed attributes are in no namespace...
+                attributeQName = new QName(attributeName);
+            }
+            attributePredicates = true;
+            return new PathPredicate.Attribute(attributeQName, value);
         }
+        throw new BadMatchPathException("Unsupported predicate [" + expression + "] in match path '" + unionPart + "'");
     }
 
     /**
-     * Maps a specified resolved path and handler into the mapping tree
+     * Freezes the map - preventing any further handlers being added
+     * (once frozen, the map may be safely shared between transforms running on different threads)
+     *
+     * @return this map
+     */
+    EventHandlerPathMap freeze() {
+        if (!frozen) {
+            frozenCaching = isCaching();
+            ownerTransformer = null;
+            freezeMapped();
+        }
+        return this;
+    }
+
+    private void freezeMapped() {
+        frozen = true;
+        for (PathMatchNode node: nodesById) {
+            if (node.mappedHere != null) {
+                node.mappedHere.freeze();
+            }
+        }
+    }
+
+    /**
+     * Get the maximum number of names for which each path match state remembers results
+     * @return the cache size
+     */
+    int getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * Sets the maximum number of names for which each path match state remembers results
+     * (any states already built are discarded)
+     *
+     * @param cacheSize the cache size
+     */
+    void setCacheSize(int cacheSize) {
+        if (frozen) {
+            throw new IllegalStateException("Cache size may not be set once the transform has been compiled");
+        }
+        if (cacheSize < 0) {
+            throw new IllegalArgumentException("Cache size may not be negative");
+        }
+        this.cacheSize = cacheSize;
+        initialState = null;
+        states.clear();
+    }
+
+    /**
+     * Get a snapshot of the statistics of the path match caches of this map
+     * @return the cache statistics
+     */
+    PathMatchCacheStatistics getCacheStatistics() {
+        return cacheCounters.toStatistics();
+    }
+
+    boolean isCaching() {
+        return (frozen ? frozenCaching : ownerTransformer != null && ownerTransformer.pathMapCaching);
+    }
+
+    /**
+     * Maps a specified resolved path and handler into the path matching trie
+     *
+     * <p>Descendant steps are mapped from a descendant anchor node (which, once live, stays live for
+     * all deeper paths) and steps with predicates are mapped as guarded edges.</p>
      *
      * @param holder the event handler holder
-     * @param resolvedPath the resolved path
-     * @param depth the current depth in the resolved path
-     * @param maxDepth the maximum path depth
+     * @param resolvedPath the resolved path steps
      */
-    private void mapHandler(EventHandlerHolder holder, List<QName> resolvedPath, int depth, int maxDepth) throws BadMatchPathException {
-        EventHandlerPathMap ancestorMap;
-        QName pathAtDepth = resolvedPath.get(depth);
-        if (pathMap.containsKey(pathAtDepth)) {
-            ancestorMap = pathMap.get(pathAtDepth);
-        } else {
-            ancestorMap = new EventHandlerPathMap(namespaceContext);
-            pathMap.put(pathAtDepth, ancestorMap);
-        }
-        if (depth == maxDepth) {
-            if (ancestorMap.mappedHere == null) {
-                // nothing yet - set the handler for here...
-                ancestorMap.mappedHere = holder;
-            } else if (ancestorMap.mappedHere instanceof EventHandlerPathMap) {
-                // already have a handler here - make it into a list...
-                Object wasMapped = ancestorMap.mappedHere;
-                EventHandlerList handlerList = new EventHandlerList();
-                ancestorMap.mappedHere = handlerList;
-                handlerList.add((EventHandlerHolder)wasMapped);
-                handlerList.add(holder);
-            } else if (ancestorMap.mappedHere instanceof EventHandlerList) {
-                // a list already...
-                ((EventHandlerList)ancestorMap.mappedHere).add(holder);
+    private void mapHandler(EventHandlerHolder holder, List<PathStep> resolvedPath) {
+        PathMatchNode node = startNode;
+        for (PathStep step: resolvedPath) {
+            PathMatchNode from = node;
+            if (step.descendant) {
+                if (from.descendantAnchor == null) {
+                    from.descendantAnchor = newNode();
+                    from.descendantAnchor.anchor = true;
+                }
+                from = from.descendantAnchor;
+            }
+            if (step.predicates.length == 0) {
+                node = from.children.get(step.name);
+                if (node == null) {
+                    node = newNode();
+                    from.children.put(step.name, node);
+                }
             } else {
-                // whoops, multiple handlers for same path...
-                throw new BadMatchPathException("Multiple handlers for same path (" + holder.matchPath + ")");
+                node = null;
+                for (PathMatchGuard guard: from.guards) {
+                    if (guard.isSameStep(step.name, step.predicates)) {
+                        node = guard.target;
+                        break;
+                    }
+                }
+                if (node == null) {
+                    node = newNode();
+                    from.guards.add(new PathMatchGuard(step.name, step.predicates, node));
+                }
             }
-        } else {
-            ancestorMap.mapHandler(holder, resolvedPath, depth + 1, maxDepth);
         }
+        if (node.mappedHere == null) {
+            node.mappedHere = new EventHandlerList();
+        }
+        if (!node.mappedHere.contains(holder)) {
+            node.mappedHere.add(holder);
+        }
+    }
+
+    private PathMatchNode newNode() {
+        PathMatchNode result = new PathMatchNode(nodesById.size());
+        nodesById.add(result);
+        return result;
+    }
+
+    /**
+     * Determines whether there are any handlers mapped
+     * @return whether there are no handlers mapped
+     */
+    boolean isEmpty() {
+        return !startNode.hasSteps();
+    }
+
+    /**
+     * Determines whether any of the mapped paths have attribute predicates
+     * (in which case the attributes of the path need to be tracked)
+     * @return whether any mapped paths have attribute predicates
+     */
+    boolean hasAttributePredicates() {
+        return attributePredicates;
+    }
+
+    /**
+     * Determines whether any of the mapped paths have positional predicates
+     * (in which case the indexes of the path need to be tracked)
+     * @return whether any mapped paths have positional predicates
+     */
+    boolean hasPositionPredicates() {
+        return positionPredicates;
+    }
+
+    /**
+     * Get the initial state of the path matching automaton (i.e. the state before the document root is pushed)
+     * @return the initial state
+     */
+    PathMatchState getInitialState() {
+        PathMatchState result = initialState;
+        if (result == null) {
+            result = new PathMatchState(this, new PathMatchNode[] {startNode}, true);
+            initialState = result;
+        }
+        return result;
     }
 
     /**
      * Obtains the list of holders that match the given path
+     * (runs the path matching automaton over the whole path - without a context, so any
+     * steps with predicates do not match)
      *
      * @param path the path list
      * @return the list of matching handlers for the path
      */
     EventHandlerList getHolders(List<QName> path) {
-        if (ownerTransformer != null && ownerTransformer.pathMapCaching) {
-            EventHandlerList cachedResult = patchMatchCache.get(path.toString());
-            if (cachedResult != null) {
-                return cachedResult;
+        return getHolders(path, null);
+    }
+
+    /**
+     * Obtains the list of holders that match the given path
+     * (runs the path matching automaton over the whole path)
+     *
+     * @param path the path list
+     * @param context the transform context against which predicates are evaluated
+     * @return the list of matching handlers for the path
+     */
+    EventHandlerList getHolders(List<QName> path, TransformContext context) {
+        if (isEmpty() || path.isEmpty()) {
+            return NO_HOLDERS;
+        }
+        PathMatchState state = getInitialState();
+        int leafIndex = path.size() - 1;
+        for (int i = 0; i < leafIndex; i++) {
+            state = state.next(path.get(i), context, i);
+        }
+        return state.match(path.get(leafIndex), context, leafIndex);
+    }
+
+    /**
+     * Computes the state that follows the given state when an element is pushed onto the path
+     *
+     * <p>The next state always contains the start node (because relative match paths can start anywhere)
+     * and any descendant anchor nodes already live - plus any child nodes (that have steps of their own)
+     * matched by name - or, except from the initial state, by namespace wildcard or total wildcard.</p>
+     *
+     * <p>Where guarded steps (steps with predicates) match the name, the result is a GuardedPathMatch
+     * (whose guards are then tested for each element pushed) - otherwise the result is the next state.</p>
+     *
+     * @param state the current state
+     * @param name the name of the element pushed
+     * @return the next state (PathMatchState) or guarded result (GuardedPathMatch)
+     */
+    Object computeTransition(PathMatchState state, QName name) {
+        BitSet ids = new BitSet(nodesById.size());
+        ids.set(startNode.id);
+        QName namespaceAny = (state.initial ? null : new QName(name.getNamespaceURI(), ANCESTOR_WILDCARD));
+        List<PathMatchGuard> guards = null;
+        for (PathMatchNode node: state.nodes) {
+            if (node.anchor) {
+                ids.set(node.id);
+            }
+            addAncestorNode(ids, node.children.get(name));
+            if (!state.initial) {
+                addAncestorNode(ids, node.children.get(namespaceAny));
+                addAncestorNode(ids, node.children.get(ANCESTOR_ANY));
             }
+            guards = collectGuards(guards, node, state.initial, name, namespaceAny, ANCESTOR_ANY);
         }
-        // create a set for the found holders and populate it...
-        Set<EventHandlerHolder> holders = new HashSet<>();
-        getHandlersForPathItem(holders, path, path.size() - 1);
-        // return the actual event handlers sorted by priority...
-        EventHandlerList result = new EventHandlerList(holders).ensurePrioritySorted();
-        if (ownerTransformer != null && ownerTransformer.pathMapCaching) {
-            patchMatchCache.put(path.toString(), result);
+        if (guards != null) {
+            return new GuardedPathMatch<PathMatchState>(guards.toArray(new PathMatchGuard[guards.size()]), ids, null, cacheSize);
+        }
+        return internState(ids);
+    }
+
+    /**
+     * Resolves a guarded transition - testing the guards against the element pushed
+     *
+     * @param guarded the guarded transition
+     * @param context the transform context
+     * @param depth the depth (index) in the path of the element pushed
+     * @return the next state
+     */
+    PathMatchState resolveTransition(GuardedPathMatch<PathMatchState> guarded, TransformContext context, int depth) {
+        boolean masked = (guarded.guards.length <= Long.SIZE);
+        long outcome = 0L;
+        if (masked) {
+            outcome = guarded.test(context, depth);
+            PathMatchState result = guarded.getOutcome(outcome);
+            if (result != null) {
+                return result;
+            }
+        }
+        BitSet ids = (BitSet)guarded.baseIds.clone();
+        for (int i = 0; i < guarded.guards.length; i++) {
+            if (masked ? (outcome & (1L << i)) != 0 : guarded.guards[i].test(context, depth)) {
+                addAncestorNode(ids, guarded.guards[i].target);
+            }
+        }
+        PathMatchState result = internState(ids);
+        if (masked && isCaching()) {
+            guarded.putOutcome(outcome, result);
         }
         return result;
     }
 
     /**
-     * Recursively walk path to find matching handlers
+     * Determines whether any path can still match below (i.e. after) the given live nodes
      *
-     * @param holders the list of holders found that match (to be populated)
-     * @param path the path list
-     * @param index the current index in the path
+     * @param nodes the live nodes
+     * @return whether any of the nodes have further steps
      */
-    private void getHandlersForPathItem(Set<EventHandlerHolder> holders, List<QName> path, int index) {
-        QName currentPart = path.get(index);
-        EventHandlerPathMap currentMap;
-        // look for exact matches...
-        if (pathMap.containsKey(currentPart)) {
-            currentMap = pathMap.get(currentPart);
-            if (currentMap.mappedHere != null) {
-                if (currentMap.mappedHere instanceof EventHandlerHolder) {
-                    holders.add((EventHandlerHolder) currentMap.mappedHere);
-                } else {
-                    holders.addAll((EventHandlerList) currentMap.mappedHere);
+    boolean canMatchBelow(PathMatchNode[] nodes) {
+        for (PathMatchNode node: nodes) {
+            if (node == startNode) {
+                // the start node is always live - but its root step only ever matches the document...
+                if (!node.guards.isEmpty() || node.children.size() > (node.children.containsKey(ROOT) ? 1 : 0)) {
+                    return true;
                 }
+            } else if (node.hasSteps()) {
+                return true;
             }
-            if (index > 0) {
-                currentMap.getHandlersForPathItem(holders, path, index - 1);
-            }
-        }
-        // if we're not at the root of the path - look for wildcards...
-        if (index > 0) {
-            // look for any namespace + wildcard matches...
-            currentPart = new QName(currentPart.getNamespaceURI(), wildcard);
-            if (pathMap.containsKey(currentPart)) {
-                currentMap = pathMap.get(currentPart);
-                if (currentMap.mappedHere != null) {
-                    if (currentMap.mappedHere instanceof EventHandlerHolder) {
-                        holders.add((EventHandlerHolder) currentMap.mappedHere);
-                    } else {
-                        holders.addAll((EventHandlerList) currentMap.mappedHere);
-                    }
+        }
+        return false;
+    }
+
+    private PathMatchState internState(BitSet ids) {
+        PathMatchState result = states.get(ids);
+        if (result == null) {
+            PathMatchNode[] nodes = new PathMatchNode[ids.cardinality()];
+            for (int id = ids.nextSetBit(0), n = 0; id >= 0; id = ids.nextSetBit(id + 1)) {
+                nodes[n++] = nodesById.get(id);
+            }
+            result = new PathMatchState(this, nodes, false);
+            if (isCaching()) {
+                PathMatchState existing = states.putIfAbsent(ids, result);
+                if (existing != null) {
+                    result = existing;
                 }
-                // recursive...
-                currentMap.getHandlersForPathItem(holders, path, index - 1);
-            }
-            // look for any total wildcards...
-            currentPart = new QName(wildcard);
-            if (pathMap.containsKey(currentPart)) {
-                currentMap = pathMap.get(currentPart);
-                if (currentMap.mappedHere != null) {
-                    if (currentMap.mappedHere instanceof EventHandlerHolder) {
-                        holders.add((EventHandlerHolder) currentMap.mappedHere);
-                    } else {
-                        holders.addAll((EventHandlerList) currentMap.mappedHere);
-                    }
+            }
+        }
+        return result;
+    }
+
+    private static void addAncestorNode(BitSet ids, PathMatchNode node) {
+        if (node != null) {
+            // only nodes that have steps can go on to match anything...
+            if (node.hasSteps()) {
+                ids.set(node.id);
+            }
+            // and reaching a node reaches its descendant anchor...
+            if (node.descendantAnchor != null) {
+                ids.set(node.descendantAnchor.id);
+            }
+        }
+    }
+
+    private static List<PathMatchGuard> collectGuards(List<PathMatchGuard> guards, PathMatchNode node, boolean initial,
+                                                      QName name, QName namespaceAny, QName any) {
+        for (PathMatchGuard guard: node.guards) {
+            if (guard.name.equals(name) || (!initial && (guard.name.equals(namespaceAny) || guard.name.equals(any)))) {
+                if (guards == null) {
+                    guards = new ArrayList<>();
                 }
-                // recursive...
-                currentMap.getHandlersForPathItem(holders, path, index - 1);
+                guards.add(guard);
             }
         }
+        return guards;
     }
 
+    /**
+     * Computes the handlers that match, from the given state, a node at the end of the path
+     *
+     * @param state the state (for the ancestors of the node)
+     * @param name the name of the node
+     * @return the matching handlers (sorted by priority) - or a guarded result (GuardedPathMatch)
+     * where guarded steps match the name
+     */
+    Object computeMatch(PathMatchState state, QName name) {
+        List<EventHandlerHolder> found = new ArrayList<>();
+        QName namespaceAny = (state.initial ? null : new QName(name.getNamespaceURI(), wildcard));
+        List<PathMatchGuard> guards = null;
+        for (PathMatchNode node: state.nodes) {
+            addMatchedHolders(found, node.children.get(name));
+            if (!state.initial) {
+                addMatchedHolders(found, node.children.get(namespaceAny));
+                addMatchedHolders(found, node.children.get(leafAny));
+            }
+            guards = collectGuards(guards, node, state.initial, name, namespaceAny, leafAny);
+        }
+        if (guards != null) {
+            return new GuardedPathMatch<EventHandlerList>(guards.toArray(new PathMatchGuard[guards.size()]), null, found, cacheSize);
+        }
+        return toMatchedList(found);
+    }
+
+    /**
+     * Resolves a guarded match - testing the guards against the node at the end of the path
+     *
+     * @param guarded the guarded match
+     * @param context the transform context
+     * @param depth the depth (index) in the path of the node
+     * @return the matching handlers (sorted by priority)
+     */
+    EventHandlerList resolveMatch(GuardedPathMatch<EventHandlerList> guarded, TransformContext context, int depth) {
+        boolean masked = (guarded.guards.length <= Long.SIZE);
+        long outcome = 0L;
+        if (masked) {
+            outcome = guarded.test(context, depth);
+            EventHandlerList result = guarded.getOutcome(outcome);
+            if (result != null) {
+                return result;
+            }
+        }
+        List<EventHandlerHolder> found = new ArrayList<>(guarded.baseHolders);
+        for (int i = 0; i < guarded.guards.length; i++) {
+            if (masked ? (outcome & (1L << i)) != 0 : guarded.guards[i].test(context, depth)) {
+                addMatchedHolders(found, guarded.guards[i].target);
+            }
+        }
+        EventHandlerList result = toMatchedList(found);
+        if (masked && isCaching()) {
+            guarded.putOutcome(outcome, result);
+        }
+        return result;
+    }
+
+    private static EventHandlerList toMatchedList(List<EventHandlerHolder> found) {
+        if (found.isEmpty()) {
+            return NO_HOLDERS;
+        }
+        found.sort(matchOrderComparator);
+        return new EventHandlerList(found).freeze();
+    }
+
+    private static void addMatchedHolders(List<EventHandlerHolder> found, PathMatchNode node) {
+        if (node != null && node.mappedHere != null) {
+            for (EventHandlerHolder holder: node.mappedHere) {
+                if (!found.contains(holder)) {
+                    found.add(holder);
+                }
+            }
+        }
+    }
 }
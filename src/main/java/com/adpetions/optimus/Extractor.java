@@ -0,0 +1,286 @@
+package com.adpetions.optimus;
+
+import com.adpetions.optimus.exceptions.TransformException;
+import com.adpetions.optimus.io.TransformInput;
+import com.adpetions.optimus.namespaces.TransformNamespaceContext;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Extracts values from XML documents - stopping reading each document as soon as all the values have been found
+ *
+ * <p>Each extracted value is identified by a match path - either an element path (where the value is all
+ * the text of the first matching element) or an attribute path (where the value is the value of the first
+ * matching attribute) - and may be required or optional.  The extractor knows up front how many values
+ * there are to find - so as soon as the last one is found the transform is quit (and the reader closed)
+ * without reading any more of the document.</p>
+ *
+ * <p>For example:</p>
+ * <pre>
+ *     Extractor&lt;String&gt; idExtractor = new Extractor&lt;&gt;(extraction -&gt; extraction.get("/envelope/header/id"))
+ *             .require("/envelope/header/id");
+ *     String id = idExtractor.extract(xml);
+ * </pre>
+ *
+ * <p>Once the first extract has been performed, no further paths may be added.  An extractor may then be
+ * used to extract from any number of documents (on any number of threads).</p>
+ *
+ * <p>NB. When an element path matches, the whole element is read - so values whose paths would match
+ * inside an already matched element are not found.</p>
+ *
+ * @param <R> the type of the value returned from the extraction
+ */
+public class Extractor<R> {
+    private final TransformNamespaceContext namespaceContext;
+    private final Function<Extraction, R> resultMapper;
+    private final Map<String, Integer> pathIndexes = new LinkedHashMap<>();
+    private final List<Boolean> required = new ArrayList<>();
+    private volatile CompiledTransform<Extraction> compiled;
+
+    /**
+     * Constructs an extractor
+     *
+     * @param resultMapper the function that maps the extracted values to the result
+     */
+    public Extractor(Function<Extraction, R> resultMapper) {
+        this(new TransformNamespaceContext(), resultMapper);
+    }
+
+    /**
+     * Constructs an extractor using the specified namespace context (for resolving prefixes in match paths)
+     *
+     * @param namespaceContext the namespace context
+     * @param resultMapper the function that maps the extracted values to the result
+     */
+    public Extractor(TransformNamespaceContext namespaceContext, Function<Extraction, R> resultMapper) {
+        this.namespaceContext = namespaceContext;
+        this.resultMapper = resultMapper;
+    }
+
+    // <editor-fold desc="Path methods">
+    /**
+     * Adds a required path - if no value is found for the path the extract fails
+     *
+     * @param matchPath the match path (element or attribute) of the value
+     * @return this extractor
+     */
+    public Extractor<R> require(String matchPath) {
+        return addPath(matchPath, true);
+    }
+
+    /**
+     * Adds an optional path - if no value is found for the path its value is null
+     *
+     * @param matchPath the match path (element or attribute) of the value
+     * @return this extractor
+     */
+    public Extractor<R> optional(String matchPath) {
+        return addPath(matchPath, false);
+    }
+
+    private synchronized Extractor<R> addPath(String matchPath, boolean isRequired) {
+        if (compiled != null) {
+            throw new IllegalStateException("Paths may not be added once the extractor has been used");
+        }
+        if (matchPath == null) {
+            throw new IllegalArgumentException("Match path may not be null");
+        }
+        if (pathIndexes.containsKey(matchPath)) {
+            throw new IllegalArgumentException("Match path '" + matchPath + "' has already been added");
+        }
+        pathIndexes.put(matchPath, required.size());
+        required.add(isRequired);
+        return this;
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Extract methods">
+    /**
+     * Extracts from the specified input XML string
+     *
+     * <p>NB. Values whose paths would match inside an element already matched by an element path are not found
+     * (the matched element is read whole) - so such values are null (or fail the extract if required)</p>
+     *
+     * @param xml the input XML string
+     * @return the result (as mapped from the extracted values)
+     * @throws TransformException if a required path is not found (or a handler fails)
+     * @throws XMLStreamException if the input cannot be read or is not well-formed XML
+     * @throws IllegalStateException if the extractor has no paths
+     */
+    public R extract(String xml) throws TransformException, XMLStreamException {
+        return extract(TransformInput.of(xml));
+    }
+
+    /**
+     * Extracts from the specified input XML reader
+     *
+     * <p>NB. The reader itself is not closed - but is not read any further once all values have been found</p>
+     *
+     * <p>NB. Values whose paths would match inside an element already matched by an element path are not found
+     * (the matched element is read whole) - so such values are null (or fail the extract if required)</p>
+     *
+     * @param reader the input XML reader
+     * @return the result (as mapped from the extracted values)
+     * @throws TransformException if a required path is not found (or a handler fails)
+     * @throws XMLStreamException if the input cannot be read or is not well-formed XML
+     * @throws IllegalStateException if the extractor has no paths
+     */
+    public R extract(Reader reader) throws TransformException, XMLStreamException {
+        return extract(TransformInput.of(reader));
+    }
+
+    /**
+     * Extracts from the specified input (e.g. bytes, byte buffer, file etc.)
+     *
+     * <p>NB. Values whose paths would match inside an element already matched by an element path are not found
+     * (the matched element is read whole) - so such values are null (or fail the extract if required)</p>
+     *
+     * @param input the input XML
+     * @return the result (as mapped from the extracted values)
+     * @throws TransformException if a required path is not found (or a handler fails)
+     * @throws XMLStreamException if the input cannot be read or is not well-formed XML
+     * @throws IllegalStateException if the extractor has no paths
+     */
+    public R extract(TransformInput input) throws TransformException, XMLStreamException {
+        CompiledTransform<Extraction> useCompiled = getCompiled();
+        Extraction extraction = new Extraction(pathIndexes, required.size());
+        Transformer<Extraction> transformer = useCompiled.newTransformer(input);
+        transformer.setCargo(extraction);
+        transformer.nullTransform();
+        for (Map.Entry<String, Integer> entry : pathIndexes.entrySet()) {
+            if (required.get(entry.getValue()) && extraction.values[entry.getValue()] == null) {
+                throw new TransformException("Required path '" + entry.getKey() + "' not found");
+            }
+        }
+        return resultMapper.apply(extraction);
+    }
+
+    private CompiledTransform<Extraction> getCompiled() {
+        CompiledTransform<Extraction> result = compiled;
+        if (result == null) {
+            synchronized (this) {
+                result = compiled;
+                if (result == null) {
+                    result = compile();
+                    compiled = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private CompiledTransform<Extraction> compile() {
+        if (pathIndexes.isEmpty()) {
+            throw new IllegalStateException("Extractor has no paths to extract");
+        }
+        Transformer<Extraction> transformer = new Transformer<>(namespaceContext);
+        for (Map.Entry<String, Integer> entry : pathIndexes.entrySet()) {
+            int index = entry.getValue();
+            if (isAttributePath(entry.getKey())) {
+                transformer.registerAttributeHandler(entry.getKey(), (context, cargo, writer) ->
+                        cargo.found(index, context.getAttributeValue()));
+            } else {
+                transformer.registerStartElementHandler(entry.getKey(), 0, (context, cargo, writer) ->
+                        (cargo.values[index] != null ? null : cargo.found(index, context.readElement().getAllText())));
+            }
+        }
+        return transformer.compile();
+    }
+
+    private static boolean isAttributePath(String matchPath) {
+        // the last step (outside of any predicates) determines the type of path...
+        int depth = 0;
+        for (int i = matchPath.length() - 1; i >= 0; i--) {
+            char ch = matchPath.charAt(i);
+            if (ch == ']') {
+                depth++;
+            } else if (ch == '[') {
+                depth--;
+            } else if (depth == 0 && (ch == '/' || ch == '|')) {
+                break;
+            } else if (depth == 0 && ch == '@' && (i == 0 || matchPath.charAt(i - 1) == '/')) {
+                return true;
+            }
+        }
+        return false;
+    }
+    // </editor-fold>
+
+    /**
+     * The values found by an extraction
+     */
+    public static final class Extraction {
+        private final Map<String, Integer> pathIndexes;
+        private final String[] values;
+        private int remaining;
+
+        Extraction(Map<String, Integer> pathIndexes, int count) {
+            this.pathIndexes = pathIndexes;
+            this.values = new String[count];
+            this.remaining = count;
+        }
+
+        private ContinueState found(int index, String value) {
+            if (values[index] == null) {
+                values[index] = (value == null ? "" : value);
+                remaining--;
+            }
+            // quit as soon as every value has been found...
+            return (remaining == 0 ? ContinueState.QUIT : ContinueState.CONTINUE);
+        }
+
+        /**
+         * Get the value extracted for a match path
+         *
+         * @param matchPath the match path (as added to the extractor)
+         * @return the value (or null if no value was found for the path)
+         * @throws IllegalArgumentException if the match path was not added to the extractor
+         */
+        public String get(String matchPath) {
+            Integer index = pathIndexes.get(matchPath);
+            if (index == null) {
+                throw new IllegalArgumentException("Match path '" + matchPath + "' is not extracted");
+            }
+            return values[index];
+        }
+
+        /**
+         * Determines whether a value was found for a match path
+         *
+         * @param matchPath the match path (as added to the extractor)
+         * @return whether a value was found
+         */
+        public boolean has(String matchPath) {
+            return get(matchPath) != null;
+        }
+
+        /**
+         * Determines whether values were found for all the match paths
+         *
+         * @return whether all values were found
+         */
+        public boolean isComplete() {
+            return remaining == 0;
+        }
+
+        /**
+         * Get the extracted values by match path (in the order the paths were added to the extractor)
+         *
+         * @return the values (values not found are null)
+         */
+        public Map<String, String> getValues() {
+            Map<String, String> result = new LinkedHashMap<>();
+            for (Map.Entry<String, Integer> entry : pathIndexes.entrySet()) {
+                result.put(entry.getKey(), values[entry.getValue()]);
+            }
+            return Collections.unmodifiableMap(result);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.adpetions.optimus;
+
+import com.fasterxml.aalto.AsyncByteBufferFeeder;
+import com.fasterxml.aalto.AsyncXMLStreamReader;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.util.StreamReaderDelegate;
+import java.nio.ByteBuffer;
+
+/**
+ * The reader of a feed transform (see TransformFeed) - an async (non-blocking) parser to which the input is
+ * pushed in chunks
+ *
+ * <p>The transformer reads the events completed by the input fed so far (see nextFed()) - anything else that reads
+ * on (e.g. a handler calling readElement()) may only read events that have already been fed, reading past them
+ * fails rather than blocking to wait for more input.</p>
+ */
+final class FeedReader extends StreamReaderDelegate {
+    private final AsyncXMLStreamReader<AsyncByteBufferFeeder> asyncReader;
+
+    /**
+     * Constructs a feed reader
+     *
+     * @param asyncReader the async parser
+     */
+    FeedReader(AsyncXMLStreamReader<AsyncByteBufferFeeder> asyncReader) {
+        super(asyncReader);
+        this.asyncReader = asyncReader;
+    }
+
+    /**
+     * Feeds a chunk of the input - the previous chunk must have been consumed (i.e. nextFed() has returned
+     * EVENT_INCOMPLETE)
+     *
+     * @param chunk the chunk of input bytes
+     */
+    void feed(ByteBuffer chunk) throws XMLStreamException {
+        asyncReader.getInputFeeder().feedInput(chunk);
+    }
+
+    /**
+     * Marks the end of the input
+     */
+    void endOfInput() {
+        asyncReader.getInputFeeder().endOfInput();
+    }
+
+    /**
+     * Gets the next event completed by the input fed so far
+     *
+     * @return the event (or EVENT_INCOMPLETE if more input is needed)
+     */
+    int nextFed() throws XMLStreamException {
+        return asyncReader.next();
+    }
+
+    @Override
+    public int next() throws XMLStreamException {
+        int result = asyncReader.next();
+        if (result == AsyncXMLStreamReader.EVENT_INCOMPLETE) {
+            throw new XMLStreamException("Cannot read past the input fed so far", asyncReader.getLocation());
+        }
+        return result;
+    }
+}
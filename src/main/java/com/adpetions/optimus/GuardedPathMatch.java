@@ -0,0 +1,59 @@
+package com.adpetions.optimus;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A path match result (next state or matching handlers) that depends on the predicates of guarded edges
+ *
+ * <p>Holds the part of the result that is determined by name alone plus the guards that have to be
+ * tested.  The results for each combination of guard outcomes are remembered - so the per-event cost
+ * is just the testing of the (few) guards whose step names matched.</p>
+ *
+ * @param <V> the type of the result (PathMatchState or EventHandlerList)
+ */
+class GuardedPathMatch<V> {
+    final PathMatchGuard[] guards;
+    // the live nodes determined by name alone (for next state results)...
+    final BitSet baseIds;
+    // the matched holders determined by name alone (for matching handler results)...
+    final List<EventHandlerHolder> baseHolders;
+    private final Map<Long, V> outcomes = new ConcurrentHashMap<>();
+    private final int maxOutcomes;
+
+    GuardedPathMatch(PathMatchGuard[] guards, BitSet baseIds, List<EventHandlerHolder> baseHolders, int maxOutcomes) {
+        this.guards = guards;
+        this.baseIds = baseIds;
+        this.baseHolders = baseHolders;
+        this.maxOutcomes = maxOutcomes;
+    }
+
+    /**
+     * Tests the guards against the node at the given depth of the context path
+     *
+     * @param context the transform context
+     * @param depth the depth (index) of the node in the path
+     * @return the outcomes (as a bit mask - bit n set if guard n was satisfied)
+     */
+    long test(TransformContext context, int depth) {
+        long result = 0L;
+        for (int i = 0; i < guards.length; i++) {
+            if (guards[i].test(context, depth)) {
+                result |= (1L << i);
+            }
+        }
+        return result;
+    }
+
+    V getOutcome(long outcome) {
+        return outcomes.get(outcome);
+    }
+
+    void putOutcome(long outcome, V value) {
+        if (outcomes.size() < maxOutcomes) {
+            outcomes.put(outcome, value);
+        }
+    }
+}
@@ -0,0 +1,503 @@
+package com.adpetions.optimus;
+
+import com.adpetions.optimus.exceptions.BadMatchPathException;
+import com.adpetions.optimus.exceptions.TransformException;
+import com.adpetions.optimus.io.TransformInput;
+import com.adpetions.optimus.namespaces.TransformNamespaceContext;
+import com.adpetions.optimus.writers.TransformUtf8Writer;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Transforms documents that consist of many independent record elements - transforming the records in parallel
+ *
+ * <p>The records are the elements at the record path (an absolute path of element names, e.g. "/orders/order" -
+ * where a name may be prefixed (with prefixes resolved by the compiled transform's namespace context) or a
+ * "*" wildcard).  The document is read (once) by a splitting transformer that transforms everything except
+ * the records - each record is read out of the document and handed, along with a snapshot of its ancestors,
+ * to a worker transformer (from a pool of transformers for the compiled transform) on the executor.  The
+ * worker's transform context is seeded with the record's ancestors - so the record's handlers see the same
+ * path, positions (and path attributes and default namespaces) as when transforming the whole document.
+ * The output of the records is re-assembled, in document order, with the output of the rest of the document.</p>
+ *
+ * <p>At most maxInFlight record outputs are pending at any one time - reading of the document waits for the
+ * earliest pending record when that many are pending (so that memory use is bounded by the number of records
+ * in flight rather than the size of the document).</p>
+ *
+ * <p>The output is the same as transforming the whole document (sequentially) - provided that the handlers of
+ * each record do not depend on anything outside the record (other than its ancestors' path) - with these
+ * exceptions:
+ * <ul>
+ *     <li>handlers on elements outside the records do not see the records (and the records are not visited
+ *     by handlers of the record's ancestors that read the element)</li>
+ *     <li>an element that contains records is always written with a separate end tag (i.e. even if
+ *     nothing is output for any of its records)</li>
+ *     <li>a handler in a record that quits only quits the transform of that record</li>
+ *     <li>the records of a template based compiled transform are transformed by different template instances</li>
+ * </ul>
+ * The cargo is shared by all the records (and the splitting transformer) - so must be thread-safe.</p>
+ *
+ * <p>The parallel transformer is thread-safe.</p>
+ *
+ * @param <T> the type of the cargo that will be passed to registered EventHandler.handle() methods
+ */
+public class ParallelTransformer<T> {
+    private static final String RECORD_WRAPPER = "record-ancestors";
+    private static final byte[] WRAPPER_END = ("</" + RECORD_WRAPPER + ">").getBytes(StandardCharsets.US_ASCII);
+
+    private final QName[] recordSteps;
+    private final Executor executor;
+    private final int maxInFlight;
+    private final TransformerPool<T> pool;
+
+    // <editor-fold desc="Constructors">
+    /**
+     * Constructs a parallel transformer that transforms records on the common fork join pool
+     *
+     * @param compiled the compiled transform
+     * @param recordPath the (absolute) path of the record elements
+     */
+    public ParallelTransformer(CompiledTransform<T> compiled, String recordPath) {
+        this(compiled, recordPath, ForkJoinPool.commonPool(), Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    /**
+     * Constructs a parallel transformer
+     *
+     * @param compiled the compiled transform
+     * @param recordPath the (absolute) path of the record elements
+     * @param executor the executor on which the records are transformed
+     * @param maxInFlight the maximum number of records being transformed (or whose output is pending) at once
+     */
+    public ParallelTransformer(CompiledTransform<T> compiled, String recordPath, Executor executor, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Max in flight must be at least 1");
+        }
+        this.recordSteps = parseRecordPath(recordPath, compiled.getNamespaceContext());
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+        this.pool = new TransformerPool<>(compiled, maxInFlight + 1);
+    }
+    // </editor-fold>
+
+    private static QName[] parseRecordPath(String recordPath, TransformNamespaceContext namespaceContext) {
+        if (!recordPath.startsWith("/") || recordPath.contains("//") || recordPath.endsWith("/")) {
+            throw new BadMatchPathException("Record path '" + recordPath + "' must be an absolute path of element names");
+        }
+        String[] steps = recordPath.substring(1).split("/");
+        if (steps.length < 2) {
+            throw new BadMatchPathException("Record path '" + recordPath + "' must be below the root element");
+        }
+        String defaultNamespaceURI = namespaceContext.getDefaultNamespaceURI();
+        QName[] result = new QName[steps.length];
+        for (int i = 0; i < steps.length; i++) {
+            String step = steps[i];
+            int colon = step.indexOf(':');
+            if (step.equals("*")) {
+                // null matches any element...
+                result[i] = null;
+            } else if (colon > 0) {
+                String namespaceURI = namespaceContext.getNamespaceURI(step.substring(0, colon));
+                if (namespaceURI.isEmpty()) {
+                    throw new BadMatchPathException("Record path '" + recordPath + "' uses unbound prefix '" + step.substring(0, colon) + "'");
+                }
+                result[i] = new QName(namespaceURI, step.substring(colon + 1));
+            } else if (step.isEmpty() || step.indexOf('[') >= 0 || step.indexOf('@') >= 0) {
+                throw new BadMatchPathException("Record path '" + recordPath + "' must be an absolute path of element names");
+            } else {
+                result[i] = new QName(defaultNamespaceURI != null ? defaultNamespaceURI : "", step);
+            }
+        }
+        return result;
+    }
+
+    // <editor-fold desc="Transform methods">
+    /**
+     * Transforms an input XML string
+     *
+     * @param xml the input XML string
+     * @param cargo the cargo to be passed to handlers (shared by all records)
+     * @return the string transform result
+     */
+    public String transform(String xml, T cargo) throws TransformException, XMLStreamException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        transform(TransformInput.of(xml), outputStream, cargo);
+        return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Transforms an input (e.g. bytes, byte buffer, file etc.) outputting (UTF-8 encoded) to the specified output stream
+     *
+     * <p>NB. The output stream is flushed but not closed.</p>
+     *
+     * @param input the input XML
+     * @param outputStream the output stream to be used for output
+     * @param cargo the cargo to be passed to handlers (shared by all records)
+     */
+    public void transform(TransformInput input, OutputStream outputStream, T cargo) throws TransformException, XMLStreamException {
+        transform(input, null, outputStream, cargo);
+    }
+
+    /**
+     * Transforms UTF-8 encoded XML bytes outputting (UTF-8 encoded) to the specified output stream
+     *
+     * <p>The records are found by a byte level scan of the XML (see below) - so that the records are parsed, as
+     * well as transformed, in parallel.</p>
+     *
+     * <p>NB. The output stream is flushed but not closed.</p>
+     *
+     * @param bytes the input XML bytes
+     * @param outputStream the output stream to be used for output
+     * @param cargo the cargo to be passed to handlers (shared by all records)
+     */
+    public void transform(byte[] bytes, OutputStream outputStream, T cargo) throws TransformException, XMLStreamException {
+        transform(ByteBuffer.wrap(bytes), outputStream, cargo);
+    }
+
+    /**
+     * Transforms the remaining UTF-8 encoded XML bytes of a byte buffer (e.g. a memory-mapped file) outputting
+     * (UTF-8 encoded) to the specified output stream
+     *
+     * <p>The records are found by a byte level scan of the XML (see RecordScanner) - rather than by parsing - so
+     * that the splitting transformer only parses the XML outside of the records (with each record's content
+     * replaced by a placeholder) and the records are parsed, as well as transformed, in parallel.  XML that cannot
+     * be scanned (i.e. that is not UTF-8 encoded or that has a document type declaration) is split by parsing.</p>
+     *
+     * <p>The position of the buffer is not changed.  NB. The output stream is flushed but not closed.</p>
+     *
+     * @param buffer the input XML byte buffer
+     * @param outputStream the output stream to be used for output
+     * @param cargo the cargo to be passed to handlers (shared by all records)
+     */
+    public void transform(ByteBuffer buffer, OutputStream outputStream, T cargo) throws TransformException, XMLStreamException {
+        RecordScanner scanner = new RecordScanner(buffer, recordSteps);
+        if (scanner.isScannable()) {
+            SkeletonInputStream skeleton = new SkeletonInputStream(buffer, scanner);
+            transform(TransformInput.of(skeleton), skeleton, outputStream, cargo);
+        } else {
+            transform(TransformInput.of(buffer), null, outputStream, cargo);
+        }
+    }
+
+    /**
+     * Transforms a UTF-8 encoded XML file (memory-mapped) outputting (UTF-8 encoded) to the specified output stream
+     *
+     * <p>The records are found by a byte level scan of the file (see transform(ByteBuffer, OutputStream, Object)).
+     * Files too large to be mapped into a single buffer are split by parsing.</p>
+     *
+     * <p>NB. The output stream is flushed but not closed.</p>
+     *
+     * @param path the path of the input XML file
+     * @param outputStream the output stream to be used for output
+     * @param cargo the cargo to be passed to handlers (shared by all records)
+     */
+    public void transform(Path path, OutputStream outputStream, T cargo) throws TransformException, XMLStreamException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                transform(TransformInput.ofMapped(path), null, outputStream, cargo);
+            } else {
+                transform(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), outputStream, cargo);
+            }
+        } catch (IOException ex) {
+            throw new XMLStreamException("Unable to map input file '" + path + "'", ex);
+        }
+    }
+    // </editor-fold>
+
+    private void transform(TransformInput input, SkeletonInputStream scanned, OutputStream outputStream, T cargo) throws TransformException, XMLStreamException {
+        Splitter splitter = new Splitter(scanned, outputStream, cargo);
+        Transformer<T> transformer = pool.acquire(input);
+        try {
+            transformer.setCargo(cargo);
+            transformer.recordSplitter = splitter;
+            transformer.transform(splitter.skeleton);
+            splitter.finish();
+        } finally {
+            splitter.cancel();
+            pool.release(transformer);
+        }
+    }
+
+    private byte[] transformRecord(TransformInput record, RecordAncestors ancestors, T cargo) {
+        Transformer<T> transformer = pool.acquire(record);
+        try {
+            transformer.setCargo(cargo);
+            transformer.recordAncestors = ancestors;
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            transformer.transform(outputStream);
+            return outputStream.toByteArray();
+        } catch (TransformException | XMLStreamException ex) {
+            throw new CompletionException(ex);
+        } finally {
+            pool.release(transformer);
+        }
+    }
+
+    /**
+     * The splitter (for a single transform) that splits the records out of the document, submits them to
+     * the executor and writes the outputs (of the rest of the document and of the records) in order
+     */
+    private final class Splitter implements RecordSplitter {
+        // the skeleton being transformed (when the records were found by scanning)...
+        private final SkeletonInputStream scanned;
+        private final OutputStream outputStream;
+        private final T cargo;
+        // the output of the splitting transformer (the document except the records) since the last record...
+        private final ByteArrayOutputStream skeleton = new ByteArrayOutputStream();
+        // the pending outputs (in document order)...
+        private final Deque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+        // the namespaces declared by the current element at each depth above the records...
+        private final String[][] declaredPrefixes;
+        private final String[][] declaredURIs;
+
+        private Splitter(SkeletonInputStream scanned, OutputStream outputStream, T cargo) {
+            this.scanned = scanned;
+            this.outputStream = outputStream;
+            this.cargo = cargo;
+            declaredPrefixes = new String[recordSteps.length][];
+            declaredURIs = new String[recordSteps.length][];
+        }
+
+        @Override
+        public boolean split(TransformContext context) throws TransformException, XMLStreamException {
+            int depth = context.pathDepth - 1;
+            XMLStreamReader reader = context.transformer.xmlReader;
+            if (depth < recordSteps.length) {
+                noteDeclaredNamespaces(depth, reader);
+                return false;
+            } else if (depth > recordSteps.length || !isRecord(context)) {
+                return false;
+            }
+            // collect the namespaces in scope at the record's parent...
+            Map<String, String> inScope = new LinkedHashMap<>();
+            for (int d = 1; d < depth; d++) {
+                for (int i = 0; i < declaredPrefixes[d].length; i++) {
+                    inScope.put(declaredPrefixes[d][i], declaredURIs[d][i]);
+                }
+            }
+            RecordAncestors ancestors = context.snapshotAncestors(inScope.keySet().toArray(new String[0]),
+                    inScope.values().toArray(new String[0]));
+            TransformInput record = readRecord(reader, ancestors);
+            // close any open start tag of the parent and move the output so far into the pending outputs...
+            context.transformer.xmlWriter.writeCharacters("");
+            context.transformer.xmlWriter.flush();
+            if (skeleton.size() > 0) {
+                pending.add(CompletableFuture.completedFuture(skeleton.toByteArray()));
+                skeleton.reset();
+            }
+            pending.add(CompletableFuture.supplyAsync(() -> transformRecord(record, ancestors, cargo), executor));
+            writeCompleted(false);
+            return true;
+        }
+
+        private void noteDeclaredNamespaces(int depth, XMLStreamReader reader) {
+            int count = reader.getNamespaceCount();
+            String[] prefixes = new String[count];
+            String[] uris = new String[count];
+            for (int i = 0; i < count; i++) {
+                String prefix = reader.getNamespacePrefix(i);
+                String uri = reader.getNamespaceURI(i);
+                prefixes[i] = (prefix != null ? prefix : XMLConstants.DEFAULT_NS_PREFIX);
+                uris[i] = (uri != null ? uri : XMLConstants.NULL_NS_URI);
+            }
+            declaredPrefixes[depth] = prefixes;
+            declaredURIs[depth] = uris;
+        }
+
+        private boolean isRecord(TransformContext context) {
+            for (int i = 0; i < recordSteps.length; i++) {
+                QName step = recordSteps[i];
+                if (step != null) {
+                    QName name = context.path.get(i + 1);
+                    if (!step.getLocalPart().equals(name.getLocalPart())
+                            || !step.getNamespaceURI().equals(name.getNamespaceURI() != null ? name.getNamespaceURI() : "")) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Reads the record (the reader is at its start element) through to its end element - writing it
+         * wrapped in an element that binds the namespaces in scope at the record's parent (or, when the record's
+         * content is a placeholder for a scanned record, taking the scanned record instead)
+         */
+        private TransformInput readRecord(XMLStreamReader reader, RecordAncestors ancestors) throws XMLStreamException {
+            ByteArrayOutputStream recordStream = new ByteArrayOutputStream();
+            TransformUtf8Writer writer = new TransformUtf8Writer(recordStream, new TransformNamespaceContext(), 1024);
+            writer.writeStartElement(RECORD_WRAPPER);
+            for (int i = 0; i < ancestors.namespacePrefixes.length; i++) {
+                String prefix = ancestors.namespacePrefixes[i];
+                if (prefix.isEmpty()) {
+                    if (!ancestors.namespaceURIs[i].isEmpty()) {
+                        writer.writeDefaultNamespace(ancestors.namespaceURIs[i]);
+                    }
+                } else {
+                    writer.writeNamespace(prefix, ancestors.namespaceURIs[i]);
+                }
+            }
+            byte[] wrapperStart = null;
+            if (scanned != null) {
+                writer.writeCharacters("");
+                writer.flush();
+                wrapperStart = recordStream.toByteArray();
+            }
+            int level = 0;
+            while (true) {
+                switch (reader.getEventType()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        writer.writeStartElement(emptyIfNull(reader.getPrefix()), reader.getLocalName(), emptyIfNull(reader.getNamespaceURI()));
+                        for (int i = 0, imax = reader.getNamespaceCount(); i < imax; i++) {
+                            String prefix = reader.getNamespacePrefix(i);
+                            if (prefix == null || prefix.isEmpty()) {
+                                writer.writeDefaultNamespace(emptyIfNull(reader.getNamespaceURI(i)));
+                            } else {
+                                writer.writeNamespace(prefix, reader.getNamespaceURI(i));
+                            }
+                        }
+                        for (int i = 0, imax = reader.getAttributeCount(); i < imax; i++) {
+                            writer.writeAttribute(emptyIfNull(reader.getAttributePrefix(i)), emptyIfNull(reader.getAttributeNamespace(i)),
+                                    reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                        }
+                        level++;
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        writer.writeEndElement();
+                        level--;
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.SPACE:
+                        writer.writeCharacters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                        break;
+                    case XMLStreamConstants.CDATA:
+                        writer.writeCData(reader.getText());
+                        break;
+                    case XMLStreamConstants.COMMENT:
+                        writer.writeComment(reader.getText());
+                        break;
+                    case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                        writer.writeProcessingInstruction(reader.getPITarget(), reader.getPIData());
+                        break;
+                    case XMLStreamConstants.ENTITY_REFERENCE:
+                        writer.writeEntityRef(reader.getLocalName());
+                        break;
+                }
+                if (level == 0) {
+                    break;
+                }
+                reader.next();
+                if (wrapperStart != null) {
+                    // (only the first event within the record can be a placeholder)...
+                    InputStream scannedRecord = takeScannedRecord(reader, wrapperStart);
+                    if (scannedRecord != null) {
+                        return TransformInput.of(scannedRecord);
+                    }
+                    wrapperStart = null;
+                }
+            }
+            writer.writeEndElement();
+            writer.flush();
+            return TransformInput.of(recordStream.toByteArray());
+        }
+
+        private InputStream takeScannedRecord(XMLStreamReader reader, byte[] wrapperStart) throws XMLStreamException {
+            if (reader.getEventType() == XMLStreamConstants.PROCESSING_INSTRUCTION
+                    && SkeletonInputStream.PLACEHOLDER_TARGET.equals(reader.getPITarget())) {
+                InputStream result;
+                try {
+                    result = scanned.takeRecord(Integer.parseInt(reader.getPIData().trim()), wrapperStart, WRAPPER_END);
+                } catch (NumberFormatException ex) {
+                    // not a placeholder after all...
+                    return null;
+                }
+                if (result != null) {
+                    // the placeholder is followed by the record's end element...
+                    reader.nextTag();
+                    return result;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Writes the pending outputs that have completed (in order) - waiting for the earliest when too many
+         * are pending (or for all of them when finishing)
+         */
+        private void writeCompleted(boolean all) throws TransformException, XMLStreamException {
+            CompletableFuture<byte[]> next;
+            while ((next = pending.peek()) != null && (all || next.isDone() || pending.size() > maxInFlight)) {
+                write(join(next));
+                pending.poll();
+            }
+        }
+
+        private void finish() throws TransformException, XMLStreamException {
+            writeCompleted(true);
+            write(skeleton.toByteArray());
+            skeleton.reset();
+            try {
+                outputStream.flush();
+            } catch (IOException ex) {
+                throw new XMLStreamException("Unable to flush output", ex);
+            }
+        }
+
+        private void cancel() {
+            // (there are only outputs left pending when the transform failed)...
+            for (CompletableFuture<byte[]> future: pending) {
+                future.cancel(false);
+            }
+            pending.clear();
+        }
+
+        private void write(byte[] bytes) throws XMLStreamException {
+            try {
+                outputStream.write(bytes);
+            } catch (IOException ex) {
+                throw new XMLStreamException("Unable to write output", ex);
+            }
+        }
+
+        private byte[] join(CompletableFuture<byte[]> future) throws TransformException, XMLStreamException {
+            try {
+                return future.join();
+            } catch (CompletionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof TransformException) {
+                    throw (TransformException)cause;
+                } else if (cause instanceof XMLStreamException) {
+                    throw (XMLStreamException)cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException)cause;
+                }
+                throw new TransformException("Exception transforming record", cause);
+            }
+        }
+    }
+
+    private static String emptyIfNull(String value) {
+        return (value != null ? value : "");
+    }
+}
@@ -0,0 +1,117 @@
+package com.adpetions.optimus;
+
+import javax.xml.namespace.QName;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A frame of the transform context path - one for each item (document, element, attribute, text etc.) in the path
+ *
+ * <p>Frames are re-used (the context keeps an array of frames that only grows) so that pushing and popping
+ * the path does not allocate once a transform has warmed up.</p>
+ */
+final class PathFrame {
+    QName name;
+    // the position of the item amongst its same named siblings...
+    int position;
+    // the counts, by name, of the children pushed within this item (for positions)...
+    final SiblingCounter childCounts = new SiblingCounter();
+    // the attributes of the item (only when path attributes are tracked)...
+    final Map<QName, String> attributes = new HashMap<>();
+    private boolean hasAttributes;
+
+    void reset(QName name, int position) {
+        this.name = name;
+        this.position = position;
+        childCounts.clear();
+        if (hasAttributes) {
+            attributes.clear();
+            hasAttributes = false;
+        }
+    }
+
+    void putAttribute(QName attributeName, String value) {
+        attributes.put(attributeName, value);
+        hasAttributes = true;
+    }
+
+    /**
+     * Counter of the same named children of a path item
+     * (an open addressing hash of names to counts - cleared, but not discarded, when the frame is re-used)
+     */
+    static final class SiblingCounter {
+        private QName[] names = new QName[8];
+        private int[] counts = new int[8];
+        private int size;
+
+        /**
+         * Increments the count for a name
+         *
+         * @param name the name
+         * @return the new count for the name
+         */
+        int increment(QName name) {
+            int mask = names.length - 1;
+            int slot = name.hashCode() & mask;
+            QName existing;
+            while ((existing = names[slot]) != null) {
+                if (existing == name || existing.equals(name)) {
+                    return ++counts[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            names[slot] = name;
+            counts[slot] = 1;
+            if (++size > (names.length >> 1)) {
+                grow();
+            }
+            return 1;
+        }
+
+        /**
+         * Sets the count for a name (as if that many same named children had already been pushed)
+         *
+         * @param name the name
+         * @param count the count
+         */
+        void set(QName name, int count) {
+            if (count > 0) {
+                int position = increment(name);
+                if (position != count) {
+                    int mask = names.length - 1;
+                    int slot = name.hashCode() & mask;
+                    while (names[slot] != name && !names[slot].equals(name)) {
+                        slot = (slot + 1) & mask;
+                    }
+                    counts[slot] = count;
+                }
+            }
+        }
+
+        void clear() {
+            if (size > 0) {
+                Arrays.fill(names, null);
+                size = 0;
+            }
+        }
+
+        private void grow() {
+            QName[] oldNames = names;
+            int[] oldCounts = counts;
+            names = new QName[oldNames.length << 1];
+            counts = new int[oldNames.length << 1];
+            int mask = names.length - 1;
+            for (int i = 0; i < oldNames.length; i++) {
+                if (oldNames[i] != null) {
+                    int slot = oldNames[i].hashCode() & mask;
+                    while (names[slot] != null) {
+                        slot = (slot + 1) & mask;
+                    }
+                    names[slot] = oldNames[i];
+                    counts[slot] = oldCounts[i];
+                }
+            }
+        }
+    }
+}
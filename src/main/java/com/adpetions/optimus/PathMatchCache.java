@@ -0,0 +1,95 @@
+package com.adpetions.optimus;
+
+import javax.xml.namespace.QName;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache (keyed by name) used by path match states to remember next states and matching handlers
+ *
+ * <p>Lookups are lock free.  When the cache grows beyond its maximum size, entries are evicted using a
+ * second chance (clock) policy - i.e. entries that have not been used since the last eviction sweep are
+ * evicted first - which approximates LRU without having to re-order entries on every lookup.</p>
+ *
+ * @param <V> the type of the cached values
+ */
+class PathMatchCache<V> {
+    private static class Entry<V> {
+        final V value;
+        volatile boolean referenced = false;
+
+        Entry(V value) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * Hit, miss and eviction counters (shared by all the caches of a path map)
+     */
+    static class Counters {
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder evictions = new LongAdder();
+
+        PathMatchCacheStatistics toStatistics() {
+            return new PathMatchCacheStatistics(hits.sum(), misses.sum(), evictions.sum());
+        }
+    }
+
+    private final Map<QName, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final int maxSize;
+    private final Counters counters;
+
+    PathMatchCache(int maxSize, Counters counters) {
+        this.maxSize = maxSize;
+        this.counters = counters;
+    }
+
+    V get(QName name) {
+        Entry<V> entry = entries.get(name);
+        if (entry == null) {
+            counters.misses.increment();
+            return null;
+        }
+        if (!entry.referenced) {
+            entry.referenced = true;
+        }
+        counters.hits.increment();
+        return entry.value;
+    }
+
+    void put(QName name, V value) {
+        if (maxSize <= 0) {
+            return;
+        }
+        if (entries.size() >= maxSize) {
+            // make room first (so that the new entry isn't itself evicted)...
+            evict();
+        }
+        entries.put(name, new Entry<>(value));
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private synchronized void evict() {
+        // evict down to 7/8ths of the max size - so that sweeps aren't needed on every put once full...
+        int targetSize = maxSize - Math.max(1, maxSize >> 3);
+        for (int sweep = 0; entries.size() > targetSize; sweep++) {
+            Iterator<Entry<V>> iterator = entries.values().iterator();
+            while (iterator.hasNext() && entries.size() > targetSize) {
+                Entry<V> entry = iterator.next();
+                if (entry.referenced && sweep < 2) {
+                    // give it a second chance...
+                    entry.referenced = false;
+                } else {
+                    iterator.remove();
+                    counters.evictions.increment();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.adpetions.optimus;
+
+/**
+ * A snapshot of the statistics of the path match caches
+ *
+ * <p>Hits and misses count lookups of the remembered path match results (i.e. next states as elements
+ * are pushed onto the path and matching handlers for events) - a miss means the result had to be computed.
+ * Evictions count remembered results discarded because a cache reached its maximum size.</p>
+ */
+public class PathMatchCacheStatistics {
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+
+    PathMatchCacheStatistics(long hits, long misses, long evictions) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+    }
+
+    /**
+     * Get the number of cache hits
+     * @return the number of cache hits
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Get the number of cache misses
+     * @return the number of cache misses
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Get the number of cache evictions
+     * @return the number of cache evictions
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Get the ratio of hits to lookups
+     * @return the hit ratio (or zero if there have been no lookups)
+     */
+    public double getHitRatio() {
+        long lookups = hits + misses;
+        return (lookups == 0 ? 0d : (double)hits / lookups);
+    }
+
+    PathMatchCacheStatistics plus(PathMatchCacheStatistics other) {
+        return new PathMatchCacheStatistics(hits + other.hits, misses + other.misses, evictions + other.evictions);
+    }
+
+    @Override
+    public String toString() {
+        return "PathMatchCacheStatistics{hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "}";
+    }
+}
@@ -0,0 +1,43 @@
+package com.adpetions.optimus;
+
+import javax.xml.namespace.QName;
+import java.util.Arrays;
+
+/**
+ * A guarded edge in the path matching trie - i.e. a step of a match path that has predicates
+ *
+ * <p>Because the predicates depend on more than the name of the node, a guarded edge cannot be
+ * followed (or not) on the name alone - the predicates are evaluated for each node pushed whose name
+ * matches the step (see GuardedPathMatch).</p>
+ */
+class PathMatchGuard {
+    final QName name;
+    final PathPredicate[] predicates;
+    final EventHandlerPathMap.PathMatchNode target;
+
+    PathMatchGuard(QName name, PathPredicate[] predicates, EventHandlerPathMap.PathMatchNode target) {
+        this.name = name;
+        this.predicates = predicates;
+        this.target = target;
+    }
+
+    boolean isSameStep(QName name, PathPredicate[] predicates) {
+        return this.name.equals(name) && Arrays.equals(this.predicates, predicates);
+    }
+
+    /**
+     * Tests all of the predicates against the node at the given depth of the context path
+     *
+     * @param context the transform context
+     * @param depth the depth (index) of the node in the path
+     * @return whether all of the predicates are satisfied
+     */
+    boolean test(TransformContext context, int depth) {
+        for (PathPredicate predicate : predicates) {
+            if (!predicate.test(context, depth)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
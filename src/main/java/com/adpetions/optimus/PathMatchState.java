@@ -0,0 +1,112 @@
+package com.adpetions.optimus;
+
+import javax.xml.namespace.QName;
+
+/**
+ * A state of the path matching automaton of an EventHandlerPathMap
+ *
+ * <p>A state represents the set of (partially matched) path nodes that are live after a given
+ * ancestry path has been consumed.  Stepping to the next state (when an element is pushed onto
+ * the path) and finding the handlers that match a node at the end of the path are both computed
+ * once (by the owning path map) and then remembered - so that matching, once warmed, is just a
+ * lookup by name for each event.  The remembered results are held in bounded caches (see PathMatchCache)
+ * so that documents with many distinct names do not grow them without limit.</p>
+ *
+ * <p>Where steps with predicates match a name the remembered result is a GuardedPathMatch - whose
+ * guards are tested (against the context) each time - and the result for each guard outcome is
+ * also remembered.</p>
+ */
+class PathMatchState {
+    private final EventHandlerPathMap owner;
+    final EventHandlerPathMap.PathMatchNode[] nodes;
+    final boolean initial;
+    // whether any path can still match below this state (i.e. whether any live node has further steps)...
+    final boolean canMatchBelow;
+    private final PathMatchCache<Object> transitions;
+    private final PathMatchCache<Object> matches;
+
+    /**
+     * Constructs a path match state
+     *
+     * @param owner the owning path map
+     * @param nodes the live path nodes for the state
+     * @param initial whether this is the initial state (i.e. before the document root is consumed -
+     *                wildcards never match at the initial state)
+     */
+    PathMatchState(EventHandlerPathMap owner, EventHandlerPathMap.PathMatchNode[] nodes, boolean initial) {
+        this.owner = owner;
+        this.nodes = nodes;
+        this.initial = initial;
+        canMatchBelow = owner.canMatchBelow(nodes);
+        transitions = new PathMatchCache<>(owner.getCacheSize(), owner.cacheCounters);
+        matches = new PathMatchCache<>(owner.getCacheSize(), owner.cacheCounters);
+    }
+
+    /**
+     * Get the state following this state when the given element (or document root) is pushed onto the path
+     * (without a context - so steps with predicates do not match)
+     *
+     * @param name the name of the element
+     * @return the next state
+     */
+    PathMatchState next(QName name) {
+        return next(name, null, -1);
+    }
+
+    /**
+     * Get the state following this state when the given element (or document root) is pushed onto the path
+     *
+     * @param name the name of the element
+     * @param context the transform context (against which predicates are tested)
+     * @param depth the depth (index) in the path of the element
+     * @return the next state
+     */
+    @SuppressWarnings("unchecked")
+    PathMatchState next(QName name, TransformContext context, int depth) {
+        Object result = transitions.get(name);
+        if (result == null) {
+            result = owner.computeTransition(this, name);
+            if (owner.isCaching()) {
+                transitions.put(name, result);
+            }
+        }
+        if (result instanceof GuardedPathMatch) {
+            return owner.resolveTransition((GuardedPathMatch<PathMatchState>)result, context, depth);
+        }
+        return (PathMatchState)result;
+    }
+
+    /**
+     * Get the handlers that match the given node name at the end of the path
+     * (without a context - so steps with predicates do not match)
+     *
+     * @param name the name of the node (element, attribute, text etc.)
+     * @return the matching handlers (sorted by priority)
+     */
+    EventHandlerList match(QName name) {
+        return match(name, null, -1);
+    }
+
+    /**
+     * Get the handlers that match the given node name at the end of the path
+     *
+     * @param name the name of the node (element, attribute, text etc.)
+     * @param context the transform context (against which predicates are tested)
+     * @param depth the depth (index) in the path of the node
+     * @return the matching handlers (sorted by priority)
+     */
+    @SuppressWarnings("unchecked")
+    EventHandlerList match(QName name, TransformContext context, int depth) {
+        Object result = matches.get(name);
+        if (result == null) {
+            result = owner.computeMatch(this, name);
+            if (owner.isCaching()) {
+                matches.put(name, result);
+            }
+        }
+        if (result instanceof GuardedPathMatch) {
+            return owner.resolveMatch((GuardedPathMatch<EventHandlerList>)result, context, depth);
+        }
+        return (EventHandlerList)result;
+    }
+}
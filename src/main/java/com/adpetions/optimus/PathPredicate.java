@@ -0,0 +1,108 @@
+package com.adpetions.optimus;
+
+import javax.xml.namespace.QName;
+import java.util.Objects;
+
+/**
+ * A predicate on a step of a match path - e.g. {@code item[2]} or {@code item[@type='x']}
+ *
+ * <p>Predicates are evaluated against the node at a given depth of the current transform path -
+ * positions using the index tracking of the context and attributes using the path attribute
+ * tracking of the context.</p>
+ */
+abstract class PathPredicate {
+    /**
+     * Tests the predicate against the node at the given depth of the context path
+     *
+     * @param context the transform context (may be null if there is no context - in which case the predicate fails)
+     * @param depth the depth (index) of the node in the path
+     * @return whether the predicate is satisfied
+     */
+    abstract boolean test(TransformContext context, int depth);
+
+    /**
+     * Determines whether the predicate requires path attributes to be tracked
+     * @return whether the predicate requires path attributes
+     */
+    boolean usesAttributes() {
+        return false;
+    }
+
+    /**
+     * Positional predicate - e.g. {@code item[2]}
+     * (the position being that of the node amongst its same named siblings - as per TransformContext.getIndex())
+     */
+    static class Position extends PathPredicate {
+        private final int position;
+
+        Position(int position) {
+            this.position = position;
+        }
+
+        @Override
+        boolean test(TransformContext context, int depth) {
+            return context != null && context.getPathPosition(depth) == position;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Position && ((Position)obj).position == position;
+        }
+
+        @Override
+        public int hashCode() {
+            return position;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + position + "]";
+        }
+    }
+
+    /**
+     * Attribute predicate - e.g. {@code item[@type]} (attribute exists) or {@code item[@type='x']} (attribute has value)
+     */
+    static class Attribute extends PathPredicate {
+        private final QName attributeName;
+        private final String value;
+
+        Attribute(QName attributeName, String value) {
+            this.attributeName = attributeName;
+            this.value = value;
+        }
+
+        @Override
+        boolean test(TransformContext context, int depth) {
+            if (context == null) {
+                return false;
+            }
+            String actual = context.getPathAttributeValue(depth, attributeName);
+            return (value == null ? actual != null : value.equals(actual));
+        }
+
+        @Override
+        boolean usesAttributes() {
+            return true;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Attribute)) {
+                return false;
+            }
+            Attribute other = (Attribute)obj;
+            return attributeName.equals(other.attributeName) && Objects.equals(value, other.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return attributeName.hashCode() * 31 + Objects.hashCode(value);
+        }
+
+        @Override
+        public String toString() {
+            return "[@" + attributeName + (value == null ? "" : "='" + value + "'") + "]";
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.adpetions.optimus;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded ring of pre-allocated slots between two threads of a pipelined transform - a single producer
+ * (that fills slots) and a single consumer (that takes them)
+ *
+ * <p>The slots are re-used - a slot is only re-filled once the consumer has released it.  The producer waits
+ * when all slots are filled but not yet released (back pressure) and the consumer waits when no filled
+ * slots are available.  Waiting threads spin briefly before parking.</p>
+ *
+ * @param <S> the type of the slots
+ */
+final class PipelineRing<S> {
+    private static final int SPINS = 64;
+    private static final long PARK_NANOS = 100_000L;
+
+    private final S[] slots;
+    private final int mask;
+    // the counts of slots published (by the producer) and released (by the consumer)...
+    private volatile long produced;
+    private volatile long consumed;
+    private volatile boolean closed;
+    private volatile Thread waitingProducer;
+    private volatile Thread waitingConsumer;
+
+    /**
+     * Constructs a ring
+     *
+     * @param slots the slots (the number of which must be a power of 2)
+     */
+    PipelineRing(S[] slots) {
+        if (Integer.bitCount(slots.length) != 1) {
+            throw new IllegalArgumentException("Pipeline ring size must be a power of 2");
+        }
+        this.slots = slots;
+        this.mask = slots.length - 1;
+    }
+
+    // <editor-fold desc="Producer methods">
+    /**
+     * Gets the next slot to be filled - waiting until it has been released by the consumer
+     *
+     * @return the slot (or null if the ring has been closed)
+     */
+    S claim() {
+        long next = produced;
+        int spins = 0;
+        while (next - consumed > mask) {
+            if (closed) {
+                return null;
+            }
+            if (++spins < SPINS) {
+                Thread.yield();
+            } else {
+                waitingProducer = Thread.currentThread();
+                if (next - consumed > mask && !closed) {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+                waitingProducer = null;
+            }
+        }
+        return (closed ? null : slots[(int)next & mask]);
+    }
+
+    /**
+     * Publishes the claimed slot (once it has been filled) to the consumer
+     */
+    void publish() {
+        produced = produced + 1;
+        Thread waiting = waitingConsumer;
+        if (waiting != null) {
+            LockSupport.unpark(waiting);
+        }
+    }
+
+    /**
+     * Waits until the consumer has released every published slot (or the ring is closed)
+     */
+    void awaitDrained() {
+        int spins = 0;
+        while (consumed != produced && !closed) {
+            if (++spins < SPINS) {
+                Thread.yield();
+            } else {
+                waitingProducer = Thread.currentThread();
+                if (consumed != produced && !closed) {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+                waitingProducer = null;
+            }
+        }
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Consumer methods">
+    /**
+     * Gets the next published slot - waiting until the producer has published it
+     *
+     * <p>The slot is not re-used by the producer until it is released.</p>
+     *
+     * @return the slot (or null if the ring has been closed and every published slot has been taken)
+     */
+    S take() {
+        long next = consumed;
+        int spins = 0;
+        while (produced == next) {
+            if (closed) {
+                return null;
+            }
+            if (++spins < SPINS) {
+                Thread.yield();
+            } else {
+                waitingConsumer = Thread.currentThread();
+                if (produced == next && !closed) {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+                waitingConsumer = null;
+            }
+        }
+        return slots[(int)next & mask];
+    }
+
+    /**
+     * Releases the taken slot - so that the producer can re-fill it
+     */
+    void release() {
+        consumed = consumed + 1;
+        Thread waiting = waitingProducer;
+        if (waiting != null) {
+            LockSupport.unpark(waiting);
+        }
+    }
+    // </editor-fold>
+
+    /**
+     * Closes the ring - waking any waiting producer or consumer
+     */
+    void close() {
+        closed = true;
+        Thread waiting = waitingProducer;
+        if (waiting != null) {
+            LockSupport.unpark(waiting);
+        }
+        waiting = waitingConsumer;
+        if (waiting != null) {
+            LockSupport.unpark(waiting);
+        }
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+}
@@ -0,0 +1,132 @@
+package com.adpetions.optimus;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A (re-used) thread of a transformer's pipeline - running the reader or writer side of each pipelined
+ * transform performed by the transformer (see PipelinedReader and PipelinedWriter)
+ *
+ * <p>So that a transformer that performs many pipelined transforms (e.g. one acquired from a TransformerPool)
+ * does not start new threads for every transform.  The thread is started by the first task and stops once
+ * it has been idle for a while (so that an unused transformer does not hold on to a thread).</p>
+ *
+ * <p>A task that cannot be stopped (e.g. one blocked reading input) can be abandoned - the worker then
+ * starts a new thread for subsequent tasks.</p>
+ */
+final class PipelineWorker {
+    private static final long KEEP_ALIVE_SECONDS = 30L;
+
+    private final String name;
+    private ThreadPoolExecutor executor;
+
+    /**
+     * Constructs a pipeline worker
+     *
+     * @param name the name of the worker thread
+     */
+    PipelineWorker(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Runs the task on the worker thread
+     *
+     * @param task the task
+     * @return the running task
+     */
+    synchronized Task start(Runnable task) {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, name);
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            executor.allowCoreThreadTimeOut(true);
+        }
+        Task result = new Task(task, executor);
+        executor.execute(result);
+        return result;
+    }
+
+    private synchronized void abandon(ThreadPoolExecutor abandoned) {
+        if (executor == abandoned) {
+            // the stuck thread finishes its task when it can - subsequent tasks get a new thread...
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * A task running on the worker thread
+     */
+    final class Task implements Runnable {
+        private final Runnable task;
+        private final ThreadPoolExecutor owner;
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private volatile Thread runner;
+
+        private Task(Runnable task, ThreadPoolExecutor executor) {
+            this.task = task;
+            this.owner = executor;
+        }
+
+        @Override
+        public void run() {
+            runner = Thread.currentThread();
+            try {
+                task.run();
+            } finally {
+                runner = null;
+                finished.countDown();
+            }
+        }
+
+        /**
+         * Waits for the task to finish
+         */
+        void await() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    finished.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Waits (briefly) for the task to finish - interrupting it if it has not finished and abandoning
+         * it if it still does not finish
+         *
+         * @param graceMillis how long to wait before interrupting (and then before abandoning)
+         * @return whether the task finished
+         */
+        boolean stop(long graceMillis) {
+            try {
+                if (finished.await(graceMillis, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+                Thread stuck = runner;
+                if (stuck != null) {
+                    stuck.interrupt();
+                }
+                if (finished.await(graceMillis, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            abandon(owner);
+            return false;
+        }
+    }
+}
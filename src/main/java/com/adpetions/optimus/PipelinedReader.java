@@ -0,0 +1,756 @@
+package com.adpetions.optimus;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An XML stream reader for pipelined transforms (see Transformer.setPipelined()) - the events of the underlying
+ * reader are read, on a reader thread, into a ring of pre-allocated event slots (see PipelineRing) that the
+ * transforming thread then reads from
+ *
+ * <p>Each event is copied (names, attributes, namespaces, text etc.) into its slot - so that the reader thread
+ * can read ahead (parsing and decoding) while the transforming thread runs handlers.  The reader thread waits
+ * when the ring is full.  Parse errors are reported (by next()) when the transforming thread reaches them.</p>
+ *
+ * <p>The namespace context is maintained from the namespace declarations of the start elements read.</p>
+ */
+final class PipelinedReader implements XMLStreamReader {
+    static final int DEFAULT_CAPACITY = 1024;
+    // how long close waits for the reader thread to stop (before interrupting it - and then abandoning it)...
+    private static final long STOP_GRACE_MILLIS = 100L;
+
+    private final XMLStreamReader source;
+    private final PipelineRing<EventSlot> ring;
+    private final PipelineWorker.Task readerTask;
+    // the document properties (read before the reader thread starts)...
+    private final String version;
+    private final String encoding;
+    private final String characterEncodingScheme;
+    private final boolean standalone;
+    private final boolean standaloneSet;
+    private final Location startLocation;
+    // the current event (null before the first next)...
+    private EventSlot current;
+    private boolean ended;
+    // the in-scope namespace declarations (with the start of each element's declarations)...
+    private String[] scopePrefixes = new String[16];
+    private String[] scopeURIs = new String[16];
+    private int scopeCount;
+    private int[] scopeStarts = new int[16];
+    private int scopeDepth;
+    private boolean popScopePending;
+    private final NamespaceContext namespaceContext = new ScopeNamespaceContext();
+
+    /**
+     * Constructs a pipelined reader - starting the reader thread
+     *
+     * @param source the underlying reader (at the start of the document) - only read by the reader thread from now on
+     * @param capacity the number of event slots (a power of 2)
+     * @param worker the (transformer's) worker that runs the reader thread
+     */
+    PipelinedReader(XMLStreamReader source, int capacity, PipelineWorker worker) {
+        this.source = source;
+        version = source.getVersion();
+        encoding = source.getEncoding();
+        characterEncodingScheme = source.getCharacterEncodingScheme();
+        standalone = source.isStandalone();
+        standaloneSet = source.standaloneSet();
+        startLocation = new FixedLocation(source.getLocation());
+        EventSlot[] slots = new EventSlot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new EventSlot();
+        }
+        ring = new PipelineRing<>(slots);
+        readerTask = worker.start(this::readAhead);
+    }
+
+    /**
+     * Reads the events of the underlying reader into the ring (run on the reader thread)
+     */
+    private void readAhead() {
+        try {
+            EventSlot slot;
+            while ((slot = ring.claim()) != null) {
+                try {
+                    slot.read(source, source.next());
+                } catch (Exception ex) {
+                    slot.fail(ex);
+                }
+                ring.publish();
+                if (slot.eventType == END_DOCUMENT || slot.failure != null) {
+                    break;
+                }
+            }
+        } finally {
+            try {
+                source.close();
+            } catch (XMLStreamException e) {
+                // ignore - we're done with it anyway
+            }
+        }
+    }
+
+    // <editor-fold desc="Cursor methods">
+    @Override
+    public int next() throws XMLStreamException {
+        if (!hasNext()) {
+            throw new NoSuchElementException("PipelinedReader has no next event");
+        }
+        if (current != null) {
+            ring.release();
+        }
+        if (popScopePending) {
+            scopeCount = scopeStarts[--scopeDepth];
+            popScopePending = false;
+        }
+        current = ring.take();
+        if (current == null) {
+            ended = true;
+            throw new XMLStreamException("PipelinedReader has been closed");
+        }
+        if (current.failure != null) {
+            ended = true;
+            Exception failure = current.failure;
+            if (failure instanceof XMLStreamException) {
+                throw (XMLStreamException)failure;
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException)failure;
+            }
+            throw new XMLStreamException(failure);
+        }
+        switch (current.eventType) {
+            case START_ELEMENT:
+                pushScope();
+                break;
+            case END_ELEMENT:
+                // the element's namespaces are still in scope for its end element...
+                popScopePending = true;
+                break;
+            case END_DOCUMENT:
+                ended = true;
+                break;
+        }
+        return current.eventType;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !ended;
+    }
+
+    @Override
+    public int nextTag() throws XMLStreamException {
+        int eventType = next();
+        while ((eventType == CHARACTERS && isWhiteSpace()) || (eventType == CDATA && isWhiteSpace())
+                || eventType == SPACE || eventType == PROCESSING_INSTRUCTION || eventType == COMMENT) {
+            eventType = next();
+        }
+        if (eventType != START_ELEMENT && eventType != END_ELEMENT) {
+            throw new XMLStreamException("Expected start or end tag", getLocation());
+        }
+        return eventType;
+    }
+
+    @Override
+    public String getElementText() throws XMLStreamException {
+        if (getEventType() != START_ELEMENT) {
+            throw new XMLStreamException("Current event is not a start element", getLocation());
+        }
+        StringBuilder builder = new StringBuilder();
+        int eventType = next();
+        while (eventType != END_ELEMENT) {
+            switch (eventType) {
+                case CHARACTERS:
+                case CDATA:
+                case SPACE:
+                case ENTITY_REFERENCE:
+                    builder.append(getText());
+                    break;
+                case PROCESSING_INSTRUCTION:
+                case COMMENT:
+                    break;
+                case END_DOCUMENT:
+                    throw new XMLStreamException("Unexpected end of document reading element text", getLocation());
+                default:
+                    throw new XMLStreamException("Element text contains a start element", getLocation());
+            }
+            eventType = next();
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public void require(int type, String namespaceURI, String localName) throws XMLStreamException {
+        if (type != getEventType()
+                || (namespaceURI != null && !namespaceURI.equals(getNamespaceURI()))
+                || (localName != null && !localName.equals(getLocalName()))) {
+            throw new XMLStreamException("Required event type " + type + " does not match the current event", getLocation());
+        }
+    }
+
+    /**
+     * Closes the reader - stopping the reader thread (which closes the underlying reader)
+     *
+     * <p>If the reader thread does not stop (e.g. it is blocked reading the input) it is interrupted - and if
+     * it still does not stop, it is abandoned (it stops, and closes the underlying reader, once the read
+     * returns) so that closing never hangs.</p>
+     */
+    @Override
+    public void close() {
+        ended = true;
+        ring.close();
+        readerTask.stop(STOP_GRACE_MILLIS);
+    }
+
+    @Override
+    public int getEventType() {
+        return (current != null ? current.eventType : START_DOCUMENT);
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Event type methods">
+    @Override
+    public boolean isStartElement() {
+        return getEventType() == START_ELEMENT;
+    }
+
+    @Override
+    public boolean isEndElement() {
+        return getEventType() == END_ELEMENT;
+    }
+
+    @Override
+    public boolean isCharacters() {
+        return getEventType() == CHARACTERS;
+    }
+
+    @Override
+    public boolean isWhiteSpace() {
+        return current != null && current.whiteSpace;
+    }
+
+    @Override
+    public boolean hasText() {
+        switch (getEventType()) {
+            case CHARACTERS:
+            case CDATA:
+            case SPACE:
+            case COMMENT:
+            case DTD:
+            case ENTITY_REFERENCE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public boolean hasName() {
+        int eventType = getEventType();
+        return eventType == START_ELEMENT || eventType == END_ELEMENT;
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Name methods">
+    @Override
+    public QName getName() {
+        checkName();
+        return new QName(current.namespaceURI != null ? current.namespaceURI : XMLConstants.NULL_NS_URI,
+                current.localName, current.prefix != null ? current.prefix : XMLConstants.DEFAULT_NS_PREFIX);
+    }
+
+    @Override
+    public String getLocalName() {
+        if (getEventType() != ENTITY_REFERENCE) {
+            checkName();
+        }
+        return current.localName;
+    }
+
+    @Override
+    public String getNamespaceURI() {
+        return (hasName() ? current.namespaceURI : null);
+    }
+
+    @Override
+    public String getPrefix() {
+        return (hasName() ? current.prefix : null);
+    }
+
+    private void checkName() {
+        if (!hasName()) {
+            throw new IllegalStateException("Current event is not a start or end element");
+        }
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Attribute methods">
+    @Override
+    public int getAttributeCount() {
+        checkStartElement();
+        return current.attributeCount;
+    }
+
+    @Override
+    public String getAttributeValue(String namespaceURI, String localName) {
+        checkStartElement();
+        for (int i = 0; i < current.attributeCount; i++) {
+            if (current.attributeLocalNames[i].equals(localName)
+                    && (namespaceURI == null || namespaceURI.equals(emptyIfNull(current.attributeNamespaces[i])))) {
+                return current.attributeValues[i];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public QName getAttributeName(int index) {
+        checkAttribute(index);
+        return new QName(emptyIfNull(current.attributeNamespaces[index]), current.attributeLocalNames[index],
+                emptyIfNull(current.attributePrefixes[index]));
+    }
+
+    @Override
+    public String getAttributeNamespace(int index) {
+        checkAttribute(index);
+        return current.attributeNamespaces[index];
+    }
+
+    @Override
+    public String getAttributeLocalName(int index) {
+        checkAttribute(index);
+        return current.attributeLocalNames[index];
+    }
+
+    @Override
+    public String getAttributePrefix(int index) {
+        checkAttribute(index);
+        return current.attributePrefixes[index];
+    }
+
+    @Override
+    public String getAttributeType(int index) {
+        checkAttribute(index);
+        return current.attributeTypes[index];
+    }
+
+    @Override
+    public String getAttributeValue(int index) {
+        checkAttribute(index);
+        return current.attributeValues[index];
+    }
+
+    @Override
+    public boolean isAttributeSpecified(int index) {
+        checkAttribute(index);
+        return current.attributeSpecified[index];
+    }
+
+    private void checkStartElement() {
+        if (getEventType() != START_ELEMENT) {
+            throw new IllegalStateException("Current event is not a start element");
+        }
+    }
+
+    private void checkAttribute(int index) {
+        checkStartElement();
+        if (index < 0 || index >= current.attributeCount) {
+            throw new IndexOutOfBoundsException("Attribute index " + index + " out of bounds");
+        }
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Namespace methods">
+    @Override
+    public int getNamespaceCount() {
+        if (!hasName()) {
+            throw new IllegalStateException("Current event is not a start or end element");
+        }
+        return current.namespaceCount;
+    }
+
+    @Override
+    public String getNamespacePrefix(int index) {
+        checkNamespace(index);
+        return current.namespacePrefixes[index];
+    }
+
+    @Override
+    public String getNamespaceURI(int index) {
+        checkNamespace(index);
+        return current.namespaceURIs[index];
+    }
+
+    @Override
+    public String getNamespaceURI(String prefix) {
+        if (prefix == null) {
+            throw new IllegalArgumentException("Prefix may not be null");
+        }
+        return resolvePrefix(prefix);
+    }
+
+    @Override
+    public NamespaceContext getNamespaceContext() {
+        return namespaceContext;
+    }
+
+    private void checkNamespace(int index) {
+        if (index < 0 || index >= getNamespaceCount()) {
+            throw new IndexOutOfBoundsException("Namespace index " + index + " out of bounds");
+        }
+    }
+
+    private void pushScope() {
+        if (scopeDepth == scopeStarts.length) {
+            scopeStarts = Arrays.copyOf(scopeStarts, scopeDepth << 1);
+        }
+        scopeStarts[scopeDepth++] = scopeCount;
+        int count = current.namespaceCount;
+        if (scopeCount + count > scopePrefixes.length) {
+            int newLength = Math.max(scopePrefixes.length << 1, scopeCount + count);
+            scopePrefixes = Arrays.copyOf(scopePrefixes, newLength);
+            scopeURIs = Arrays.copyOf(scopeURIs, newLength);
+        }
+        for (int i = 0; i < count; i++) {
+            scopePrefixes[scopeCount] = emptyIfNull(current.namespacePrefixes[i]);
+            scopeURIs[scopeCount++] = emptyIfNull(current.namespaceURIs[i]);
+        }
+    }
+
+    private String resolvePrefix(String prefix) {
+        if (prefix.equals(XMLConstants.XML_NS_PREFIX)) {
+            return XMLConstants.XML_NS_URI;
+        } else if (prefix.equals(XMLConstants.XMLNS_ATTRIBUTE)) {
+            return XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+        }
+        for (int i = scopeCount - 1; i >= 0; i--) {
+            if (scopePrefixes[i].equals(prefix)) {
+                String uri = scopeURIs[i];
+                return (uri.isEmpty() ? null : uri);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The namespace context of the in-scope namespace declarations (of the reader's current event)
+     */
+    private final class ScopeNamespaceContext implements NamespaceContext {
+        @Override
+        public String getNamespaceURI(String prefix) {
+            if (prefix == null) {
+                throw new IllegalArgumentException("Prefix may not be null");
+            }
+            String result = resolvePrefix(prefix);
+            return (result != null ? result : XMLConstants.NULL_NS_URI);
+        }
+
+        @Override
+        public String getPrefix(String namespaceURI) {
+            Iterator<String> prefixes = getPrefixes(namespaceURI);
+            return (prefixes.hasNext() ? prefixes.next() : null);
+        }
+
+        @Override
+        public Iterator<String> getPrefixes(String namespaceURI) {
+            if (namespaceURI == null) {
+                throw new IllegalArgumentException("Namespace URI may not be null");
+            } else if (namespaceURI.equals(XMLConstants.XML_NS_URI)) {
+                return Collections.singletonList(XMLConstants.XML_NS_PREFIX).iterator();
+            } else if (namespaceURI.equals(XMLConstants.XMLNS_ATTRIBUTE_NS_URI)) {
+                return Collections.singletonList(XMLConstants.XMLNS_ATTRIBUTE).iterator();
+            }
+            List<String> result = new ArrayList<>();
+            for (int i = scopeCount - 1; i >= 0; i--) {
+                String prefix = scopePrefixes[i];
+                // (only where the prefix is not re-bound by a closer declaration)...
+                if (scopeURIs[i].equals(namespaceURI) && !result.contains(prefix) && namespaceURI.equals(resolvePrefix(prefix))) {
+                    result.add(prefix);
+                }
+            }
+            return result.iterator();
+        }
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Text methods">
+    @Override
+    public String getText() {
+        if (!hasText()) {
+            throw new IllegalStateException("Current event has no text");
+        }
+        return (current.text != null ? new String(current.text, 0, current.textLength) : null);
+    }
+
+    @Override
+    public char[] getTextCharacters() {
+        if (!hasText()) {
+            throw new IllegalStateException("Current event has no text");
+        }
+        return current.text;
+    }
+
+    @Override
+    public int getTextCharacters(int sourceStart, char[] target, int targetStart, int length) {
+        char[] text = getTextCharacters();
+        int count = Math.max(0, Math.min(length, current.textLength - sourceStart));
+        System.arraycopy(text, sourceStart, target, targetStart, count);
+        return count;
+    }
+
+    @Override
+    public int getTextStart() {
+        return 0;
+    }
+
+    @Override
+    public int getTextLength() {
+        return (hasText() ? current.textLength : 0);
+    }
+
+    @Override
+    public String getPITarget() {
+        return (getEventType() == PROCESSING_INSTRUCTION ? current.piTarget : null);
+    }
+
+    @Override
+    public String getPIData() {
+        return (getEventType() == PROCESSING_INSTRUCTION ? current.piData : null);
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Document methods">
+    @Override
+    public String getEncoding() {
+        return encoding;
+    }
+
+    @Override
+    public String getVersion() {
+        return version;
+    }
+
+    @Override
+    public boolean isStandalone() {
+        return standalone;
+    }
+
+    @Override
+    public boolean standaloneSet() {
+        return standaloneSet;
+    }
+
+    @Override
+    public String getCharacterEncodingScheme() {
+        return characterEncodingScheme;
+    }
+
+    @Override
+    public Location getLocation() {
+        return (current != null && current.location != null ? current.location : startLocation);
+    }
+
+    /**
+     * Not supported - the underlying reader belongs to the reader thread
+     *
+     * @param name the name of the property
+     * @return null
+     */
+    @Override
+    public Object getProperty(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("Property name may not be null");
+        }
+        return null;
+    }
+    // </editor-fold>
+
+    private static String emptyIfNull(String value) {
+        return (value != null ? value : "");
+    }
+
+    /**
+     * A copy of a location (as locations of the underlying reader may change as it reads on)
+     */
+    private static final class FixedLocation implements Location {
+        private final int lineNumber;
+        private final int columnNumber;
+        private final int characterOffset;
+        private final String publicId;
+        private final String systemId;
+
+        private FixedLocation(Location location) {
+            lineNumber = (location != null ? location.getLineNumber() : -1);
+            columnNumber = (location != null ? location.getColumnNumber() : -1);
+            characterOffset = (location != null ? location.getCharacterOffset() : -1);
+            publicId = (location != null ? location.getPublicId() : null);
+            systemId = (location != null ? location.getSystemId() : null);
+        }
+
+        @Override
+        public int getLineNumber() {
+            return lineNumber;
+        }
+
+        @Override
+        public int getColumnNumber() {
+            return columnNumber;
+        }
+
+        @Override
+        public int getCharacterOffset() {
+            return characterOffset;
+        }
+
+        @Override
+        public String getPublicId() {
+            return publicId;
+        }
+
+        @Override
+        public String getSystemId() {
+            return systemId;
+        }
+    }
+
+    /**
+     * A (re-used) slot holding a copy of an event
+     */
+    private static final class EventSlot {
+        int eventType;
+        Exception failure;
+        Location location;
+        // names (start/end elements and entity references)...
+        String prefix;
+        String localName;
+        String namespaceURI;
+        // attributes...
+        int attributeCount;
+        String[] attributePrefixes = new String[8];
+        String[] attributeNamespaces = new String[8];
+        String[] attributeLocalNames = new String[8];
+        String[] attributeValues = new String[8];
+        String[] attributeTypes = new String[8];
+        boolean[] attributeSpecified = new boolean[8];
+        // namespaces...
+        int namespaceCount;
+        String[] namespacePrefixes = new String[4];
+        String[] namespaceURIs = new String[4];
+        // text (null where the event has none)...
+        char[] text;
+        char[] textBuffer = new char[256];
+        int textLength;
+        boolean whiteSpace;
+        // processing instructions...
+        String piTarget;
+        String piData;
+
+        void read(XMLStreamReader reader, int eventType) throws XMLStreamException {
+            this.eventType = eventType;
+            failure = null;
+            location = new FixedLocation(reader.getLocation());
+            attributeCount = 0;
+            namespaceCount = 0;
+            text = null;
+            textLength = 0;
+            whiteSpace = false;
+            switch (eventType) {
+                case XMLStreamConstants.START_ELEMENT:
+                    readName(reader);
+                    readAttributes(reader);
+                    readNamespaces(reader);
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    readName(reader);
+                    readNamespaces(reader);
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                case XMLStreamConstants.COMMENT:
+                    whiteSpace = reader.isWhiteSpace();
+                    int length = reader.getTextLength();
+                    if (length > textBuffer.length) {
+                        textBuffer = new char[Math.max(length, textBuffer.length << 1)];
+                    }
+                    System.arraycopy(reader.getTextCharacters(), reader.getTextStart(), textBuffer, 0, length);
+                    text = textBuffer;
+                    textLength = length;
+                    break;
+                case XMLStreamConstants.ENTITY_REFERENCE:
+                case XMLStreamConstants.DTD:
+                    if (eventType == XMLStreamConstants.ENTITY_REFERENCE) {
+                        localName = reader.getLocalName();
+                    }
+                    String entityText = reader.getText();
+                    if (entityText != null) {
+                        text = entityText.toCharArray();
+                        textLength = text.length;
+                    }
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    piTarget = reader.getPITarget();
+                    piData = reader.getPIData();
+                    break;
+            }
+        }
+
+        private void readName(XMLStreamReader reader) {
+            prefix = reader.getPrefix();
+            localName = reader.getLocalName();
+            namespaceURI = reader.getNamespaceURI();
+        }
+
+        private void readAttributes(XMLStreamReader reader) {
+            int count = reader.getAttributeCount();
+            if (count > attributeValues.length) {
+                int newLength = Math.max(count, attributeValues.length << 1);
+                attributePrefixes = Arrays.copyOf(attributePrefixes, newLength);
+                attributeNamespaces = Arrays.copyOf(attributeNamespaces, newLength);
+                attributeLocalNames = Arrays.copyOf(attributeLocalNames, newLength);
+                attributeValues = Arrays.copyOf(attributeValues, newLength);
+                attributeTypes = Arrays.copyOf(attributeTypes, newLength);
+                attributeSpecified = Arrays.copyOf(attributeSpecified, newLength);
+            }
+            for (int i = 0; i < count; i++) {
+                attributePrefixes[i] = reader.getAttributePrefix(i);
+                attributeNamespaces[i] = reader.getAttributeNamespace(i);
+                attributeLocalNames[i] = reader.getAttributeLocalName(i);
+                attributeValues[i] = reader.getAttributeValue(i);
+                attributeTypes[i] = reader.getAttributeType(i);
+                attributeSpecified[i] = reader.isAttributeSpecified(i);
+            }
+            attributeCount = count;
+        }
+
+        private void readNamespaces(XMLStreamReader reader) {
+            int count = reader.getNamespaceCount();
+            if (count > namespaceURIs.length) {
+                int newLength = Math.max(count, namespaceURIs.length << 1);
+                namespacePrefixes = Arrays.copyOf(namespacePrefixes, newLength);
+                namespaceURIs = Arrays.copyOf(namespaceURIs, newLength);
+            }
+            for (int i = 0; i < count; i++) {
+                namespacePrefixes[i] = reader.getNamespacePrefix(i);
+                namespaceURIs[i] = reader.getNamespaceURI(i);
+            }
+            namespaceCount = count;
+        }
+
+        void fail(Exception ex) {
+            eventType = -1;
+            failure = ex;
+        }
+    }
+}
@@ -0,0 +1,556 @@
+package com.adpetions.optimus;
+
+import com.adpetions.optimus.exceptions.TransformException;
+import com.adpetions.optimus.namespaces.TransformNamespaceContext;
+import com.adpetions.optimus.nodes.WriterNode;
+import com.adpetions.optimus.writers.TransformXMLStreamWriter;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+import java.io.Reader;
+
+/**
+ * A writer for pipelined transforms (see Transformer.setPipelined()) - the write operations are put into a ring
+ * of pre-allocated operation slots (see PipelineRing) that a writer thread then performs on the underlying writer
+ *
+ * <p>So that serialization (escaping, encoding and output) overlaps with the transforming thread running
+ * handlers.  The transforming thread waits when the ring is full.</p>
+ *
+ * <p>Because the operations are performed later, a failure of the underlying writer (e.g. writing an attribute
+ * when no start element is open) is reported by a subsequent write operation (or when the transform finishes)
+ * - rather than by the operation that caused it.  Operations that need the state of the underlying writer
+ * (e.g. getPrefix(), writeFragment()) first wait for all the preceding operations to be performed.</p>
+ */
+final class PipelinedWriter implements TransformXMLStreamWriter {
+    static final int DEFAULT_CAPACITY = 1024;
+
+    private static final int OP_START_ELEMENT_LOCAL = 0;
+    private static final int OP_START_ELEMENT_NS = 1;
+    private static final int OP_START_ELEMENT_PREFIXED = 2;
+    private static final int OP_START_ELEMENT_QNAME = 3;
+    private static final int OP_EMPTY_ELEMENT_LOCAL = 4;
+    private static final int OP_EMPTY_ELEMENT_NS = 5;
+    private static final int OP_EMPTY_ELEMENT_PREFIXED = 6;
+    private static final int OP_EMPTY_ELEMENT_QNAME = 7;
+    private static final int OP_END_ELEMENT = 8;
+    private static final int OP_END_DOCUMENT = 9;
+    private static final int OP_ATTRIBUTE_LOCAL = 10;
+    private static final int OP_ATTRIBUTE_PREFIXED = 11;
+    private static final int OP_ATTRIBUTE_NS = 12;
+    private static final int OP_ATTRIBUTE_QNAME = 13;
+    private static final int OP_NAMESPACE = 14;
+    private static final int OP_DEFAULT_NAMESPACE = 15;
+    private static final int OP_COMMENT = 16;
+    private static final int OP_PROCESSING_INSTRUCTION = 17;
+    private static final int OP_PROCESSING_INSTRUCTION_DATA = 18;
+    private static final int OP_CDATA = 19;
+    private static final int OP_DTD = 20;
+    private static final int OP_ENTITY_REF = 21;
+    private static final int OP_START_DOCUMENT = 22;
+    private static final int OP_START_DOCUMENT_VERSION = 23;
+    private static final int OP_START_DOCUMENT_ENCODING = 24;
+    private static final int OP_CHARACTERS = 25;
+    private static final int OP_CHARACTERS_ARRAY = 26;
+    private static final int OP_SET_PREFIX = 27;
+    private static final int OP_SET_DEFAULT_NAMESPACE = 28;
+
+    // how long abort waits for the writer thread to stop (before interrupting it - and then abandoning it)...
+    private static final long STOP_GRACE_MILLIS = 100L;
+
+    private final TransformXMLStreamWriter delegate;
+    private final PipelineRing<OpSlot> ring;
+    private final PipelineWorker worker;
+    // the writer thread task (started by the first operation)...
+    private PipelineWorker.Task writerTask;
+    private volatile boolean aborted;
+    private volatile Throwable failure;
+
+    /**
+     * Constructs a pipelined writer
+     *
+     * @param delegate the underlying writer - only written to by the writer thread from now on (apart from
+     *                 operations that first wait for the writer thread to catch up)
+     * @param capacity the number of operation slots (a power of 2)
+     * @param worker the (transformer's) worker that runs the writer thread
+     */
+    PipelinedWriter(TransformXMLStreamWriter delegate, int capacity, PipelineWorker worker) {
+        this.delegate = delegate;
+        this.worker = worker;
+        OpSlot[] slots = new OpSlot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new OpSlot();
+        }
+        ring = new PipelineRing<>(slots);
+    }
+
+    /**
+     * Gets the underlying writer
+     *
+     * @return the underlying writer
+     */
+    TransformXMLStreamWriter getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * Performs the queued operations on the underlying writer (run on the writer thread)
+     */
+    private void drainOperations() {
+        OpSlot slot;
+        while ((slot = ring.take()) != null) {
+            if (aborted) {
+                // don't perform any more operations - just let them go...
+                ring.release();
+                continue;
+            }
+            try {
+                slot.perform(delegate);
+            } catch (Throwable ex) {
+                failure = ex;
+                ring.close();
+                ring.release();
+                return;
+            }
+            ring.release();
+        }
+    }
+
+    // <editor-fold desc="Pipeline methods">
+    /**
+     * Waits for all the queued operations to be performed and stops the writer thread
+     *
+     * @throws XMLStreamException if any operation failed
+     */
+    void finish() throws XMLStreamException {
+        ring.close();
+        if (writerTask != null) {
+            writerTask.await();
+        }
+        checkFailure();
+    }
+
+    /**
+     * Stops the writer thread without performing any more of the queued operations - ignoring any failure
+     *
+     * <p>If the writer thread does not stop (e.g. it is blocked writing output) it is interrupted - and if it
+     * still does not stop, it is abandoned so that aborting never hangs.</p>
+     */
+    void abort() {
+        aborted = true;
+        ring.close();
+        if (writerTask != null) {
+            writerTask.stop(STOP_GRACE_MILLIS);
+        }
+    }
+
+    private OpSlot claim(int op) throws XMLStreamException {
+        if (writerTask == null) {
+            writerTask = worker.start(this::drainOperations);
+        }
+        OpSlot slot = ring.claim();
+        if (slot == null) {
+            checkFailure();
+            throw new XMLStreamException("PipelinedWriter has been closed");
+        }
+        slot.op = op;
+        return slot;
+    }
+
+    private TransformXMLStreamWriter queue(int op) throws XMLStreamException {
+        claim(op);
+        ring.publish();
+        return this;
+    }
+
+    private TransformXMLStreamWriter queue(int op, Object value1) throws XMLStreamException {
+        OpSlot slot = claim(op);
+        slot.value1 = value1;
+        ring.publish();
+        return this;
+    }
+
+    private TransformXMLStreamWriter queue(int op, Object value1, String value2) throws XMLStreamException {
+        OpSlot slot = claim(op);
+        slot.value1 = value1;
+        slot.value2 = value2;
+        ring.publish();
+        return this;
+    }
+
+    private TransformXMLStreamWriter queue(int op, Object value1, String value2, String value3) throws XMLStreamException {
+        OpSlot slot = claim(op);
+        slot.value1 = value1;
+        slot.value2 = value2;
+        slot.value3 = value3;
+        ring.publish();
+        return this;
+    }
+
+    private TransformXMLStreamWriter queue(int op, Object value1, String value2, String value3, String value4) throws XMLStreamException {
+        OpSlot slot = claim(op);
+        slot.value1 = value1;
+        slot.value2 = value2;
+        slot.value3 = value3;
+        slot.value4 = value4;
+        ring.publish();
+        return this;
+    }
+
+    /**
+     * Waits for the writer thread to perform all the queued operations (so that the underlying writer can be
+     * used directly)
+     *
+     * @throws XMLStreamException if any operation failed
+     */
+    private void catchUp() throws XMLStreamException {
+        ring.awaitDrained();
+        checkFailure();
+    }
+
+    private void checkFailure() throws XMLStreamException {
+        Throwable failed = failure;
+        if (failed instanceof XMLStreamException) {
+            throw (XMLStreamException)failed;
+        } else if (failed instanceof RuntimeException) {
+            throw (RuntimeException)failed;
+        } else if (failed instanceof Error) {
+            throw (Error)failed;
+        } else if (failed != null) {
+            throw new XMLStreamException(failed);
+        }
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Queued operations">
+    @Override
+    public TransformXMLStreamWriter writeStartElement(String localName) throws XMLStreamException {
+        return queue(OP_START_ELEMENT_LOCAL, localName);
+    }
+
+    @Override
+    public TransformXMLStreamWriter writeStartElement(String namespaceURI, String localName) throws XMLStreamException {
+        return queue(OP_START_ELEMENT_NS, namespaceURI, localName);
+    }
+
+    @Override
+    public TransformXMLStreamWriter writeStartElement(String prefix, String localName, String namespaceURI) throws XMLStreamException {
+        return queue(OP_START_ELEMENT_PREFIXED, prefix, localName, namespaceURI);
+    }
+
+    @Override
+    public TransformXMLStreamWriter writeStartElement(QName qname) throws XMLStreamException {
+        return queue(OP_START_ELEMENT_QNAME, qname);
+    }
+
+    @Override
+    public TransformXMLStreamWriter writeEmptyElement(String namespaceURI, String localName) throws XMLStreamException {
+        return queue(OP_EMPTY_ELEMENT_NS, namespaceURI, localName);
+    }
+
+    @Override
+    public TransformXMLStreamWriter writeEmptyElement(String prefix, String localName, String namespaceURI) throws XMLStreamException {
+        return queue(OP_EMPTY_ELEMENT_PREFIXED, prefix, localName, namespaceURI);
+    }
+
+    @Override
+    public TransformXMLStreamWriter writeEmptyElement(QName qname) throws XMLStreamException {
+        return queue(OP_EMPTY_ELEMENT_QNAME, qname);
+    }
+
+    @Override
+    public TransformXMLStreamWriter writeEmptyElement(String localName) throws XMLStreamException {
+        return queue(OP_EMPTY_ELEMENT_LOCAL, localName);
+    }
+
+    @Override
+    public TransformXMLStreamWriter writeEndElement() throws XMLStreamException {
+        return queue(OP_END_ELEMENT);
+    }
+
+    @Override
+    public TransformXMLStreamWriter writeEndDocument() throws XMLStreamException {
+        return queue(OP_END_DOCUMENT);
+    }
+
+    @Override
+    public TransformXMLStreamWriter writeAttribute(String localName, String value) throws XMLStreamException {
+        return queue(OP_ATTRIBUTE_LOCAL, localName, value);
+    }
+
+    @Override
+    public TransformXMLStreamWriter writeAttribute(String prefix, String namespaceURI, String localName, String value) throws XMLStreamException {
+        return queue(OP_ATTRIBUTE_PREFIXED, prefix, namespaceURI, localName, value);
+    }
+
+    @Override
+    public TransformXMLStreamWriter writeAttribute(String namespaceURI, String localName, String value) throws XMLStreamException {
+        return queue(OP_ATTRIBUTE_NS, namespaceURI, localName, value);
+    }
+
+    @Override
+    public TransformXMLStreamWriter writeAttribute(QName qname, String value) throws XMLStreamException {
+        return queue(OP_ATTRIBUTE_QNAME, qname, value);
+    }
+
+    @Override
+    public TransformXMLStreamWriter writeNamespace(String prefix, String namespaceURI) throws XMLStreamException {
+        return queue(OP_NAMESPACE, prefix, namespaceURI);
+    }
+
+    @Override
+    public TransformXMLStreamWriter writeDefaultNamespace(String namespaceURI) throws XMLStreamException {
+        return queue(OP_DEFAULT_NAMESPACE, namespaceURI);
+    }
+
+    @Override
+    public TransformXMLStreamWriter writeComment(String data) throws XMLStreamException {
+        return queue(OP_COMMENT, data);
+    }
+
+    @Override
+    public TransformXMLStreamWriter writeProcessingInstruction(String target) throws XMLStreamException {
+        return queue(OP_PROCESSING_INSTRUCTION, target);
+    }
+
+    @Override
+    public TransformXMLStreamWriter writeProcessingInstruction(String target, String data) throws XMLStreamException {
+        return queue(OP_PROCESSING_INSTRUCTION_DATA, target, data);
+    }
+
+    @Override
+    public TransformXMLStreamWriter writeCData(String data) throws XMLStreamException {
+        return queue(OP_CDATA, data);
+    }
+
+    @Override
+    public TransformXMLStreamWriter writeDTD(String dtd) throws XMLStreamException {
+        return queue(OP_DTD, dtd);
+    }
+
+    @Override
+    public TransformXMLStreamWriter writeEntityRef(String name) throws XMLStreamException {
+        return queue(OP_ENTITY_REF, name);
+    }
+
+    @Override
+    public TransformXMLStreamWriter writeStartDocument() throws XMLStreamException {
+        return queue(OP_START_DOCUMENT);
+    }
+
+    @Override
+    public TransformXMLStreamWriter writeStartDocument(String version) throws XMLStreamException {
+        return queue(OP_START_DOCUMENT_VERSION, version);
+    }
+
+    @Override
+    public TransformXMLStreamWriter writeStartDocument(String encoding, String version) throws XMLStreamException {
+        return queue(OP_START_DOCUMENT_ENCODING, encoding, version);
+    }
+
+    @Override
+    public TransformXMLStreamWriter writeCharacters(String text) throws XMLStreamException {
+        return queue(OP_CHARACTERS, text);
+    }
+
+    /**
+     * Write text to the output - the characters are copied (as the array may be re-used by the caller)
+     *
+     * @param text  the value to write
+     * @param start the starting position in the array
+     * @param len   the number of characters to write
+     * @return this
+     * @throws XMLStreamException if a preceding operation failed
+     */
+    @Override
+    public TransformXMLStreamWriter writeCharacters(char[] text, int start, int len) throws XMLStreamException {
+        OpSlot slot = claim(OP_CHARACTERS_ARRAY);
+        if (len > slot.chars.length) {
+            slot.chars = new char[Math.max(len, slot.chars.length << 1)];
+        }
+        System.arraycopy(text, start, slot.chars, 0, len);
+        slot.length = len;
+        ring.publish();
+        return this;
+    }
+
+    @Override
+    public TransformXMLStreamWriter setPrefix(String prefix, String uri) throws XMLStreamException {
+        return queue(OP_SET_PREFIX, prefix, uri);
+    }
+
+    @Override
+    public TransformXMLStreamWriter setDefaultNamespace(String uri) throws XMLStreamException {
+        return queue(OP_SET_DEFAULT_NAMESPACE, uri);
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Direct operations">
+    @Override
+    public void close() throws XMLStreamException {
+        catchUp();
+        delegate.close();
+    }
+
+    @Override
+    public void flush() throws XMLStreamException {
+        catchUp();
+        delegate.flush();
+    }
+
+    @Override
+    public String getPrefix(String uri) throws XMLStreamException {
+        catchUp();
+        return delegate.getPrefix(uri);
+    }
+
+    @Override
+    public TransformXMLStreamWriter setNamespaceContext(TransformNamespaceContext context) throws XMLStreamException {
+        catchUp();
+        delegate.setNamespaceContext(context);
+        return this;
+    }
+
+    @Override
+    public TransformNamespaceContext getNamespaceContext() {
+        ring.awaitDrained();
+        return delegate.getNamespaceContext();
+    }
+
+    @Override
+    public Object getProperty(String name) throws IllegalArgumentException {
+        ring.awaitDrained();
+        return delegate.getProperty(name);
+    }
+
+    @Override
+    public TransformXMLStreamWriter writeFragment(String xmlFragment) throws XMLStreamException, TransformException {
+        catchUp();
+        delegate.writeFragment(xmlFragment);
+        return this;
+    }
+
+    @Override
+    public TransformXMLStreamWriter writeFragment(Reader reader) throws XMLStreamException, TransformException {
+        catchUp();
+        delegate.writeFragment(reader);
+        return this;
+    }
+
+    @Override
+    public TransformXMLStreamWriter write(WriterNode... nodes) throws XMLStreamException {
+        catchUp();
+        delegate.write(nodes);
+        return this;
+    }
+    // </editor-fold>
+
+    /**
+     * A (re-used) slot holding a write operation
+     */
+    private static final class OpSlot {
+        int op;
+        Object value1;
+        String value2;
+        String value3;
+        String value4;
+        char[] chars = new char[256];
+        int length;
+
+        void perform(TransformXMLStreamWriter writer) throws XMLStreamException {
+            switch (op) {
+                case OP_START_ELEMENT_LOCAL:
+                    writer.writeStartElement((String)value1);
+                    break;
+                case OP_START_ELEMENT_NS:
+                    writer.writeStartElement((String)value1, value2);
+                    break;
+                case OP_START_ELEMENT_PREFIXED:
+                    writer.writeStartElement((String)value1, value2, value3);
+                    break;
+                case OP_START_ELEMENT_QNAME:
+                    writer.writeStartElement((QName)value1);
+                    break;
+                case OP_EMPTY_ELEMENT_LOCAL:
+                    writer.writeEmptyElement((String)value1);
+                    break;
+                case OP_EMPTY_ELEMENT_NS:
+                    writer.writeEmptyElement((String)value1, value2);
+                    break;
+                case OP_EMPTY_ELEMENT_PREFIXED:
+                    writer.writeEmptyElement((String)value1, value2, value3);
+                    break;
+                case OP_EMPTY_ELEMENT_QNAME:
+                    writer.writeEmptyElement((QName)value1);
+                    break;
+                case OP_END_ELEMENT:
+                    writer.writeEndElement();
+                    break;
+                case OP_END_DOCUMENT:
+                    writer.writeEndDocument();
+                    break;
+                case OP_ATTRIBUTE_LOCAL:
+                    writer.writeAttribute((String)value1, value2);
+                    break;
+                case OP_ATTRIBUTE_PREFIXED:
+                    writer.writeAttribute((String)value1, value2, value3, value4);
+                    break;
+                case OP_ATTRIBUTE_NS:
+                    writer.writeAttribute((String)value1, value2, value3);
+                    break;
+                case OP_ATTRIBUTE_QNAME:
+                    writer.writeAttribute((QName)value1, value2);
+                    break;
+                case OP_NAMESPACE:
+                    writer.writeNamespace((String)value1, value2);
+                    break;
+                case OP_DEFAULT_NAMESPACE:
+                    writer.writeDefaultNamespace((String)value1);
+                    break;
+                case OP_COMMENT:
+                    writer.writeComment((String)value1);
+                    break;
+                case OP_PROCESSING_INSTRUCTION:
+                    writer.writeProcessingInstruction((String)value1);
+                    break;
+                case OP_PROCESSING_INSTRUCTION_DATA:
+                    writer.writeProcessingInstruction((String)value1, value2);
+                    break;
+                case OP_CDATA:
+                    writer.writeCData((String)value1);
+                    break;
+                case OP_DTD:
+                    writer.writeDTD((String)value1);
+                    break;
+                case OP_ENTITY_REF:
+                    writer.writeEntityRef((String)value1);
+                    break;
+                case OP_START_DOCUMENT:
+                    writer.writeStartDocument();
+                    break;
+                case OP_START_DOCUMENT_VERSION:
+                    writer.writeStartDocument((String)value1);
+                    break;
+                case OP_START_DOCUMENT_ENCODING:
+                    writer.writeStartDocument((String)value1, value2);
+                    break;
+                case OP_CHARACTERS:
+                    writer.writeCharacters((String)value1);
+                    break;
+                case OP_CHARACTERS_ARRAY:
+                    writer.writeCharacters(chars, 0, length);
+                    break;
+                case OP_SET_PREFIX:
+                    writer.setPrefix((String)value1, value2);
+                    break;
+                case OP_SET_DEFAULT_NAMESPACE:
+                    writer.setDefaultNamespace((String)value1);
+                    break;
+            }
+            // don't hold on to the values (until the slot is re-used)...
+            value1 = null;
+            value2 = null;
+            value3 = null;
+            value4 = null;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.adpetions.optimus;
+
+import javax.xml.namespace.QName;
+
+/**
+ * A per-transform symbol table of interned QNames (for element, attribute and path names)
+ *
+ * <p>Names are looked up by the (namespace URI, local name, prefix) strings as given by the parser - so that
+ * the same name read repeatedly is always the same QName instance (with no allocation once seen) and comparing
+ * names is, mostly, a reference comparison.  Path names that are 'marked' (e.g. attribute path names which are
+ * the local name prefixed with '@') are interned separately from the plain names.</p>
+ *
+ * <p>The table is bounded - once full, names not already in the table are simply created (and not interned).</p>
+ */
+final class QNameTable {
+    /**
+     * The path name for the document
+     */
+    static final QName DOCUMENT = new QName("/");
+    /**
+     * The path name for text nodes
+     */
+    static final QName TEXT = new QName("#text()");
+    /**
+     * The path name for comment nodes
+     */
+    static final QName COMMENT = new QName("!comment()");
+
+    static final char PLAIN = 0;
+    static final char ATTRIBUTE_MARKER = '@';
+    static final char PROCESSING_INSTRUCTION_MARKER = '?';
+
+    private static final int MAX_ENTRIES = 8192;
+
+    private static final class Entry {
+        final String namespaceURI;
+        final String localName;
+        final String prefix;
+        final char marker;
+        final QName qname;
+
+        Entry(String namespaceURI, String localName, String prefix, char marker, QName qname) {
+            this.namespaceURI = namespaceURI;
+            this.localName = localName;
+            this.prefix = prefix;
+            this.marker = marker;
+            this.qname = qname;
+        }
+    }
+
+    private Entry[] entries = new Entry[64];
+    private int size;
+
+    /**
+     * Get the interned QName for a name
+     *
+     * @param namespaceURI the namespace URI (may be null)
+     * @param localName the local name
+     * @param prefix the prefix (may be null)
+     * @return the QName
+     */
+    QName get(String namespaceURI, String localName, String prefix) {
+        return get(namespaceURI, localName, prefix, PLAIN);
+    }
+
+    /**
+     * Get the interned QName for a (possibly marked) name
+     *
+     * @param namespaceURI the namespace URI (may be null)
+     * @param localName the local name
+     * @param prefix the prefix (may be null)
+     * @param marker the marker prepended to the local name (or PLAIN for no marker)
+     * @return the QName
+     */
+    QName get(String namespaceURI, String localName, String prefix, char marker) {
+        if (namespaceURI == null) {
+            namespaceURI = "";
+        }
+        if (prefix == null) {
+            prefix = "";
+        }
+        int hash = (namespaceURI.hashCode() * 31 + localName.hashCode()) * 31 + prefix.hashCode() + marker;
+        hash ^= (hash >>> 16);
+        int mask = entries.length - 1;
+        int slot = hash & mask;
+        Entry entry;
+        while ((entry = entries[slot]) != null) {
+            if (entry.marker == marker && same(entry.localName, localName)
+                    && same(entry.namespaceURI, namespaceURI) && same(entry.prefix, prefix)) {
+                return entry.qname;
+            }
+            slot = (slot + 1) & mask;
+        }
+        QName result = new QName(namespaceURI, (marker == PLAIN ? localName : marker + localName), prefix);
+        if (size < MAX_ENTRIES) {
+            entries[slot] = new Entry(namespaceURI, localName, prefix, marker, result);
+            if (++size > (entries.length >> 1)) {
+                grow();
+            }
+        }
+        return result;
+    }
+
+    private static boolean same(String str1, String str2) {
+        // parsers mostly give interned names - so the reference check is usually enough...
+        return str1 == str2 || str1.equals(str2);
+    }
+
+    private void grow() {
+        Entry[] oldEntries = entries;
+        entries = new Entry[oldEntries.length << 1];
+        int mask = entries.length - 1;
+        for (Entry entry : oldEntries) {
+            if (entry != null) {
+                int hash = (entry.namespaceURI.hashCode() * 31 + entry.localName.hashCode()) * 31 + entry.prefix.hashCode() + entry.marker;
+                hash ^= (hash >>> 16);
+                int slot = hash & mask;
+                while (entries[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                entries[slot] = entry;
+            }
+        }
+    }
+}
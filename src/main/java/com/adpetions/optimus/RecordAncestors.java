@@ -0,0 +1,48 @@
+package com.adpetions.optimus;
+
+import javax.xml.namespace.QName;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A snapshot of the ancestors of a record element that has been split out of a document (see ParallelTransformer)
+ *
+ * <p>The record is transformed on its own by another transformer - whose transform context is seeded with
+ * these ancestors (see TransformContext.pushAncestors()) so that the record's handlers see the same path,
+ * positions, path attributes and default namespaces as they would have when transforming the whole document.</p>
+ */
+final class RecordAncestors {
+    // the ancestor elements (outermost first)...
+    final QName[] names;
+    final int[] positions;
+    // the path attributes of each ancestor (null when path attributes are not tracked)...
+    final List<Map<QName, String>> attributes;
+    // the default namespace declared by each ancestor (null where the ancestor did not declare one)...
+    final String[] defaultNamespaces;
+    // whether the ancestors were being skipped (descendants skipped) when the record started...
+    final boolean skipping;
+    // the record element name and its position amongst its same named siblings...
+    final QName recordName;
+    final int recordPosition;
+    // the namespace bindings (prefixes and URIs) in scope at the record's parent...
+    final String[] namespacePrefixes;
+    final String[] namespaceURIs;
+
+    RecordAncestors(QName[] names, int[] positions, List<Map<QName, String>> attributes, String[] defaultNamespaces,
+                    boolean skipping, QName recordName, int recordPosition,
+                    String[] namespacePrefixes, String[] namespaceURIs) {
+        this.names = names;
+        this.positions = positions;
+        this.attributes = attributes;
+        this.defaultNamespaces = defaultNamespaces;
+        this.skipping = skipping;
+        this.recordName = recordName;
+        this.recordPosition = recordPosition;
+        this.namespacePrefixes = namespacePrefixes;
+        this.namespaceURIs = namespaceURIs;
+    }
+
+    int depth() {
+        return names.length;
+    }
+}
@@ -0,0 +1,406 @@
+package com.adpetions.optimus;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A byte level scanner that finds the record elements (see ParallelTransformer) in UTF-8 encoded XML - without
+ * parsing the XML
+ *
+ * <p>The scanner only looks at markup - it steps over comments, CDATA sections and processing instructions
+ * (so that a '&lt;' within them is not taken as a tag) and over quoted attribute values (so that a '&gt;'
+ * within them is not taken as the end of a tag).  Only the start tags of elements at or above the depth of the
+ * records are looked at more closely (for their names and namespace declarations - so that the record path is
+ * matched by namespace); within the records, and below other elements at the depth of the records, the scanner
+ * only counts tags.</p>
+ *
+ * <p>The scanner does not check that the XML is well-formed - if it is not, the scanner may stop short (in which
+ * case the rest of the XML is not seen as records).  Documents that are not UTF-8 (or ASCII) encoded, or that
+ * have a document type declaration (whose entities the records might use), cannot be scanned.</p>
+ */
+final class RecordScanner {
+    private final ByteBuffer buffer;
+    private final int limit;
+    private final QName[] recordSteps;
+    private final boolean scannable;
+    private int pos;
+    private int depth;
+    // whether the current element at each depth (above and at the records) matches the record path so far...
+    private final boolean[] matching;
+    // the namespaces declared by the current element at each depth (above and at the records)...
+    private final String[][] declaredPrefixes;
+    private final String[][] declaredURIs;
+    private byte[] nameBytes = new byte[64];
+
+    // the last record found (offsets within the buffer)...
+    int recordStart;
+    int recordNameEnd;
+    int recordTagClose;
+    int recordEnd;
+
+    /**
+     * Constructs a scanner for the remaining bytes of the buffer
+     *
+     * @param buffer the XML bytes (the position and limit of the buffer are not changed)
+     * @param recordSteps the record path steps (null steps matching any element)
+     */
+    RecordScanner(ByteBuffer buffer, QName[] recordSteps) {
+        this.buffer = buffer;
+        this.limit = buffer.limit();
+        this.recordSteps = recordSteps;
+        this.pos = buffer.position();
+        matching = new boolean[recordSteps.length + 1];
+        matching[0] = true;
+        declaredPrefixes = new String[recordSteps.length + 1][];
+        declaredURIs = new String[recordSteps.length + 1][];
+        scannable = scanProlog();
+    }
+
+    /**
+     * Get whether the XML can be scanned (it is UTF-8 encoded and has no document type declaration)
+     * @return whether the XML can be scanned
+     */
+    boolean isScannable() {
+        return scannable;
+    }
+
+    /**
+     * Finds the next record
+     *
+     * @return whether a record was found (and its offsets are set)
+     */
+    boolean next() {
+        if (!scannable) {
+            return false;
+        }
+        int recordDepth = recordSteps.length;
+        boolean inRecord = false;
+        while ((pos = indexOf((byte)'<', pos)) >= 0) {
+            int tagStart = pos;
+            byte next = byteAt(pos + 1);
+            if (next == '/') {
+                if ((pos = indexOf((byte)'>', pos)) < 0) {
+                    break;
+                }
+                pos++;
+                if (--depth == recordDepth - 1 && inRecord) {
+                    recordEnd = pos;
+                    return true;
+                }
+            } else if (next == '!' || next == '?') {
+                if (!skipSpecial()) {
+                    break;
+                }
+            } else {
+                int tagClose = indexOfTagClose(pos);
+                if (tagClose < 0) {
+                    break;
+                }
+                boolean empty = (byteAt(tagClose - 1) == '/');
+                pos = tagClose + 1;
+                int elementDepth = depth + 1;
+                if (!inRecord && elementDepth <= recordDepth && startElement(tagStart, tagClose, elementDepth)
+                        && elementDepth == recordDepth) {
+                    recordStart = tagStart;
+                    recordNameEnd = nameEnd(tagStart + 1);
+                    if (empty) {
+                        recordTagClose = tagClose - 1;
+                        recordEnd = pos;
+                        return true;
+                    }
+                    recordTagClose = tagClose;
+                    inRecord = true;
+                }
+                if (!empty) {
+                    depth = elementDepth;
+                }
+            }
+        }
+        // nothing more can be scanned...
+        pos = limit;
+        return false;
+    }
+
+    // <editor-fold desc="Prolog">
+    private boolean scanProlog() {
+        if (pos + 3 <= limit && byteAt(pos) == (byte)0xEF && byteAt(pos + 1) == (byte)0xBB && byteAt(pos + 2) == (byte)0xBF) {
+            pos += 3;
+        }
+        if (startsWith("<?xml", pos) && isWhitespace(byteAt(pos + 5))) {
+            int declarationEnd = indexOf("?>", pos);
+            if (declarationEnd < 0) {
+                return false;
+            }
+            String declaration = decode(pos, declarationEnd);
+            int encodingAt = declaration.indexOf("encoding");
+            if (encodingAt >= 0) {
+                int quote = encodingAt + 8;
+                while (quote < declaration.length() && declaration.charAt(quote) != '"' && declaration.charAt(quote) != '\'') {
+                    quote++;
+                }
+                int quoteEnd = (quote < declaration.length() ? declaration.indexOf(declaration.charAt(quote), quote + 1) : -1);
+                if (quoteEnd < 0) {
+                    return false;
+                }
+                String encoding = declaration.substring(quote + 1, quoteEnd);
+                if (!encoding.equalsIgnoreCase("UTF-8") && !encoding.equalsIgnoreCase("UTF8")
+                        && !encoding.equalsIgnoreCase("US-ASCII") && !encoding.equalsIgnoreCase("ASCII")) {
+                    return false;
+                }
+            }
+            pos = declarationEnd + 2;
+        }
+        // comments, processing instructions and whitespace up to the root element...
+        while (pos < limit) {
+            byte b = byteAt(pos);
+            if (isWhitespace(b)) {
+                pos++;
+            } else if (b != '<') {
+                // not UTF-8 (or not XML)...
+                return false;
+            } else if (startsWith("<!--", pos) || startsWith("<?", pos)) {
+                if (!skipSpecial()) {
+                    return false;
+                }
+            } else {
+                // a document type declaration cannot be scanned...
+                return byteAt(pos + 1) != '!';
+            }
+        }
+        return false;
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Markup">
+    /**
+     * Skips a comment, CDATA section, processing instruction or declaration (at pos)
+     *
+     * @return whether its end was found
+     */
+    private boolean skipSpecial() {
+        int end;
+        if (startsWith("<!--", pos)) {
+            end = indexOf("-->", pos + 4);
+            pos = (end < 0 ? -1 : end + 3);
+        } else if (startsWith("<![CDATA[", pos)) {
+            end = indexOf("]]>", pos + 9);
+            pos = (end < 0 ? -1 : end + 3);
+        } else if (byteAt(pos + 1) == '?') {
+            end = indexOf("?>", pos + 2);
+            pos = (end < 0 ? -1 : end + 2);
+        } else {
+            pos = indexOfTagClose(pos);
+            if (pos >= 0) {
+                pos++;
+            }
+        }
+        return pos >= 0;
+    }
+
+    private int indexOfTagClose(int from) {
+        byte quote = 0;
+        for (int i = from + 1; i < limit; i++) {
+            byte b = buffer.get(i);
+            if (quote != 0) {
+                if (b == quote) {
+                    quote = 0;
+                }
+            } else if (b == '>') {
+                return i;
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Looks at the start tag of an element at or above the depth of the records - for its namespace declarations
+     * and whether it matches the record path
+     *
+     * @return whether the element matches the record path (so far)
+     */
+    private boolean startElement(int tagStart, int tagClose, int elementDepth) {
+        int nameEnd = nameEnd(tagStart + 1);
+        String name = decode(tagStart + 1, nameEnd);
+        String[] prefixes = null;
+        String[] uris = null;
+        int declared = 0;
+        int i = nameEnd;
+        while (true) {
+            while (i < tagClose && isWhitespace(byteAt(i))) {
+                i++;
+            }
+            if (i >= tagClose || byteAt(i) == '/') {
+                break;
+            }
+            int attributeNameStart = i;
+            while (i < tagClose && byteAt(i) != '=' && !isWhitespace(byteAt(i))) {
+                i++;
+            }
+            int attributeNameEnd = i;
+            while (i < tagClose && byteAt(i) != '"' && byteAt(i) != '\'') {
+                i++;
+            }
+            if (i >= tagClose) {
+                break;
+            }
+            byte quote = byteAt(i);
+            int valueStart = ++i;
+            while (i < tagClose && byteAt(i) != quote) {
+                i++;
+            }
+            if (startsWith("xmlns", attributeNameStart)
+                    && (attributeNameEnd == attributeNameStart + 5 || byteAt(attributeNameStart + 5) == ':')) {
+                if (prefixes == null) {
+                    prefixes = new String[4];
+                    uris = new String[4];
+                } else if (declared == prefixes.length) {
+                    prefixes = Arrays.copyOf(prefixes, declared << 1);
+                    uris = Arrays.copyOf(uris, declared << 1);
+                }
+                prefixes[declared] = (attributeNameEnd == attributeNameStart + 5 ? XMLConstants.DEFAULT_NS_PREFIX
+                        : decode(attributeNameStart + 6, attributeNameEnd));
+                uris[declared++] = unescape(decode(valueStart, i));
+            }
+            i++;
+        }
+        declaredPrefixes[elementDepth] = (prefixes == null ? null : Arrays.copyOf(prefixes, declared));
+        declaredURIs[elementDepth] = (uris == null ? null : Arrays.copyOf(uris, declared));
+        QName step = recordSteps[elementDepth - 1];
+        boolean matches = matching[elementDepth - 1];
+        if (matches && step != null) {
+            int colon = name.indexOf(':');
+            String prefix = (colon > 0 ? name.substring(0, colon) : XMLConstants.DEFAULT_NS_PREFIX);
+            String localName = (colon > 0 ? name.substring(colon + 1) : name);
+            matches = localName.equals(step.getLocalPart()) && step.getNamespaceURI().equals(resolve(prefix, elementDepth));
+        }
+        matching[elementDepth] = matches;
+        return matches;
+    }
+
+    private String resolve(String prefix, int elementDepth) {
+        if (prefix.equals(XMLConstants.XML_NS_PREFIX)) {
+            return XMLConstants.XML_NS_URI;
+        }
+        for (int d = elementDepth; d > 0; d--) {
+            String[] prefixes = declaredPrefixes[d];
+            if (prefixes != null) {
+                for (int i = 0; i < prefixes.length; i++) {
+                    if (prefixes[i].equals(prefix)) {
+                        return declaredURIs[d][i];
+                    }
+                }
+            }
+        }
+        return XMLConstants.NULL_NS_URI;
+    }
+
+    private int nameEnd(int from) {
+        int i = from;
+        while (i < limit) {
+            byte b = byteAt(i);
+            if (b == '>' || b == '/' || isWhitespace(b)) {
+                break;
+            }
+            i++;
+        }
+        return i;
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Byte helpers">
+    private byte byteAt(int index) {
+        return (index < limit ? buffer.get(index) : 0);
+    }
+
+    private int indexOf(byte b, int from) {
+        for (int i = from; i < limit; i++) {
+            if (buffer.get(i) == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int indexOf(String ascii, int from) {
+        byte first = (byte)ascii.charAt(0);
+        for (int i = indexOf(first, from); i >= 0; i = indexOf(first, i + 1)) {
+            if (startsWith(ascii, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean startsWith(String ascii, int at) {
+        if (at + ascii.length() > limit) {
+            return false;
+        }
+        for (int i = 0; i < ascii.length(); i++) {
+            if (buffer.get(at + i) != (byte)ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    private String decode(int from, int to) {
+        int length = to - from;
+        if (length > nameBytes.length) {
+            nameBytes = new byte[Math.max(length, nameBytes.length << 1)];
+        }
+        for (int i = 0; i < length; i++) {
+            nameBytes[i] = buffer.get(from + i);
+        }
+        return new String(nameBytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static String unescape(String value) {
+        int ampersand = value.indexOf('&');
+        if (ampersand < 0) {
+            return value;
+        }
+        StringBuilder builder = new StringBuilder(value.length());
+        int from = 0;
+        while (ampersand >= 0) {
+            int semicolon = value.indexOf(';', ampersand);
+            if (semicolon < 0) {
+                break;
+            }
+            builder.append(value, from, ampersand);
+            String entity = value.substring(ampersand + 1, semicolon);
+            switch (entity) {
+                case "amp": builder.append('&'); break;
+                case "lt": builder.append('<'); break;
+                case "gt": builder.append('>'); break;
+                case "quot": builder.append('"'); break;
+                case "apos": builder.append('\''); break;
+                default:
+                    try {
+                        if (entity.startsWith("#x")) {
+                            builder.appendCodePoint(Integer.parseInt(entity.substring(2), 16));
+                        } else if (entity.startsWith("#")) {
+                            builder.appendCodePoint(Integer.parseInt(entity.substring(1)));
+                        } else {
+                            builder.append('&').append(entity).append(';');
+                        }
+                    } catch (IllegalArgumentException ex) {
+                        // not a character reference (the parser will complain about it)...
+                        builder.append('&').append(entity).append(';');
+                    }
+            }
+            from = semicolon + 1;
+            ampersand = value.indexOf('&', from);
+        }
+        return builder.append(value, from, value.length()).toString();
+    }
+    // </editor-fold>
+}
@@ -0,0 +1,22 @@
+package com.adpetions.optimus;
+
+import com.adpetions.optimus.exceptions.TransformException;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Splits record elements out of a document being transformed - so that they can be transformed separately
+ * (see ParallelTransformer)
+ */
+interface RecordSplitter {
+    /**
+     * Called (before any handlers) for each start element - to split the element out if it is a record
+     *
+     * <p>When the element is split out, the splitter must read the reader through to the element's end element
+     * (and the element is then not handled by the transformer at all).</p>
+     *
+     * @param context the transform context (with the element pushed onto the path)
+     * @return whether the element was split out
+     */
+    boolean split(TransformContext context) throws TransformException, XMLStreamException;
+}
@@ -0,0 +1,142 @@
+package com.adpetions.optimus;
+
+import com.adpetions.optimus.io.ByteBufferInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+
+/**
+ * An input stream of the 'skeleton' of scanned UTF-8 XML (see RecordScanner) - the XML with the content of each
+ * record replaced by a placeholder processing instruction (holding the index of the record)
+ *
+ * <p>The records are found (by the scanner) only as the skeleton is read - and the found records are held
+ * until they are taken (by index) to be parsed separately (see ParallelTransformer).</p>
+ */
+final class SkeletonInputStream extends InputStream {
+    static final String PLACEHOLDER_TARGET = "optimus-record";
+    private static final byte[] PLACEHOLDER_START = ("><?" + PLACEHOLDER_TARGET + " ").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PLACEHOLDER_END = "?></".getBytes(StandardCharsets.US_ASCII);
+
+    private final ByteBuffer buffer;
+    private final ByteBuffer view;
+    private final RecordScanner scanner;
+    // the found records (not yet taken) - as index, start and end offsets...
+    private final Deque<int[]> found = new ArrayDeque<>();
+    private int recordCount;
+    // the offset of the next byte of the XML to be read (after the current chunk)...
+    private int next;
+    private boolean scanned;
+    // the current chunk being read - a range of the buffer followed by any placeholder...
+    private int chunkPos;
+    private int chunkEnd;
+    private byte[] placeholder;
+    private int placeholderPos;
+
+    SkeletonInputStream(ByteBuffer buffer, RecordScanner scanner) {
+        this.buffer = buffer;
+        this.view = buffer.duplicate();
+        this.scanner = scanner;
+        this.next = buffer.position();
+        this.chunkPos = next;
+        this.chunkEnd = next;
+    }
+
+    @Override
+    public int read() {
+        byte[] single = new byte[1];
+        return (read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] bytes) {
+        return read(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        while (true) {
+            if (chunkPos < chunkEnd) {
+                int count = Math.min(length, chunkEnd - chunkPos);
+                view.limit(chunkPos + count);
+                view.position(chunkPos);
+                view.get(bytes, offset, count);
+                chunkPos += count;
+                return count;
+            } else if (placeholder != null) {
+                int count = Math.min(length, placeholder.length - placeholderPos);
+                System.arraycopy(placeholder, placeholderPos, bytes, offset, count);
+                if ((placeholderPos += count) == placeholder.length) {
+                    placeholder = null;
+                }
+                return count;
+            } else if (!advance()) {
+                return -1;
+            }
+        }
+    }
+
+    private boolean advance() {
+        if (scanned) {
+            return false;
+        }
+        if (scanner.next()) {
+            // the XML up to the end of the record's start tag - then the placeholder (and the record's end tag)...
+            chunkPos = next;
+            chunkEnd = scanner.recordTagClose;
+            int index = recordCount++;
+            ByteArrayOutputStream builder = new ByteArrayOutputStream(64);
+            builder.write(PLACEHOLDER_START, 0, PLACEHOLDER_START.length);
+            byte[] indexBytes = String.valueOf(index).getBytes(StandardCharsets.US_ASCII);
+            builder.write(indexBytes, 0, indexBytes.length);
+            builder.write(PLACEHOLDER_END, 0, PLACEHOLDER_END.length);
+            for (int i = scanner.recordStart + 1; i < scanner.recordNameEnd; i++) {
+                builder.write(buffer.get(i));
+            }
+            builder.write('>');
+            placeholder = builder.toByteArray();
+            placeholderPos = 0;
+            found.add(new int[] {index, scanner.recordStart, scanner.recordEnd});
+            next = scanner.recordEnd;
+        } else {
+            chunkPos = next;
+            chunkEnd = buffer.limit();
+            scanned = true;
+        }
+        return true;
+    }
+
+    /**
+     * Takes a found record (records found before it that have not been taken are discarded)
+     *
+     * @param index the index of the record (as in its placeholder)
+     * @param wrapperStart the start of the element to wrap the record in
+     * @param wrapperEnd the end of the element to wrap the record in
+     * @return a stream of the (wrapped) record - or null if the record was not found
+     */
+    InputStream takeRecord(int index, byte[] wrapperStart, byte[] wrapperEnd) {
+        int[] record;
+        while ((record = found.peek()) != null && record[0] < index) {
+            found.poll();
+        }
+        if (record == null || record[0] != index) {
+            return null;
+        }
+        found.poll();
+        ByteBuffer recordView = buffer.duplicate();
+        recordView.limit(record[2]);
+        recordView.position(record[1]);
+        return new SequenceInputStream(Collections.enumeration(Arrays.asList(new ByteArrayInputStream(wrapperStart),
+                new ByteBufferInputStream(recordView), new ByteArrayInputStream(wrapperEnd))));
+    }
+}
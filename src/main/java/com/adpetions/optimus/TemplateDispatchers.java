@@ -0,0 +1,56 @@
+package com.adpetions.optimus;
+
+import com.adpetions.optimus.templating.TemplateDispatcher;
+
+/**
+ * Registry of the generated template dispatchers
+ *
+ * <p>Dispatchers are generated (by the TemplateDispatcherProcessor) in the package of their template class
+ * and are named after it (e.g. the dispatcher for {@code Outer.MyTemplate} is {@code Outer_MyTemplate_OptimusDispatcher})
+ * - so each is found by name, using the template class's own class loader.  The dispatcher found is held against
+ * the template class (in a ClassValue) - so the registry never keeps a class loader (or its classes) reachable.</p>
+ */
+final class TemplateDispatchers {
+    static final String DISPATCHER_SUFFIX = "_OptimusDispatcher";
+    private static final ClassValue<TemplateDispatcher> dispatchers = new ClassValue<TemplateDispatcher>() {
+        @Override
+        protected TemplateDispatcher computeValue(Class<?> templateClass) {
+            return load(templateClass);
+        }
+    };
+
+    private TemplateDispatchers() {
+    }
+
+    /**
+     * Get the generated dispatcher for a template class
+     *
+     * @param templateClass the template class
+     * @return the dispatcher (or null if there is no generated dispatcher for the template class)
+     */
+    static TemplateDispatcher forTemplateClass(Class<?> templateClass) {
+        return dispatchers.get(templateClass);
+    }
+
+    private static TemplateDispatcher load(Class<?> templateClass) {
+        ClassLoader loader = templateClass.getClassLoader();
+        if (loader == null) {
+            return null;
+        }
+        String templateName = templateClass.getName();
+        int packageEnd = templateName.lastIndexOf('.');
+        String dispatcherName = templateName.substring(0, packageEnd + 1)
+                + templateName.substring(packageEnd + 1).replace('$', '_') + DISPATCHER_SUFFIX;
+        try {
+            Class<?> dispatcherClass = Class.forName(dispatcherName, true, loader);
+            if (!TemplateDispatcher.class.isAssignableFrom(dispatcherClass)) {
+                return null;
+            }
+            TemplateDispatcher dispatcher = (TemplateDispatcher)dispatcherClass.getConstructor().newInstance();
+            return (dispatcher.getTemplateClass() == templateClass ? dispatcher : null);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            // no dispatcher (or one that cannot be loaded) - the template will be built using reflection...
+            return null;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.adpetions.optimus;
+
+import com.adpetions.optimus.exceptions.TransformException;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Invoker of a template method - bound once (when the template method is registered) so that
+ * calling the template method for each event does not go through reflection
+ *
+ * <p>Where the template class is accessible, the invoker is a lambda generated (by the LambdaMetafactory)
+ * to call the template method directly - otherwise the invoker calls through a method handle.</p>
+ */
+@FunctionalInterface
+interface TemplateMethodInvoker {
+    /**
+     * Invokes the template method
+     *
+     * @param template the template instance on which to invoke the method
+     * @return the continue state returned by the template method
+     * @throws Throwable any exception thrown by the template method
+     */
+    ContinueState invoke(Object template) throws Throwable;
+
+    /**
+     * Binds an invoker for a template method
+     * (the method must take no arguments and return ContinueState)
+     *
+     * @param method the template method
+     * @return the invoker
+     * @throws TransformException if the method cannot be bound
+     */
+    static TemplateMethodInvoker forMethod(Method method) throws TransformException {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        Class<?> declaringClass = method.getDeclaringClass();
+        MethodHandle methodHandle;
+        try {
+            if (!isLinkable(declaringClass) || !Modifier.isPublic(method.getModifiers())) {
+                method.setAccessible(true);
+            }
+            methodHandle = lookup.unreflect(method);
+        } catch (IllegalAccessException | RuntimeException e) {
+            throw new TransformException("Cannot access template method '" + method.getName() + "'", e);
+        }
+        if (isLinkable(declaringClass) && Modifier.isPublic(method.getModifiers())) {
+            try {
+                CallSite callSite = LambdaMetafactory.metafactory(lookup, "invoke",
+                        MethodType.methodType(TemplateMethodInvoker.class),
+                        MethodType.methodType(ContinueState.class, Object.class),
+                        methodHandle,
+                        MethodType.methodType(ContinueState.class, declaringClass));
+                return (TemplateMethodInvoker)callSite.getTarget().invoke();
+            } catch (Throwable e) {
+                // fall back to invoking through the method handle...
+            }
+        }
+        MethodHandle invoker = methodHandle.asType(MethodType.methodType(ContinueState.class, Object.class));
+        return template -> (ContinueState)invoker.invokeExact(template);
+    }
+
+    /**
+     * Determines whether a generated lambda can call directly into the class - i.e. the class
+     * (and any enclosing classes) are public and the class is visible from this class loader
+     *
+     * @param cls the class
+     * @return whether the class can be linked to
+     */
+    static boolean isLinkable(Class<?> cls) {
+        for (Class<?> check = cls; check != null; check = check.getEnclosingClass()) {
+            if (!Modifier.isPublic(check.getModifiers())) {
+                return false;
+            }
+        }
+        try {
+            return Class.forName(cls.getName(), false, TemplateMethodInvoker.class.getClassLoader()) == cls;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+}
@@ -20,10 +20,13 @@ import javax.xml.stream.Location;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
+import java.util.RandomAccess;
 
 /**
  * The context that is provided to handlers during transformation
@@ -37,13 +40,18 @@ public class TransformContext {
     // package level properties - so that Transformer can easily set/access these...
     EventType eventType;
     int index; // applicable only to attributes and namespaces
-    Stack<QName> path;
-    Stack<Map<QName,String>> pathAttributes;
-    Stack<Boolean> wasSkippingStack;
-    Stack<Boolean> skippedStack;
-    Stack<String> defaultNamespaceStack;
-    Stack<Map<QName,Integer>> indexPedicateStack;
-    Boolean currentlySkipping;
+    // the path - as re-used frames (see PathFrame) with pathDepth frames in use...
+    private PathFrame[] pathFrames = new PathFrame[16];
+    int pathDepth;
+    final List<QName> path = new PathList();
+    // element level state (skipping and default namespaces) - pushed/popped only for elements...
+    private boolean[] wasSkippingStack = new boolean[16];
+    private boolean[] skippedStack = new boolean[16];
+    private String[] defaultNamespaceStack = new String[16];
+    private int elementDepth;
+    boolean currentlySkipping;
+    // the interned names (kept across transforms by the same transformer)...
+    final QNameTable names = new QNameTable();
     QName overrideName;
     String overrideAttributeValue;
     String overrideText;
@@ -51,12 +59,28 @@ public class TransformContext {
     String overridePIData;
     String overrideNamespacePrefix;
     String overrideNamespaceURI;
+    // the override fields that are (still) those of the reader's current event - and have not yet been read
+    // from the reader.  They are only read if a handler asks for them (or when the event is written) - and text
+    // that is not asked for is passed straight from the reader to the writer...
+    static final int PENDING_NAME = 1;
+    static final int PENDING_ATTRIBUTE_VALUE = 1 << 1;
+    static final int PENDING_TEXT = 1 << 2;
+    static final int PENDING_PI = 1 << 3;
+    static final int PENDING_NAMESPACE = 1 << 4;
+    int pendingOverrides;
 
     boolean cancelBubble = false;
 
     boolean trackPathAttributes;
+    boolean trackIndexes;
 
-    Stack<EventHandlerHolder> callStack;
+    // the current call chain (priority ordered handlers) and the cursor to the next handler to be called...
+    EventHandlerHolder[] callChain;
+    int callCursor;
+
+    // the path match states - for each of the transformer's handler path maps, the state at each path depth
+    // (the state at index n being the state after the first n items of the path have been pushed)...
+    private PathMatchState[][] pathMatchStates;
 
     // flag to determine when readElement is being processed
     boolean elementHasBeenRead = false;
@@ -69,28 +93,69 @@ public class TransformContext {
      */
     TransformContext(Transformer transformer) {
         this.transformer = transformer;
-        // initialize the path and add the root to it...
-        path = new Stack<>();
+        reset();
+    }
+    // </editor-fold>
+
+    /**
+     * Resets the context ready for another transform by the owning transformer
+     * (the existing stacks are cleared and re-used)
+     */
+    void reset() {
+        pathDepth = 0;
         // initialize path attributes tracking...
-        trackPathAttributes = transformer.trackAttributes;
-        if (trackPathAttributes) {
-            // initialize the path attributes...
-            pathAttributes = new Stack<>();
-            pathAttributes.push(new HashMap<>());
-        }
-        // initialize the skipping stacks...
+        trackPathAttributes = transformer.trackAttributes || hasAttributePredicates();
+        // initialize index tracking...
+        trackIndexes = transformer.trackIndexes || hasPositionPredicates();
         currentlySkipping = false;
-        wasSkippingStack = new Stack<>();
-        wasSkippingStack.push(false);
-        skippedStack = new Stack<>();
-        skippedStack.push(false);
-        // initialize the default namespace tracking stack...
-        defaultNamespaceStack = new Stack<>();
-        defaultNamespaceStack.push("");
-        // initialize the index predicate stack...
-        indexPedicateStack = new Stack<>();
+        elementDepth = 0;
+        wasSkippingStack[0] = false;
+        skippedStack[0] = false;
+        defaultNamespaceStack[0] = "";
+        cancelBubble = false;
+        callChain = null;
+        callCursor = 0;
+        elementHasBeenRead = false;
+        resetPathMatchStates();
+    }
+
+    private boolean hasAttributePredicates() {
+        // match paths with attribute predicates need the path attributes tracked...
+        for (EventHandlerPathMap pathMap: transformer.handlerPathMaps) {
+            if (pathMap.hasAttributePredicates()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasPositionPredicates() {
+        // match paths with positional predicates need the indexes tracked...
+        for (EventHandlerPathMap pathMap: transformer.handlerPathMaps) {
+            if (pathMap.hasPositionPredicates()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void resetPathMatchStates() {
+        EventHandlerPathMap[] pathMaps = transformer.handlerPathMaps;
+        if (pathMatchStates == null || pathMatchStates.length != pathMaps.length) {
+            pathMatchStates = new PathMatchState[pathMaps.length][];
+        }
+        for (int i = 0; i < pathMaps.length; i++) {
+            if (pathMaps[i].isEmpty()) {
+                // no need to track states for maps with nothing mapped...
+                pathMatchStates[i] = null;
+            } else {
+                if (pathMatchStates[i] == null) {
+                    pathMatchStates[i] = new PathMatchState[16];
+                }
+                pathMatchStates[i][0] = pathMaps[i].getInitialState();
+            }
+        }
     }
-    // </editor-fold>
 
     // <editor-fold desc="Initialize for event methods">
     void initializeForEventHandler(EventType eventType) throws TransformException, XMLStreamException {
@@ -111,50 +176,37 @@ public class TransformContext {
         overridePIData = null;
         overrideNamespacePrefix = null;
         overrideNamespaceURI = null;
-        String prefix;
-        // setup the override names, values etc. for this event type...
+        pendingOverrides = 0;
+        // setup the override names, values etc. for this event type (most are read from the reader on demand)...
         switch (this.eventType) {
             case START_DOCUMENT:
                 pushPathDocument();
                 break;
             case START_ELEMENT:
-                pushPathElement();
-                prefix = transformer.xmlReader.getPrefix();
-                if (prefix == null) {
-                    overrideName = new QName(transformer.xmlReader.getNamespaceURI(), transformer.xmlReader.getLocalName());
-                } else {
-                    overrideName = new QName(transformer.xmlReader.getNamespaceURI(), transformer.xmlReader.getLocalName(), prefix);
-                }
+                // the (interned) element name is both the path name and the initial override name...
+                overrideName = pushPathElement();
                 break;
             case ATTRIBUTE:
                 pushPathAttribute();
-                prefix = transformer.xmlReader.getAttributePrefix(index);
-                if (prefix == null) {
-                    overrideName = new QName(transformer.xmlReader.getAttributeNamespace(index), transformer.xmlReader.getAttributeLocalName(index));
-                } else {
-                    overrideName = new QName(transformer.xmlReader.getAttributeNamespace(index), transformer.xmlReader.getAttributeLocalName(index), prefix);
-                }
-                overrideAttributeValue = transformer.xmlReader.getAttributeValue(index);
+                pendingOverrides = PENDING_NAME | PENDING_ATTRIBUTE_VALUE;
                 break;
             case NAMESPACE:
                 pushPathNamespace();
-                overrideNamespacePrefix = transformer.xmlReader.getNamespacePrefix(index);
-                overrideNamespaceURI = transformer.xmlReader.getNamespaceURI(index);
+                pendingOverrides = PENDING_NAMESPACE;
                 break;
             case PROCESSING_INSTRUCTION:
                 pushPathProcessingInstruction();
-                overridePITarget = transformer.xmlReader.getPITarget();
-                overridePIData = transformer.xmlReader.getPIData();
+                pendingOverrides = PENDING_PI;
                 break;
             case COMMENT:
                 pushPathComment();
-                overrideText = transformer.xmlReader.getText();
+                pendingOverrides = PENDING_TEXT;
                 break;
             case CHARACTERS:
             case WHITE_SPACE:
             case CDATA:
                 pushPathText();
-                overrideText = transformer.xmlReader.getText();
+                pendingOverrides = PENDING_TEXT;
                 break;
             case ENTITY_REFERENCE:
                 pushPathText();
@@ -170,36 +222,22 @@ public class TransformContext {
 
     // <editor-fold desc="Path push/pop methods">
     void pushPathDocument() {
-        pushPath(new QName(null, "/"));
+        pushPath(QNameTable.DOCUMENT);
+        advancePathMatchStates(QNameTable.DOCUMENT);
     }
 
-    void pushPathElement() throws XMLStreamException {
-        String prefix = transformer.xmlReader.getPrefix();
-        QName elementQName;
-        if (prefix != null) {
-            elementQName = new QName(transformer.xmlReader.getNamespaceURI(), transformer.xmlReader.getLocalName(), prefix);
-        } else {
-            elementQName = new QName(transformer.xmlReader.getNamespaceURI(), transformer.xmlReader.getLocalName());
-        }
-        Map<QName,String> attMap = new HashMap<>();
+    QName pushPathElement() throws XMLStreamException {
+        QName elementQName = names.get(transformer.xmlReader.getNamespaceURI(), transformer.xmlReader.getLocalName(),
+                transformer.xmlReader.getPrefix());
+        PathFrame frame = pushPath(elementQName);
         if (trackPathAttributes) {
-            QName attName;
             for (int a = 0, amax = transformer.xmlReader.getAttributeCount(); a < amax; a++) {
-                prefix = transformer.xmlReader.getAttributePrefix(a);
-                if (prefix != null) {
-                    attName = new QName(transformer.xmlReader.getAttributeNamespace(a),
-                            transformer.xmlReader.getAttributeLocalName(a),
-                            prefix);
-                } else {
-                    attName = new QName(transformer.xmlReader.getAttributeNamespace(a),
-                            transformer.xmlReader.getAttributeLocalName(a));
-                }
-                attMap.put(attName, transformer.xmlReader.getAttributeValue(a));
+                frame.putAttribute(names.get(transformer.xmlReader.getAttributeNamespace(a),
+                        transformer.xmlReader.getAttributeLocalName(a), transformer.xmlReader.getAttributePrefix(a)),
+                        transformer.xmlReader.getAttributeValue(a));
             }
         }
-        pushPath(elementQName, attMap);
-        wasSkippingStack.push(currentlySkipping);
-        skippedStack.push(false);
+        advancePathMatchStates(elementQName);
         // update default namespace...
         int namespacesCount = transformer.xmlReader.getNamespaceCount();
         String defaultNamespaceURI = null;
@@ -211,68 +249,210 @@ public class TransformContext {
                 break;
             }
         }
-        String currentDefaultNamespace = defaultNamespaceStack.peek();
+        pushElementState(defaultNamespaceURI);
+        return elementQName;
+    }
+
+    private void pushElementState(String defaultNamespaceURI) throws XMLStreamException {
+        String currentDefaultNamespace = defaultNamespaceStack[elementDepth];
+        if (++elementDepth == skippedStack.length) {
+            int newLength = elementDepth << 1;
+            wasSkippingStack = Arrays.copyOf(wasSkippingStack, newLength);
+            skippedStack = Arrays.copyOf(skippedStack, newLength);
+            defaultNamespaceStack = Arrays.copyOf(defaultNamespaceStack, newLength);
+        }
+        wasSkippingStack[elementDepth] = currentlySkipping;
+        skippedStack[elementDepth] = false;
         if (defaultNamespaceURI != null) {
             transformer.xmlWriter.setDefaultNamespace(defaultNamespaceURI);
-            defaultNamespaceStack.push(defaultNamespaceURI);
+            defaultNamespaceStack[elementDepth] = defaultNamespaceURI;
         } else {
-            defaultNamespaceStack.push(currentDefaultNamespace);
+            defaultNamespaceStack[elementDepth] = currentDefaultNamespace;
         }
     }
 
-    void pushPathAttribute() {
-        String prefix = transformer.xmlReader.getAttributePrefix(index);
-        QName attributeQname;
-        if (prefix != null) {
-            attributeQname = new QName(transformer.xmlReader.getAttributeNamespace(index), "@" + transformer.xmlReader.getAttributeLocalName(index), prefix);
-        } else {
-            attributeQname = new QName(transformer.xmlReader.getAttributeNamespace(index), "@" + transformer.xmlReader.getAttributeLocalName(index));
+    /**
+     * Pushes the (snapshot) ancestors of a split out record - as if the ancestor elements had been read
+     * (see ParallelTransformer)
+     *
+     * @param ancestors the record ancestors
+     * @throws XMLStreamException if the writer rejects the default namespace
+     */
+    void pushAncestors(RecordAncestors ancestors) throws XMLStreamException {
+        for (int i = 0, imax = ancestors.depth(); i < imax; i++) {
+            QName name = ancestors.names[i];
+            QName elementQName = names.get(name.getNamespaceURI(), name.getLocalPart(), name.getPrefix());
+            PathFrame frame = pushPath(elementQName);
+            frame.position = ancestors.positions[i];
+            if (trackPathAttributes && ancestors.attributes.get(i) != null) {
+                for (Map.Entry<QName, String> entry: ancestors.attributes.get(i).entrySet()) {
+                    QName attributeName = entry.getKey();
+                    frame.putAttribute(names.get(attributeName.getNamespaceURI(), attributeName.getLocalPart(),
+                            attributeName.getPrefix()), entry.getValue());
+                }
+            }
+            advancePathMatchStates(elementQName);
+            pushElementState(ancestors.defaultNamespaces[i]);
+        }
+        currentlySkipping = ancestors.skipping;
+        if (trackIndexes) {
+            // so that the record is pushed at its original position...
+            QName recordName = ancestors.recordName;
+            pathFrames[pathDepth - 1].childCounts.set(names.get(recordName.getNamespaceURI(), recordName.getLocalPart(),
+                    recordName.getPrefix()), ancestors.recordPosition - 1);
         }
-        pushPath(attributeQname);
+    }
+
+    /**
+     * Takes a snapshot of the ancestors of the current (just pushed) element - so that the element can be
+     * transformed as a record on its own (see ParallelTransformer)
+     *
+     * @param namespacePrefixes the prefixes of the namespace bindings in scope at the element's parent
+     * @param namespaceURIs the URIs of the namespace bindings in scope at the element's parent
+     * @return the record ancestors
+     */
+    RecordAncestors snapshotAncestors(String[] namespacePrefixes, String[] namespaceURIs) {
+        int depth = elementDepth - 1;
+        QName[] ancestorNames = new QName[depth];
+        int[] positions = new int[depth];
+        List<Map<QName, String>> attributes = new ArrayList<>(depth);
+        String[] defaultNamespaces = new String[depth];
+        for (int i = 0; i < depth; i++) {
+            // (frame zero being the document)...
+            PathFrame frame = pathFrames[i + 1];
+            ancestorNames[i] = frame.name;
+            positions[i] = frame.position;
+            attributes.add(trackPathAttributes ? new HashMap<>(frame.attributes) : null);
+            String defaultNamespaceURI = defaultNamespaceStack[i + 1];
+            if (!defaultNamespaceURI.equals(defaultNamespaceStack[i])) {
+                defaultNamespaces[i] = defaultNamespaceURI;
+            }
+        }
+        PathFrame recordFrame = pathFrames[pathDepth - 1];
+        return new RecordAncestors(ancestorNames, positions, attributes, defaultNamespaces,
+                wasSkippingStack[elementDepth], recordFrame.name, recordFrame.position, namespacePrefixes, namespaceURIs);
+    }
+
+    void pushPathAttribute() {
+        pushPath(names.get(transformer.xmlReader.getAttributeNamespace(index), transformer.xmlReader.getAttributeLocalName(index),
+                transformer.xmlReader.getAttributePrefix(index), QNameTable.ATTRIBUTE_MARKER));
     }
 
     void pushPathNamespace() {
         String prefix = transformer.xmlReader.getNamespacePrefix(index);
-        QName nsQname;
-        if (prefix != null) {
-            nsQname = new QName(XMLConstants.XML_NS_URI, "@" + prefix, prefix);
-        } else {
-            nsQname = new QName(XMLConstants.XML_NS_URI, "@");
-        }
-        pushPath(nsQname);
+        pushPath(names.get(XMLConstants.XML_NS_URI, (prefix != null ? prefix : ""), prefix, QNameTable.ATTRIBUTE_MARKER));
     }
 
     void pushPathText() {
-        pushPath(new QName("#text()"));
+        pushPath(QNameTable.TEXT);
     }
 
     void pushPathComment() {
-        pushPath(new QName("!comment()"));
+        pushPath(QNameTable.COMMENT);
     }
 
     void pushPathProcessingInstruction() {
-        pushPath(new QName("?" + transformer.xmlReader.getPITarget()));
+        pushPath(names.get(null, transformer.xmlReader.getPITarget(), null, QNameTable.PROCESSING_INSTRUCTION_MARKER));
     }
 
-    private void pushPath(QName qname) {
-        pushPath(qname, new HashMap<>());
+    private PathFrame pushPath(QName qname) {
+        // the position amongst same named siblings (only counted when indexes are tracked)...
+        int position = (trackIndexes && pathDepth > 0 ? pathFrames[pathDepth - 1].childCounts.increment(qname) : 1);
+        if (pathDepth == pathFrames.length) {
+            pathFrames = Arrays.copyOf(pathFrames, pathDepth << 1);
+        }
+        PathFrame frame = pathFrames[pathDepth];
+        if (frame == null) {
+            frame = new PathFrame();
+            pathFrames[pathDepth] = frame;
+        }
+        frame.reset(qname, position);
+        pathDepth++;
+        return frame;
     }
 
-    private void pushPath(QName qname, Map<QName, String> attributes) {
-        path.push(qname);
-        if (indexPedicateStack.size() > 0) {
-            Map<QName,Integer> indexer = indexPedicateStack.peek();
-            Integer index = indexer.get(qname);
-            if (index != null) {
-                indexer.put(qname, index + 1);
-            } else {
-                indexer.put(qname, 1);
+    /**
+     * Steps the path match states on for an element (or document root) pushed onto the path
+     *
+     * @param qname the name of the pushed element
+     */
+    private void advancePathMatchStates(QName qname) {
+        int depth = pathDepth;
+        for (int i = 0; i < pathMatchStates.length; i++) {
+            PathMatchState[] states = pathMatchStates[i];
+            if (states != null) {
+                if (depth >= states.length) {
+                    states = Arrays.copyOf(states, states.length * 2);
+                    pathMatchStates[i] = states;
+                }
+                states[depth] = states[depth - 1].next(qname, this, depth - 1);
             }
         }
-        indexPedicateStack.push(new HashMap<>());
-        if (trackPathAttributes) {
-            pathAttributes.push(attributes);
+    }
+
+    /**
+     * Determines whether no handlers can match any descendant of the current element
+     * (and therefore whether the descendants of a skipped element can be fast skipped)
+     *
+     * @return whether no handlers can match any descendant
+     */
+    boolean canFastSkipDescendants() {
+        if (!transformer.entityReferenceHandlers.isEmpty()) {
+            return false;
+        }
+        for (EventHandlerPathMap pathMap : transformer.skippingPathMaps) {
+            if (!pathMap.isEmpty()) {
+                int slot = pathMap.slot;
+                if (slot < 0 || slot >= pathMatchStates.length || pathMatchStates[slot] == null
+                        || transformer.handlerPathMaps[slot] != pathMap || pathMatchStates[slot][pathDepth].canMatchBelow) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the handlers in a path map that match the current path
+     *
+     * @param pathMap the handler path map
+     * @return the matching handlers (sorted by priority)
+     */
+    EventHandlerList getMatchingHolders(EventHandlerPathMap pathMap) {
+        int slot = pathMap.slot;
+        if (slot < 0 || slot >= pathMatchStates.length || pathMatchStates[slot] == null
+                || transformer.handlerPathMaps[slot] != pathMap) {
+            // not a tracked map (or nothing was mapped when the transform started) - match the whole path...
+            return pathMap.getHolders(path, this);
+        }
+        int leafIndex = pathDepth - 1;
+        return pathMatchStates[slot][leafIndex].match(pathFrames[leafIndex].name, this, leafIndex);
+    }
+
+    /**
+     * Get the position of the path item at the given depth amongst its same named siblings
+     * (as used by positional predicates in match paths)
+     *
+     * @param depth the depth (index) of the item in the path
+     * @return the position (1 based)
+     */
+    int getPathPosition(int depth) {
+        return (depth >= 0 && depth < pathDepth ? pathFrames[depth].position : 1);
+    }
+
+    /**
+     * Get the value of an attribute of the path item at the given depth
+     * (as used by attribute predicates in match paths)
+     *
+     * @param depth the depth (index) of the item in the path
+     * @param attributeName the name of the attribute
+     * @return the attribute value (or null if the attribute is not present or attributes are not tracked)
+     */
+    String getPathAttributeValue(int depth, QName attributeName) {
+        if (!trackPathAttributes || depth < 0 || depth >= pathDepth) {
+            return null;
         }
+        return pathFrames[depth].attributes.get(attributeName);
     }
 
     void popPathDocument(boolean nested) {
@@ -283,39 +463,61 @@ public class TransformContext {
 
     void popPathElement() throws XMLStreamException {
         popPath();
-        currentlySkipping = wasSkippingStack.pop();
-        skippedStack.pop();
-        String currentDefaultNamespace = defaultNamespaceStack.pop();
+        currentlySkipping = wasSkippingStack[elementDepth];
+        String currentDefaultNamespace = defaultNamespaceStack[elementDepth];
+        defaultNamespaceStack[elementDepth--] = null;
         transformer.xmlWriter.setDefaultNamespace(currentDefaultNamespace);
     }
 
     void popPath() {
-        path.pop();
-        indexPedicateStack.pop();
-        if (trackPathAttributes) {
-            pathAttributes.pop();
-        }
+        pathDepth--;
     }
     // </editor-fold>
 
     // <editor-fold desc="Package skipping methods">
     void skipThisElement() {
-        skippedStack.pop();
-        skippedStack.push(true);
+        skippedStack[elementDepth] = true;
     }
 
-    Boolean isSkippingThisElement() {
-        return skippedStack.peek();
+    boolean isSkippingThisElement() {
+        return skippedStack[elementDepth];
     }
     // </editor-fold>
 
     // <editor-fold desc="Private call chain methods">
-    ContinueState callStack(Stack<EventHandlerHolder> stack) throws XMLStreamException, TransformException {
+    ContinueState callChain(EventHandlerHolder[] chain) throws XMLStreamException, TransformException {
+        if (chain.length == 0 || transformer.quit) {
+            return ContinueState.CONTINUE;
+        }
+        // save the current chain - a handler may cause nested events (with their own chains) to be handled...
+        EventHandlerHolder[] savedChain = callChain;
+        int savedCursor = callCursor;
+        boolean savedCancelBubble = cancelBubble;
+        callChain = chain;
+        try {
+            if (chain.length == 1) {
+                callCursor = 1;
+                cancelBubble = false;
+                ContinueState result = chain[0].call(this);
+                result = (result == null ? ContinueState.CONTINUE : result);
+                transformer.quit = transformer.quit || result == ContinueState.QUIT;
+                return result;
+            }
+            callCursor = 0;
+            return callRemaining();
+        } finally {
+            callChain = savedChain;
+            callCursor = savedCursor;
+            cancelBubble = savedCancelBubble;
+        }
+    }
+
+    private ContinueState callRemaining() throws XMLStreamException, TransformException {
         ContinueState result = ContinueState.CONTINUE;
-        callStack = stack;
         cancelBubble = false;
-        while (!cancelBubble  && !transformer.quit && !stack.empty()) {
-            EventHandlerHolder nextHolder = callStack.pop();
+        EventHandlerHolder[] chain = callChain;
+        while (!cancelBubble && !transformer.quit && chain != null && callCursor < chain.length) {
+            EventHandlerHolder nextHolder = chain[callCursor++];
             ContinueState newContinueState = nextHolder.call(this);
             result = (newContinueState == null || newContinueState == ContinueState.CONTINUE ? result : newContinueState);
             transformer.quit = transformer.quit || result == ContinueState.QUIT;
@@ -330,7 +532,7 @@ public class TransformContext {
     }
 
     public ContinueState callNext() throws XMLStreamException, TransformException {
-        ContinueState result = callStack(callStack);
+        ContinueState result = callRemaining();
         cancelBubble = true;
         return result;
     }
@@ -362,11 +564,12 @@ public class TransformContext {
      * @return the current path depth
      */
     public int getPathDepth() {
-        return this.path.size() - 1;
+        return pathDepth - 1;
     }
 
     /**
      * The current path - as a list of QNames
+     * NB. The list is a (read-only) live view of the path - it changes as the path changes
      * @return the current path
      */
     public List<QName> getPath() {
@@ -405,7 +608,9 @@ public class TransformContext {
      * Gets the 'index' of the current node
      * The 'index' is the count of same nodes in the same parent - same nodes being those with the same
      * name and namespace (for elements, attributes etc.) or type (for text and comment nodes)
+     * NB. Indexes are not available when tracking has been turned off (see Transformer.setTrackIndexes())
      * @return the index of the current node
+     * @throws IllegalStateException if indexes are not being tracked
      */
     public int getIndex() {
         return getAncestorIndex(0);
@@ -415,15 +620,21 @@ public class TransformContext {
      * Gets the 'index' of the given ancestor node within its parent
      * The 'index' is the count of same nodes in the same parent - same nodes being those with the same
      * name and namespace (for elements, attributes etc.) or type (for text and comment nodes)
+     * NB. Indexes are not available when tracking has been turned off (see Transformer.setTrackIndexes())
      * @param ancestorLevel the level of the ancestor (0 is the current item, 1 is the parent,
      *                      2 is the grandparent etc.
      * @return the index of the node within its parent
+     * @throws IllegalStateException if indexes are not being tracked
      */
     public int getAncestorIndex(int ancestorLevel) {
-        int depthLevel = this.path.size() - 1 - ancestorLevel;
-        QName lookupName = path.get(depthLevel);
-        Map<QName,Integer> parentIndexer = indexPedicateStack.get(depthLevel - 1);
-        return parentIndexer.get(lookupName);
+        if (!trackIndexes) {
+            throw new IllegalStateException("Cannot read indexes when index tracking is turned off (see Transformer.setTrackIndexes())");
+        }
+        int depthLevel = pathDepth - 1 - ancestorLevel;
+        if (depthLevel <= 0) {
+            throw new IndexOutOfBoundsException("No ancestor at level " + ancestorLevel);
+        }
+        return pathFrames[depthLevel].position;
     }
 
     /**
@@ -509,8 +720,7 @@ public class TransformContext {
      * @return the QName of the ancestor at the specified level
      */
     public QName getAncestorName(int ancestorLevel) {
-        int depthLevel = this.path.size() - 1 - ancestorLevel;
-        return path.get(depthLevel);
+        return path.get(pathDepth - 1 - ancestorLevel);
     }
 
     /**
@@ -574,10 +784,14 @@ public class TransformContext {
         if (!trackPathAttributes) {
             throw new IllegalStateException("Cannot read ancestor attribute values when ancestor attributes not tracked");
         }
-        int depthLevel = this.pathAttributes.size() - 1 - ancestorLevel;
+        int depthLevel = pathDepth - 1 - ancestorLevel;
+        if (depthLevel == -1) {
+            // before the document...
+            return null;
+        }
+        Map<QName,String> attMap = pathFrames[depthLevel].attributes;
         String result = null;
         if (attributeName.getNamespaceURI() == null) {
-            Map<QName,String> attMap = this.pathAttributes.get(depthLevel);
             String localName = attributeName.getLocalPart();
             for (Map.Entry<QName,String> entry: attMap.entrySet()) {
                 if (entry.getKey().getLocalPart().equals(localName)) {
@@ -586,7 +800,7 @@ public class TransformContext {
                 }
             }
         } else {
-            result = this.pathAttributes.get(depthLevel).get(attributeName);
+            result = attMap.get(attributeName);
         }
         return result;
     }
@@ -876,61 +1090,103 @@ public class TransformContext {
 
     // <editor-fold desc="Public overriding accessors">
     public QName getOverrideName() {
+        if ((pendingOverrides & PENDING_NAME) != 0) {
+            overrideName = names.get(transformer.xmlReader.getAttributeNamespace(index),
+                    transformer.xmlReader.getAttributeLocalName(index), transformer.xmlReader.getAttributePrefix(index));
+            pendingOverrides &= ~PENDING_NAME;
+        }
         return overrideName;
     }
 
     public void setOverrideName(QName overrideName) {
         this.overrideName = overrideName;
+        pendingOverrides &= ~PENDING_NAME;
     }
 
     public String getOverrideAttributeValue() {
-        return  overrideAttributeValue;
+        if ((pendingOverrides & PENDING_ATTRIBUTE_VALUE) != 0) {
+            overrideAttributeValue = transformer.xmlReader.getAttributeValue(index);
+            pendingOverrides &= ~PENDING_ATTRIBUTE_VALUE;
+        }
+        return overrideAttributeValue;
     }
 
     public void setOverrideAttributeValue(String overrideAttributeValue) {
         this.overrideAttributeValue = overrideAttributeValue;
+        pendingOverrides &= ~PENDING_ATTRIBUTE_VALUE;
     }
 
     public String getOverrideText() {
+        if ((pendingOverrides & PENDING_TEXT) != 0) {
+            overrideText = transformer.xmlReader.getText();
+            pendingOverrides &= ~PENDING_TEXT;
+        }
         return overrideText;
     }
 
     public void setOverrideText(String overrideText) {
         this.overrideText = overrideText;
+        pendingOverrides &= ~PENDING_TEXT;
     }
 
     public String getOverridePITarget() {
+        readPendingProcessingInstruction();
         return overridePITarget;
     }
 
     public void setOverridePITarget(String overridePITarget) {
+        readPendingProcessingInstruction();
         this.overridePITarget = overridePITarget;
     }
 
     public String getOverridePIData() {
+        readPendingProcessingInstruction();
         return overridePIData;
     }
 
     public void setOverridePIData(String overridePIData) {
+        readPendingProcessingInstruction();
         this.overridePIData = overridePIData;
     }
 
     public String getOverrideNamespacePrefix() {
+        readPendingNamespace();
         return overrideNamespacePrefix;
     }
 
     public void setOverrideNamespacePrefix(String overrideNamespacePrefix) {
+        readPendingNamespace();
         this.overrideNamespacePrefix = overrideNamespacePrefix;
     }
 
     public String getOverrideNamespaceURI() {
+        readPendingNamespace();
         return overrideNamespaceURI;
     }
 
     public void setOverrideNamespaceURI(String overrideNamespaceURI) {
+        readPendingNamespace();
         this.overrideNamespaceURI = overrideNamespaceURI;
     }
 
+    // the PI target and data (and the namespace prefix and URI) are read together - so that overriding one
+    // leaves the other as read...
+    private void readPendingProcessingInstruction() {
+        if ((pendingOverrides & PENDING_PI) != 0) {
+            overridePITarget = transformer.xmlReader.getPITarget();
+            overridePIData = transformer.xmlReader.getPIData();
+            pendingOverrides &= ~PENDING_PI;
+        }
+    }
+
+    private void readPendingNamespace() {
+        if ((pendingOverrides & PENDING_NAMESPACE) != 0) {
+            overrideNamespacePrefix = transformer.xmlReader.getNamespacePrefix(index);
+            overrideNamespaceURI = transformer.xmlReader.getNamespaceURI(index);
+            pendingOverrides &= ~PENDING_NAMESPACE;
+        }
+    }
+
     public TransformXMLStreamWriter switchWriter(TransformXMLStreamWriter writer) {
         TransformXMLStreamWriter result = transformer.xmlWriter;
         transformer.xmlWriter = writer;
@@ -1026,4 +1282,22 @@ public class TransformContext {
         transformer.apply(nodes);
     }
     // </editor-fold>
+
+    /**
+     * Read-only (live) list view of the path names
+     */
+    private final class PathList extends AbstractList<QName> implements RandomAccess {
+        @Override
+        public QName get(int index) {
+            if (index < 0 || index >= pathDepth) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + pathDepth);
+            }
+            return pathFrames[index].name;
+        }
+
+        @Override
+        public int size() {
+            return pathDepth;
+        }
+    }
 }
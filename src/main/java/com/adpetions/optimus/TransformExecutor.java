@@ -0,0 +1,309 @@
+package com.adpetions.optimus;
+
+import com.adpetions.optimus.io.TransformInput;
+
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Transforms batches of (typically many small) documents concurrently with a compiled transform
+ *
+ * <p>Each document is transformed by a transformer from a pool of transformers for the compiled transform (so
+ * that transform contexts, template instances and UTF-8 writers - with their buffers - are re-used rather than
+ * created for every document).  The output is written straight into the result array (for documents that fit
+ * in the writer's buffer, the output is copied just once).  At most maxConcurrency documents are transformed at
+ * once - submitting a document waits while that many are being transformed.</p>
+ *
+ * <p>By default documents are transformed on virtual threads (one per document) where the Java runtime has them
+ * (Java 21+) - otherwise on a fixed pool of maxConcurrency (daemon) platform threads.</p>
+ *
+ * <p>Each document has its own cargo.  The transform executor is thread-safe.</p>
+ *
+ * @param <T> the type of the cargo that will be passed to registered EventHandler.handle() methods
+ */
+public class TransformExecutor<T> implements AutoCloseable {
+    private final TransformerPool<T> pool;
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final int maxConcurrency;
+    private final Semaphore permits;
+
+    /**
+     * Receives the result of a document transformed by a transform executor
+     *
+     * @param <T> the type of the cargo
+     */
+    @FunctionalInterface
+    public interface Callback<T> {
+        /**
+         * Called when the transform of a document has completed (on the thread that transformed it)
+         *
+         * @param input the input document
+         * @param cargo the cargo the document was transformed with
+         * @param output the (UTF-8 encoded) output - or null if the transform failed
+         * @param failure the exception that failed the transform - or null if the transform succeeded
+         */
+        void completed(TransformInput input, T cargo, byte[] output, Throwable failure);
+    }
+
+    // <editor-fold desc="Constructors">
+    /**
+     * Constructs a transform executor - that transforms on virtual threads (or, where not available, on a pool
+     * of platform threads)
+     *
+     * @param compiled the compiled transform
+     * @param maxConcurrency the maximum number of documents transformed at once
+     */
+    public TransformExecutor(CompiledTransform<T> compiled, int maxConcurrency) {
+        this(compiled, maxConcurrency, newDefaultExecutor(maxConcurrency), true);
+    }
+
+    /**
+     * Constructs a transform executor that transforms on the specified executor service
+     *
+     * <p>NB. The executor service is not shut down when the transform executor is closed.</p>
+     *
+     * @param compiled the compiled transform
+     * @param maxConcurrency the maximum number of documents transformed at once
+     * @param executor the executor service on which documents are transformed
+     */
+    public TransformExecutor(CompiledTransform<T> compiled, int maxConcurrency, ExecutorService executor) {
+        this(compiled, maxConcurrency, executor, false);
+    }
+
+    private TransformExecutor(CompiledTransform<T> compiled, int maxConcurrency, ExecutorService executor, boolean ownsExecutor) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("Max concurrency must be at least 1");
+        }
+        this.pool = new TransformerPool<>(compiled, maxConcurrency);
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.maxConcurrency = maxConcurrency;
+        this.permits = new Semaphore(maxConcurrency);
+    }
+    // </editor-fold>
+
+    private static ExecutorService newDefaultExecutor(int maxConcurrency) {
+        try {
+            // (looked up reflectively - so that this still builds and runs on Java 8)...
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService)method.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            // no virtual threads...
+            return Executors.newFixedThreadPool(maxConcurrency, runnable -> {
+                Thread thread = new Thread(runnable, "optimus-transform-executor");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    // <editor-fold desc="Submit methods">
+    /**
+     * Submits an input XML string to be transformed
+     *
+     * <p>Waits (uninterruptibly) while the maximum number of documents are being transformed.</p>
+     *
+     * @param xml the input XML string
+     * @param cargo the cargo to be passed to handlers
+     * @return the future string transform result
+     */
+    public CompletableFuture<String> submit(String xml, T cargo) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        submit(TransformInput.of(xml), cargo, (input, taskCargo, output, failure) -> {
+            if (failure == null) {
+                result.complete(new String(output, StandardCharsets.UTF_8));
+            } else {
+                result.completeExceptionally(failure);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Submits an input to be transformed
+     *
+     * <p>Waits (uninterruptibly) while the maximum number of documents are being transformed.</p>
+     *
+     * @param input the input
+     * @param cargo the cargo to be passed to handlers
+     * @return the future (UTF-8 encoded) transform result
+     */
+    public CompletableFuture<byte[]> submit(TransformInput input, T cargo) {
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        submit(input, cargo, (taskInput, taskCargo, output, failure) -> {
+            if (failure == null) {
+                result.complete(output);
+            } else {
+                result.completeExceptionally(failure);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Submits an input to be transformed - with the result passed to a callback
+     *
+     * <p>Waits (uninterruptibly) while the maximum number of documents are being transformed.</p>
+     *
+     * @param input the input
+     * @param cargo the cargo to be passed to handlers
+     * @param callback the callback to receive the result
+     */
+    public void submit(TransformInput input, T cargo, Callback<T> callback) {
+        permits.acquireUninterruptibly();
+        try {
+            executor.execute(() -> transform(input, cargo, callback));
+        } catch (RuntimeException ex) {
+            // e.g. the executor rejected the transform...
+            permits.release();
+            callback.completed(input, cargo, null, ex);
+        }
+    }
+
+    /**
+     * Transforms a stream of inputs - with the result of each passed to a callback
+     *
+     * <p>The inputs are submitted as the stream is consumed (on the calling thread) - so the stream is only
+     * read ahead of the transforms by (at most) the maximum number of documents transformed at once.</p>
+     *
+     * <p>If consuming the stream (or creating a cargo) fails, no further inputs are submitted and the returned
+     * future completes exceptionally (with that failure) once the inputs already submitted have been transformed.</p>
+     *
+     * @param inputs the inputs
+     * @param cargoFactory creates the cargo for each input
+     * @param callback the callback to receive the result of each input
+     * @return a future that completes once every input has been transformed (and its callback called)
+     */
+    public CompletableFuture<Void> transformAll(Stream<TransformInput> inputs, Function<TransformInput, T> cargoFactory, Callback<T> callback) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        AtomicReference<Throwable> submitFailure = new AtomicReference<>();
+        // the count of inputs pending (plus one until all have been submitted)...
+        AtomicLong pending = new AtomicLong(1);
+        Callback<T> counting = (input, cargo, output, failure) -> {
+            try {
+                callback.completed(input, cargo, output, failure);
+            } finally {
+                if (pending.decrementAndGet() == 0) {
+                    complete(result, submitFailure.get());
+                }
+            }
+        };
+        try {
+            Iterator<TransformInput> iterator = inputs.iterator();
+            while (iterator.hasNext()) {
+                TransformInput input = iterator.next();
+                T cargo = cargoFactory.apply(input);
+                pending.incrementAndGet();
+                submit(input, cargo, counting);
+            }
+        } catch (RuntimeException | Error ex) {
+            submitFailure.set(ex);
+        }
+        if (pending.decrementAndGet() == 0) {
+            complete(result, submitFailure.get());
+        }
+        return result;
+    }
+
+    private static void complete(CompletableFuture<Void> result, Throwable failure) {
+        if (failure == null) {
+            result.complete(null);
+        } else {
+            result.completeExceptionally(failure);
+        }
+    }
+    // </editor-fold>
+
+    private void transform(TransformInput input, T cargo, Callback<T> callback) {
+        OutputBuffer buffer = new OutputBuffer();
+        byte[] output = null;
+        Throwable failure = null;
+        Transformer<T> transformer = pool.acquire(input);
+        try {
+            transformer.setCargo(cargo);
+            transformer.transform(buffer);
+            output = buffer.toByteArray();
+        } catch (Throwable ex) {
+            failure = ex;
+        } finally {
+            pool.release(transformer);
+            permits.release();
+        }
+        callback.completed(input, cargo, output, failure);
+    }
+
+    /**
+     * Gets the maximum number of documents transformed at once
+     *
+     * @return the maximum number of documents transformed at once
+     */
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * Closes the transform executor - shutting down its executor (unless it was specified) once the submitted
+     * documents have been transformed
+     */
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * The output of a single document - the (re-used) UTF-8 writer flushes into it just once for documents that
+     * fit in the writer's buffer, in which case the array written is exactly the size of the output
+     */
+    private static final class OutputBuffer extends OutputStream {
+        private static final byte[] EMPTY = new byte[0];
+        private byte[] bytes = EMPTY;
+        private int count;
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(count + 1);
+            bytes[count++] = (byte)b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (count == 0 && bytes.length == 0) {
+                // the first write - allocate exactly (most documents are written in a single flush)...
+                bytes = Arrays.copyOfRange(b, off, off + len);
+                count = len;
+                return;
+            }
+            ensureCapacity(count + len);
+            System.arraycopy(b, off, bytes, count, len);
+            count += len;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(capacity, bytes.length << 1));
+            }
+        }
+
+        byte[] toByteArray() {
+            byte[] result = (count == bytes.length ? bytes : Arrays.copyOf(bytes, count));
+            // don't hold on to the output (the pooled writer keeps a reference to this until re-used)...
+            bytes = EMPTY;
+            count = 0;
+            return result;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.adpetions.optimus;
+
+import com.adpetions.optimus.exceptions.TransformException;
+import com.adpetions.optimus.io.TransformInput;
+import com.fasterxml.aalto.AsyncXMLInputFactory;
+import com.fasterxml.aalto.stax.InputFactoryImpl;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A push-style transform session - the input XML is fed in chunks of bytes (e.g. as they are received by a
+ * non-blocking server) rather than read from a stream
+ *
+ * <p>The input is parsed by an async (non-blocking) parser - each fed chunk is parsed, and the events it completes
+ * are handled, on the feeding thread before feed() returns.  A session never occupies a thread while waiting for
+ * more input (so any number of sessions can be part way through their documents).  A transformer is acquired from
+ * the pool when the first chunk is fed and is released back to the pool when the transform finishes (or fails, or
+ * the feed is aborted) - the completion future is only completed once the transformer is back in the pool.</p>
+ *
+ * <p>NB. Handlers may only read ahead (e.g. readElement()) within the input that has already been fed - reading
+ * past it fails the transform.  Text may be split into more than one characters event where the chunks split it
+ * (the coalescing option does not apply) and feed transforms are never pipelined.</p>
+ *
+ * <p>feed(), endOfInput() and abort() may be called from any thread (one at a time - they are synchronized) but a
+ * session is for one document and chunks must be fed in order.</p>
+ *
+ * @param <T> the type of the cargo that will be passed to registered EventHandler.handle() methods
+ */
+public class TransformFeed<T> {
+    private static final AsyncXMLInputFactory inputFactory = createInputFactory();
+
+    private final TransformerPool<T> pool;
+    private final OutputStream outputStream;
+    private final T cargo;
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+    private Transformer<T> transformer;
+    private FeedReader feedReader;
+    private boolean ended;
+    private boolean finished;
+
+    // <editor-fold desc="Constructors">
+    /**
+     * Constructs a transform feed
+     *
+     * @param pool the pool from which the transformer is acquired (and to which it is released when done)
+     * @param outputStream the output stream to which the output is written (UTF-8 encoded) - flushed but not closed
+     * @param cargo the cargo to be passed to handlers
+     */
+    public TransformFeed(TransformerPool<T> pool, OutputStream outputStream, T cargo) {
+        this.pool = pool;
+        this.outputStream = outputStream;
+        this.cargo = cargo;
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Feed methods">
+    /**
+     * Feeds a chunk of the input - the chunk is parsed (and the events it completes are handled) before this returns
+     *
+     * <p>The chunk's position is advanced past its remaining bytes - and the chunk may be re-used as soon as this
+     * returns.  Chunks fed once the transform has finished (e.g. a handler quit) are ignored.</p>
+     *
+     * @param chunk the chunk of input bytes
+     * @throws IllegalStateException if the end of input has already been fed
+     */
+    public synchronized void feed(ByteBuffer chunk) {
+        if (ended) {
+            throw new IllegalStateException("The end of input has already been fed");
+        }
+        if (!finished && chunk.hasRemaining()) {
+            try {
+                start();
+                feedReader.feed(chunk);
+                if (transformer.continueFeed()) {
+                    finish(null);
+                }
+            } catch (Throwable ex) {
+                finish(ex);
+            }
+        }
+        chunk.position(chunk.limit());
+    }
+
+    /**
+     * Feeds a chunk of the input - the chunk is parsed (and the events it completes are handled) before this returns
+     *
+     * <p>The array may be re-used as soon as this returns.  Chunks fed once the transform has finished (e.g. a
+     * handler quit) are ignored.</p>
+     *
+     * @param bytes the array of input bytes
+     * @param offset the offset of the chunk in the array
+     * @param length the length of the chunk
+     * @throws IllegalStateException if the end of input has already been fed
+     */
+    public void feed(byte[] bytes, int offset, int length) {
+        feed(ByteBuffer.wrap(bytes, offset, length));
+    }
+
+    /**
+     * Marks the end of the input - the rest of the document is handled and the transform finishes (or fails if
+     * the document is incomplete) before this returns
+     */
+    public synchronized void endOfInput() {
+        if (ended) {
+            return;
+        }
+        ended = true;
+        if (!finished) {
+            try {
+                start();
+                feedReader.endOfInput();
+                if (transformer.continueFeed()) {
+                    finish(null);
+                } else {
+                    finish(new XMLStreamException("Unexpected end of input - the document is incomplete"));
+                }
+            } catch (Throwable ex) {
+                finish(ex);
+            }
+        }
+    }
+
+    /**
+     * Aborts the transform - the transformer is released back to the pool and the completion future then
+     * completes exceptionally (with a CancellationException) unless the transform has already finished
+     *
+     * <p>NB. If a chunk is being fed on another thread, waits for that chunk to be handled.</p>
+     */
+    public synchronized void abort() {
+        if (!finished) {
+            finish(new CancellationException("Transform feed aborted"));
+        }
+    }
+
+    /**
+     * Gets the future that completes when the transform has finished
+     *
+     * @return the completion future
+     */
+    public CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+    // </editor-fold>
+
+    private void start() throws TransformException {
+        if (transformer == null) {
+            feedReader = new FeedReader(inputFactory.createAsyncForByteBuffer());
+            transformer = pool.acquire((TransformInput)null);
+            transformer.setCargo(cargo);
+            transformer.startFeed(feedReader, outputStream);
+        }
+    }
+
+    private void finish(Throwable failure) {
+        finished = true;
+        if (transformer != null) {
+            // (also closes the feed reader)...
+            pool.release(transformer);
+            transformer = null;
+            feedReader = null;
+        }
+        // (completed once the transformer is back in the pool)...
+        if (failure == null) {
+            completion.complete(null);
+        } else {
+            completion.completeExceptionally(failure);
+        }
+    }
+
+    private static AsyncXMLInputFactory createInputFactory() {
+        AsyncXMLInputFactory result = new InputFactoryImpl();
+        // as with the default factory provider - entity references are reported (not replaced)...
+        result.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, Boolean.FALSE);
+        return result;
+    }
+}
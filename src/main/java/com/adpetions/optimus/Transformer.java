@@ -2,9 +2,14 @@ package com.adpetions.optimus;
 
 import com.adpetions.optimus.entities.EntityReferenceResolver;
 import com.adpetions.optimus.exceptions.TransformException;
+import com.adpetions.optimus.factories.DefaultXMLFactoryProvider;
+import com.adpetions.optimus.factories.XMLFactoryProvider;
+import com.adpetions.optimus.io.TransformInput;
 import com.adpetions.optimus.namespaces.TransformNamespaceContext;
 import com.adpetions.optimus.nodes.NodeCollection;
 import com.adpetions.optimus.templating.OptimusTransformTemplate;
+import com.adpetions.optimus.templating.TemplateDispatcher;
+import com.adpetions.optimus.templating.TemplateMethodDescriptor;
 import com.adpetions.optimus.templating.annotations.EventTemplate;
 import com.adpetions.optimus.templating.annotations.ImportPriorityOffset;
 import com.adpetions.optimus.templating.annotations.TemplateConfig;
@@ -13,21 +18,30 @@ import com.adpetions.optimus.templating.annotations.TemplateNamespace;
 import com.adpetions.optimus.templating.annotations.TemplateNamespaces;
 import com.adpetions.optimus.writers.TransformNullWriter;
 import com.adpetions.optimus.writers.TransformSimpleWriter;
+import com.adpetions.optimus.writers.TransformUtf8Writer;
 import com.adpetions.optimus.writers.TransformXMLStreamWriter;
+import com.fasterxml.aalto.AsyncXMLStreamReader;
+import org.codehaus.stax2.XMLStreamReader2;
 
 import javax.xml.namespace.QName;
-import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
-import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
 
@@ -48,9 +62,13 @@ public class Transformer<T> {
     TransformNamespaceContext namespaceContext;
     EntityReferenceResolver entityReferenceResolver;
 
-    Reader reader;
+    TransformInput input;
     Writer writer;
     XMLStreamReader xmlReader;
+    // the reader of a feed transform (see TransformFeed) - and the depth of any element being fast skipped...
+    private FeedReader feedReader;
+    private int feedSkipDepth;
+    XMLFactoryProvider xmlFactoryProvider = DefaultXMLFactoryProvider.getInstance();
     TransformXMLStreamWriter xmlWriter;
 
     // used by apply method...
@@ -59,18 +77,36 @@ public class Transformer<T> {
 
     boolean suppressWhitespace = false;
     boolean trackAttributes = false;
+    boolean trackIndexes = true;
+    boolean fastSkipping = false;
     boolean forceNonSelfClosing = false;
     Set<QName> allowSelfClosing = new HashSet<>();
     boolean coalescing = false;
+    boolean pipelined = false;
+    // the (re-used) threads of pipelined transforms...
+    private PipelineWorker pipelineReaderWorker;
+    private PipelineWorker pipelineWriterWorker;
+    // the (re-used) UTF-8 writer for output streams - and the factory provider it was created with...
+    private TransformUtf8Writer utf8Writer;
+    private XMLFactoryProvider utf8WriterFactoryProvider;
     boolean omitXmlDeclaration = true;
     boolean pathMapCaching = true;
+    Map<EventType, Integer> pathMapCacheSizes = new EnumMap<>(EventType.class);
     private boolean transformStarted = false;
     private boolean nested = false;
     boolean quit = false;
+    // used by ParallelTransformer - the splitter of records out of the document (on the splitting transformer)
+    // and the ancestors of the record being transformed (on the transformer of a split out record, whose input
+    // is then the record wrapped in a synthetic element that stands in for the ancestors)...
+    RecordSplitter recordSplitter;
+    RecordAncestors recordAncestors;
 
     boolean templated = false;
     private OptimusTransformTemplate template;
-    private List<OptimusTransformTemplate> templateImports;
+    // the template and its imports (the template itself is always first)...
+    List<OptimusTransformTemplate> templates;
+    // the compiled transform (if this transformer is transforming for a compiled transform)...
+    CompiledTransform<T> compiled;
 
     EventHandlerPathMap startElementHandlers;
     EventHandlerPathMap endElementHandlers;
@@ -89,8 +125,44 @@ public class Transformer<T> {
     EventHandlerList endDocumentHandlers;
     EventHandlerList entityReferenceHandlers;
     EventHandlerList namespaceHandlers;
+    // all of the above handler path maps (in slot order)...
+    EventHandlerPathMap[] handlerPathMaps;
+    EventHandlerPathMap[] skippingPathMaps;
+    // which of the start element phases have any handlers (the phases without are passed straight through)...
+    private boolean handlingBeforeAttributes;
+    private boolean handlingAttributes;
+    private boolean handlingAfterAttributes;
+    private boolean handlingBeforeNamespaces;
+    private boolean handlingNamespaces;
+    private boolean handlingAfterNamespaces;
+    private boolean handlingAfterStartElement;
 
     // <editor-fold desc="Constructors">
+    /**
+     * Instantiates the Transformer transformer without any input
+     *
+     * <p>Used to register handlers (and set options) for a transform that is then to be
+     * compiled - see compile()</p>
+     */
+    public Transformer() {
+        namespaceContext = new TransformNamespaceContext();
+        initializeHandlerMaps();
+    }
+
+    /**
+     * Instantiates the Transformer transformer without any input
+     *
+     * <p>Used to register handlers (and set options) for a transform that is then to be
+     * compiled - see compile()</p>
+     *
+     * @param namespaceContext the namespace context to be used to resolve
+     *                         namespace prefixes
+     */
+    public Transformer(TransformNamespaceContext namespaceContext) {
+        this.namespaceContext = namespaceContext;
+        initializeHandlerMaps();
+    }
+
     /**
      * Instantiates the Transformer transformer to process the given
      * input XML string
@@ -100,7 +172,7 @@ public class Transformer<T> {
     public Transformer(String inputXml) {
         namespaceContext = new TransformNamespaceContext();
         initializeHandlerMaps();
-        reader = new StringReader(inputXml);
+        input = TransformInput.of(inputXml);
     }
 
     /**
@@ -114,7 +186,7 @@ public class Transformer<T> {
     public Transformer(String inputXml, TransformNamespaceContext namespaceContext) {
         this.namespaceContext = namespaceContext;
         initializeHandlerMaps();
-        reader = new StringReader(inputXml);
+        input = TransformInput.of(inputXml);
     }
 
     /**
@@ -124,9 +196,7 @@ public class Transformer<T> {
      * @param reader the input XML reader
      */
     public Transformer(Reader reader) {
-        namespaceContext = new TransformNamespaceContext();
-        initializeHandlerMaps();
-        this.reader = reader;
+        this(TransformInput.of(reader));
     }
 
     /**
@@ -138,9 +208,94 @@ public class Transformer<T> {
      *                         namespace prefixes
      */
     public Transformer(Reader reader, TransformNamespaceContext namespaceContext) {
+        this(TransformInput.of(reader), namespaceContext);
+    }
+
+    /**
+     * Instantiates the Transformer transformer to process the given
+     * input XML byte stream (the encoding is detected by the XML parser)
+     *
+     * @param inputStream the input XML byte stream
+     */
+    public Transformer(InputStream inputStream) {
+        this(TransformInput.of(inputStream));
+    }
+
+    /**
+     * Instantiates the Transformer transformer to process the given
+     * input XML bytes (the encoding is detected by the XML parser)
+     *
+     * @param bytes the input XML bytes
+     */
+    public Transformer(byte[] bytes) {
+        this(TransformInput.of(bytes));
+    }
+
+    /**
+     * Instantiates the Transformer transformer to process the remaining bytes
+     * of the given input XML byte buffer (the encoding is detected by the XML parser)
+     *
+     * @param buffer the input XML byte buffer
+     */
+    public Transformer(ByteBuffer buffer) {
+        this(TransformInput.of(buffer));
+    }
+
+    /**
+     * Instantiates the Transformer transformer to process the given
+     * input XML file (the encoding is detected by the XML parser)
+     *
+     * @param path the path of the input XML file
+     */
+    public Transformer(Path path) {
+        this(TransformInput.of(path));
+    }
+
+    /**
+     * Instantiates the Transformer transformer to process the given
+     * input XML file channel - read memory-mapped (see TransformInput.of(FileChannel))
+     *
+     * @param channel the input XML file channel
+     */
+    public Transformer(FileChannel channel) {
+        this(TransformInput.of(channel));
+    }
+
+    /**
+     * Instantiates the Transformer transformer to process the given input
+     *
+     * @param input the input XML
+     */
+    public Transformer(TransformInput input) {
+        namespaceContext = new TransformNamespaceContext();
+        initializeHandlerMaps();
+        this.input = input;
+    }
+
+    /**
+     * Instantiates the Transformer transformer to process the given input
+     *
+     * @param input the input XML
+     * @param namespaceContext the namespace context to be used to resolve
+     *                         namespace prefixes
+     */
+    public Transformer(TransformInput input, TransformNamespaceContext namespaceContext) {
         this.namespaceContext = namespaceContext;
         initializeHandlerMaps();
-        this.reader = reader;
+        this.input = input;
+    }
+
+    /**
+     * Instantiates the Transformer transformer to process the given input
+     * using the handlers, templates and options of a compiled transform
+     *
+     * @param compiled the compiled transform
+     * @param input the input XML
+     */
+    Transformer(CompiledTransform<T> compiled, TransformInput input) {
+        this.compiled = compiled;
+        compiled.initializeTransformer(this);
+        this.input = input;
     }
     // </editor-fold>
 
@@ -151,7 +306,7 @@ public class Transformer<T> {
      * @return the string transform result
      */
     public String transform() throws TransformException, XMLStreamException {
-        templated = false;
+        useTemplate(null);
         StringWriter writer = new StringWriter();
         transform(writer);
         return writer.toString();
@@ -164,10 +319,8 @@ public class Transformer<T> {
      * @return the string transform result
      */
     public String transform(OptimusTransformTemplate template) throws TransformException, XMLStreamException {
-        templated = true;
-        this.template = template;
         StringWriter writer = new StringWriter();
-        transform(writer);
+        transform(template, writer);
         return writer.toString();
     }
 
@@ -177,9 +330,9 @@ public class Transformer<T> {
      * @param writer the writer to be used for output
      */
     public void transform(Writer writer) throws TransformException, XMLStreamException {
-        templated = false;
+        useTemplate(null);
         this.writer = writer;
-        xmlWriter = new TransformSimpleWriter(writer);
+        xmlWriter = new TransformSimpleWriter(writer, new TransformNamespaceContext(), xmlFactoryProvider);
         doTransform(xmlWriter);
     }
 
@@ -190,11 +343,93 @@ public class Transformer<T> {
      * @param writer the writer to be used for output
      */
     public void transform(OptimusTransformTemplate template, Writer writer) throws TransformException, XMLStreamException {
-        templated = true;
-        this.template = template;
+        useTemplate(template);
         this.writer = writer;
-        xmlWriter = new TransformSimpleWriter(writer);
+        xmlWriter = new TransformSimpleWriter(writer, new TransformNamespaceContext(), xmlFactoryProvider);
+        doTransform(xmlWriter);
+    }
+
+    /**
+     * Performs the transform outputting (UTF-8 encoded) to the specified output stream
+     *
+     * <p>NB. The output stream is flushed but not closed.</p>
+     *
+     * @param outputStream the output stream to be used for output
+     */
+    public void transform(OutputStream outputStream) throws TransformException, XMLStreamException {
+        useTemplate(null);
+        xmlWriter = resetUtf8Writer(outputStream);
+        doTransform(xmlWriter);
+        xmlWriter.flush();
+    }
+
+    /**
+     * Performs the transform outputting (UTF-8 encoded) to the specified output stream, using a transform template
+     *
+     * <p>NB. The output stream is flushed but not closed.</p>
+     *
+     * @param template the transform template to use
+     * @param outputStream the output stream to be used for output
+     */
+    public void transform(OptimusTransformTemplate template, OutputStream outputStream) throws TransformException, XMLStreamException {
+        useTemplate(template);
+        xmlWriter = resetUtf8Writer(outputStream);
+        doTransform(xmlWriter);
+        xmlWriter.flush();
+    }
+
+    private TransformUtf8Writer resetUtf8Writer(OutputStream outputStream) {
+        // re-use the writer (and its buffers) of the previous transform - e.g. when this transformer is pooled...
+        if (!hasReusableUtf8Writer()) {
+            utf8Writer = new TransformUtf8Writer(outputStream, new TransformNamespaceContext(), xmlFactoryProvider);
+            utf8WriterFactoryProvider = xmlFactoryProvider;
+            return utf8Writer;
+        }
+        return utf8Writer.reset(outputStream);
+    }
+
+    private TransformUtf8Writer resetUtf8Writer(WritableByteChannel channel) {
+        // re-use the writer (and its buffers) of the previous transform - e.g. when this transformer is pooled...
+        if (!hasReusableUtf8Writer()) {
+            utf8Writer = new TransformUtf8Writer(channel, new TransformNamespaceContext(), xmlFactoryProvider);
+            utf8WriterFactoryProvider = xmlFactoryProvider;
+            return utf8Writer;
+        }
+        return utf8Writer.reset(channel);
+    }
+
+    private boolean hasReusableUtf8Writer() {
+        return (utf8Writer != null && utf8WriterFactoryProvider == xmlFactoryProvider);
+    }
+
+
+    /**
+     * Performs the transform outputting (UTF-8 encoded) to the specified (e.g. file) channel
+     *
+     * <p>NB. The channel is not closed.</p>
+     *
+     * @param channel the channel to be used for output
+     */
+    public void transform(WritableByteChannel channel) throws TransformException, XMLStreamException {
+        useTemplate(null);
+        xmlWriter = resetUtf8Writer(channel);
         doTransform(xmlWriter);
+        xmlWriter.flush();
+    }
+
+    /**
+     * Performs the transform outputting (UTF-8 encoded) to the specified (e.g. file) channel, using a transform template
+     *
+     * <p>NB. The channel is not closed.</p>
+     *
+     * @param template the transform template to use
+     * @param channel the channel to be used for output
+     */
+    public void transform(OptimusTransformTemplate template, WritableByteChannel channel) throws TransformException, XMLStreamException {
+        useTemplate(template);
+        xmlWriter = resetUtf8Writer(channel);
+        doTransform(xmlWriter);
+        xmlWriter.flush();
     }
 
     /**
@@ -213,7 +448,7 @@ public class Transformer<T> {
      * Performs the transform with a null output output
      */
     public void nullTransform() throws TransformException, XMLStreamException {
-        templated = false;
+        useTemplate(null);
         xmlWriter = new TransformNullWriter();
         doTransform(xmlWriter);
     }
@@ -224,11 +459,96 @@ public class Transformer<T> {
      * @param template the transform template to use
      */
     public void nullTransform(OptimusTransformTemplate template) throws TransformException, XMLStreamException {
-        templated = true;
-        this.template = template;
+        useTemplate(template);
         xmlWriter = new TransformNullWriter();
         doTransform(xmlWriter);
     }
+
+    /**
+     * Compiles the handlers registered on this transformer (and its current options) into a
+     * compiled transform - which can then be used to transform any number of documents
+     * without the handlers having to be registered again
+     *
+     * <p>NB. Once compiled, no further handlers may be registered with this transformer</p>
+     *
+     * @return the compiled transform
+     */
+    public CompiledTransform<T> compile() {
+        return new CompiledTransform<>(this, null);
+    }
+
+    /**
+     * Resets the transformer ready to transform another input XML string
+     *
+     * <p>The registered handlers, options, transform context (and, for compiled transforms, the
+     * template instances) are re-used - the cargo is cleared.</p>
+     *
+     * @param xml the input XML string
+     * @return this transformer
+     */
+    public Transformer<T> reset(String xml) {
+        return reset(TransformInput.of(xml));
+    }
+
+    /**
+     * Resets the transformer ready to transform another input XML reader
+     *
+     * <p>The registered handlers, options, transform context (and, for compiled transforms, the
+     * template instances) are re-used - the cargo is cleared.</p>
+     *
+     * @param reader the input XML reader
+     * @return this transformer
+     */
+    public Transformer<T> reset(Reader reader) {
+        return reset(reader == null ? null : TransformInput.of(reader));
+    }
+
+    /**
+     * Resets the transformer ready to transform another input
+     *
+     * <p>The registered handlers, options, transform context (and, for compiled transforms, the
+     * template instances) are re-used - the cargo is cleared.</p>
+     *
+     * @param input the input XML
+     * @return this transformer
+     */
+    public Transformer<T> reset(TransformInput input) {
+        if (xmlReader != null) {
+            try {
+                xmlReader.close();
+            } catch (XMLStreamException e) {
+                // ignore - we're done with it anyway
+            }
+        }
+        if (this.input != null) {
+            this.input.close();
+        }
+        this.input = input;
+        writer = null;
+        xmlReader = null;
+        feedReader = null;
+        xmlWriter = null;
+        cargo = null;
+        applyReadersStack = null;
+        applyingLevel = 0;
+        nested = false;
+        quit = false;
+        recordSplitter = null;
+        recordAncestors = null;
+        return this;
+    }
+
+    private void useTemplate(OptimusTransformTemplate template) {
+        if (compiled != null) {
+            if (template != null) {
+                throw new IllegalStateException("A template may not be specified when transforming with a compiled transform");
+            }
+            templated = compiled.isTemplated();
+        } else {
+            templated = (template != null);
+            this.template = template;
+        }
+    }
     // </editor-fold>
 
     // <editor-fold desc="Main transform engine methods">
@@ -238,72 +558,230 @@ public class Transformer<T> {
      * @param xmlWriter the XML writer to be used for output
      */
     private void doTransform(TransformXMLStreamWriter xmlWriter) throws TransformException, XMLStreamException {
-        if (templated) {
+        if (input == null) {
+            throw new TransformException("Transformer has no input to transform");
+        }
+        prepareTransform();
+        // pipelined transforms write on a writer thread (but not for null output - or for split out records,
+        // which are already transformed in parallel)...
+        PipelinedWriter pipelinedWriter = null;
+        if (pipelined && recordAncestors == null && !(xmlWriter instanceof TransformNullWriter)) {
+            if (pipelineWriterWorker == null) {
+                pipelineWriterWorker = new PipelineWorker("optimus-pipeline-writer");
+            }
+            pipelinedWriter = new PipelinedWriter(xmlWriter, PipelinedWriter.DEFAULT_CAPACITY, pipelineWriterWorker);
+            xmlWriter = pipelinedWriter;
+        }
+        try {
+            initializeTemplates(xmlWriter);
+        } catch (TransformException ex) {
+            if (pipelinedWriter != null) {
+                pipelinedWriter.abort();
+            }
+            throw ex;
+        }
+        // set the xml writer...
+        this.xmlWriter = xmlWriter;
+        XMLStreamReader inputReader = null;
+        PipelinedReader pipelinedReader = null;
+        try {
+            // create the xml reader (pipelined transforms read on a reader thread)...
+            inputReader = input.createXMLStreamReader(xmlFactoryProvider.getInputFactory(coalescing));
+            xmlReader = inputReader;
+            if (pipelined && recordAncestors == null) {
+                if (pipelineReaderWorker == null) {
+                    pipelineReaderWorker = new PipelineWorker("optimus-pipeline-reader");
+                }
+                pipelinedReader = new PipelinedReader(xmlReader, PipelinedReader.DEFAULT_CAPACITY, pipelineReaderWorker);
+                xmlReader = pipelinedReader;
+            }
+            // needed to move this outside the handler loop - as it doesn't get hit
+            if (recordAncestors == null) {
+                handleStartDocument();
+            } else {
+                // a split out record is not a document of its own...
+                context.pushPathDocument();
+            }
+            // read to end...
+            quit = false;
+            while (!quit && xmlReader.hasNext()) {
+                handleEvent(xmlReader.next());
+            }
+            if (quit) {
+                // quit before the end of the document - release the parser (nothing more will be read)...
+                xmlReader.close();
+            }
+            if (pipelinedWriter != null) {
+                // wait for the output to be written (reporting any failure writing it)...
+                pipelinedWriter.finish();
+            }
+        } finally {
+            // stop the pipeline threads (the reader thread closes the input reader when it stops)...
+            if (pipelinedReader != null) {
+                pipelinedReader.close();
+            } else if (inputReader != null) {
+                // closing the reader releases anything it opened (e.g. input files)...
+                try {
+                    inputReader.close();
+                } catch (XMLStreamException e) {
+                    // ignore - we're done with it anyway
+                }
+            }
+            if (pipelinedWriter != null) {
+                pipelinedWriter.abort();
+                this.xmlWriter = pipelinedWriter.getDelegate();
+            }
+            input.close();
+        }
+    }
+
+    private void prepareTransform() throws TransformException {
+        if (compiled != null) {
+            if (templated && templates == null) {
+                // the handlers are already built - just need the template instances...
+                templates = compiled.createTemplates();
+            }
+        } else if (templated) {
             try {
                 buildTemplating(template);
             } catch (Exception ex) {
                 throw new TransformException("Exception reading templates", ex);
             }
         }
-        // create the transform context...
-        context = new TransformContext(this);
+        // all handlers are now registered - so note which start element phases need handling...
+        collectHandledPhases();
+        // create the transform context (or re-use it if this transformer has been reset)...
+        if (context == null) {
+            context = new TransformContext(this);
+        } else {
+            context.reset();
+        }
+    }
+
+    private void initializeTemplates(TransformXMLStreamWriter xmlWriter) throws TransformException {
         if (templated) {
             try {
-                template.initialize(this, context, xmlWriter);
-                for (OptimusTransformTemplate imported : templateImports) {
-                    imported.initialize(this, context, xmlWriter);
+                for (OptimusTransformTemplate each : templates) {
+                    each.initialize(this, context, xmlWriter);
                 }
             } catch (Exception ex) {
                 throw new TransformException("Exception initializing templates", ex);
             }
         }
-        // set the xml writer...
-        this.xmlWriter = xmlWriter;
-        // create the xml reader...
-        XMLInputFactory inputFactory = XMLInputFactory.newInstance();
-        inputFactory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, Boolean.FALSE);
-        if (coalescing) {
-            inputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
-        } else {
-            inputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
-        }
-        xmlReader = inputFactory.createXMLStreamReader(reader);
-        // needed to move this outside the handler loop - as it doesn't get hit
-        handleStartDocument();
-        // read to end...
-        quit = false;
-        int nextEvent;
-        while (!quit && xmlReader.hasNext()) {
-            nextEvent = xmlReader.next();
-            switch (nextEvent) {
-                case XMLStreamConstants.END_DOCUMENT:
+    }
+
+    private void handleEvent(int event) throws TransformException, XMLStreamException {
+        switch (event) {
+            case XMLStreamConstants.END_DOCUMENT:
+                if (recordAncestors == null) {
                     handleEndDocument();
-                    break;
-                case XMLStreamReader.START_ELEMENT:
+                } else {
+                    context.popPathDocument(false);
+                }
+                break;
+            case XMLStreamReader.START_ELEMENT:
+                if (recordAncestors != null && context.pathDepth == 1) {
+                    startRecordAncestors();
+                } else {
                     handleStartElement();
-                    break;
-                case XMLStreamConstants.END_ELEMENT:
+                }
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                if (recordAncestors != null && context.pathDepth == recordAncestors.depth() + 1) {
+                    endRecordAncestors();
+                } else {
                     handleEndElement();
-                    break;
-                case XMLStreamConstants.CHARACTERS:
-                    handleCharacters();
-                    break;
-                case XMLStreamConstants.CDATA:
-                    handleCData();
-                    break;
-                case XMLStreamConstants.SPACE:
-                    handleWhitespace();
-                    break;
-                case XMLStreamConstants.COMMENT:
-                    handleComment();
-                    break;
-                case XMLStreamConstants.PROCESSING_INSTRUCTION:
-                    handleProcessingInstruction();
-                    break;
-                case XMLStreamConstants.ENTITY_REFERENCE:
-                    handleEntityReference();
-                    break;
+                }
+                break;
+            case XMLStreamConstants.CHARACTERS:
+                handleCharacters();
+                break;
+            case XMLStreamConstants.CDATA:
+                handleCData();
+                break;
+            case XMLStreamConstants.SPACE:
+                handleWhitespace();
+                break;
+            case XMLStreamConstants.COMMENT:
+                handleComment();
+                break;
+            case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                handleProcessingInstruction();
+                break;
+            case XMLStreamConstants.ENTITY_REFERENCE:
+                handleEntityReference();
+                break;
+        }
+    }
+
+    /**
+     * Starts a feed transform (see TransformFeed) - the input is pushed to the feed reader in chunks and the
+     * events completed by each chunk are then handled by continueFeed()
+     *
+     * <p>NB. Feed transforms are never pipelined - handlers run on the thread that feeds the input.</p>
+     *
+     * @param feedReader the reader of the fed input
+     * @param outputStream the output stream to be used for output (UTF-8 encoded)
+     */
+    void startFeed(FeedReader feedReader, OutputStream outputStream) throws TransformException {
+        useTemplate(null);
+        prepareTransform();
+        xmlWriter = resetUtf8Writer(outputStream);
+        initializeTemplates(xmlWriter);
+        this.feedReader = feedReader;
+        xmlReader = feedReader;
+        feedSkipDepth = 0;
+        quit = false;
+    }
+
+    /**
+     * Handles the events completed by the input fed so far (see startFeed)
+     *
+     * @return whether the transform has finished (i.e. the end of the document was reached or a handler quit)
+     */
+    boolean continueFeed() throws TransformException, XMLStreamException {
+        while (!quit && feedReader.hasNext()) {
+            int nextEvent = feedReader.nextFed();
+            if (nextEvent == AsyncXMLStreamReader.EVENT_INCOMPLETE) {
+                // the rest of the input has not been fed yet...
+                return false;
             }
+            if (feedSkipDepth > 0) {
+                // fast skipping the descendants of an element (see fastSkipDescendants)...
+                if (nextEvent == XMLStreamConstants.START_ELEMENT) {
+                    feedSkipDepth++;
+                } else if (nextEvent == XMLStreamConstants.END_ELEMENT && --feedSkipDepth == 0) {
+                    handleEndElement();
+                }
+            } else if (nextEvent == XMLStreamConstants.START_DOCUMENT) {
+                // the async parser reports the start of the document as an event (once the prolog has been fed)...
+                handleStartDocument();
+            } else {
+                handleEvent(nextEvent);
+            }
+        }
+        if (quit) {
+            // quit before the end of the document - nothing more will be read...
+            feedReader.close();
+        }
+        xmlWriter.flush();
+        return true;
+    }
+
+    private void startRecordAncestors() throws XMLStreamException {
+        // the wrapper element of a split out record stands in for the record's ancestors - the namespaces
+        // they bound are bound (but not declared) on the writer and the ancestors are pushed onto the path...
+        for (int i = 0; i < recordAncestors.namespacePrefixes.length; i++) {
+            if (!recordAncestors.namespacePrefixes[i].isEmpty()) {
+                xmlWriter.setPrefix(recordAncestors.namespacePrefixes[i], recordAncestors.namespaceURIs[i]);
+            }
+        }
+        context.pushAncestors(recordAncestors);
+    }
+
+    private void endRecordAncestors() throws XMLStreamException {
+        for (int i = recordAncestors.depth(); i > 0; i--) {
+            context.popPathElement();
         }
     }
 
@@ -326,6 +804,11 @@ public class Transformer<T> {
 
     private void handleStartElement() throws TransformException, XMLStreamException {
         context.initializeForEventHandler(EventType.START_ELEMENT);
+        if (recordSplitter != null && applyingLevel == 0 && recordSplitter.split(context)) {
+            // the element was a record - which has been read (and is transformed) separately...
+            context.popPathElement();
+            return;
+        }
         ContinueState continueState = startElementHandlers.callAll(context);
         if (context.elementHasBeenRead && applyingLevel == 0) {
             context.elementHasBeenRead = false;
@@ -347,45 +830,142 @@ public class Transformer<T> {
                 }
                 break;
         }
-        if (quit || context.currentlySkipping) {
+        if (quit) {
             return;
         }
-        // handle before attributes...
-        handleBeforeAttributes();
-        if (quit) {
+        if (context.currentlySkipping) {
+            if ((fastSkipping && continueState == ContinueState.SKIP_THIS_AND_DESCENDANTS) || context.canFastSkipDescendants()) {
+                fastSkipDescendants();
+            }
             return;
         }
-        // handle each attribute...
-        for (int a = 0, amax = xmlReader.getAttributeCount(); a < amax; a++) {
-            handleAttribute(a);
+        // handle before attributes...
+        if (handlingBeforeAttributes) {
+            handleBeforeAttributes();
             if (quit) {
                 return;
             }
         }
+        // handle each attribute...
+        if (handlingAttributes) {
+            for (int a = 0, amax = xmlReader.getAttributeCount(); a < amax; a++) {
+                handleAttribute(a);
+                if (quit) {
+                    return;
+                }
+            }
+        } else {
+            writeAttributes();
+        }
         // handle after attributes...
-        handleAfterAttributes();
-        if (quit) {
-            return;
+        if (handlingAfterAttributes) {
+            handleAfterAttributes();
+            if (quit) {
+                return;
+            }
         }
         // handle before namespaces...
-        handleBeforeNamespaces();
-        if (quit) {
-            return;
+        if (handlingBeforeNamespaces) {
+            handleBeforeNamespaces();
+            if (quit) {
+                return;
+            }
         }
         // handle each namespace...
-        for (int n = 0, nmax = xmlReader.getNamespaceCount(); n < nmax; n++) {
-            handleNamespace(n);
+        if (handlingNamespaces) {
+            for (int n = 0, nmax = xmlReader.getNamespaceCount(); n < nmax; n++) {
+                handleNamespace(n);
+                if (quit) {
+                    return;
+                }
+            }
+        } else {
+            writeNamespaces();
+        }
+        // handle after namespaces...
+        if (handlingAfterNamespaces) {
+            handleAfterNamespaces();
             if (quit) {
                 return;
             }
         }
-        // handle after namespaces...
-        handleAfterNamespaces();
-        if (quit) {
+        // handle after attributes and after namespaces...
+        if (handlingAfterStartElement) {
+            handleAfterStartElement();
+        }
+    }
+
+    private void collectHandledPhases() {
+        handlingBeforeAttributes = !beforeAttributesHandlers.isEmpty();
+        handlingAttributes = !attributeHandlers.isEmpty();
+        handlingAfterAttributes = !afterAttributesHandlers.isEmpty();
+        handlingBeforeNamespaces = !beforeNamespacesHandlers.isEmpty();
+        handlingNamespaces = namespaceHandlers.size() > 0;
+        handlingAfterNamespaces = !afterNamespacesHandlers.isEmpty();
+        handlingAfterStartElement = !afterStartElementHandlers.isEmpty();
+    }
+
+    /**
+     * Writes the attributes of the current element as read (when there are no attribute handlers)
+     */
+    private void writeAttributes() throws XMLStreamException {
+        if (context.isSkippingThisElement()) {
             return;
         }
-        // handle after attributes and after namespaces...
-        handleAfterStartElement();
+        for (int a = 0, amax = xmlReader.getAttributeCount(); a < amax; a++) {
+            xmlWriter.writeAttribute(context.names.get(xmlReader.getAttributeNamespace(a), xmlReader.getAttributeLocalName(a),
+                    xmlReader.getAttributePrefix(a)), xmlReader.getAttributeValue(a));
+        }
+    }
+
+    /**
+     * Writes the namespaces of the current element as read (when there are no namespace handlers)
+     */
+    private void writeNamespaces() throws XMLStreamException {
+        if (context.isSkippingThisElement()) {
+            return;
+        }
+        for (int n = 0, nmax = xmlReader.getNamespaceCount(); n < nmax; n++) {
+            String prefix = xmlReader.getNamespacePrefix(n);
+            if (prefix != null && !prefix.isEmpty()) {
+                xmlWriter.writeNamespace(prefix, xmlReader.getNamespaceURI(n));
+            } else {
+                xmlWriter.writeDefaultNamespace(xmlReader.getNamespaceURI(n));
+            }
+        }
+    }
+
+    /**
+     * Moves the reader straight to the end of the current element (without handling any of its descendants)
+     * and then handles that end element
+     */
+    private void fastSkipDescendants() throws TransformException, XMLStreamException {
+        if (xmlReader.getEventType() != XMLStreamConstants.START_ELEMENT) {
+            return;
+        }
+        if (xmlReader == feedReader) {
+            // the rest of the element may not have been fed yet - so its events are skipped as they are completed
+            // (see continueFeed)...
+            feedSkipDepth = 1;
+            return;
+        }
+        if (xmlReader instanceof XMLStreamReader2) {
+            // let the parser skip the tokens (without constructing text etc.)...
+            ((XMLStreamReader2)xmlReader).skipElement();
+        } else {
+            int depth = 1;
+            while (depth > 0) {
+                switch (xmlReader.next()) {
+                    case XMLStreamConstants.START_ELEMENT:
+                        depth++;
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        depth--;
+                        break;
+                }
+            }
+        }
+        handleEndElement();
     }
 
     private void handleBeforeAttributes() throws TransformException, XMLStreamException {
@@ -397,7 +977,7 @@ public class Transformer<T> {
         context.initializeForEventHandler(EventType.ATTRIBUTE, index, nested);
         ContinueState continueState = attributeHandlers.callAll(context);
         if (continueState == ContinueState.CONTINUE && !context.currentlySkipping && !context.isSkippingThisElement()) {
-            xmlWriter.writeAttribute(context.overrideName, context.overrideAttributeValue);
+            xmlWriter.writeAttribute(context.getOverrideName(), context.getOverrideAttributeValue());
         }
         context.popPath();
     }
@@ -416,10 +996,11 @@ public class Transformer<T> {
         context.initializeForEventHandler(EventType.NAMESPACE, index, nested);
         ContinueState continueState = namespaceHandlers.callAll(context);
         if (continueState == ContinueState.CONTINUE && !context.currentlySkipping && !context.isSkippingThisElement()) {
-            if (context.overrideNamespacePrefix != null && !context.overrideNamespacePrefix.isEmpty()) {
-                xmlWriter.writeNamespace(context.overrideNamespacePrefix, context.overrideNamespaceURI);
+            String prefix = context.getOverrideNamespacePrefix();
+            if (prefix != null && !prefix.isEmpty()) {
+                xmlWriter.writeNamespace(prefix, context.getOverrideNamespaceURI());
             } else {
-                xmlWriter.writeDefaultNamespace(context.overrideNamespaceURI);
+                xmlWriter.writeDefaultNamespace(context.getOverrideNamespaceURI());
             }
         }
         context.popPath();
@@ -458,31 +1039,49 @@ public class Transformer<T> {
             context.initializeForEventHandler(EventType.CHARACTERS);
             ContinueState continueState = charactersHandlers.callAll(context);
             if (continueState == ContinueState.CONTINUE && !context.currentlySkipping) {
-                xmlWriter.writeCharacters(context.overrideText);
+                writeOverrideText();
             }
             context.popPath();
         }
     }
 
+    private void writeOverrideText() throws XMLStreamException {
+        if ((context.pendingOverrides & TransformContext.PENDING_TEXT) != 0) {
+            writeReaderText();
+        } else {
+            xmlWriter.writeCharacters(context.overrideText);
+        }
+    }
+
+    private void writeReaderText() throws XMLStreamException {
+        if (applyingLevel == 0) {
+            // pass the reader's own text buffer straight to the writer (no string is created)...
+            xmlWriter.writeCharacters(xmlReader.getTextCharacters(), xmlReader.getTextStart(), xmlReader.getTextLength());
+        } else {
+            // applied nodes are already strings...
+            xmlWriter.writeCharacters(xmlReader.getText());
+        }
+    }
+
     private void handleCData() throws TransformException, XMLStreamException {
         context.initializeForEventHandler(EventType.CDATA);
         ContinueState continueState = cDataHandlers.callAll(context);
         if (continueState == ContinueState.CONTINUE && !context.currentlySkipping) {
-            xmlWriter.writeCData(context.overrideText);
+            xmlWriter.writeCData(context.getOverrideText());
         }
         context.popPath();
     }
 
     private void handleWhitespace() throws TransformException, XMLStreamException {
         context.initializeForEventHandler(EventType.WHITE_SPACE);
-        EventHandlerList handlers = whitespaceHandlers.getHolders(context.getPath());
+        EventHandlerList handlers = context.getMatchingHolders(whitespaceHandlers);
         if (handlers.size() > 0) {
             ContinueState continueState = handlers.callAll(context);
             if (continueState == ContinueState.CONTINUE && !context.currentlySkipping) {
-                xmlWriter.writeCharacters(context.overrideText);
+                writeOverrideText();
             }
         } else if (!context.currentlySkipping && !suppressWhitespace) {
-            xmlWriter.writeCharacters(xmlReader.getText());
+            writeReaderText();
         }
         context.popPath();
     }
@@ -491,7 +1090,7 @@ public class Transformer<T> {
         context.initializeForEventHandler(EventType.COMMENT);
         ContinueState continueState = commentHandlers.callAll(context);
         if (continueState == ContinueState.CONTINUE && !context.currentlySkipping) {
-            xmlWriter.writeComment(context.overrideText);
+            xmlWriter.writeComment(context.getOverrideText());
         }
         context.popPath();
     }
@@ -500,7 +1099,7 @@ public class Transformer<T> {
         context.initializeForEventHandler(EventType.PROCESSING_INSTRUCTION);
         ContinueState continueState = processingInstructionHandlers.callAll(context);
         if (continueState == ContinueState.CONTINUE && !context.currentlySkipping) {
-            xmlWriter.writeProcessingInstruction(context.overridePITarget, context.overridePIData);
+            xmlWriter.writeProcessingInstruction(context.getOverridePITarget(), context.getOverridePIData());
         }
         context.popPath();
     }
@@ -513,7 +1112,7 @@ public class Transformer<T> {
                 xmlWriter.writeCharacters(context.overrideText);
             }
         } else {
-            EventHandlerList handlers = charactersHandlers.getHolders(context.getPath());
+            EventHandlerList handlers = context.getMatchingHolders(charactersHandlers);
             if (handlers.size() > 0) {
                 ContinueState continueState = handlers.callAll(context);
                 if (continueState == ContinueState.CONTINUE && !context.currentlySkipping) {
@@ -600,6 +1199,74 @@ public class Transformer<T> {
         endDocumentHandlers = new EventHandlerList();
         entityReferenceHandlers = new EventHandlerList();
         namespaceHandlers = new EventHandlerList();
+        collectHandlerPathMaps();
+        for (Map.Entry<EventType, Integer> cacheSize : pathMapCacheSizes.entrySet()) {
+            getHandlerPathMap(cacheSize.getKey()).setCacheSize(cacheSize.getValue());
+        }
+    }
+
+    void collectHandlerPathMaps() {
+        handlerPathMaps = new EventHandlerPathMap[] {
+                startElementHandlers,
+                endElementHandlers,
+                attributeHandlers,
+                beforeAttributesHandlers,
+                afterAttributesHandlers,
+                beforeNamespacesHandlers,
+                afterNamespacesHandlers,
+                afterStartElementHandlers,
+                processingInstructionHandlers,
+                commentHandlers,
+                charactersHandlers,
+                cDataHandlers,
+                whitespaceHandlers
+        };
+        for (int i = 0; i < handlerPathMaps.length; i++) {
+            handlerPathMaps[i].slot = i;
+        }
+        // the maps whose handlers are still called for the descendants of skipped elements...
+        skippingPathMaps = new EventHandlerPathMap[] {
+                startElementHandlers,
+                endElementHandlers,
+                processingInstructionHandlers,
+                commentHandlers,
+                charactersHandlers,
+                cDataHandlers,
+                whitespaceHandlers
+        };
+    }
+
+    private EventHandlerPathMap getHandlerPathMap(EventType eventType) {
+        switch (eventType) {
+            case START_ELEMENT:
+                return startElementHandlers;
+            case END_ELEMENT:
+                return endElementHandlers;
+            case ATTRIBUTE:
+                return attributeHandlers;
+            case BEFORE_ATTRIBUTES:
+                return beforeAttributesHandlers;
+            case AFTER_ATTRIBUTES:
+                return afterAttributesHandlers;
+            case BEFORE_NAMESPACES:
+                return beforeNamespacesHandlers;
+            case AFTER_NAMESPACES:
+                return afterNamespacesHandlers;
+            case AFTER_START_ELEMENT:
+                return afterStartElementHandlers;
+            case PROCESSING_INSTRUCTION:
+                return processingInstructionHandlers;
+            case COMMENT:
+                return commentHandlers;
+            case CHARACTERS:
+                return charactersHandlers;
+            case CDATA:
+                return cDataHandlers;
+            case WHITE_SPACE:
+                return whitespaceHandlers;
+            default:
+                throw new IllegalArgumentException("Event type " + eventType + " handlers are not path matched");
+        }
     }
     // </editor-fold>
 
@@ -1357,14 +2024,32 @@ public class Transformer<T> {
     // <editor-fold desc="Template handling methods">
     void buildTemplating(OptimusTransformTemplate template) throws TransformException {
         this.template = template;
-        this.templateImports = new ArrayList<>();
+        this.templates = new ArrayList<>();
+        this.templates.add(template);
         this.allowSelfClosing.clear();
         buildNamespacesFromTemplate(template);
         buildOptionsFromTemplate();
-        registerHandlersForTemplate(template, false, 0);
+        registerHandlersForTemplate(template, false, 0, 0);
         buildImportedTemplates(template, 0);
     }
 
+    /**
+     * Collects the imported templates of a template (and recursively their imports)
+     * NB. The templates are collected in the same order as they are registered by buildTemplating()
+     *
+     * @param template the importing template
+     * @param templates the list of templates to be populated
+     */
+    static void collectImportedTemplates(OptimusTransformTemplate template, List<OptimusTransformTemplate> templates) throws Exception {
+        List<OptimusTransformTemplate> imports = template.getImports();
+        if (imports != null) {
+            templates.addAll(imports);
+            for (OptimusTransformTemplate imported : imports) {
+                collectImportedTemplates(imported, templates);
+            }
+        }
+    }
+
     private List<Class> getSuperClasses(OptimusTransformTemplate template) throws TransformException {
         List<Class> result = new ArrayList<>();
         result.add(template.getClass());
@@ -1380,6 +2065,18 @@ public class Transformer<T> {
     }
 
     private void buildNamespacesFromTemplate(OptimusTransformTemplate template) throws TransformException {
+        TemplateDispatcher dispatcher = TemplateDispatchers.forTemplateClass(template.getClass());
+        if (dispatcher != null) {
+            // namespaces already collected (at compile time) by the generated dispatcher...
+            if (dispatcher.getDefaultNamespaceURI() != null) {
+                namespaceContext.setDefaultNamespaceURI(dispatcher.getDefaultNamespaceURI());
+            }
+            String[] namespaces = dispatcher.getNamespaces();
+            for (int i = 0; i + 1 < namespaces.length; i += 2) {
+                namespaceContext.addNamespace(namespaces[i], namespaces[i + 1]);
+            }
+            return;
+        }
         // get all class + super-classes...
         List<Class> clazzes = getSuperClasses(template);
         // go through namespaces on each class in inheritance chain...
@@ -1402,6 +2099,17 @@ public class Transformer<T> {
     }
 
     private void buildOptionsFromTemplate() throws TransformException {
+        TemplateDispatcher dispatcher = TemplateDispatchers.forTemplateClass(template.getClass());
+        if (dispatcher != null) {
+            // options already collected (at compile time) by the generated dispatcher...
+            for (TemplateConfig.ConfigOptions option : dispatcher.getConfigOptions()) {
+                applyConfigOption(option);
+            }
+            for (String selfCloser: dispatcher.getAllowSelfClosing()) {
+                this.allowSelfClosing.add(nameToQName(selfCloser, namespaceContext));
+            }
+            return;
+        }
         // get all class + super-classes...
         List<Class> clazzes = getSuperClasses(template);
         // go through namespaces on each class in inheritance chain...
@@ -1409,44 +2117,7 @@ public class Transformer<T> {
             TemplateConfig templateConfig = (TemplateConfig)clazz.getAnnotation(TemplateConfig.class);
             if (templateConfig != null) {
                 for (TemplateConfig.ConfigOptions option : templateConfig.options()) {
-                    switch (option) {
-                        case SUPPRESS_WHITESPACE:
-                            this.suppressWhitespace = true;
-                            break;
-                        case NO_SUPPRESS_WHITESPACE:
-                            this.suppressWhitespace = false;
-                            break;
-                        case TRACK_ATTRIBUTES:
-                            this.trackAttributes = true;
-                            break;
-                        case NO_TRACK_ATTRIBUTES:
-                            this.trackAttributes = false;
-                            break;
-                        case COALESCING:
-                            this.coalescing = true;
-                            break;
-                        case NO_COALESCING:
-                            this.coalescing = false;
-                            break;
-                        case FORCE_NON_SELF_CLOSING:
-                            this.forceNonSelfClosing = true;
-                            break;
-                        case NO_FORCE_NON_SELF_CLOSING:
-                            this.forceNonSelfClosing = false;
-                            break;
-                        case OMIT_XML_DECLARATION:
-                            this.omitXmlDeclaration = true;
-                            break;
-                        case NO_OMIT_XML_DECLARATION:
-                            this.omitXmlDeclaration = false;
-                            break;
-                        case PATH_MAP_CACHING_ON:
-                            this.pathMapCaching = true;
-                            break;
-                        case PATH_MAP_CACHING_OFF:
-                            this.pathMapCaching = false;
-                            break;
-                    }
+                    applyConfigOption(option);
                 }
                 String[] configAllowSelfClosers = templateConfig.allowSelfClosing();
                 if (configAllowSelfClosers != null) {
@@ -1458,19 +2129,84 @@ public class Transformer<T> {
         }
     }
 
+    private void applyConfigOption(TemplateConfig.ConfigOptions option) {
+        switch (option) {
+            case SUPPRESS_WHITESPACE:
+                this.suppressWhitespace = true;
+                break;
+            case NO_SUPPRESS_WHITESPACE:
+                this.suppressWhitespace = false;
+                break;
+            case TRACK_ATTRIBUTES:
+                this.trackAttributes = true;
+                break;
+            case NO_TRACK_ATTRIBUTES:
+                this.trackAttributes = false;
+                break;
+            case TRACK_INDEXES:
+                this.trackIndexes = true;
+                break;
+            case NO_TRACK_INDEXES:
+                this.trackIndexes = false;
+                break;
+            case FAST_SKIPPING:
+                this.fastSkipping = true;
+                break;
+            case NO_FAST_SKIPPING:
+                this.fastSkipping = false;
+                break;
+            case COALESCING:
+                this.coalescing = true;
+                break;
+            case NO_COALESCING:
+                this.coalescing = false;
+                break;
+            case PIPELINED:
+                this.pipelined = true;
+                break;
+            case NO_PIPELINED:
+                this.pipelined = false;
+                break;
+            case FORCE_NON_SELF_CLOSING:
+                this.forceNonSelfClosing = true;
+                break;
+            case NO_FORCE_NON_SELF_CLOSING:
+                this.forceNonSelfClosing = false;
+                break;
+            case OMIT_XML_DECLARATION:
+                this.omitXmlDeclaration = true;
+                break;
+            case NO_OMIT_XML_DECLARATION:
+                this.omitXmlDeclaration = false;
+                break;
+            case PATH_MAP_CACHING_ON:
+                this.pathMapCaching = true;
+                break;
+            case PATH_MAP_CACHING_OFF:
+                this.pathMapCaching = false;
+                break;
+        }
+    }
+
     private void buildImportedTemplates(OptimusTransformTemplate template, int importerPriorityOffset) throws TransformException {
         try {
             List<OptimusTransformTemplate> imports = template.getImports();
             if (imports != null) {
-                templateImports.addAll(imports);
+                int templateIndex = templates.size();
+                templates.addAll(imports);
                 for (OptimusTransformTemplate imported : imports) {
                     int priorityOffset = 0;
-                    ImportPriorityOffset priorityOffsetAnnotation = imported.getClass().getAnnotation(ImportPriorityOffset.class);
-                    if (priorityOffsetAnnotation != null) {
-                        priorityOffset = priorityOffsetAnnotation.value();
+                    TemplateDispatcher dispatcher = TemplateDispatchers.forTemplateClass(imported.getClass());
+                    if (dispatcher != null) {
+                        priorityOffset = dispatcher.getImportPriorityOffset();
+                    } else {
+                        ImportPriorityOffset priorityOffsetAnnotation = imported.getClass().getAnnotation(ImportPriorityOffset.class);
+                        if (priorityOffsetAnnotation != null) {
+                            priorityOffset = priorityOffsetAnnotation.value();
+                        }
                     }
                     buildNamespacesFromTemplate(imported);
-                    registerHandlersForTemplate(imported, true, priorityOffset + importerPriorityOffset);
+                    registerHandlersForTemplate(imported, true, priorityOffset + importerPriorityOffset, templateIndex++);
                     buildImportedTemplates(imported, priorityOffset + importerPriorityOffset);
                 }
             }
@@ -1479,11 +2215,24 @@ public class Transformer<T> {
         }
     }
 
-    private void registerHandlersForTemplate(OptimusTransformTemplate template, boolean imported, int priorityOffset) throws TransformException {
+    private void registerHandlersForTemplate(OptimusTransformTemplate template, boolean imported, int priorityOffset, int templateIndex) throws TransformException {
         if (!imported) {
             // top level template - clear the current handlers...
             initializeHandlerMaps();
         }
+        TemplateDispatcher dispatcher = TemplateDispatchers.forTemplateClass(template.getClass());
+        if (dispatcher != null) {
+            // template methods already collected (at compile time) by the generated dispatcher - and called directly by it...
+            TemplateMethodDescriptor[] templateMethods = dispatcher.getTemplateMethods();
+            for (int i = 0; i < templateMethods.length; i++) {
+                TemplateMethodDescriptor templateMethod = templateMethods[i];
+                final int methodIndex = i;
+                registerTemplateMethod(templateMethod.getEvent(), new EventHandlerHolder(templateMethod.getMatchPath(),
+                        templateMethod.getPriority() + priorityOffset, templateMethod.getMethodName(),
+                        instance -> dispatcher.dispatch((OptimusTransformTemplate)instance, methodIndex), templateIndex));
+            }
+            return;
+        }
         // get the methods...
         Method[] methods = template.getClass().getMethods();
         EventTemplate eventTemplate;
@@ -1492,7 +2241,8 @@ public class Transformer<T> {
             if (eventTemplate != null) {
                 // only methods with zero arity...
                 if (method.getParameterCount() == 0 && method.getReturnType().equals(ContinueState.class)) {
-                    registerTemplateMethod(eventTemplate.event(), eventTemplate.matchPath(), eventTemplate.priority() + priorityOffset, method, template);
+                    registerTemplateMethod(eventTemplate.event(), new EventHandlerHolder(eventTemplate.matchPath(),
+                            eventTemplate.priority() + priorityOffset, method, templateIndex));
                 } else if (method.getParameterCount() != 0) {
                     throw new TransformException("Incorrect arity on template method '" + method.getName() + "'");
                 } else {
@@ -1502,8 +2252,7 @@ public class Transformer<T> {
         }
     }
 
-    private void registerTemplateMethod(EventType eventType, String matchPath, int priority, Method method, Object ownerObject) throws TransformException {
-        EventHandlerHolder holder = new EventHandlerHolder(matchPath, priority, method, ownerObject);
+    private void registerTemplateMethod(EventType eventType, EventHandlerHolder holder) throws TransformException {
         switch (eventType) {
             case START_ELEMENT:
                 startElementHandlers.add(holder);
@@ -1623,6 +2372,53 @@ public class Transformer<T> {
         this.trackAttributes = trackAttributes;
     }
 
+    /**
+     * Get whether the transform is tracking indexes
+     * (i.e. whether TransformContext.getIndex() and getAncestorIndex() can be used)
+     * @return whether the transform is tracking indexes
+     */
+    public boolean getTrackIndexes() {
+        return trackIndexes;
+    }
+
+    /**
+     * Set whether the transform is to track indexes
+     * (the index of each node amongst its same named siblings - as returned by TransformContext.getIndex()
+     * and getAncestorIndex())
+     * Indexes are tracked by default - turning tracking off saves counting the siblings of every node
+     * when no handlers need indexes
+     * NB. Indexes are always tracked when any match paths have positional predicates (e.g. "item[2]")
+     * @param trackIndexes whether the transform is to track indexes
+     */
+    public void setTrackIndexes(boolean trackIndexes) {
+        if (transformStarted) {
+            throw new IllegalStateException("Index tracking may not be set once transform has started");
+        }
+        this.trackIndexes = trackIndexes;
+    }
+
+    /**
+     * Get whether the transform fast skips the descendants of elements skipped with SKIP_THIS_AND_DESCENDANTS
+     * @return whether the transform fast skips descendants
+     */
+    public boolean getFastSkipping() {
+        return fastSkipping;
+    }
+
+    /**
+     * Set whether the transform is to fast skip the descendants of elements skipped with SKIP_THIS_AND_DESCENDANTS
+     * (when fast skipping, the reader is moved straight to the end of the skipped element - and no handlers
+     * are called for any of its descendants)
+     * NB. Even when not fast skipping, descendants are fast skipped where no handlers could match any of them
+     * @param fastSkipping whether the transform is to fast skip descendants
+     */
+    public void setFastSkipping(boolean fastSkipping) {
+        if (transformStarted) {
+            throw new IllegalStateException("Fast skipping may not be set once transform has started");
+        }
+        this.fastSkipping = fastSkipping;
+    }
+
     /**
      * Get whether the transform is to suppress whitespace
      * @return whether the transform is to suppress whitespace
@@ -1701,6 +2497,30 @@ public class Transformer<T> {
         this.coalescing = coalescing;
     }
 
+    /**
+     * Get whether the transform is pipelined
+     * (Pipelined transforms read the input and write the output on threads of their own)
+     * @return whether the transform is pipelined
+     */
+    public boolean getPipelined() {
+        return pipelined;
+    }
+
+    /**
+     * Set whether the transform is pipelined
+     * (Pipelined transforms read the input and write the output on threads of their own - so that parsing
+     * and serializing overlap with running the handlers.  Handlers still run on the transforming thread, but
+     * a failure writing the output may only be reported by a subsequent write.  The reader and writer threads
+     * are re-used by subsequent transforms of the same transformer - e.g. when reset or pooled)
+     * @param pipelined whether the transform is pipelined
+     */
+    public void setPipelined(boolean pipelined) {
+        if (transformStarted) {
+            throw new IllegalStateException("Pipelined may not be set once transform has started");
+        }
+        this.pipelined = pipelined;
+    }
+
 
     /**
      * Get whether the XML Declaration should be omitted at the start of the document
@@ -1737,6 +2557,99 @@ public class Transformer<T> {
     public void setPathMapCaching(boolean pathMapCaching) {
         this.pathMapCaching = pathMapCaching;
     }
+
+    /**
+     * Set the path map cache size for all event types
+     * The cache size is the maximum number of (distinct) node names for which each path match
+     * state remembers results (i.e. next states and matching handlers) - results for the least
+     * recently used names are evicted when the cache is full
+     * @param cacheSize the maximum number of names remembered by each path match state
+     */
+    public void setPathMapCacheSize(int cacheSize) {
+        for (EventHandlerPathMap pathMap : handlerPathMaps) {
+            pathMap.setCacheSize(cacheSize);
+        }
+        for (EventType eventType : EventType.values()) {
+            if (isPathMatched(eventType)) {
+                pathMapCacheSizes.put(eventType, cacheSize);
+            }
+        }
+    }
+
+    /**
+     * Set the path map cache size for the handlers of a specific event type (and hence node type)
+     * The cache size is the maximum number of (distinct) node names for which each path match
+     * state remembers results (i.e. next states and matching handlers) - results for the least
+     * recently used names are evicted when the cache is full
+     * @param eventType the event type (must be an event type whose handlers are path matched)
+     * @param cacheSize the maximum number of names remembered by each path match state
+     */
+    public void setPathMapCacheSize(EventType eventType, int cacheSize) {
+        getHandlerPathMap(eventType).setCacheSize(cacheSize);
+        pathMapCacheSizes.put(eventType, cacheSize);
+    }
+
+    /**
+     * Get the path map cache size for the handlers of a specific event type
+     * @param eventType the event type (must be an event type whose handlers are path matched)
+     * @return the maximum number of names remembered by each path match state
+     */
+    public int getPathMapCacheSize(EventType eventType) {
+        return getHandlerPathMap(eventType).getCacheSize();
+    }
+
+    /**
+     * Get the path map cache statistics (for all event types)
+     * @return the path map cache statistics
+     */
+    public PathMatchCacheStatistics getPathMapCacheStatistics() {
+        PathMatchCacheStatistics result = new PathMatchCacheStatistics(0, 0, 0);
+        for (EventHandlerPathMap pathMap : handlerPathMaps) {
+            result = result.plus(pathMap.getCacheStatistics());
+        }
+        return result;
+    }
+
+    /**
+     * Get the path map cache statistics for the handlers of a specific event type
+     * @param eventType the event type (must be an event type whose handlers are path matched)
+     * @return the path map cache statistics
+     */
+    public PathMatchCacheStatistics getPathMapCacheStatistics(EventType eventType) {
+        return getHandlerPathMap(eventType).getCacheStatistics();
+    }
+
+    private boolean isPathMatched(EventType eventType) {
+        switch (eventType) {
+            case START_DOCUMENT:
+            case END_DOCUMENT:
+            case ENTITY_REFERENCE:
+            case NAMESPACE:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * Get the provider of the StAX factories used by the transform
+     * @return the provider of the StAX factories
+     */
+    public XMLFactoryProvider getXmlFactoryProvider() {
+        return xmlFactoryProvider;
+    }
+
+    /**
+     * Set the provider of the StAX factories used by the transform
+     * (by default, shared pre-configured Woodstox factories are used - see DefaultXMLFactoryProvider)
+     * @param xmlFactoryProvider the provider of the StAX factories
+     */
+    public void setXmlFactoryProvider(XMLFactoryProvider xmlFactoryProvider) {
+        if (xmlFactoryProvider == null) {
+            throw new IllegalArgumentException("XML factory provider may not be null");
+        }
+        this.xmlFactoryProvider = xmlFactoryProvider;
+    }
     // </editor-fold>
 
     private static QName nameToQName(String name, TransformNamespaceContext namespaceContext) throws TransformException {
@@ -0,0 +1,148 @@
+package com.adpetions.optimus;
+
+import com.adpetions.optimus.exceptions.TransformException;
+import com.adpetions.optimus.io.TransformInput;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A bounded pool of re-usable transformers for a compiled transform
+ *
+ * <p>Transformers acquired from the pool are reset to transform the given input and, once released
+ * back to the pool, are re-used by subsequent acquires (re-using their transform context, template
+ * instances etc.) - rather than a new transformer being created for every document.</p>
+ *
+ * <p>The pool is thread-safe.  The pool holds at most maxIdle idle transformers - transformers released
+ * when the pool is already full are simply discarded.</p>
+ *
+ * @param <T> the type of the cargo that will be passed to registered EventHandler.handle() methods
+ */
+public class TransformerPool<T> {
+    private final CompiledTransform<T> compiled;
+    private final BlockingQueue<Transformer<T>> idle;
+
+    /**
+     * Constructs a pool of transformers for the compiled transform
+     *
+     * @param compiled the compiled transform
+     * @param maxIdle the maximum number of idle transformers held by the pool
+     */
+    public TransformerPool(CompiledTransform<T> compiled, int maxIdle) {
+        if (maxIdle < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1");
+        }
+        this.compiled = compiled;
+        this.idle = new ArrayBlockingQueue<>(maxIdle);
+    }
+
+    /**
+     * Acquires a transformer (from the pool, or a new one if none are idle) to transform the given input XML string
+     *
+     * @param xml the input XML string
+     * @return the transformer (which should be released back to the pool when done with)
+     */
+    public Transformer<T> acquire(String xml) {
+        return acquire(new StringReader(xml));
+    }
+
+    /**
+     * Acquires a transformer (from the pool, or a new one if none are idle) to transform the given input XML reader
+     *
+     * @param reader the input XML reader
+     * @return the transformer (which should be released back to the pool when done with)
+     */
+    public Transformer<T> acquire(Reader reader) {
+        return acquire(TransformInput.of(reader));
+    }
+
+    /**
+     * Acquires a transformer (from the pool, or a new one if none are idle) to transform the given input
+     *
+     * @param input the input XML
+     * @return the transformer (which should be released back to the pool when done with)
+     */
+    public Transformer<T> acquire(TransformInput input) {
+        Transformer<T> result = idle.poll();
+        if (result == null) {
+            return compiled.newTransformer(input);
+        }
+        return result.reset(input);
+    }
+
+    /**
+     * Releases a transformer back to the pool
+     *
+     * @param transformer the transformer (previously acquired from this pool)
+     */
+    public void release(Transformer<T> transformer) {
+        if (transformer.compiled != compiled) {
+            throw new IllegalArgumentException("Transformer was not acquired from this pool");
+        }
+        // drop references to the last input, output and cargo...
+        transformer.reset((TransformInput)null);
+        idle.offer(transformer);
+    }
+
+    /**
+     * Convenience method to transform an input XML string using a pooled transformer
+     *
+     * @param xml the input XML string
+     * @param cargo the cargo to be passed to handlers
+     * @return the string transform result
+     */
+    public String transform(String xml, T cargo) throws TransformException, XMLStreamException {
+        StringWriter writer = new StringWriter();
+        transform(new StringReader(xml), writer, cargo);
+        return writer.toString();
+    }
+
+    /**
+     * Convenience method to transform an input XML reader using a pooled transformer
+     *
+     * @param reader the input XML reader
+     * @param writer the writer to be used for output
+     * @param cargo the cargo to be passed to handlers
+     */
+    public void transform(Reader reader, Writer writer, T cargo) throws TransformException, XMLStreamException {
+        transform(TransformInput.of(reader), writer, cargo);
+    }
+
+    /**
+     * Convenience method to transform an input (e.g. bytes, byte buffer, file etc.) using a pooled transformer
+     *
+     * @param input the input XML
+     * @param writer the writer to be used for output
+     * @param cargo the cargo to be passed to handlers
+     */
+    public void transform(TransformInput input, Writer writer, T cargo) throws TransformException, XMLStreamException {
+        Transformer<T> transformer = acquire(input);
+        try {
+            transformer.setCargo(cargo);
+            transformer.transform(writer);
+        } finally {
+            release(transformer);
+        }
+    }
+
+    /**
+     * Get the number of idle transformers currently held by the pool
+     * @return the number of idle transformers
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Get the compiled transform for which the pool provides transformers
+     * @return the compiled transform
+     */
+    public CompiledTransform<T> getCompiledTransform() {
+        return compiled;
+    }
+}
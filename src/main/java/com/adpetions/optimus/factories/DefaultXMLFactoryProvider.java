@@ -0,0 +1,56 @@
+package com.adpetions.optimus.factories;
+
+import com.ctc.wstx.stax.WstxInputFactory;
+import com.ctc.wstx.stax.WstxOutputFactory;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+
+/**
+ * The default StAX factory provider - provides shared, pre-configured Woodstox factories
+ *
+ * <p>The factories are created (and configured) once, rather than being looked up for
+ * every transform.  Once configured, Woodstox factories are safe to share across threads.</p>
+ */
+public class DefaultXMLFactoryProvider implements XMLFactoryProvider {
+    private static final DefaultXMLFactoryProvider INSTANCE = new DefaultXMLFactoryProvider();
+
+    private final XMLInputFactory inputFactory;
+    private final XMLInputFactory coalescingInputFactory;
+    private final XMLOutputFactory outputFactory;
+
+    /**
+     * Constructs a new default factory provider (with its own factories)
+     * NB. Normally the shared instance should be used - see getInstance()
+     */
+    public DefaultXMLFactoryProvider() {
+        inputFactory = createInputFactory(false);
+        coalescingInputFactory = createInputFactory(true);
+        outputFactory = new WstxOutputFactory();
+    }
+
+    /**
+     * Get the shared default factory provider
+     * @return the shared default factory provider
+     */
+    public static DefaultXMLFactoryProvider getInstance() {
+        return INSTANCE;
+    }
+
+    private static XMLInputFactory createInputFactory(boolean coalescing) {
+        XMLInputFactory result = new WstxInputFactory();
+        result.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, Boolean.FALSE);
+        result.setProperty(XMLInputFactory.IS_COALESCING, coalescing);
+        return result;
+    }
+
+    @Override
+    public XMLInputFactory getInputFactory(boolean coalescing) {
+        return (coalescing ? coalescingInputFactory : inputFactory);
+    }
+
+    @Override
+    public XMLOutputFactory getOutputFactory() {
+        return outputFactory;
+    }
+}
@@ -0,0 +1,31 @@
+package com.adpetions.optimus.factories;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+
+/**
+ * Interface for providing the StAX factories used by transforms
+ *
+ * <p>Factories provided should be fully configured (they are not re-configured by the transformer)
+ * and, because providers are shared by transformers, must be safe to use for creating readers/writers
+ * from multiple threads.</p>
+ */
+public interface XMLFactoryProvider {
+    /**
+     * Get the input factory to be used for creating XML stream readers
+     *
+     * <p>The factory provided must not replace entity references (so that entity reference
+     * events can be handled).</p>
+     *
+     * @param coalescing whether the input factory is to coalesce adjacent text
+     * @return the input factory
+     */
+    XMLInputFactory getInputFactory(boolean coalescing);
+
+    /**
+     * Get the output factory to be used for creating XML stream writers
+     *
+     * @return the output factory
+     */
+    XMLOutputFactory getOutputFactory();
+}
@@ -0,0 +1,52 @@
+package com.adpetions.optimus.io;
+
+import org.codehaus.stax2.ri.Stax2ReaderAdapter;
+import org.codehaus.stax2.util.StreamReader2Delegate;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * An XML stream reader that owns the stream (or channel) it reads from - closing the reader also closes the stream
+ *
+ * <p>Used by the inputs that open their own streams (e.g. file inputs) - so that each reader created by an input
+ * closes just the stream it opened (and an input can be read by more than one transform at once).</p>
+ */
+final class ClosingXMLStreamReader extends StreamReader2Delegate {
+    private final Closeable opened;
+
+    /**
+     * Constructs a closing reader
+     *
+     * @param reader the reader of the opened stream
+     * @param opened the opened stream (or channel)
+     */
+    ClosingXMLStreamReader(XMLStreamReader reader, Closeable opened) {
+        super(Stax2ReaderAdapter.wrapIfNecessary(reader));
+        this.opened = opened;
+    }
+
+    @Override
+    public void close() throws XMLStreamException {
+        try {
+            super.close();
+        } finally {
+            closeQuietly(opened);
+        }
+    }
+
+    /**
+     * Closes a stream (or channel) - ignoring any failure to close it
+     *
+     * @param opened the stream (or channel)
+     */
+    static void closeQuietly(Closeable opened) {
+        try {
+            opened.close();
+        } catch (IOException e) {
+            // ignore - we're done with it anyway
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.adpetions.optimus.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An input stream that reads a file channel through a sliding memory-mapped window
+ *
+ * <p>The file is mapped (read-only) a window at a time - so files of any size (including those larger than
+ * can be mapped by a single buffer) can be read - and bytes are read straight from the mapped pages (i.e. from
+ * the operating system's page cache) with no intermediate buffering.  The position of the channel itself is
+ * not changed and the channel is not closed by closing the stream.</p>
+ */
+public class MappedFileInputStream extends InputStream {
+    /**
+     * The default size of the mapped window
+     */
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long end;
+    private final int windowSize;
+    private long windowStart;
+    private MappedByteBuffer window;
+
+    /**
+     * Constructs a stream reading the channel from its current position to its end
+     *
+     * @param channel the file channel
+     * @throws IOException if the channel position or size cannot be read
+     */
+    public MappedFileInputStream(FileChannel channel) throws IOException {
+        this(channel, channel.position(), channel.size() - channel.position(), DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Constructs a stream reading a region of the channel
+     *
+     * @param channel the file channel
+     * @param position the position in the file of the first byte to read
+     * @param length the number of bytes to read
+     * @param windowSize the size of the mapped window
+     */
+    public MappedFileInputStream(FileChannel channel, long position, long length, int windowSize) {
+        if (position < 0 || length < 0) {
+            throw new IllegalArgumentException("Position and length must not be negative");
+        }
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Window size must be at least 1");
+        }
+        this.channel = channel;
+        this.end = position + length;
+        this.windowSize = windowSize;
+        this.windowStart = position;
+    }
+
+    private boolean ensureWindow() throws IOException {
+        if (window != null && window.hasRemaining()) {
+            return true;
+        }
+        if (window != null) {
+            windowStart += window.capacity();
+        }
+        if (windowStart >= end) {
+            window = null;
+            return false;
+        }
+        window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(windowSize, end - windowStart));
+        return window.hasRemaining();
+    }
+
+    @Override
+    public int read() throws IOException {
+        return (ensureWindow() ? window.get() & 0xFF : -1);
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        if (!ensureWindow()) {
+            return -1;
+        }
+        int count = Math.min(length, window.remaining());
+        window.get(bytes, offset, count);
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && ensureWindow()) {
+            int count = (int)Math.min(n - skipped, window.remaining());
+            window.position(window.position() + count);
+            skipped += count;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        long remaining = end - windowStart - (window != null ? window.position() : 0);
+        return (int)Math.min(Integer.MAX_VALUE, Math.max(0L, remaining));
+    }
+
+    @Override
+    public void close() {
+        // drop the mapping (the channel is owned by the caller)...
+        window = null;
+        windowStart = end;
+    }
+}
@@ -0,0 +1,240 @@
+package com.adpetions.optimus.io;
+
+import org.codehaus.stax2.XMLInputFactory2;
+import org.codehaus.stax2.io.Stax2ByteArraySource;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The input to a transform
+ *
+ * <p>Byte inputs (input streams, byte arrays, byte buffers and files) are given to the XML parser as bytes - so
+ * that the parser decodes them itself (detecting the encoding from any byte order mark or XML declaration)
+ * rather than them having to be decoded to characters beforehand.</p>
+ *
+ * <p>Large files can be read memory-mapped (see of(FileChannel) and ofMapped(Path)) - where the parser reads
+ * the bytes straight from the mapped pages of the file.</p>
+ *
+ * <p>Inputs that read from a stream or reader can only be transformed once; inputs over bytes (byte arrays,
+ * byte buffers, files) and strings can be transformed any number of times - and by more than one transform at
+ * once (e.g. each transform of a file input opens the file itself, and closing its reader closes the file).</p>
+ */
+public abstract class TransformInput {
+    /**
+     * Creates the XML stream reader for this input
+     *
+     * @param inputFactory the input factory to use
+     * @return the XML stream reader
+     * @throws XMLStreamException if the reader cannot be created (or the input cannot be opened)
+     */
+    public abstract XMLStreamReader createXMLStreamReader(XMLInputFactory inputFactory) throws XMLStreamException;
+
+    /**
+     * Releases any resources held by this input (called when a transform of the input finishes)
+     *
+     * <p>NB. Streams opened by createXMLStreamReader() should be closed by closing the reader it returns (not
+     * by this) - so that an input can be read by more than one transform at once.  Readers and streams given
+     * to the input are not closed - they are owned by the caller.</p>
+     */
+    public void close() {
+        // nothing opened by default
+    }
+
+    // <editor-fold desc="Static factory methods">
+    /**
+     * Creates an input for an XML string
+     *
+     * @param xml the input XML string
+     * @return the input
+     */
+    public static TransformInput of(String xml) {
+        return new TransformInput() {
+            @Override
+            public XMLStreamReader createXMLStreamReader(XMLInputFactory inputFactory) throws XMLStreamException {
+                return inputFactory.createXMLStreamReader(new StringReader(xml));
+            }
+        };
+    }
+
+    /**
+     * Creates an input for a character reader
+     *
+     * @param reader the input XML reader
+     * @return the input
+     */
+    public static TransformInput of(Reader reader) {
+        return new TransformInput() {
+            @Override
+            public XMLStreamReader createXMLStreamReader(XMLInputFactory inputFactory) throws XMLStreamException {
+                return inputFactory.createXMLStreamReader(reader);
+            }
+        };
+    }
+
+    /**
+     * Creates an input for a byte stream
+     *
+     * @param inputStream the input XML byte stream
+     * @return the input
+     */
+    public static TransformInput of(InputStream inputStream) {
+        return new TransformInput() {
+            @Override
+            public XMLStreamReader createXMLStreamReader(XMLInputFactory inputFactory) throws XMLStreamException {
+                return inputFactory.createXMLStreamReader(inputStream);
+            }
+        };
+    }
+
+    /**
+     * Creates an input for a byte array
+     *
+     * @param bytes the input XML bytes
+     * @return the input
+     */
+    public static TransformInput of(byte[] bytes) {
+        return of(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Creates an input for a range of a byte array
+     *
+     * @param bytes the input XML bytes
+     * @param offset the offset of the first byte of the XML
+     * @param length the number of bytes of XML
+     * @return the input
+     */
+    public static TransformInput of(byte[] bytes, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > bytes.length - length) {
+            throw new IndexOutOfBoundsException("Offset " + offset + " and length " + length + " out of bounds for " + bytes.length + " bytes");
+        }
+        return new TransformInput() {
+            @Override
+            public XMLStreamReader createXMLStreamReader(XMLInputFactory inputFactory) throws XMLStreamException {
+                if (inputFactory instanceof XMLInputFactory2) {
+                    // Stax2 parsers read the bytes directly (without a stream)...
+                    return inputFactory.createXMLStreamReader(new Stax2ByteArraySource(bytes, offset, length));
+                }
+                return inputFactory.createXMLStreamReader(new ByteArrayInputStream(bytes, offset, length));
+            }
+        };
+    }
+
+    /**
+     * Creates an input for the remaining bytes of a byte buffer
+     *
+     * <p>The position of the buffer is not changed by transforming.</p>
+     *
+     * @param buffer the input XML byte buffer
+     * @return the input
+     */
+    public static TransformInput of(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            return of(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        ByteBuffer view = buffer.duplicate();
+        return new TransformInput() {
+            @Override
+            public XMLStreamReader createXMLStreamReader(XMLInputFactory inputFactory) throws XMLStreamException {
+                return inputFactory.createXMLStreamReader(new ByteBufferInputStream(view));
+            }
+        };
+    }
+
+    /**
+     * Creates an input for a file
+     *
+     * <p>The file is opened when the transform starts - and is closed (when the transform finishes) by closing
+     * the reader.</p>
+     *
+     * @param path the path of the input XML file
+     * @return the input
+     */
+    public static TransformInput of(Path path) {
+        return new TransformInput() {
+            @Override
+            public XMLStreamReader createXMLStreamReader(XMLInputFactory inputFactory) throws XMLStreamException {
+                InputStream opened;
+                try {
+                    opened = Files.newInputStream(path);
+                } catch (IOException ex) {
+                    throw new XMLStreamException("Unable to open input file '" + path + "'", ex);
+                }
+                try {
+                    return new ClosingXMLStreamReader(inputFactory.createXMLStreamReader(path.toUri().toString(), opened), opened);
+                } catch (XMLStreamException | RuntimeException ex) {
+                    ClosingXMLStreamReader.closeQuietly(opened);
+                    throw ex;
+                }
+            }
+        };
+    }
+
+    /**
+     * Creates a memory-mapped input for a file channel - from its current position to its end
+     *
+     * <p>The channel is mapped (read-only) a window at a time (see MappedFileInputStream).  The position
+     * of the channel is not changed and the channel is not closed.</p>
+     *
+     * @param channel the input XML file channel
+     * @return the input
+     */
+    public static TransformInput of(FileChannel channel) {
+        return new TransformInput() {
+            @Override
+            public XMLStreamReader createXMLStreamReader(XMLInputFactory inputFactory) throws XMLStreamException {
+                try {
+                    return inputFactory.createXMLStreamReader(new MappedFileInputStream(channel));
+                } catch (IOException ex) {
+                    throw new XMLStreamException("Unable to map input channel", ex);
+                }
+            }
+        };
+    }
+
+    /**
+     * Creates a memory-mapped input for a file
+     *
+     * <p>The file is opened (and mapped a window at a time - see MappedFileInputStream) when the transform
+     * starts - and is closed (when the transform finishes) by closing the reader.</p>
+     *
+     * @param path the path of the input XML file
+     * @return the input
+     */
+    public static TransformInput ofMapped(Path path) {
+        return new TransformInput() {
+            @Override
+            public XMLStreamReader createXMLStreamReader(XMLInputFactory inputFactory) throws XMLStreamException {
+                FileChannel opened;
+                try {
+                    opened = FileChannel.open(path, StandardOpenOption.READ);
+                } catch (IOException ex) {
+                    throw new XMLStreamException("Unable to open input file '" + path + "'", ex);
+                }
+                try {
+                    return new ClosingXMLStreamReader(
+                            inputFactory.createXMLStreamReader(path.toUri().toString(), new MappedFileInputStream(opened)), opened);
+                } catch (IOException ex) {
+                    ClosingXMLStreamReader.closeQuietly(opened);
+                    throw new XMLStreamException("Unable to map input file '" + path + "'", ex);
+                } catch (XMLStreamException | RuntimeException ex) {
+                    ClosingXMLStreamReader.closeQuietly(opened);
+                    throw ex;
+                }
+            }
+        };
+    }
+    // </editor-fold>
+}
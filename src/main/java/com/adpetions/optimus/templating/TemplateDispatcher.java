@@ -0,0 +1,70 @@
+package com.adpetions.optimus.templating;
+
+import com.adpetions.optimus.ContinueState;
+import com.adpetions.optimus.templating.annotations.TemplateConfig;
+
+/**
+ * A dispatcher for a template class - generated at compile time (by the TemplateDispatcherProcessor
+ * annotation processor) so that building the templating for a transform needs no runtime reflection
+ *
+ * <p>The dispatcher holds everything that would otherwise be read, by reflection, from the annotations
+ * of the template class (and its super-classes) and calls the template methods directly.</p>
+ *
+ * <p>Generated dispatchers are named after their template class (in the same package - e.g. the dispatcher for
+ * {@code Outer.MyTemplate} is {@code Outer_MyTemplate_OptimusDispatcher}) and are found by the Transformer by that
+ * name.  They are also registered as services (META-INF/services) - so can be listed using the ServiceLoader.
+ * Templates for which there is no dispatcher are built using reflection.</p>
+ */
+public interface TemplateDispatcher {
+    /**
+     * Get the template class for which this is the dispatcher
+     * @return the template class
+     */
+    Class<? extends OptimusTransformTemplate> getTemplateClass();
+
+    /**
+     * Get the default namespace URI declared (by @TemplateDefaultNamespaceURI) for the template
+     * @return the default namespace URI (or null if none declared)
+     */
+    String getDefaultNamespaceURI();
+
+    /**
+     * Get the namespaces declared (by @TemplateNamespace/@TemplateNamespaces) for the template
+     * @return the namespaces - as prefix and URI pairs (i.e. prefix, uri, prefix, uri...)
+     */
+    String[] getNamespaces();
+
+    /**
+     * Get the config options declared (by @TemplateConfig) for the template
+     * @return the config options - in the order in which they are to be applied
+     */
+    TemplateConfig.ConfigOptions[] getConfigOptions();
+
+    /**
+     * Get the self closing element names declared (by @TemplateConfig) for the template
+     * @return the element names allowed to self close
+     */
+    String[] getAllowSelfClosing();
+
+    /**
+     * Get the import priority offset declared (by @ImportPriorityOffset) for the template
+     * @return the import priority offset
+     */
+    int getImportPriorityOffset();
+
+    /**
+     * Get the @EventTemplate methods of the template
+     * @return the template methods (the index of each is the methodIndex used by dispatch())
+     */
+    TemplateMethodDescriptor[] getTemplateMethods();
+
+    /**
+     * Calls a template method
+     *
+     * @param template the template instance
+     * @param methodIndex the index of the method (in the getTemplateMethods() array)
+     * @return the continue state returned by the template method
+     * @throws Throwable any exception thrown by the template method
+     */
+    ContinueState dispatch(OptimusTransformTemplate template, int methodIndex) throws Throwable;
+}
@@ -0,0 +1,60 @@
+package com.adpetions.optimus.templating;
+
+import com.adpetions.optimus.EventType;
+
+/**
+ * Describes an @EventTemplate method of a template (as pre-built by a generated TemplateDispatcher)
+ */
+public final class TemplateMethodDescriptor {
+    private final String methodName;
+    private final EventType event;
+    private final String matchPath;
+    private final int priority;
+
+    /**
+     * Constructs a template method descriptor
+     *
+     * @param methodName the name of the template method
+     * @param event the event type for which the method is called
+     * @param matchPath the match path
+     * @param priority the priority
+     */
+    public TemplateMethodDescriptor(String methodName, EventType event, String matchPath, int priority) {
+        this.methodName = methodName;
+        this.event = event;
+        this.matchPath = matchPath;
+        this.priority = priority;
+    }
+
+    /**
+     * Get the name of the template method
+     * @return the method name
+     */
+    public String getMethodName() {
+        return methodName;
+    }
+
+    /**
+     * Get the event type for which the method is called
+     * @return the event type
+     */
+    public EventType getEvent() {
+        return event;
+    }
+
+    /**
+     * Get the match path
+     * @return the match path
+     */
+    public String getMatchPath() {
+        return matchPath;
+    }
+
+    /**
+     * Get the priority
+     * @return the priority
+     */
+    public int getPriority() {
+        return priority;
+    }
+}
@@ -10,6 +10,10 @@ public @interface TemplateConfig {
         NO_SUPPRESS_WHITESPACE,
         TRACK_ATTRIBUTES,
         NO_TRACK_ATTRIBUTES,
+        TRACK_INDEXES,
+        NO_TRACK_INDEXES,
+        FAST_SKIPPING,
+        NO_FAST_SKIPPING,
         COALESCING,
         NO_COALESCING,
         FORCE_NON_SELF_CLOSING,
@@ -17,7 +21,9 @@ public @interface TemplateConfig {
         OMIT_XML_DECLARATION,
         NO_OMIT_XML_DECLARATION,
         PATH_MAP_CACHING_ON,
-        PATH_MAP_CACHING_OFF
+        PATH_MAP_CACHING_OFF,
+        PIPELINED,
+        NO_PIPELINED
     }
 
     ConfigOptions[] options() default {};
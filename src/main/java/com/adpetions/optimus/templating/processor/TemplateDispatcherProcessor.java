@@ -0,0 +1,391 @@
+package com.adpetions.optimus.templating.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.Messager;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Annotation processor that generates a TemplateDispatcher for each (concrete) OptimusTransformTemplate class
+ *
+ * <p>The generated dispatcher holds the namespaces, config options, import priority offset and template methods
+ * (as declared by the template annotations on the template class and its super-classes) and calls the template
+ * methods directly - so that the Transformer needs no runtime reflection to build the template.  The generated
+ * dispatchers are registered in META-INF/services/com.adpetions.optimus.templating.TemplateDispatcher (merged with
+ * the dispatchers already registered in the class output - so that incremental compiles keep earlier registrations)</p>
+ *
+ * <p>The processor only runs on compiles whose sources use the template annotations - all the classes of such a
+ * compile are checked (so a template class inheriting all of its annotations is found when compiled with an annotated
+ * class).  A template class compiled without any annotated classes gets no dispatcher and is built using reflection.</p>
+ *
+ * <p>The processor is shipped in its own jar (the {@code processor} classifier) - add it to the annotation processor
+ * path of compiles that declare templates.</p>
+ *
+ * <p>Template classes that are not accessible from their own package (e.g. private nested classes) are skipped
+ * (and are built, by the Transformer, using reflection).</p>
+ */
+@SupportedAnnotationTypes({
+        "com.adpetions.optimus.templating.annotations.EventTemplate",
+        "com.adpetions.optimus.templating.annotations.TemplateConfig",
+        "com.adpetions.optimus.templating.annotations.TemplateNamespace",
+        "com.adpetions.optimus.templating.annotations.TemplateNamespaces",
+        "com.adpetions.optimus.templating.annotations.TemplateDefaultNamespaceURI",
+        "com.adpetions.optimus.templating.annotations.ImportPriorityOffset"
+})
+public class TemplateDispatcherProcessor extends AbstractProcessor {
+    static final String DISPATCHER_SUFFIX = "_OptimusDispatcher";
+    private static final String TEMPLATE_INTERFACE = "com.adpetions.optimus.templating.OptimusTransformTemplate";
+    private static final String DISPATCHER_INTERFACE = "com.adpetions.optimus.templating.TemplateDispatcher";
+    private static final String CONTINUE_STATE = "com.adpetions.optimus.ContinueState";
+    private static final String ANNOTATIONS_PACKAGE = "com.adpetions.optimus.templating.annotations.";
+    private static final String EVENT_TEMPLATE = ANNOTATIONS_PACKAGE + "EventTemplate";
+    private static final String TEMPLATE_CONFIG = ANNOTATIONS_PACKAGE + "TemplateConfig";
+    private static final String TEMPLATE_NAMESPACE = ANNOTATIONS_PACKAGE + "TemplateNamespace";
+    private static final String TEMPLATE_NAMESPACES = ANNOTATIONS_PACKAGE + "TemplateNamespaces";
+    private static final String TEMPLATE_DEFAULT_NAMESPACE_URI = ANNOTATIONS_PACKAGE + "TemplateDefaultNamespaceURI";
+    private static final String IMPORT_PRIORITY_OFFSET = ANNOTATIONS_PACKAGE + "ImportPriorityOffset";
+
+    private Elements elements;
+    private Types types;
+    private Filer filer;
+    private Messager messager;
+    private final List<String> generatedDispatchers = new ArrayList<>();
+    private final List<Element> originatingElements = new ArrayList<>();
+
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+        super.init(processingEnv);
+        elements = processingEnv.getElementUtils();
+        types = processingEnv.getTypeUtils();
+        filer = processingEnv.getFiler();
+        messager = processingEnv.getMessager();
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            writeServicesFile();
+            return false;
+        }
+        TypeElement templateInterface = elements.getTypeElement(TEMPLATE_INTERFACE);
+        if (templateInterface == null) {
+            return false;
+        }
+        TypeMirror templateType = types.erasure(templateInterface.asType());
+        for (Element element : roundEnv.getRootElements()) {
+            processType(element, templateType);
+        }
+        return false;
+    }
+
+    private void processType(Element element, TypeMirror templateType) {
+        if (element.getKind() != ElementKind.CLASS) {
+            return;
+        }
+        TypeElement type = (TypeElement)element;
+        if (!type.getModifiers().contains(Modifier.ABSTRACT) && isAccessibleFromPackage(type)
+                && types.isAssignable(types.erasure(type.asType()), templateType)) {
+            generateDispatcher(type);
+        }
+        for (TypeElement memberType : ElementFilter.typesIn(type.getEnclosedElements())) {
+            processType(memberType, templateType);
+        }
+    }
+
+    private static boolean isAccessibleFromPackage(TypeElement type) {
+        for (Element check = type; check instanceof TypeElement; check = check.getEnclosingElement()) {
+            if (check.getModifiers().contains(Modifier.PRIVATE)) {
+                return false;
+            }
+            if (check != type && check.getKind() != ElementKind.CLASS && check.getKind() != ElementKind.INTERFACE) {
+                return false;
+            }
+        }
+        return type.getNestingKind().isNested() ? type.getModifiers().contains(Modifier.STATIC) : true;
+    }
+
+    // <editor-fold desc="Dispatcher generation">
+    private void generateDispatcher(TypeElement type) {
+        String packageName = elements.getPackageOf(type).getQualifiedName().toString();
+        String dispatcherSimpleName = getFlatName(type) + DISPATCHER_SUFFIX;
+        String dispatcherName = (packageName.isEmpty() ? "" : packageName + ".") + dispatcherSimpleName;
+        String templateName = type.getQualifiedName().toString();
+
+        // collect from the class hierarchy (super-classes first)...
+        List<TypeElement> hierarchy = getHierarchy(type);
+        String defaultNamespaceURI = null;
+        List<String> namespaces = new ArrayList<>();
+        List<String> configOptions = new ArrayList<>();
+        List<String> allowSelfClosing = new ArrayList<>();
+        for (TypeElement clazz : hierarchy) {
+            AnnotationMirror annotation = getAnnotation(clazz, TEMPLATE_DEFAULT_NAMESPACE_URI);
+            if (annotation != null) {
+                defaultNamespaceURI = (String)getValue(annotation, "value");
+            }
+            annotation = getAnnotation(clazz, TEMPLATE_NAMESPACE);
+            if (annotation != null) {
+                addNamespace(namespaces, annotation);
+            }
+            annotation = getAnnotation(clazz, TEMPLATE_NAMESPACES);
+            if (annotation != null) {
+                for (AnnotationValue namespace : getListValue(annotation, "value")) {
+                    addNamespace(namespaces, (AnnotationMirror)namespace.getValue());
+                }
+            }
+            annotation = getAnnotation(clazz, TEMPLATE_CONFIG);
+            if (annotation != null) {
+                for (AnnotationValue option : getListValue(annotation, "options")) {
+                    configOptions.add(((Element)option.getValue()).getSimpleName().toString());
+                }
+                for (AnnotationValue selfCloser : getListValue(annotation, "allowSelfClosing")) {
+                    allowSelfClosing.add((String)selfCloser.getValue());
+                }
+            }
+        }
+        int importPriorityOffset = 0;
+        AnnotationMirror priorityOffsetAnnotation = getAnnotation(type, IMPORT_PRIORITY_OFFSET);
+        if (priorityOffsetAnnotation != null) {
+            importPriorityOffset = (Integer)getValue(priorityOffsetAnnotation, "value");
+        }
+
+        // collect the template methods (all public methods - as per Class.getMethods())...
+        List<ExecutableElement> methods = new ArrayList<>();
+        List<AnnotationMirror> methodAnnotations = new ArrayList<>();
+        TypeMirror continueStateType = elements.getTypeElement(CONTINUE_STATE).asType();
+        for (ExecutableElement method : ElementFilter.methodsIn(elements.getAllMembers(type))) {
+            AnnotationMirror eventTemplate = getAnnotation(method, EVENT_TEMPLATE);
+            if (eventTemplate == null || !method.getModifiers().contains(Modifier.PUBLIC)) {
+                continue;
+            }
+            if (!method.getParameters().isEmpty()) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "Incorrect arity on template method '" + method.getSimpleName() + "'", method);
+                return;
+            } else if (!types.isSameType(method.getReturnType(), continueStateType)) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "Incorrect return type on template method '" + method.getSimpleName() + "'", method);
+                return;
+            }
+            methods.add(method);
+            methodAnnotations.add(eventTemplate);
+        }
+
+        StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("/**\n * Template dispatcher for ").append(templateName)
+                .append(" - generated by ").append(TemplateDispatcherProcessor.class.getName()).append(" (do not edit)\n */\n");
+        source.append("public final class ").append(dispatcherSimpleName).append(" implements ").append(DISPATCHER_INTERFACE).append(" {\n");
+        source.append("    private static final com.adpetions.optimus.templating.TemplateMethodDescriptor[] TEMPLATE_METHODS = {\n");
+        for (int i = 0; i < methods.size(); i++) {
+            AnnotationMirror eventTemplate = methodAnnotations.get(i);
+            source.append("        new com.adpetions.optimus.templating.TemplateMethodDescriptor(")
+                    .append(quote(methods.get(i).getSimpleName().toString())).append(", ")
+                    .append("com.adpetions.optimus.EventType.").append(((Element)getValue(eventTemplate, "event")).getSimpleName()).append(", ")
+                    .append(quote((String)getValue(eventTemplate, "matchPath"))).append(", ")
+                    .append(getValue(eventTemplate, "priority")).append("),\n");
+        }
+        source.append("    };\n\n");
+        source.append("    @Override\n    public Class<? extends com.adpetions.optimus.templating.OptimusTransformTemplate> getTemplateClass() {\n")
+                .append("        return ").append(templateName).append(".class;\n    }\n\n");
+        source.append("    @Override\n    public String getDefaultNamespaceURI() {\n")
+                .append("        return ").append(defaultNamespaceURI == null ? "null" : quote(defaultNamespaceURI)).append(";\n    }\n\n");
+        source.append("    @Override\n    public String[] getNamespaces() {\n")
+                .append("        return new String[] {").append(joinQuoted(namespaces)).append("};\n    }\n\n");
+        source.append("    @Override\n    public com.adpetions.optimus.templating.annotations.TemplateConfig.ConfigOptions[] getConfigOptions() {\n")
+                .append("        return new com.adpetions.optimus.templating.annotations.TemplateConfig.ConfigOptions[] {");
+        for (int i = 0; i < configOptions.size(); i++) {
+            source.append(i > 0 ? ", " : "").append("com.adpetions.optimus.templating.annotations.TemplateConfig.ConfigOptions.").append(configOptions.get(i));
+        }
+        source.append("};\n    }\n\n");
+        source.append("    @Override\n    public String[] getAllowSelfClosing() {\n")
+                .append("        return new String[] {").append(joinQuoted(allowSelfClosing)).append("};\n    }\n\n");
+        source.append("    @Override\n    public int getImportPriorityOffset() {\n")
+                .append("        return ").append(importPriorityOffset).append(";\n    }\n\n");
+        source.append("    @Override\n    public com.adpetions.optimus.templating.TemplateMethodDescriptor[] getTemplateMethods() {\n")
+                .append("        return TEMPLATE_METHODS.clone();\n    }\n\n");
+        source.append("    @Override\n    public com.adpetions.optimus.ContinueState dispatch(com.adpetions.optimus.templating.OptimusTransformTemplate template, int methodIndex) throws Throwable {\n")
+                .append("        switch (methodIndex) {\n");
+        for (int i = 0; i < methods.size(); i++) {
+            ExecutableElement method = methods.get(i);
+            source.append("            case ").append(i).append(":\n                return ");
+            if (method.getModifiers().contains(Modifier.STATIC)) {
+                source.append(((TypeElement)method.getEnclosingElement()).getQualifiedName());
+            } else {
+                source.append("((").append(templateName).append(")template)");
+            }
+            source.append(".").append(method.getSimpleName()).append("();\n");
+        }
+        source.append("            default:\n                throw new IllegalArgumentException(\"No template method at index \" + methodIndex);\n")
+                .append("        }\n    }\n}\n");
+
+        try {
+            JavaFileObject sourceFile = filer.createSourceFile(dispatcherName, type);
+            try (Writer writer = sourceFile.openWriter()) {
+                writer.write(source.toString());
+            }
+            generatedDispatchers.add(dispatcherName);
+            originatingElements.add(type);
+        } catch (IOException e) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "Unable to write template dispatcher '" + dispatcherName + "' - " + e.getMessage(), type);
+        }
+    }
+
+    private void writeServicesFile() {
+        if (generatedDispatchers.isEmpty()) {
+            return;
+        }
+        String servicesPath = "META-INF/services/" + DISPATCHER_INTERFACE;
+        // keep the dispatchers registered by earlier (e.g. incremental) compiles that still exist...
+        Set<String> dispatcherNames = new LinkedHashSet<>();
+        try {
+            FileObject existing = filer.getResource(StandardLocation.CLASS_OUTPUT, "", servicesPath);
+            try (BufferedReader reader = new BufferedReader(existing.openReader(true))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (!line.isEmpty() && !line.startsWith("#") && elements.getTypeElement(line) != null) {
+                        dispatcherNames.add(line);
+                    }
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            // no existing services file...
+        }
+        dispatcherNames.addAll(generatedDispatchers);
+        try {
+            FileObject servicesFile = filer.createResource(StandardLocation.CLASS_OUTPUT, "",
+                    servicesPath, originatingElements.toArray(new Element[originatingElements.size()]));
+            try (Writer writer = servicesFile.openWriter()) {
+                for (String dispatcherName : dispatcherNames) {
+                    writer.write(dispatcherName);
+                    writer.write("\n");
+                }
+            }
+        } catch (IOException e) {
+            messager.printMessage(Diagnostic.Kind.ERROR, "Unable to write template dispatcher services file - " + e.getMessage());
+        }
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Helper methods">
+    private List<TypeElement> getHierarchy(TypeElement type) {
+        List<TypeElement> result = new ArrayList<>();
+        TypeElement current = type;
+        while (current != null && !current.getQualifiedName().contentEquals(Object.class.getName())) {
+            result.add(0, current);
+            TypeMirror superclass = current.getSuperclass();
+            current = (superclass.getKind() == TypeKind.DECLARED ? (TypeElement)((DeclaredType)superclass).asElement() : null);
+        }
+        return result;
+    }
+
+    private static String getFlatName(TypeElement type) {
+        StringBuilder result = new StringBuilder(type.getSimpleName());
+        for (Element enclosing = type.getEnclosingElement(); enclosing instanceof TypeElement; enclosing = enclosing.getEnclosingElement()) {
+            result.insert(0, ((TypeElement)enclosing).getSimpleName() + "_");
+        }
+        return result.toString();
+    }
+
+    private static AnnotationMirror getAnnotation(Element element, String annotationName) {
+        for (AnnotationMirror annotation : element.getAnnotationMirrors()) {
+            if (((TypeElement)annotation.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotationName)) {
+                return annotation;
+            }
+        }
+        return null;
+    }
+
+    private Object getValue(AnnotationMirror annotation, String name) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : elements.getElementValuesWithDefaults(annotation).entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals(name)) {
+                return entry.getValue().getValue();
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<? extends AnnotationValue> getListValue(AnnotationMirror annotation, String name) {
+        Object value = getValue(annotation, name);
+        return (value instanceof List ? (List<? extends AnnotationValue>)value : new ArrayList<>());
+    }
+
+    private void addNamespace(List<String> namespaces, AnnotationMirror annotation) {
+        namespaces.add((String)getValue(annotation, "prefix"));
+        namespaces.add((String)getValue(annotation, "uri"));
+    }
+
+    private static String joinQuoted(List<String> values) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < values.size(); i++) {
+            result.append(i > 0 ? ", " : "").append(quote(values.get(i)));
+        }
+        return result.toString();
+    }
+
+    private static String quote(String value) {
+        StringBuilder result = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            switch (ch) {
+                case '"':
+                    result.append("\\\"");
+                    break;
+                case '\\':
+                    result.append("\\\\");
+                    break;
+                case '\n':
+                    result.append("\\n");
+                    break;
+                case '\r':
+                    result.append("\\r");
+                    break;
+                case '\t':
+                    result.append("\\t");
+                    break;
+                default:
+                    if (ch < 0x20 || ch > 0x7e) {
+                        result.append(String.format("\\u%04x", (int)ch));
+                    } else {
+                        result.append(ch);
+                    }
+            }
+        }
+        return result.append('"').toString();
+    }
+    // </editor-fold>
+}
@@ -2,6 +2,8 @@ package com.adpetions.optimus.writers;
 
 import com.adpetions.optimus.Transformer;
 import com.adpetions.optimus.exceptions.TransformException;
+import com.adpetions.optimus.factories.DefaultXMLFactoryProvider;
+import com.adpetions.optimus.factories.XMLFactoryProvider;
 import com.adpetions.optimus.namespaces.TransformNamespaceContext;
 import com.adpetions.optimus.nodes.Attribute;
 import com.adpetions.optimus.nodes.CData;
@@ -16,13 +18,14 @@ import com.adpetions.optimus.nodes.WriterNode;
 
 import javax.xml.XMLConstants;
 import javax.xml.namespace.QName;
-import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.XMLStreamWriter;
 import java.io.OutputStream;
 import java.io.Reader;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -42,6 +45,7 @@ public class TransformSimpleWriter implements TransformXMLStreamWriter {
     private int openXmlElements;
     private TransformNamespaceContext namespaceContext;
     private Map<QName,String> bufferedAttributes = new LinkedHashMap<>();
+    private XMLFactoryProvider factoryProvider = DefaultXMLFactoryProvider.getInstance();
 
     // <editor-fold desc="Constructors">
     /**
@@ -94,6 +98,22 @@ public class TransformSimpleWriter implements TransformXMLStreamWriter {
         createXmlWriter();
     }
 
+    /**
+     * Construct a new instance of {@code TransformSimpleWriter} with a specified writer, an initial namespace context
+     * and the provider of the StAX factories to be used
+     * @param writer the underlying writer to be used
+     * @param namespaceContext the namespace context to use
+     * @param factoryProvider the StAX factory provider
+     */
+    public TransformSimpleWriter(Writer writer, TransformNamespaceContext namespaceContext, XMLFactoryProvider factoryProvider) throws TransformException, XMLStreamException {
+        this.namespaceContext = namespaceContext;
+        this.writer = writer;
+        this.factoryProvider = factoryProvider;
+        stringWriting = false;
+        openXmlElements = 0;
+        createXmlWriter();
+    }
+
     /**
      * Construct a new instance of {@code TransformSimpleWriter} with a specified output stream
      * @param outputStream the underlying output stream
@@ -117,17 +137,50 @@ public class TransformSimpleWriter implements TransformXMLStreamWriter {
         openXmlElements = 0;
         createXmlWriter(outputStream);
     }
+
+    /**
+     * Construct a new instance of {@code TransformSimpleWriter} with a specified output stream, an initial
+     * namespace context and the provider of the StAX factories to be used
+     * @param outputStream the underlying output stream
+     * @param namespaceContext the namespace context to use
+     * @param factoryProvider the StAX factory provider
+     */
+    public TransformSimpleWriter(OutputStream outputStream, TransformNamespaceContext namespaceContext, XMLFactoryProvider factoryProvider) throws TransformException, XMLStreamException {
+        this.namespaceContext = namespaceContext;
+        this.factoryProvider = factoryProvider;
+        stringWriting = false;
+        openXmlElements = 0;
+        createXmlWriter(outputStream);
+    }
+
+    /**
+     * Construct a new instance of {@code TransformSimpleWriter} with a specified (e.g. file) channel
+     * (output is UTF-8 encoded and written to the channel as it is flushed from the underlying XML writer)
+     * @param channel the underlying channel
+     */
+    public TransformSimpleWriter(WritableByteChannel channel) throws TransformException, XMLStreamException {
+        this(Channels.newOutputStream(channel));
+    }
+
+    /**
+     * Construct a new instance of {@code TransformSimpleWriter} with a specified (e.g. file) channel, an initial
+     * namespace context and the provider of the StAX factories to be used
+     * @param channel the underlying channel
+     * @param namespaceContext the namespace context to use
+     * @param factoryProvider the StAX factory provider
+     */
+    public TransformSimpleWriter(WritableByteChannel channel, TransformNamespaceContext namespaceContext, XMLFactoryProvider factoryProvider) throws TransformException, XMLStreamException {
+        this(Channels.newOutputStream(channel), namespaceContext, factoryProvider);
+    }
     // </editor-fold>
 
     // <editor-fold desc="Private utility methods">
     private void createXmlWriter() throws TransformException, XMLStreamException {
-        XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
-        xmlWriter = outputFactory.createXMLStreamWriter(this.writer);
+        xmlWriter = factoryProvider.getOutputFactory().createXMLStreamWriter(this.writer);
     }
 
     private void createXmlWriter(OutputStream outputStream) throws TransformException, XMLStreamException {
-        XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
-        xmlWriter = outputFactory.createXMLStreamWriter(outputStream, "UTF-8");
+        xmlWriter = factoryProvider.getOutputFactory().createXMLStreamWriter(outputStream, "UTF-8");
     }
 
     private void writeRootNamespaces() throws XMLStreamException {
@@ -682,6 +735,7 @@ public class TransformSimpleWriter implements TransformXMLStreamWriter {
     public TransformXMLStreamWriter writeFragment(String xmlFragment) throws XMLStreamException, TransformException {
         writeBufferedAttributes();
         Transformer transformer = new Transformer(xmlFragment);
+        transformer.setXmlFactoryProvider(factoryProvider);
         transformer.transform(this);
         return this;
     }
@@ -695,6 +749,7 @@ public class TransformSimpleWriter implements TransformXMLStreamWriter {
     public TransformXMLStreamWriter writeFragment(Reader reader) throws XMLStreamException, TransformException {
         writeBufferedAttributes();
         Transformer transformer = new Transformer(reader);
+        transformer.setXmlFactoryProvider(factoryProvider);
         transformer.transform(this);
         return this;
     }
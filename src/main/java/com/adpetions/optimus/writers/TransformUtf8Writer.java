@@ -0,0 +1,1106 @@
+package com.adpetions.optimus.writers;
+
+import com.adpetions.optimus.Transformer;
+import com.adpetions.optimus.exceptions.TransformException;
+import com.adpetions.optimus.factories.DefaultXMLFactoryProvider;
+import com.adpetions.optimus.factories.XMLFactoryProvider;
+import com.adpetions.optimus.namespaces.TransformNamespaceContext;
+import com.adpetions.optimus.nodes.WriterNode;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * A fast, byte-oriented XML writer - that encodes (as UTF-8) and escapes directly into a reusable byte
+ * buffer which is written to an output stream or (e.g. file) channel as it fills
+ *
+ * <p>An alternative to TransformSimpleWriter (without a StAX writer and character encoder underneath) that
+ * produces the same output - with the same special features:-
+ *  1. on close (or end document) automatically writes end elements for elements started.
+ *  2. attribute buffering - so that the same attribute can be written and re-written without
+ *     the resulting xml being malformed.  The last attribute write wins - allows attributes to
+ *     be easily overridden by successive callers (event handlers)</p>
+ *
+ * <p>Escaping is the same as the default (Woodstox) writer - e.g. in text '&lt;', '&gt;' and '&amp;' are
+ * escaped (as are carriage returns); in attribute values '&lt;', '&amp;', '"' and whitespace other than
+ * spaces are escaped.</p>
+ *
+ * <p>NB. Unlike the default writer, the structure of the document is not checked - e.g. multiple root
+ * elements and text outside of the root element are written as is.</p>
+ */
+public class TransformUtf8Writer implements TransformXMLStreamWriter {
+    /**
+     * The default size of the byte buffer
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+    private static final int MIN_BUFFER_SIZE = 64;
+    // the most bytes written for a single character (i.e. the longest escape - a character reference)...
+    private static final int MAX_CHAR_BYTES = "&#xffff;".length();
+    private static final int CHUNK_SIZE = 2048;
+    private static final byte[][] TEXT_ESCAPES = new byte[128][];
+    private static final byte[][] ATTRIBUTE_ESCAPES = new byte[128][];
+    private static final byte[] INVALID = new byte[0];
+    private static final byte[] XML_DECLARATION_START = bytes("<?xml version='");
+    private static final byte[] XML_DECLARATION_ENCODING = bytes("' encoding='UTF-8'?>");
+    private static final byte[] XMLNS = bytes(" xmlns");
+    private static final byte[] EMPTY_TAG_END = bytes("/>");
+    private static final byte[] END_TAG_START = bytes("</");
+    private static final byte[] COMMENT_START = bytes("<!--");
+    private static final byte[] COMMENT_END = bytes("-->");
+    private static final byte[] PI_START = bytes("<?");
+    private static final byte[] PI_END = bytes("?>");
+    private static final byte[] CDATA_START = bytes("<![CDATA[");
+    private static final byte[] CDATA_END = bytes("]]>");
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    static {
+        for (int ch = 0; ch < 0x20; ch++) {
+            TEXT_ESCAPES[ch] = INVALID;
+            ATTRIBUTE_ESCAPES[ch] = INVALID;
+        }
+        TEXT_ESCAPES['\t'] = null;
+        TEXT_ESCAPES['\n'] = null;
+        TEXT_ESCAPES['\r'] = bytes("&#xd;");
+        TEXT_ESCAPES['<'] = bytes("&lt;");
+        TEXT_ESCAPES['>'] = bytes("&gt;");
+        TEXT_ESCAPES['&'] = bytes("&amp;");
+        TEXT_ESCAPES[0x7f] = bytes("&#x7f;");
+        ATTRIBUTE_ESCAPES['\t'] = bytes("&#x9;");
+        ATTRIBUTE_ESCAPES['\n'] = bytes("&#xa;");
+        ATTRIBUTE_ESCAPES['\r'] = bytes("&#xd;");
+        ATTRIBUTE_ESCAPES['<'] = bytes("&lt;");
+        ATTRIBUTE_ESCAPES['&'] = bytes("&amp;");
+        ATTRIBUTE_ESCAPES['"'] = bytes("&quot;");
+        ATTRIBUTE_ESCAPES[0x7f] = bytes("&#x7f;");
+    }
+
+    private OutputStream outputStream;
+    private WritableByteChannel channel;
+    private final byte[] buffer;
+    private int count;
+    private final char[] chars = new char[CHUNK_SIZE];
+    private TransformNamespaceContext namespaceContext;
+    private TransformNamespaceContext rootNamespaceContext;
+    private XMLFactoryProvider factoryProvider = DefaultXMLFactoryProvider.getInstance();
+    // the open elements (by their qualified names as written)...
+    private String[] openElementNames = new String[32];
+    private int openXmlElements;
+    // start tag state...
+    private boolean startTagOpen;
+    private boolean emptyElementOpen;
+    private int emptyElementBindingsStart;
+    // buffered attributes - last write wins...
+    private String[] attributeNamespaceURIs = new String[8];
+    private String[] attributeLocalNames = new String[8];
+    private String[] attributePrefixes = new String[8];
+    private String[] attributeValues = new String[8];
+    private int attributeCount;
+    // namespace prefix bindings (and where the bindings of each open element start)...
+    private String[] bindingPrefixes = new String[8];
+    private String[] bindingURIs = new String[8];
+    private int bindingCount;
+    private int[] bindingStarts = new int[32];
+
+    // <editor-fold desc="Constructors">
+    /**
+     * Construct a new instance of {@code TransformUtf8Writer} with a specified output stream
+     * @param outputStream the underlying output stream
+     */
+    public TransformUtf8Writer(OutputStream outputStream) {
+        this(outputStream, new TransformNamespaceContext());
+    }
+
+    /**
+     * Construct a new instance of {@code TransformUtf8Writer} with a specified output stream and
+     * an initial namespace context
+     * @param outputStream the underlying output stream
+     * @param namespaceContext the namespace context to use
+     */
+    public TransformUtf8Writer(OutputStream outputStream, TransformNamespaceContext namespaceContext) {
+        this(outputStream, null, namespaceContext, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Construct a new instance of {@code TransformUtf8Writer} with a specified output stream, an initial
+     * namespace context and the provider of the StAX factories to be used (for writing fragments)
+     * @param outputStream the underlying output stream
+     * @param namespaceContext the namespace context to use
+     * @param factoryProvider the StAX factory provider
+     */
+    public TransformUtf8Writer(OutputStream outputStream, TransformNamespaceContext namespaceContext, XMLFactoryProvider factoryProvider) {
+        this(outputStream, null, namespaceContext, DEFAULT_BUFFER_SIZE);
+        this.factoryProvider = factoryProvider;
+    }
+
+    /**
+     * Construct a new instance of {@code TransformUtf8Writer} with a specified output stream, an initial
+     * namespace context and the size of the byte buffer
+     * @param outputStream the underlying output stream
+     * @param namespaceContext the namespace context to use
+     * @param bufferSize the size of the byte buffer
+     */
+    public TransformUtf8Writer(OutputStream outputStream, TransformNamespaceContext namespaceContext, int bufferSize) {
+        this(outputStream, null, namespaceContext, bufferSize);
+    }
+
+    /**
+     * Construct a new instance of {@code TransformUtf8Writer} with a specified (e.g. file) channel
+     * @param channel the underlying channel
+     */
+    public TransformUtf8Writer(WritableByteChannel channel) {
+        this(null, channel, new TransformNamespaceContext(), DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Construct a new instance of {@code TransformUtf8Writer} with a specified (e.g. file) channel, an initial
+     * namespace context and the provider of the StAX factories to be used (for writing fragments)
+     * @param channel the underlying channel
+     * @param namespaceContext the namespace context to use
+     * @param factoryProvider the StAX factory provider
+     */
+    public TransformUtf8Writer(WritableByteChannel channel, TransformNamespaceContext namespaceContext, XMLFactoryProvider factoryProvider) {
+        this(null, channel, namespaceContext, DEFAULT_BUFFER_SIZE);
+        this.factoryProvider = factoryProvider;
+    }
+
+    /**
+     * Construct a new instance of {@code TransformUtf8Writer} with a specified (e.g. file) channel, an initial
+     * namespace context and the size of the byte buffer
+     * @param channel the underlying channel
+     * @param namespaceContext the namespace context to use
+     * @param bufferSize the size of the byte buffer
+     */
+    public TransformUtf8Writer(WritableByteChannel channel, TransformNamespaceContext namespaceContext, int bufferSize) {
+        this(null, channel, namespaceContext, bufferSize);
+    }
+
+    private TransformUtf8Writer(OutputStream outputStream, WritableByteChannel channel, TransformNamespaceContext namespaceContext, int bufferSize) {
+        if (outputStream == null && channel == null) {
+            throw new IllegalArgumentException("Output stream or channel must be specified");
+        }
+        this.outputStream = outputStream;
+        this.channel = channel;
+        this.namespaceContext = namespaceContext;
+        this.buffer = new byte[Math.max(MIN_BUFFER_SIZE, bufferSize)];
+    }
+    // </editor-fold>
+
+    /**
+     * Resets the writer ready to write another document to the specified output stream - re-using its buffers
+     * (so that writing many small documents does not allocate a new writer for each)
+     *
+     * <p>Anything not yet written (flushed) to the previous output is discarded - as are any open elements,
+     * buffered attributes and namespace bindings.  The namespace context and factory provider are kept.</p>
+     *
+     * @param outputStream the underlying output stream
+     * @return this writer
+     */
+    public TransformUtf8Writer reset(OutputStream outputStream) {
+        if (outputStream == null) {
+            throw new IllegalArgumentException("Output stream must be specified");
+        }
+        this.outputStream = outputStream;
+        this.channel = null;
+        return resetState();
+    }
+
+    /**
+     * Resets the writer ready to write another document to the specified (e.g. file) channel - re-using its
+     * buffers (so that writing many documents does not allocate a new writer for each)
+     *
+     * <p>Anything not yet written (flushed) to the previous output is discarded - as are any open elements,
+     * buffered attributes and namespace bindings.  The namespace context and factory provider are kept.</p>
+     *
+     * @param channel the underlying channel
+     * @return this writer
+     */
+    public TransformUtf8Writer reset(WritableByteChannel channel) {
+        if (channel == null) {
+            throw new IllegalArgumentException("Channel must be specified");
+        }
+        this.outputStream = null;
+        this.channel = channel;
+        return resetState();
+    }
+
+    private TransformUtf8Writer resetState() {
+        count = 0;
+        Arrays.fill(openElementNames, 0, openXmlElements, null);
+        openXmlElements = 0;
+        startTagOpen = false;
+        emptyElementOpen = false;
+        emptyElementBindingsStart = 0;
+        Arrays.fill(attributeNamespaceURIs, 0, attributeCount, null);
+        Arrays.fill(attributeLocalNames, 0, attributeCount, null);
+        Arrays.fill(attributePrefixes, 0, attributeCount, null);
+        Arrays.fill(attributeValues, 0, attributeCount, null);
+        attributeCount = 0;
+        Arrays.fill(bindingPrefixes, 0, bindingCount, null);
+        Arrays.fill(bindingURIs, 0, bindingCount, null);
+        bindingCount = 0;
+        rootNamespaceContext = null;
+        return this;
+    }
+
+    // <editor-fold desc="Private byte writing methods">
+    private static byte[] bytes(String str) {
+        return str.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void flushBuffer() throws XMLStreamException {
+        if (count == 0) {
+            return;
+        }
+        try {
+            if (outputStream != null) {
+                outputStream.write(buffer, 0, count);
+            } else {
+                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, count);
+                while (byteBuffer.hasRemaining()) {
+                    channel.write(byteBuffer);
+                }
+            }
+        } catch (IOException ex) {
+            throw new XMLStreamException("Unable to write output", ex);
+        }
+        count = 0;
+    }
+
+    private void writeByte(char ch) throws XMLStreamException {
+        if (count == buffer.length) {
+            flushBuffer();
+        }
+        buffer[count++] = (byte)ch;
+    }
+
+    private void writeBytes(byte[] bytes) throws XMLStreamException {
+        if (count > buffer.length - bytes.length) {
+            flushBuffer();
+        }
+        System.arraycopy(bytes, 0, buffer, count, bytes.length);
+        count += bytes.length;
+    }
+
+    /**
+     * Writes a string (e.g. a name, comment or PI data) without escaping
+     */
+    private void writeRaw(String str) throws XMLStreamException {
+        writeString(str, null);
+    }
+
+    private void writeString(String str, byte[][] escapes) throws XMLStreamException {
+        int length = str.length();
+        // names are short and mostly ASCII - so try writing them straight into the buffer...
+        if (escapes == null && length <= buffer.length - count) {
+            int at = count;
+            for (int i = 0; i < length; i++) {
+                char ch = str.charAt(i);
+                if (ch >= 0x80) {
+                    at = -1;
+                    break;
+                }
+                buffer[at++] = (byte)ch;
+            }
+            if (at != -1) {
+                count = at;
+                return;
+            }
+        }
+        int offset = 0;
+        while (offset < length) {
+            int end = Math.min(length, offset + CHUNK_SIZE);
+            // don't split a surrogate pair across chunks...
+            if (end < length && Character.isHighSurrogate(str.charAt(end - 1))) {
+                end--;
+            }
+            str.getChars(offset, end, chars, 0);
+            writeChars(chars, 0, end - offset, escapes);
+            offset = end;
+        }
+    }
+
+    /**
+     * Encodes (as UTF-8) the characters into the buffer - escaping them if escapes are specified
+     */
+    private void writeChars(char[] text, int start, int len, byte[][] escapes) throws XMLStreamException {
+        byte[] bytes = buffer;
+        int limit = bytes.length - MAX_CHAR_BYTES;
+        int at = count;
+        int end = start + len;
+        for (int i = start; i < end; i++) {
+            if (at > limit) {
+                count = at;
+                flushBuffer();
+                at = 0;
+            }
+            char ch = text[i];
+            if (ch < 0x80) {
+                byte[] escape = (escapes == null ? null : escapes[ch]);
+                if (escape == null) {
+                    bytes[at++] = (byte)ch;
+                } else if (escape == INVALID) {
+                    count = at;
+                    throw new XMLStreamException("Invalid white space character (0x" + Integer.toHexString(ch) + ") in text to output");
+                } else {
+                    System.arraycopy(escape, 0, bytes, at, escape.length);
+                    at += escape.length;
+                }
+            } else if (escapes != null && (ch <= 0x9f || ch == 0xfffe || ch == 0xffff)) {
+                // C1 controls and non-characters are written as character references...
+                at = writeCharacterReference(bytes, at, ch);
+            } else if (ch < 0x800) {
+                bytes[at++] = (byte)(0xc0 | (ch >> 6));
+                bytes[at++] = (byte)(0x80 | (ch & 0x3f));
+            } else if (Character.isSurrogate(ch)) {
+                if (!Character.isHighSurrogate(ch) || i + 1 >= end || !Character.isLowSurrogate(text[i + 1])) {
+                    count = at;
+                    throw new XMLStreamException("Broken surrogate pair: char 0x" + Integer.toHexString(ch) + " at offset " + (i - start));
+                }
+                int codePoint = Character.toCodePoint(ch, text[++i]);
+                bytes[at++] = (byte)(0xf0 | (codePoint >> 18));
+                bytes[at++] = (byte)(0x80 | ((codePoint >> 12) & 0x3f));
+                bytes[at++] = (byte)(0x80 | ((codePoint >> 6) & 0x3f));
+                bytes[at++] = (byte)(0x80 | (codePoint & 0x3f));
+            } else {
+                bytes[at++] = (byte)(0xe0 | (ch >> 12));
+                bytes[at++] = (byte)(0x80 | ((ch >> 6) & 0x3f));
+                bytes[at++] = (byte)(0x80 | (ch & 0x3f));
+            }
+        }
+        count = at;
+    }
+
+    private static int writeCharacterReference(byte[] bytes, int at, char ch) {
+        bytes[at++] = '&';
+        bytes[at++] = '#';
+        bytes[at++] = 'x';
+        for (int shift = (ch > 0xff ? 12 : 4); shift >= 0; shift -= 4) {
+            bytes[at++] = (byte)HEX_DIGITS[(ch >> shift) & 0xf];
+        }
+        bytes[at++] = ';';
+        return at;
+    }
+
+    private void writeName(String prefix, String localName) throws XMLStreamException {
+        if (prefix != null && !prefix.isEmpty()) {
+            writeRaw(prefix);
+            writeByte(':');
+        }
+        writeRaw(localName);
+    }
+
+    private static String qualifiedName(String prefix, String localName) {
+        return (prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName);
+    }
+
+    private void writeAttributeBytes(String prefix, String localName, String value) throws XMLStreamException {
+        writeByte(' ');
+        writeName(prefix, localName);
+        writeByte('=');
+        writeByte('"');
+        if (value != null) {
+            writeString(value, ATTRIBUTE_ESCAPES);
+        }
+        writeByte('"');
+    }
+
+    private static void checkContent(String content, String illegal, String what) throws XMLStreamException {
+        int index = content.indexOf(illegal);
+        if (index != -1) {
+            throw new XMLStreamException("Illegal input: " + what + " content has embedded '" + illegal + "' in it (index " + index + ")");
+        }
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="Private element and namespace methods">
+    private void writeBufferedAttributes() throws XMLStreamException {
+        if (attributeCount == 0) {
+            return;
+        }
+        if (!startTagOpen) {
+            attributeCount = 0;
+            throw new XMLStreamException("Trying to write an attribute when there is no open start element.");
+        }
+        for (int i = 0; i < attributeCount; i++) {
+            writeAttributeBytes(attributePrefixes[i], attributeLocalNames[i], attributeValues[i]);
+            attributeValues[i] = null;
+        }
+        attributeCount = 0;
+    }
+
+    private void addBufferedAttribute(String prefix, String namespaceURI, String localName, String value) {
+        String useNamespaceURI = (namespaceURI == null ? XMLConstants.NULL_NS_URI : namespaceURI);
+        for (int i = 0; i < attributeCount; i++) {
+            if (attributeLocalNames[i].equals(localName) && attributeNamespaceURIs[i].equals(useNamespaceURI)) {
+                // the attribute keeps its original position (and prefix) - last value wins...
+                attributeValues[i] = value;
+                return;
+            }
+        }
+        if (attributeCount == attributeLocalNames.length) {
+            int newLength = attributeCount * 2;
+            attributeNamespaceURIs = Arrays.copyOf(attributeNamespaceURIs, newLength);
+            attributeLocalNames = Arrays.copyOf(attributeLocalNames, newLength);
+            attributePrefixes = Arrays.copyOf(attributePrefixes, newLength);
+            attributeValues = Arrays.copyOf(attributeValues, newLength);
+        }
+        attributeNamespaceURIs[attributeCount] = useNamespaceURI;
+        attributeLocalNames[attributeCount] = localName;
+        attributePrefixes[attributeCount] = prefix;
+        attributeValues[attributeCount++] = value;
+    }
+
+    /**
+     * Closes any open start tag - as an empty element if it was one
+     */
+    private void closeStartTag() throws XMLStreamException {
+        writeBufferedAttributes();
+        if (startTagOpen) {
+            startTagOpen = false;
+            if (emptyElementOpen) {
+                emptyElementOpen = false;
+                bindingCount = emptyElementBindingsStart;
+                writeBytes(EMPTY_TAG_END);
+            } else {
+                writeByte('>');
+            }
+        }
+    }
+
+    private void startElement(String prefix, String localName) throws XMLStreamException {
+        closeStartTag();
+        writeByte('<');
+        writeName(prefix, localName);
+        startTagOpen = true;
+        if (openXmlElements == openElementNames.length) {
+            openElementNames = Arrays.copyOf(openElementNames, openXmlElements * 2);
+            bindingStarts = Arrays.copyOf(bindingStarts, openXmlElements * 2);
+        }
+        openElementNames[openXmlElements] = qualifiedName(prefix, localName);
+        bindingStarts[openXmlElements] = bindingCount;
+        if (openXmlElements == 0) {
+            writeRootNamespaces();
+        }
+        openXmlElements++;
+    }
+
+    private void emptyElement(String prefix, String localName) throws XMLStreamException {
+        closeStartTag();
+        writeByte('<');
+        writeName(prefix, localName);
+        startTagOpen = true;
+        emptyElementOpen = true;
+        emptyElementBindingsStart = bindingCount;
+    }
+
+    private void writeRootNamespaces() throws XMLStreamException {
+        String defaultNsUri = namespaceContext.getDefaultNamespaceURI();
+        if (defaultNsUri != null) {
+            writeDefaultNamespace(defaultNsUri);
+        }
+        Map<String,String> namespaces = namespaceContext.getNamespacePrefixes();
+        for (Map.Entry<String,String> nsEntry: namespaces.entrySet()) {
+            String nsUri = nsEntry.getValue();
+            if (!nsUri.equals(XMLConstants.XML_NS_URI) && !nsUri.equals(XMLConstants.XMLNS_ATTRIBUTE_NS_URI)) {
+                writeNamespace(nsEntry.getKey(), nsUri);
+            }
+        }
+    }
+
+    private void endElement() throws XMLStreamException {
+        if (openXmlElements == 0) {
+            throw new XMLStreamException("No open start element, when trying to write end element");
+        }
+        writeBufferedAttributes();
+        openXmlElements--;
+        String name = openElementNames[openXmlElements];
+        openElementNames[openXmlElements] = null;
+        if (startTagOpen && !emptyElementOpen) {
+            // nothing written since the start tag...
+            startTagOpen = false;
+            writeBytes(EMPTY_TAG_END);
+        } else {
+            closeStartTag();
+            writeBytes(END_TAG_START);
+            writeRaw(name);
+            writeByte('>');
+        }
+        bindingCount = bindingStarts[openXmlElements];
+    }
+
+    private void bind(String prefix, String uri) {
+        String useUri = (uri == null ? XMLConstants.NULL_NS_URI : uri);
+        // bindings of the current scope are replaced (rather than added to)...
+        int scopeStart = (emptyElementOpen ? emptyElementBindingsStart : (openXmlElements == 0 ? 0 : bindingStarts[openXmlElements - 1]));
+        for (int i = bindingCount - 1; i >= scopeStart; i--) {
+            if (bindingPrefixes[i].equals(prefix)) {
+                bindingURIs[i] = useUri;
+                return;
+            }
+        }
+        if (bindingCount == bindingPrefixes.length) {
+            bindingPrefixes = Arrays.copyOf(bindingPrefixes, bindingCount * 2);
+            bindingURIs = Arrays.copyOf(bindingURIs, bindingCount * 2);
+        }
+        bindingPrefixes[bindingCount] = prefix;
+        bindingURIs[bindingCount++] = useUri;
+    }
+
+    private String getBoundURI(String prefix) {
+        for (int i = bindingCount - 1; i >= 0; i--) {
+            if (bindingPrefixes[i].equals(prefix)) {
+                return bindingURIs[i];
+            }
+        }
+        return (rootNamespaceContext != null ? rootNamespaceContext.getNamespaceURI(prefix) : null);
+    }
+
+    private String resolvePrefix(String namespaceURI) throws XMLStreamException {
+        String prefix = getPrefix(namespaceURI);
+        if (prefix == null) {
+            String defaultUri = getBoundURI(XMLConstants.DEFAULT_NS_PREFIX);
+            if ((namespaceURI == null || namespaceURI.isEmpty()) && (defaultUri == null || defaultUri.isEmpty())) {
+                return XMLConstants.DEFAULT_NS_PREFIX;
+            }
+            throw new XMLStreamException("Unbound namespace URI '" + namespaceURI + "'");
+        }
+        return prefix;
+    }
+    // </editor-fold>
+
+    // <editor-fold desc="TransformXMLStreamWriter implementation methods">
+    /**
+     * Writes a start tag to the output.  All writeStartElement methods
+     * open a new scope in the internal namespace context.  Writing the
+     * corresponding EndElement causes the scope to be closed.
+     *
+     * @param localName local name of the tag, may not be null
+     */
+    @Override
+    public TransformXMLStreamWriter writeStartElement(String localName) throws XMLStreamException {
+        startElement(null, localName);
+        return this;
+    }
+
+    /**
+     * Writes a start tag to the output
+     *
+     * @param namespaceURI the namespaceURI of the prefix to use, may not be null
+     * @param localName    local name of the tag, may not be null
+     * @throws XMLStreamException if the namespace URI has not been bound to a prefix
+     */
+    @Override
+    public TransformXMLStreamWriter writeStartElement(String namespaceURI, String localName) throws XMLStreamException {
+        startElement(resolvePrefix(namespaceURI), localName);
+        return this;
+    }
+
+    /**
+     * Writes a start tag to the output
+     *
+     * @param prefix       the prefix of the tag, may not be null
+     * @param localName    local name of the tag, may not be null
+     * @param namespaceURI the uri to bind the prefix to, may not be null
+     */
+    @Override
+    public TransformXMLStreamWriter writeStartElement(String prefix, String localName, String namespaceURI) throws XMLStreamException {
+        startElement(prefix, localName);
+        return this;
+    }
+
+    /**
+     * Writes a start tag to the output
+     *
+     * @param qname the qualified name (QName) of the tag
+     */
+    @Override
+    public TransformXMLStreamWriter writeStartElement(QName qname) throws XMLStreamException {
+        startElement(qname.getPrefix(), qname.getLocalPart());
+        return this;
+    }
+
+    /**
+     * Writes an empty element tag to the output
+     *
+     * @param namespaceURI the uri to bind the tag to, may not be null
+     * @param localName    local name of the tag, may not be null
+     * @throws XMLStreamException if the namespace URI has not been bound to a prefix
+     */
+    @Override
+    public TransformXMLStreamWriter writeEmptyElement(String namespaceURI, String localName) throws XMLStreamException {
+        emptyElement(resolvePrefix(namespaceURI), localName);
+        return this;
+    }
+
+    /**
+     * Writes an empty element tag to the output
+     *
+     * @param prefix       the prefix of the tag, may not be null
+     * @param localName    local name of the tag, may not be null
+     * @param namespaceURI the uri to bind the tag to, may not be null
+     */
+    @Override
+    public TransformXMLStreamWriter writeEmptyElement(String prefix, String localName, String namespaceURI) throws XMLStreamException {
+        emptyElement(prefix, localName);
+        return this;
+    }
+
+    /**
+     * Writes an empty element tag to the output
+     *
+     * @param localName local name of the tag, may not be null
+     */
+    @Override
+    public TransformXMLStreamWriter writeEmptyElement(String localName) throws XMLStreamException {
+        emptyElement(null, localName);
+        return this;
+    }
+
+    /**
+     * Writes an empty element tag to the output
+     *
+     * @param qname the qualified name (QName) of the tag
+     */
+    @Override
+    public TransformXMLStreamWriter writeEmptyElement(QName qname) throws XMLStreamException {
+        emptyElement(qname.getPrefix(), qname.getLocalPart());
+        return this;
+    }
+
+    /**
+     * Writes an end tag to the output relying on the internal
+     * state of the writer to determine the prefix and local name
+     * of the event.
+     */
+    @Override
+    public TransformXMLStreamWriter writeEndElement() throws XMLStreamException {
+        endElement();
+        return this;
+    }
+
+    /**
+     * Closes any start tags and writes corresponding end tags.
+     */
+    @Override
+    public TransformXMLStreamWriter writeEndDocument() throws XMLStreamException {
+        while (openXmlElements > 0) {
+            endElement();
+        }
+        closeStartTag();
+        return this;
+    }
+
+    /**
+     * Close this writer and free any resources associated with the
+     * writer.  This must not close the underlying output stream.
+     */
+    @Override
+    public void close() throws XMLStreamException {
+        writeEndDocument();
+        flush();
+    }
+
+    /**
+     * Write any cached data to the underlying output mechanism.
+     */
+    @Override
+    public void flush() throws XMLStreamException {
+        writeBufferedAttributes();
+        flushBuffer();
+        if (outputStream != null) {
+            try {
+                outputStream.flush();
+            } catch (IOException ex) {
+                throw new XMLStreamException("Unable to flush output", ex);
+            }
+        }
+    }
+
+    /**
+     * Writes an attribute to the output stream without
+     * a prefix.
+     *
+     * @param localName the local name of the attribute
+     * @param value     the value of the attribute
+     */
+    @Override
+    public TransformXMLStreamWriter writeAttribute(String localName, String value) throws XMLStreamException {
+        addBufferedAttribute(null, null, localName, value);
+        return this;
+    }
+
+    /**
+     * Writes an attribute to the output stream
+     *
+     * @param prefix       the prefix for this attribute
+     * @param namespaceURI the uri of the prefix for this attribute
+     * @param localName    the local name of the attribute
+     * @param value        the value of the attribute
+     */
+    @Override
+    public TransformXMLStreamWriter writeAttribute(String prefix, String namespaceURI, String localName, String value) throws XMLStreamException {
+        addBufferedAttribute(prefix, namespaceURI, localName, value);
+        return this;
+    }
+
+    /**
+     * Writes an attribute to the output stream
+     *
+     * @param namespaceURI the uri of the prefix for this attribute
+     * @param localName    the local name of the attribute
+     * @param value        the value of the attribute
+     */
+    @Override
+    public TransformXMLStreamWriter writeAttribute(String namespaceURI, String localName, String value) throws XMLStreamException {
+        addBufferedAttribute(null, namespaceURI, localName, value);
+        return this;
+    }
+
+    /**
+     * Writes an attribute to the output stream
+     *
+     * @param qname the qualified name for this attribute
+     * @param value        the value of the attribute
+     */
+    @Override
+    public TransformXMLStreamWriter writeAttribute(QName qname, String value) throws XMLStreamException {
+        addBufferedAttribute(qname.getPrefix(), qname.getNamespaceURI(), qname.getLocalPart(), value);
+        return this;
+    }
+
+    /**
+     * Writes a namespace to the output stream
+     * If the prefix argument to this method is the empty string,
+     * "xmlns", or null this method will delegate to writeDefaultNamespace
+     *
+     * @param prefix       the prefix to bind this namespace to
+     * @param namespaceURI the uri to bind the prefix to
+     * @throws XMLStreamException if there is no open start tag
+     */
+    @Override
+    public TransformXMLStreamWriter writeNamespace(String prefix, String namespaceURI) throws XMLStreamException {
+        if (prefix == null || prefix.isEmpty() || prefix.equals(XMLConstants.XMLNS_ATTRIBUTE)) {
+            return writeDefaultNamespace(namespaceURI);
+        }
+        if (!startTagOpen) {
+            throw new XMLStreamException("Trying to write a namespace declaration when there is no open start element.");
+        }
+        bind(prefix, namespaceURI);
+        writeAttributeBytes(XMLConstants.XMLNS_ATTRIBUTE, prefix, namespaceURI);
+        return this;
+    }
+
+    /**
+     * Writes the default namespace to the stream
+     *
+     * @param namespaceURI the uri to bind the default namespace to
+     * @throws XMLStreamException if there is no open start tag
+     */
+    @Override
+    public TransformXMLStreamWriter writeDefaultNamespace(String namespaceURI) throws XMLStreamException {
+        if (!startTagOpen) {
+            throw new XMLStreamException("Trying to write a namespace declaration when there is no open start element.");
+        }
+        bind(XMLConstants.DEFAULT_NS_PREFIX, namespaceURI);
+        writeBytes(XMLNS);
+        writeByte('=');
+        writeByte('"');
+        if (namespaceURI != null) {
+            writeString(namespaceURI, ATTRIBUTE_ESCAPES);
+        }
+        writeByte('"');
+        return this;
+    }
+
+    /**
+     * Writes an xml comment with the data enclosed
+     *
+     * @param data the data contained in the comment, may be null
+     */
+    @Override
+    public TransformXMLStreamWriter writeComment(String data) throws XMLStreamException {
+        closeStartTag();
+        writeBytes(COMMENT_START);
+        if (data != null) {
+            checkContent(data, "--", "comment");
+            writeRaw(data);
+        }
+        writeBytes(COMMENT_END);
+        return this;
+    }
+
+    /**
+     * Writes a processing instruction
+     *
+     * @param target the target of the processing instruction, may not be null
+     */
+    @Override
+    public TransformXMLStreamWriter writeProcessingInstruction(String target) throws XMLStreamException {
+        return writeProcessingInstruction(target, null);
+    }
+
+    /**
+     * Writes a processing instruction
+     *
+     * @param target the target of the processing instruction, may not be null
+     * @param data   the data contained in the processing instruction, may not be null
+     */
+    @Override
+    public TransformXMLStreamWriter writeProcessingInstruction(String target, String data) throws XMLStreamException {
+        closeStartTag();
+        writeBytes(PI_START);
+        writeRaw(target);
+        if (data != null && !data.isEmpty()) {
+            checkContent(data, "?>", "processing instruction");
+            writeByte(' ');
+            writeRaw(data);
+        }
+        writeBytes(PI_END);
+        return this;
+    }
+
+    /**
+     * Writes a CData section
+     *
+     * @param data the data contained in the CData Section, may not be null
+     */
+    @Override
+    public TransformXMLStreamWriter writeCData(String data) throws XMLStreamException {
+        closeStartTag();
+        checkContent(data, "]]>", "CDATA block");
+        writeBytes(CDATA_START);
+        writeRaw(data);
+        writeBytes(CDATA_END);
+        return this;
+    }
+
+    /**
+     * Write a DTD section.  This string represents the entire doctypedecl production
+     * from the XML 1.0 specification.
+     *
+     * @param dtd the DTD to be written
+     */
+    @Override
+    public TransformXMLStreamWriter writeDTD(String dtd) throws XMLStreamException {
+        writeRaw(dtd);
+        return this;
+    }
+
+    /**
+     * Writes an entity reference
+     *
+     * @param name the name of the entity
+     */
+    @Override
+    public TransformXMLStreamWriter writeEntityRef(String name) throws XMLStreamException {
+        closeStartTag();
+        writeByte('&');
+        writeRaw(name);
+        writeByte(';');
+        return this;
+    }
+
+    /**
+     * Write the XML Declaration. Defaults the XML version to 1.0, and the encoding to utf-8
+     */
+    @Override
+    public TransformXMLStreamWriter writeStartDocument() throws XMLStreamException {
+        return writeStartDocument("1.0");
+    }
+
+    /**
+     * Write the XML Declaration. Defaults the encoding to utf-8
+     *
+     * @param version version of the xml document
+     */
+    @Override
+    public TransformXMLStreamWriter writeStartDocument(String version) throws XMLStreamException {
+        writeBytes(XML_DECLARATION_START);
+        writeRaw(version == null ? "1.0" : version);
+        writeBytes(XML_DECLARATION_ENCODING);
+        return this;
+    }
+
+    /**
+     * Write the XML Declaration.
+     *
+     * @param encoding encoding of the xml declaration (must be UTF-8)
+     * @param version  version of the xml document
+     * @throws XMLStreamException If given encoding is not UTF-8
+     */
+    @Override
+    public TransformXMLStreamWriter writeStartDocument(String encoding, String version) throws XMLStreamException {
+        if (encoding != null && !encoding.equalsIgnoreCase("UTF-8") && !encoding.equalsIgnoreCase("UTF8")) {
+            throw new XMLStreamException("Encoding '" + encoding + "' does not match the output encoding (UTF-8)");
+        }
+        return writeStartDocument(version);
+    }
+
+    /**
+     * Write text to the output
+     *
+     * @param text the value to write
+     */
+    @Override
+    public TransformXMLStreamWriter writeCharacters(String text) throws XMLStreamException {
+        closeStartTag();
+        writeString(text, TEXT_ESCAPES);
+        return this;
+    }
+
+    /**
+     * Write text to the output
+     *
+     * @param text  the value to write
+     * @param start the starting position in the array
+     * @param len   the number of characters to write
+     */
+    @Override
+    public TransformXMLStreamWriter writeCharacters(char[] text, int start, int len) throws XMLStreamException {
+        closeStartTag();
+        writeChars(text, start, len, TEXT_ESCAPES);
+        return this;
+    }
+
+    /**
+     * Gets the prefix the uri is bound to
+     *
+     * @param uri the uri
+     * @return the prefix or null
+     */
+    @Override
+    public String getPrefix(String uri) throws XMLStreamException {
+        if (uri == null) {
+            return null;
+        }
+        for (int i = bindingCount - 1; i >= 0; i--) {
+            if (bindingURIs[i].equals(uri)) {
+                String prefix = bindingPrefixes[i];
+                // check that the prefix isn't re-bound by an inner scope...
+                if (uri.equals(getBoundURI(prefix))) {
+                    return prefix;
+                }
+            }
+        }
+        return (rootNamespaceContext != null ? rootNamespaceContext.getPrefix(uri) : null);
+    }
+
+    /**
+     * Sets the prefix the uri is bound to.  This prefix is bound
+     * in the scope of the current START_ELEMENT / END_ELEMENT pair.
+     * If this method is called before a START_ELEMENT has been written
+     * the prefix is bound in the root scope.
+     *
+     * @param prefix the prefix to bind to the uri, may not be null
+     * @param uri    the uri to bind to the prefix, may be null
+     */
+    @Override
+    public TransformXMLStreamWriter setPrefix(String prefix, String uri) throws XMLStreamException {
+        bind(prefix, uri);
+        return this;
+    }
+
+    /**
+     * Binds a URI to the default namespace
+     * This URI is bound
+     * in the scope of the current START_ELEMENT / END_ELEMENT pair.
+     * If this method is called before a START_ELEMENT has been written
+     * the uri is bound in the root scope.
+     *
+     * @param uri the uri to bind to the default namespace, may be null
+     */
+    @Override
+    public TransformXMLStreamWriter setDefaultNamespace(String uri) throws XMLStreamException {
+        bind(XMLConstants.DEFAULT_NS_PREFIX, uri);
+        return this;
+    }
+
+    /**
+     * Sets the current namespace context for prefix and uri bindings.
+     * This context becomes the root namespace context for writing and
+     * will replace the current root namespace context.  It does not
+     * cause the namespaces to be declared.
+     *
+     * @param context the namespace context to use for this writer, may not be null
+     */
+    @Override
+    public TransformXMLStreamWriter setNamespaceContext(TransformNamespaceContext context) throws XMLStreamException {
+        rootNamespaceContext = context;
+        return this;
+    }
+
+    /**
+     * Returns the current namespace context.
+     *
+     * @return the current NamespaceContext
+     */
+    @Override
+    public TransformNamespaceContext getNamespaceContext() {
+        return namespaceContext;
+    }
+
+    /**
+     * Get the value of a feature/property from the underlying implementation
+     * (this writer has no properties)
+     *
+     * @param name The name of the property, may not be null
+     * @return The value of the property
+     * @throws IllegalArgumentException if the property is not supported
+     */
+    @Override
+    public Object getProperty(String name) throws IllegalArgumentException {
+        throw new IllegalArgumentException("Unrecognized property '" + name + "'");
+    }
+
+    /**
+     * Write an xml fragment to the output
+     *
+     * @param xmlFragment the string xml fragment to be written
+     */
+    @Override
+    public TransformXMLStreamWriter writeFragment(String xmlFragment) throws XMLStreamException, TransformException {
+        writeBufferedAttributes();
+        Transformer<Void> transformer = new Transformer<>(xmlFragment);
+        transformer.setXmlFactoryProvider(factoryProvider);
+        transformer.transform(this);
+        return this;
+    }
+
+    /**
+     * Write an xml fragment to the output
+     *
+     * @param reader the reader for the fragment to be written
+     */
+    @Override
+    public TransformXMLStreamWriter writeFragment(Reader reader) throws XMLStreamException, TransformException {
+        writeBufferedAttributes();
+        Transformer<Void> transformer = new Transformer<>(reader);
+        transformer.setXmlFactoryProvider(factoryProvider);
+        transformer.transform(this);
+        return this;
+    }
+
+    /**
+     * Writes the nodes to the output
+     *
+     * @param nodes the nodes to be written
+     */
+    @Override
+    public TransformXMLStreamWriter write(WriterNode... nodes) throws XMLStreamException {
+        for (WriterNode node: nodes) {
+            if (node != null) {
+                node.write(this);
+            }
+        }
+        return this;
+    }
+    // </editor-fold>
+}
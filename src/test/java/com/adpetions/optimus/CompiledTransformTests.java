@@ -0,0 +1,183 @@
+package com.adpetions.optimus;
+
+import com.adpetions.optimus.exceptions.TransformException;
+import com.adpetions.optimus.templates.MyInheritedTransformTemplate;
+import com.adpetions.optimus.templates.UpperCaseTextTemplate;
+import com.adpetions.optimus.templating.TemplateDispatcher;
+import com.adpetions.optimus.templating.TemplateMethodDescriptor;
+import com.adpetions.optimus.templating.AbstractTransformTemplate;
+import com.adpetions.optimus.templating.annotations.EventTemplate;
+import org.junit.Test;
+
+import javax.xml.stream.XMLStreamException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompiledTransformTests {
+
+    @Test
+    public void testCompiledHandlersReused() throws TransformException, XMLStreamException {
+        Transformer<StringBuilder> transformer = new Transformer<>();
+        transformer.registerCharactersHandler("foo/*", (context, cargo, writer) -> {
+            cargo.append(context.getText());
+            context.setOverrideText(context.getText().toUpperCase());
+            return null;
+        });
+        transformer.registerStartElementHandler("bar", (context, cargo, writer) -> ContinueState.SKIP_THIS_AND_DESCENDANTS);
+        CompiledTransform<StringBuilder> compiled = transformer.compile();
+        for (int i = 0; i < 3; i++) {
+            StringBuilder collector = new StringBuilder();
+            Transformer<StringBuilder> session = compiled.newTransformer("<root><foo>text " + i + "</foo><bar>gone</bar></root>");
+            session.setCargo(collector);
+            assertEquals("<root><foo>TEXT " + i + "</foo></root>", session.transform());
+            assertEquals("text " + i, collector.toString());
+        }
+    }
+
+    @Test
+    public void testNoRegisteringAfterCompile() throws TransformException {
+        Transformer transformer = new Transformer();
+        transformer.registerStartElementHandler("foo", (context, cargo, writer) -> null);
+        transformer.registerStartDocumentHandler((context, cargo, writer) -> null);
+        transformer.compile();
+        try {
+            transformer.registerStartElementHandler("bar", (context, cargo, writer) -> null);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+        try {
+            transformer.registerStartDocumentHandler((context, cargo, writer) -> null);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCompiledTemplate() throws TransformException, XMLStreamException {
+        CompiledTransform<Object> compiled = new CompiledTransform<>(UpperCaseTextTemplate::new);
+        for (int i = 0; i < 3; i++) {
+            Transformer<Object> session = compiled.newTransformer("<root><foo>text " + i + "</foo><bar>more</bar></root>");
+            assertEquals("<root><foo>TEXT " + i + "</foo><baz>more</baz></root>", session.transform());
+        }
+    }
+
+    @Test
+    public void testCompiledTemplateTemplateNotAllowed() throws TransformException, XMLStreamException {
+        CompiledTransform<Object> compiled = new CompiledTransform<>(UpperCaseTextTemplate::new);
+        Transformer<Object> session = compiled.newTransformer("<root/>");
+        try {
+            session.transform(new UpperCaseTextTemplate());
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCompiledConcurrently() throws Exception {
+        CompiledTransform<Object> compiled = new CompiledTransform<>(UpperCaseTextTemplate::new);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                final String inputXml = "<root><foo>text " + i + "</foo><bar/></root>";
+                futures.add(executor.submit((Callable<String>) () -> compiled.newTransformer(inputXml).transform()));
+            }
+            for (int i = 0; i < 50; i++) {
+                String outputXml = futures.get(i).get();
+                assertTrue(outputXml, outputXml.equals("<root><foo>TEXT " + i + "</foo><baz></baz></root>")
+                        || outputXml.equals("<root><foo>TEXT " + i + "</foo><baz/></root>"));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testTemplateMethodInvokers() throws Throwable {
+        // public template class - bound to a generated lambda...
+        assertTrue(TemplateMethodInvoker.isLinkable(FailingTemplate.class));
+        TemplateMethodInvoker invoker = TemplateMethodInvoker.forMethod(FailingTemplate.class.getMethod("failFoo"));
+        try {
+            invoker.invoke(new FailingTemplate());
+            fail("Expected TransformException");
+        } catch (TransformException ex) {
+            // expected
+        }
+        // non-public template class - bound through a method handle...
+        assertTrue(!TemplateMethodInvoker.isLinkable(SkippingTemplate.class));
+        invoker = TemplateMethodInvoker.forMethod(SkippingTemplate.class.getMethod("skipFoo"));
+        assertSame(ContinueState.SKIP_THIS_AND_DESCENDANTS, invoker.invoke(new SkippingTemplate()));
+        Transformer<Object> transformer = new Transformer<>("<root><foo>gone</foo><bar>kept</bar></root>");
+        assertEquals("<root><bar>kept</bar></root>", transformer.transform(new SkippingTemplate()));
+    }
+
+    @Test
+    public void testTemplateMethodExceptions() throws XMLStreamException {
+        Transformer<Object> transformer = new Transformer<>("<root><foo/></root>");
+        try {
+            transformer.transform(new FailingTemplate());
+            fail("Expected TransformException");
+        } catch (TransformException ex) {
+            // transform exceptions thrown by template methods are not wrapped...
+            assertEquals("failed", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testGeneratedTemplateDispatchers() throws Throwable {
+        // templates in the test sources have dispatchers generated by the annotation processor...
+        TemplateDispatcher dispatcher = TemplateDispatchers.forTemplateClass(MyInheritedTransformTemplate.class);
+        assertNotNull(dispatcher);
+        assertSame(MyInheritedTransformTemplate.class, dispatcher.getTemplateClass());
+        // and the dispatcher has the same template methods as would be found by reflection...
+        Set<String> reflected = new HashSet<>();
+        for (Method method : MyInheritedTransformTemplate.class.getMethods()) {
+            EventTemplate eventTemplate = method.getAnnotation(EventTemplate.class);
+            if (eventTemplate != null) {
+                reflected.add(method.getName() + ":" + eventTemplate.event() + ":" + eventTemplate.matchPath() + ":" + eventTemplate.priority());
+            }
+        }
+        Set<String> dispatched = new HashSet<>();
+        for (TemplateMethodDescriptor templateMethod : dispatcher.getTemplateMethods()) {
+            dispatched.add(templateMethod.getMethodName() + ":" + templateMethod.getEvent() + ":" + templateMethod.getMatchPath() + ":" + templateMethod.getPriority());
+        }
+        assertEquals(reflected, dispatched);
+        // private templates have no dispatcher (and are built using reflection)...
+        assertNull(TemplateDispatchers.forTemplateClass(SkippingTemplate.class));
+        TemplateDispatcher upperCaseDispatcher = TemplateDispatchers.forTemplateClass(UpperCaseTextTemplate.class);
+        assertNotNull(upperCaseDispatcher);
+        Transformer<Object> transformer = new Transformer<>("<root><foo>text</foo><bar/></root>");
+        assertEquals("<root><foo>TEXT</foo><baz/></root>", transformer.transform(new UpperCaseTextTemplate()));
+    }
+
+    private static class SkippingTemplate extends AbstractTransformTemplate {
+        @EventTemplate(event = EventType.START_ELEMENT, matchPath = "foo")
+        public ContinueState skipFoo() {
+            return ContinueState.SKIP_THIS_AND_DESCENDANTS;
+        }
+    }
+
+    public static class FailingTemplate extends AbstractTransformTemplate {
+        @EventTemplate(event = EventType.START_ELEMENT, matchPath = "foo")
+        public ContinueState failFoo() throws TransformException {
+            throw new TransformException("failed");
+        }
+    }
+}
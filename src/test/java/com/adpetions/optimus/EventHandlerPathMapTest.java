@@ -14,6 +14,8 @@ import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class EventHandlerPathMapTest {
@@ -223,8 +225,8 @@ public class EventHandlerPathMapTest {
             // we should find 2 handlers - one for match on 'def:*' and one for match on '*'...
             assertEquals(2, holders.size());
             // and check they were in correct priority order...
-            assertEquals("handleAllElements", holders.get(0).method.getName());
-            assertEquals("handleAllDefaultNsElements", holders.get(1).method.getName());
+            assertEquals("handleAllElements", holders.get(0).methodName);
+            assertEquals("handleAllDefaultNsElements", holders.get(1).methodName);
 
             // add another item to path and get the handlers...
             testMatchPath.add(new QName(uriFoo, "item"));
@@ -232,8 +234,8 @@ public class EventHandlerPathMapTest {
             // we should find 2 handlers - one for match on 'foo:*' and one for match on '*'...
             assertEquals(2, holders.size());
             // and check they were in correct priority order...
-            assertEquals("handleAllElements", holders.get(0).method.getName());
-            assertEquals("handleFooElements", holders.get(1).method.getName());
+            assertEquals("handleAllElements", holders.get(0).methodName);
+            assertEquals("handleFooElements", holders.get(1).methodName);
 
             // add another item to path and get the handlers...
             testMatchPath.add(new QName(uriBar, "item"));
@@ -241,8 +243,8 @@ public class EventHandlerPathMapTest {
             // we should find 2 handlers - one for match on 'bar:*' and one for match on '*'...
             assertEquals(2, holders.size());
             // and check they were in correct priority order...
-            assertEquals("handleAllElements", holders.get(0).method.getName());
-            assertEquals("handleBarElements", holders.get(1).method.getName());
+            assertEquals("handleAllElements", holders.get(0).methodName);
+            assertEquals("handleBarElements", holders.get(1).methodName);
 
             // ATTRIBUTES...
             // grab the registered attribute handlers from Transformer...
@@ -258,8 +260,8 @@ public class EventHandlerPathMapTest {
             // we should find 2 handlers - one for match on 'foo:*/@*' and one for match on '@*'...
             assertEquals(2, holders.size());
             // and check they were in correct priority order...
-            assertEquals("handleAttributes", holders.get(0).method.getName());
-            assertEquals("handleAttributesOnFooElements", holders.get(1).method.getName());
+            assertEquals("handleAttributes", holders.get(0).methodName);
+            assertEquals("handleAttributesOnFooElements", holders.get(1).methodName);
 
             // create a QName path to match against...
             testMatchPath = new ArrayList<>();
@@ -271,9 +273,9 @@ public class EventHandlerPathMapTest {
             // we should find 3 handlers - one for match on '@*', one for '@foo:*' and one for match on '/root/@*'...
             assertEquals(3, holders.size());
             // and check they were in correct priority order...
-            assertEquals("handleAttributes", holders.get(0).method.getName());
-            assertEquals("handleFooAttributes", holders.get(1).method.getName());
-            assertEquals("handleRootAttributes", holders.get(2).method.getName());
+            assertEquals("handleAttributes", holders.get(0).methodName);
+            assertEquals("handleFooAttributes", holders.get(1).methodName);
+            assertEquals("handleRootAttributes", holders.get(2).methodName);
 
             // create a QName path to match against...
             testMatchPath = new ArrayList<>();
@@ -286,14 +288,220 @@ public class EventHandlerPathMapTest {
             // we should only find 2 handlers - one for match on '@*' and one for '@foo:*' (but we shouldn't match '/root/@*')...
             assertEquals(2, holders.size());
             // and check they were in correct priority order...
-            assertEquals("handleAttributes", holders.get(0).method.getName());
-            assertEquals("handleFooAttributes", holders.get(1).method.getName());
+            assertEquals("handleAttributes", holders.get(0).methodName);
+            assertEquals("handleFooAttributes", holders.get(1).methodName);
 
         } catch (Exception ex) {
             fail("Unexpected exception - Error: " + ex.getMessage());
         }
     }
 
+    @Test
+    public void testSamePathMultipleHandlers() {
+        try {
+            List<EventHandlerHolder> holders;
+            Transformer transformer = new Transformer("");
+            EventHandlerPathMap pathMap = new EventHandlerPathMap(transformer, new TransformNamespaceContext(), EventHandlerPathMap.NodeType.ELEMENT);
+            pathMap.add(new EventHandlerHolder("root/item", 1, testHandler1));
+            pathMap.add(new EventHandlerHolder("root/item", 2, testHandler2));
+            pathMap.add(new EventHandlerHolder("root/item", 3, testHandler3));
+
+            List<QName> testMatchPath = new ArrayList<>();
+            testMatchPath.add(new QName(null, "/")); // simulate - document root is always the start of path!
+            testMatchPath.add(new QName("root"));
+            testMatchPath.add(new QName("item"));
+            holders = pathMap.getHolders(testMatchPath);
+            // all three handlers should be found (in priority order)...
+            assertEquals(3, holders.size());
+            assertEquals(testHandler3, holders.get(0).handler);
+            assertEquals(testHandler2, holders.get(1).handler);
+            assertEquals(testHandler1, holders.get(2).handler);
+        } catch (Exception ex) {
+            fail("Unexpected exception - Error: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testIncrementalPathMatching() {
+        try {
+            EventHandlerList holders;
+            Transformer transformer = new Transformer("");
+            EventHandlerPathMap pathMap = new EventHandlerPathMap(transformer, new TransformNamespaceContext(), EventHandlerPathMap.NodeType.ELEMENT);
+            pathMap.add(new EventHandlerHolder("/root/item", 3, testHandler1));
+            pathMap.add(new EventHandlerHolder("item", 2, testHandler2));
+            pathMap.add(new EventHandlerHolder("*/item/*", 1, testHandler3));
+            pathMap.add(new EventHandlerHolder("list/item|other", 0, testHandler4));
+
+            PathMatchState documentState = pathMap.getInitialState().next(new QName(null, "/"));
+            PathMatchState rootState = documentState.next(new QName("root"));
+            // wildcards do not match the document root...
+            assertEquals(0, pathMap.getInitialState().match(new QName(null, "/")).size());
+            holders = rootState.match(new QName("item"));
+            assertEquals(2, holders.size());
+            assertEquals(testHandler1, holders.get(0).handler);
+            assertEquals(testHandler2, holders.get(1).handler);
+            // same path again gives the same (remembered) states and holders...
+            assertSame(rootState, documentState.next(new QName("root")));
+            assertSame(holders, rootState.match(new QName("item")));
+
+            PathMatchState listState = rootState.next(new QName("list"));
+            holders = listState.match(new QName("item"));
+            assertEquals(2, holders.size());
+            assertEquals(testHandler2, holders.get(0).handler);
+            assertEquals(testHandler4, holders.get(1).handler);
+            holders = listState.next(new QName("item")).match(new QName("foo"));
+            assertEquals(1, holders.size());
+            assertEquals(testHandler3, holders.get(0).handler);
+            holders = listState.match(new QName("other"));
+            assertEquals(1, holders.size());
+            assertEquals(testHandler4, holders.get(0).handler);
+            assertEquals(0, listState.match(new QName("foo")).size());
+        } catch (Exception ex) {
+            fail("Unexpected exception - Error: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testBoundedPathMatchCache() {
+        try {
+            Transformer transformer = new Transformer("");
+            EventHandlerPathMap pathMap = new EventHandlerPathMap(transformer, new TransformNamespaceContext(), EventHandlerPathMap.NodeType.ATTRIBUTE);
+            pathMap.add(new EventHandlerHolder("item/@*", 1, testHandler1));
+            pathMap.setCacheSize(16);
+            PathMatchState itemState = pathMap.getInitialState().next(new QName(null, "/")).next(new QName("item"));
+            PathMatchCacheStatistics before = pathMap.getCacheStatistics();
+            for (int i = 0; i < 100; i++) {
+                assertEquals(1, itemState.match(new QName("@att" + i)).size());
+            }
+            PathMatchCacheStatistics after = pathMap.getCacheStatistics();
+            assertEquals(100, after.getMisses() - before.getMisses());
+            assertEquals(0, after.getHits() - before.getHits());
+            // no more than the cache size should still be remembered...
+            assertTrue(after.getEvictions() >= 100 - 16);
+            // repeatedly used names are remembered...
+            for (int i = 0; i < 10; i++) {
+                itemState.match(new QName("@id"));
+            }
+            PathMatchCacheStatistics last = pathMap.getCacheStatistics();
+            assertEquals(1, last.getMisses() - after.getMisses());
+            assertEquals(9, last.getHits() - after.getHits());
+        } catch (Exception ex) {
+            fail("Unexpected exception - Error: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testTransformerPathMapCacheStatistics() throws TransformException, XMLStreamException {
+        Transformer transformer = new Transformer("<root><item a='1'/><item a='2'/><item a='3'/></root>");
+        transformer.registerAttributeHandler("item/@a", (context, cargo, writer) -> null);
+        transformer.setPathMapCacheSize(EventType.ATTRIBUTE, 4);
+        assertEquals(4, transformer.getPathMapCacheSize(EventType.ATTRIBUTE));
+        assertEquals(EventHandlerPathMap.DEFAULT_CACHE_SIZE, transformer.getPathMapCacheSize(EventType.START_ELEMENT));
+        transformer.nullTransform();
+        PathMatchCacheStatistics statistics = transformer.getPathMapCacheStatistics(EventType.ATTRIBUTE);
+        // three attribute matches (one miss then two hits) plus the element steps...
+        assertTrue(statistics.getHits() >= 2);
+        assertTrue(statistics.getMisses() >= 1);
+        assertEquals(0, statistics.getEvictions());
+        assertEquals(0, transformer.getPathMapCacheStatistics(EventType.COMMENT).getHits());
+    }
+
+    @Test
+    public void testDescendantPathMatching() {
+        try {
+            EventHandlerList holders;
+            Transformer transformer = new Transformer("");
+            EventHandlerPathMap pathMap = new EventHandlerPathMap(transformer, new TransformNamespaceContext(), EventHandlerPathMap.NodeType.ELEMENT);
+            pathMap.add(new EventHandlerHolder("//item", 2, testHandler1));
+            pathMap.add(new EventHandlerHolder("list//name", 1, testHandler2));
+            pathMap.add(new EventHandlerHolder("list/name", 0, testHandler3));
+
+            List<QName> testMatchPath = new ArrayList<>();
+            testMatchPath.add(new QName(null, "/"));
+            testMatchPath.add(new QName("item"));
+            holders = pathMap.getHolders(testMatchPath);
+            assertEquals(1, holders.size());
+            assertEquals(testHandler1, holders.get(0).handler);
+
+            testMatchPath.set(1, new QName("root"));
+            testMatchPath.add(new QName("list"));
+            testMatchPath.add(new QName("name"));
+            holders = pathMap.getHolders(testMatchPath);
+            assertEquals(2, holders.size());
+            assertEquals(testHandler2, holders.get(0).handler);
+            assertEquals(testHandler3, holders.get(1).handler);
+
+            testMatchPath.add(3, new QName("item"));
+            holders = pathMap.getHolders(testMatchPath);
+            // only the descendant path matches a grandchild...
+            assertEquals(1, holders.size());
+            assertEquals(testHandler2, holders.get(0).handler);
+            testMatchPath.remove(testMatchPath.size() - 1);
+            holders = pathMap.getHolders(testMatchPath);
+            assertEquals(1, holders.size());
+            assertEquals(testHandler1, holders.get(0).handler);
+        } catch (Exception ex) {
+            fail("Unexpected exception - Error: " + ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testBadPredicatePaths() {
+        Transformer transformer = new Transformer("");
+        EventHandlerPathMap elementMap = new EventHandlerPathMap(transformer, new TransformNamespaceContext(), EventHandlerPathMap.NodeType.ELEMENT);
+        EventHandlerPathMap attributeMap = new EventHandlerPathMap(transformer, new TransformNamespaceContext(), EventHandlerPathMap.NodeType.ATTRIBUTE);
+        String[] badPaths = new String[] {"item[0]", "item[foo]", "item[@a=x]", "item[2", "a///b", "[2]"};
+        for (String badPath: badPaths) {
+            try {
+                elementMap.add(new EventHandlerHolder(badPath, 0, testHandler1));
+                fail("Expected BadMatchPathException for '" + badPath + "'");
+            } catch (BadMatchPathException ex) {
+                // expected
+            }
+        }
+        try {
+            attributeMap.add(new EventHandlerHolder("item/@a[1]", 0, testHandler1));
+            fail("Expected BadMatchPathException");
+        } catch (BadMatchPathException ex) {
+            // expected
+        }
+        // separators within predicates are not path separators...
+        elementMap.add(new EventHandlerHolder("item[@href='a/b|c']", 0, testHandler1));
+    }
+
+    @Test
+    public void testPredicatePathMatching() throws TransformException, XMLStreamException {
+        String inputXml = "<root>" +
+                "<item type=\"a\"><name>one</name></item>" +
+                "<item type=\"b\"><name>two</name></item>" +
+                "<item><name>three</name></item>" +
+                "<other><item type=\"a\"><name>four</name></item></other>" +
+                "</root>";
+        Transformer<List<String>> transformer = new Transformer<>(inputXml);
+        transformer.registerCharactersHandler("item[2]/name/*", (context, cargo, writer) -> {
+            cargo.add("second:" + context.getText());
+            return null;
+        });
+        transformer.registerCharactersHandler("item[@type='a']//*", (context, cargo, writer) -> {
+            cargo.add("typeA:" + context.getText());
+            return null;
+        });
+        transformer.registerStartElementHandler("root/item[@type]", (context, cargo, writer) -> {
+            cargo.add("typed:" + context.getIndex());
+            return null;
+        });
+        List<String> collected = new ArrayList<>();
+        transformer.setCargo(collected);
+        transformer.nullTransform();
+        List<String> expected = new ArrayList<>();
+        expected.add("typed:1");
+        expected.add("typeA:one");
+        expected.add("typed:2");
+        expected.add("second:two");
+        expected.add("typeA:four");
+        assertEquals(expected, collected);
+    }
+
     private static final EventHandler testHandler1 = (context, cargo, writer) -> null;
     private static final EventHandler testHandler2 = (context, cargo, writer) -> null;
     private static final EventHandler testHandler3 = (context, cargo, writer) -> null;
@@ -1,11 +1,19 @@
 package com.adpetions.optimus;
 
 import com.adpetions.optimus.exceptions.TransformException;
+import com.adpetions.optimus.templating.AbstractTransformTemplate;
+import com.adpetions.optimus.templating.annotations.EventTemplate;
+import com.adpetions.optimus.templating.annotations.TemplateConfig;
 import org.junit.Test;
 
+import javax.xml.namespace.QName;
 import javax.xml.stream.XMLStreamException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.fail;
 
 public class EventHandlingTests {
@@ -182,4 +190,202 @@ public class EventHandlingTests {
             fail("Unexpected XMLStreamException: " + e);
         }
     }
+
+    @Test
+    public void testManySiblingIndexes() throws TransformException, XMLStreamException {
+        StringBuilder inputXml = new StringBuilder("<root>");
+        for (int repeat = 0; repeat < 3; repeat++) {
+            for (int i = 0; i < 40; i++) {
+                inputXml.append("<e").append(i).append("/>");
+            }
+        }
+        inputXml.append("</root>");
+        List<String> collected = new ArrayList<>();
+        Transformer<List<String>> transformer = new Transformer<>(inputXml.toString());
+        transformer.setCargo(collected);
+        transformer.registerStartElementHandler("root/*", (context, cargo, writer) -> {
+            List<QName> path = context.getPath();
+            assertEquals(context.getPathDepth() + 1, path.size());
+            try {
+                path.add(new QName("foo"));
+                fail("Expected UnsupportedOperationException");
+            } catch (UnsupportedOperationException ex) {
+                // the path is read-only
+            }
+            if (context.getLocalName().equals("e39")) {
+                cargo.add(path.get(path.size() - 1).getLocalPart() + "[" + context.getIndex() + "]");
+            }
+            return null;
+        });
+        transformer.nullTransform();
+        assertEquals(Arrays.asList("e39[1]", "e39[2]", "e39[3]"), collected);
+    }
+
+    @Test
+    public void testIndexesNotTracked() throws TransformException, XMLStreamException {
+        List<String> collected = new ArrayList<>();
+        Transformer<List<String>> transformer = new Transformer<>("<root><item/><item/></root>");
+        transformer.setCargo(collected);
+        transformer.setTrackIndexes(false);
+        transformer.registerStartElementHandler("item", (context, cargo, writer) -> {
+            try {
+                context.getIndex();
+                fail("Expected IllegalStateException");
+            } catch (IllegalStateException ex) {
+                cargo.add("not tracked");
+            }
+            return null;
+        });
+        transformer.nullTransform();
+        assertEquals(Arrays.asList("not tracked", "not tracked"), collected);
+    }
+
+    @Test
+    public void testInternedPathNames() throws TransformException, XMLStreamException {
+        List<QName> collected = new ArrayList<>();
+        Transformer<List<QName>> transformer = new Transformer<>("<root xmlns:x=\"urn:x\"><x:item a=\"1\">one</x:item><x:item a=\"2\">two</x:item></root>");
+        transformer.setCargo(collected);
+        transformer.registerStartElementHandler((context, cargo, writer) -> {
+            if ("item".equals(context.getLocalName())) {
+                cargo.add(context.getAncestorName(0));
+                cargo.add(context.getOverrideName());
+            }
+            return null;
+        });
+        transformer.registerCharactersHandler((context, cargo, writer) -> {
+            cargo.add(context.getAncestorName(0));
+            return null;
+        });
+        transformer.nullTransform();
+        assertEquals(6, collected.size());
+        assertEquals(new QName("urn:x", "item", "x"), collected.get(0));
+        assertSame(collected.get(0), collected.get(1));
+        assertSame(collected.get(0), collected.get(3));
+        assertSame(collected.get(0), collected.get(4));
+        assertEquals(new QName("#text()"), collected.get(2));
+        assertSame(collected.get(2), collected.get(5));
+    }
+
+    @Test
+    public void testSkippedDescendantsNotMatched() throws TransformException, XMLStreamException {
+        List<String> collected = new ArrayList<>();
+        Transformer<List<String>> transformer = new Transformer<>("<root><drop><a>x<a/></a><b/></drop><keep><a>y</a></keep></root>");
+        transformer.setCargo(collected);
+        transformer.registerStartElementHandler("/root/drop", (context, cargo, writer) -> {
+            // nothing can match below the dropped element - so its descendants are fast skipped...
+            cargo.add("skip:" + context.canFastSkipDescendants());
+            return ContinueState.SKIP_THIS_AND_DESCENDANTS;
+        });
+        transformer.registerStartElementHandler("/root/keep/a", (context, cargo, writer) -> {
+            cargo.add("start:a");
+            return null;
+        });
+        transformer.registerEndElementHandler("/root/drop", (context, cargo, writer) -> {
+            cargo.add("end:" + context.getLocalName());
+            return null;
+        });
+        assertEquals("<root><keep><a>y</a></keep></root>", transformer.transform());
+        assertEquals(Arrays.asList("skip:true", "end:drop", "start:a"), collected);
+    }
+
+    @Test
+    public void testSkippedDescendantsMatched() throws TransformException, XMLStreamException {
+        String inputXml = "<root><drop><a>x</a><b/></drop><keep><a>y</a></keep></root>";
+        for (boolean fastSkipping : new boolean[] {false, true}) {
+            List<String> collected = new ArrayList<>();
+            Transformer<List<String>> transformer = new Transformer<>(inputXml);
+            transformer.setFastSkipping(fastSkipping);
+            transformer.setCargo(collected);
+            transformer.registerStartElementHandler("drop", (context, cargo, writer) -> {
+                cargo.add("skip:" + context.canFastSkipDescendants());
+                return ContinueState.SKIP_THIS_AND_DESCENDANTS;
+            });
+            transformer.registerStartElementHandler("a", (context, cargo, writer) -> {
+                cargo.add("a:" + context.getAncestorName(1).getLocalPart());
+                return null;
+            });
+            assertEquals("<root><keep><a>y</a></keep></root>", transformer.transform());
+            if (fastSkipping) {
+                // handlers are not called for the descendants of the skipped element...
+                assertEquals(Arrays.asList("skip:false", "a:keep"), collected);
+            } else {
+                assertEquals(Arrays.asList("skip:false", "a:drop", "a:keep"), collected);
+            }
+        }
+    }
+
+    @Test
+    public void testOverrideTextReadOnDemand() throws TransformException, XMLStreamException {
+        Transformer transformer = new Transformer("<root><a>a &amp; b</a> <b>x&lt;y</b><!--c--></root>");
+        // handlers that don't touch the text - text is passed straight through...
+        transformer.registerCharactersHandler("a/*", (context, cargo, writer) -> null);
+        transformer.registerWhitespaceHandler((context, cargo, writer) -> null);
+        // handlers that read and override the text...
+        transformer.registerCharactersHandler("b/*", (context, cargo, writer) -> {
+            context.setOverrideText(context.getOverrideText() + "!");
+            return null;
+        });
+        transformer.registerCommentHandler((context, cargo, writer) -> {
+            context.setOverrideText(context.getOverrideText().toUpperCase());
+            return null;
+        });
+        assertEquals("<root><a>a &amp; b</a> <b>x&lt;y!</b><!--C--></root>", transformer.transform());
+    }
+
+    @Test
+    public void testPartialOverrides() throws TransformException, XMLStreamException {
+        Transformer transformer = new Transformer("<root a=\"1\" b=\"2\"><?target data?></root>");
+        // overriding one part of a node leaves the other parts as read...
+        transformer.registerAttributeHandler("@a", 0, (context, cargo, writer) -> {
+            context.setOverrideName(new QName("renamed"));
+            return null;
+        });
+        transformer.registerAttributeHandler("@b", 0, (context, cargo, writer) -> {
+            context.setOverrideAttributeValue("two");
+            return null;
+        });
+        transformer.registerProcessingInstructionHandler((context, cargo, writer) -> {
+            context.setOverridePITarget("other");
+            return null;
+        });
+        assertEquals("<root renamed=\"1\" b=\"two\"><?other data?></root>", transformer.transform());
+    }
+
+    @Test
+    public void testUnhandledPhasesPassedThrough() throws TransformException, XMLStreamException {
+        String xml = "<root xmlns:a=\"urn:a\" xmlns:b=\"urn:b\" a=\"1\"><drop b:c=\"2\"><keep d=\"3\"/></drop></root>";
+        Transformer transformer = new Transformer(xml);
+        List<String> collected = new ArrayList<>();
+        transformer.registerStartElementHandler("drop", 0, (context, cargo, writer) -> ContinueState.SKIP_THIS);
+        assertEquals("<root xmlns:a=\"urn:a\" xmlns:b=\"urn:b\" a=\"1\"><keep d=\"3\"/></root>", transformer.transform());
+        // a handler for one phase only - the other phases are still passed through...
+        transformer = new Transformer(xml);
+        transformer.registerAfterStartElementHandler((context, cargo, writer) -> {
+            collected.add(context.getLocalName());
+            return null;
+        });
+        assertEquals(xml, transformer.transform());
+        assertEquals(Arrays.asList("root", "drop", "keep"), collected);
+    }
+
+    @Test
+    public void testTemplateTrackIndexes() throws TransformException, XMLStreamException {
+        IndexingTemplate template = new IndexingTemplate();
+        Transformer transformer = new Transformer("<root><item/><item/></root>");
+        // the template config turns tracking back on...
+        transformer.setTrackIndexes(false);
+        transformer.nullTransform(template);
+        assertEquals("[1][2]", template.indexes.toString());
+    }
+
+    @TemplateConfig(options = {TemplateConfig.ConfigOptions.TRACK_INDEXES})
+    public static class IndexingTemplate extends AbstractTransformTemplate {
+        final StringBuilder indexes = new StringBuilder();
+
+        @EventTemplate(event = EventType.START_ELEMENT, matchPath = "item")
+        public ContinueState handleItem() {
+            indexes.append("[").append(context.getIndex()).append("]");
+            return null;
+        }
+    }
 }
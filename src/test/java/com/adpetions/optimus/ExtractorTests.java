@@ -0,0 +1,63 @@
+package com.adpetions.optimus;
+
+import com.adpetions.optimus.exceptions.TransformException;
+import com.adpetions.optimus.namespaces.TransformNamespaceContext;
+import org.junit.Test;
+
+import javax.xml.stream.XMLStreamException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ExtractorTests {
+
+    @Test
+    public void testExtractStopsReading() throws TransformException, XMLStreamException {
+        Extractor<String> extractor = new Extractor<>(extraction -> extraction.get("/envelope/header/id"))
+                .require("/envelope/header/id");
+        // the rest of the document is never read (so it being broken doesn't matter)...
+        assertEquals("42", extractor.extract("<envelope><header><id>4<b>2</b></id></header><body><<broken"));
+        assertEquals("43", extractor.extract("<envelope><header><id>43</id></header><body/></envelope>"));
+    }
+
+    @Test
+    public void testExtractAttributesAndOptionals() throws TransformException, XMLStreamException {
+        TransformNamespaceContext namespaceContext = new TransformNamespaceContext();
+        namespaceContext.addNamespace("e", "urn:envelope");
+        Extractor<Extractor.Extraction> extractor = new Extractor<Extractor.Extraction>(namespaceContext, extraction -> extraction)
+                .require("/e:envelope/e:header/@version")
+                .require("e:id")
+                .optional("e:priority");
+        Extractor.Extraction extraction = extractor.extract("<envelope xmlns=\"urn:envelope\"><header version=\"2\"><id>1</id><id>2</id></header></envelope>");
+        assertEquals("2", extraction.get("/e:envelope/e:header/@version"));
+        assertEquals("1", extraction.get("e:id"));
+        assertNull(extraction.get("e:priority"));
+        assertFalse(extraction.has("e:priority"));
+        assertFalse(extraction.isComplete());
+        extraction = extractor.extract("<envelope xmlns=\"urn:envelope\"><header version=\"3\"><priority>high</priority><id>7</id></header><<broken");
+        assertEquals("3", extraction.get("/e:envelope/e:header/@version"));
+        assertEquals("7", extraction.get("e:id"));
+        assertEquals("high", extraction.get("e:priority"));
+        assertTrue(extraction.isComplete());
+        try {
+            extractor.optional("e:other");
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException ex) {
+            // expected - paths cannot be added once used
+        }
+    }
+
+    @Test
+    public void testExtractRequiredMissing() throws XMLStreamException {
+        Extractor<String> extractor = new Extractor<>(extraction -> extraction.get("id")).require("id");
+        try {
+            extractor.extract("<envelope><header/></envelope>");
+            fail("Expected TransformException");
+        } catch (TransformException ex) {
+            assertEquals("Required path 'id' not found", ex.getMessage());
+        }
+    }
+}
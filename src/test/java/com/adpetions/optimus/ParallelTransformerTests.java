@@ -0,0 +1,177 @@
+package com.adpetions.optimus;
+
+import com.adpetions.optimus.exceptions.BadMatchPathException;
+import com.adpetions.optimus.exceptions.TransformException;
+import org.junit.Test;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ParallelTransformerTests {
+
+    @Test
+    public void testTransformRecords() throws TransformException, XMLStreamException {
+        Transformer<Object> transformer = new Transformer<>();
+        // positions (within the record's parent) and attribute predicates on the ancestors...
+        transformer.registerStartElementHandler("order[3]", (context, cargo, writer) -> ContinueState.SKIP_THIS_AND_DESCENDANTS);
+        transformer.registerCharactersHandler("batch[@type='vip']/order/name/*", (context, cargo, writer) -> {
+            writer.writeCharacters(context.getText().toUpperCase());
+            return ContinueState.SKIP_THIS;
+        });
+        transformer.registerAfterAttributesHandler("order", (context, cargo, writer) -> {
+            writer.writeAttribute("index", String.valueOf(context.getIndex()));
+            return null;
+        });
+        // outside of the records...
+        transformer.registerCharactersHandler("title/*", (context, cargo, writer) -> {
+            writer.writeCharacters("ORDERS");
+            return ContinueState.SKIP_THIS;
+        });
+        CompiledTransform<Object> compiled = transformer.compile();
+        String xml = "<?xml version=\"1.0\"?><orders xmlns:x=\"urn:x\"><title>orders</title>" +
+                "<batch><order id=\"1\"><name>one</name><x:note>&lt;&amp;<![CDATA[<c>]]><!--c--></x:note></order>" +
+                "<order id=\"2\"><name>two</name><empty/></order>" +
+                "<order id=\"3\"><name>three</name></order>" +
+                "<summary xmlns=\"urn:summary\"><order id=\"s\"/></summary></batch>" +
+                "<batch type=\"vip\"><order id=\"4\"><name>four</name></order>" +
+                "<order id=\"5\"><name>five</name></order><order id=\"6\"><name>six</name></order></batch></orders>";
+        String expected = "<orders xmlns:x=\"urn:x\"><title>ORDERS</title>" +
+                "<batch><order id=\"1\" index=\"1\"><name>one</name><x:note>&lt;&amp;<![CDATA[<c>]]><!--c--></x:note></order>" +
+                "<order id=\"2\" index=\"2\"><name>two</name><empty/></order>" +
+                "<summary xmlns=\"urn:summary\"><order id=\"s\"/></summary></batch>" +
+                "<batch type=\"vip\"><order id=\"4\" index=\"1\"><name>FOUR</name></order>" +
+                "<order id=\"5\" index=\"2\"><name>FIVE</name></order>SIX</batch></orders>";
+        ParallelTransformer<Object> parallelTransformer = new ParallelTransformer<>(compiled, "/orders/batch/order");
+        assertEquals(expected, parallelTransformer.transform(xml, null));
+        // again (re-using the pooled transformers)...
+        assertEquals(expected, parallelTransformer.transform(xml, null));
+        // with only one record in flight at a time...
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            assertEquals(expected, new ParallelTransformer<>(compiled, "/orders/*/order", executor, 1).transform(xml, null));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testRecordNamespaces() throws TransformException, XMLStreamException {
+        Transformer<Set<Thread>> transformer = new Transformer<>();
+        transformer.registerStartElementHandler((context, cargo, writer) -> {
+            if (context.getLocalName().equals("name")) {
+                cargo.add(Thread.currentThread());
+                writer.writeStartElement("urn:a", "tag").writeEndElement();
+            }
+            return null;
+        });
+        String xml = "<root xmlns=\"urn:r\" xmlns:a=\"urn:a\"><list a:att=\"1\">" +
+                "<a:item><a:name>one</a:name><plain xmlns=\"\"/></a:item>" +
+                "<a:item xmlns:b=\"urn:b\"><b:name>two</b:name></a:item>" +
+                "</list></root>";
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // the namespaces bound by the ancestors are used (but not re-declared) in the records...
+            assertEquals("<root xmlns=\"urn:r\" xmlns:a=\"urn:a\"><list a:att=\"1\">" +
+                    "<a:item><a:tag/><a:name>one</a:name><plain xmlns=\"\"/></a:item>" +
+                    "<a:item xmlns:b=\"urn:b\"><a:tag/><b:name>two</b:name></a:item>" +
+                    "</list></root>",
+                    new ParallelTransformer<>(transformer.compile(), "/*/*/*", executor, 4).transform(xml, threads));
+        } finally {
+            executor.shutdown();
+        }
+        // the records were transformed on the executor...
+        assertEquals(1, threads.size());
+        assertFalse(threads.contains(Thread.currentThread()));
+    }
+
+    @Test
+    public void testRecordScanner() {
+        String xml = "\ufeff<?xml version=\"1.0\" encoding=\"utf-8\"?><!-- <feed> --><?pi <item>?>" +
+                "<f:feed xmlns:f=\"urn:f\"><title>x</title>" +
+                "<f:item a=\"/>\" b='\"'>\u00e9<![CDATA[</f:item>]]><!--</f:item>--><f:item/></f:item>" +
+                "<item/><f:item xmlns:f=\"urn:other\"/><g:item xmlns:g=\"urn:f\"/>" +
+                "<nested><f:item/></nested>" +
+                "<f:item/></f:feed>";
+        ByteBuffer buffer = ByteBuffer.wrap(xml.getBytes(StandardCharsets.UTF_8));
+        RecordScanner scanner = new RecordScanner(buffer, new QName[] {new QName("urn:f", "feed"), new QName("urn:f", "item")});
+        assertTrue(scanner.isScannable());
+        List<String> records = new ArrayList<>();
+        while (scanner.next()) {
+            records.add(new String(buffer.array(), scanner.recordStart, scanner.recordEnd - scanner.recordStart, StandardCharsets.UTF_8)
+                    + "|" + new String(buffer.array(), scanner.recordStart, scanner.recordNameEnd - scanner.recordStart, StandardCharsets.UTF_8));
+        }
+        List<String> expected = new ArrayList<>();
+        expected.add("<f:item a=\"/>\" b='\"'>\u00e9<![CDATA[</f:item>]]><!--</f:item>--><f:item/></f:item>|<f:item");
+        expected.add("<g:item xmlns:g=\"urn:f\"/>|<g:item");
+        expected.add("<f:item/>|<f:item");
+        assertEquals(expected, records);
+        // documents that cannot be scanned...
+        QName[] steps = new QName[] {new QName("", "a"), new QName("", "b")};
+        assertFalse(new RecordScanner(ByteBuffer.wrap("<!DOCTYPE a><a><b/></a>".getBytes(StandardCharsets.UTF_8)), steps).isScannable());
+        assertFalse(new RecordScanner(ByteBuffer.wrap("<?xml version='1.0' encoding='ISO-8859-1'?><a><b/></a>".getBytes(StandardCharsets.ISO_8859_1)), steps).isScannable());
+        assertFalse(new RecordScanner(ByteBuffer.wrap("<a><b/></a>".getBytes(StandardCharsets.UTF_16)), steps).isScannable());
+    }
+
+    @Test
+    public void testScannedRecords() throws TransformException, XMLStreamException {
+        Transformer<Object> transformer = new Transformer<>();
+        transformer.registerStartElementHandler("order[3]", (context, cargo, writer) -> ContinueState.SKIP_THIS_AND_DESCENDANTS);
+        transformer.registerAfterAttributesHandler("order", (context, cargo, writer) -> {
+            writer.writeAttribute("index", String.valueOf(context.getIndex()));
+            return null;
+        });
+        ParallelTransformer<Object> parallelTransformer = new ParallelTransformer<>(transformer.compile(), "/orders/batch/order");
+        // markup-like attribute values and CDATA inside the records (and an empty record)...
+        String xml = "<orders><batch><order id=\"1\"><empty a=\"/>\"/><![CDATA[</order>]]></order>" +
+                "<order id=\"2\"/><order id=\"3\"><name>three</name></order>" +
+                "<order id=\"4\"><name>four</name></order></batch></orders>";
+        String expected = "<orders><batch><order id=\"1\" index=\"1\"><empty a=\"/>\"/><![CDATA[</order>]]></order>" +
+                "<order id=\"2\" index=\"2\"/><order id=\"4\" index=\"4\"><name>four</name></order></batch></orders>";
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        parallelTransformer.transform(xml.getBytes(StandardCharsets.UTF_8), outputStream, null);
+        assertEquals(expected, new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+        // a direct buffer (from its position)...
+        byte[] bytes = ("JUNK" + xml).getBytes(StandardCharsets.UTF_8);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes).flip();
+        direct.position(4);
+        outputStream.reset();
+        parallelTransformer.transform(direct, outputStream, null);
+        assertEquals(expected, new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals(4, direct.position());
+        // a document that cannot be scanned is split by parsing...
+        String latin1Xml = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><orders><batch><order><name>Ren\u00e9e</name></order></batch></orders>";
+        outputStream.reset();
+        parallelTransformer.transform(latin1Xml.getBytes(StandardCharsets.ISO_8859_1), outputStream, null);
+        assertEquals("<orders><batch><order index=\"1\"><name>Ren\u00e9e</name></order></batch></orders>",
+                new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testBadRecordPaths() throws TransformException {
+        CompiledTransform<Object> compiled = new Transformer<>().compile();
+        for (String badPath: new String[] {"orders/order", "/orders", "/orders//order", "/orders/order[1]", "/orders/x:order"}) {
+            try {
+                new ParallelTransformer<>(compiled, badPath);
+                fail("Expected BadMatchPathException for '" + badPath + "'");
+            } catch (BadMatchPathException ex) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.adpetions.optimus;
+
+import com.adpetions.optimus.exceptions.TransformException;
+import com.adpetions.optimus.io.TransformInput;
+import com.adpetions.optimus.nodes.Element;
+import org.junit.Test;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PipelinedTransformTests {
+
+    private static String largeXml(int count) {
+        StringBuilder builder = new StringBuilder("<?xml version=\"1.0\"?><root xmlns:x=\"urn:x\">");
+        for (int i = 0; i < count; i++) {
+            builder.append("<item id=\"").append(i).append("\" x:flag=\"").append(i % 2 == 0).append("\">")
+                    .append("<name>item &amp; ").append(i).append("</name>\n  ")
+                    .append("<x:note><![CDATA[cdata ").append(i).append("]]><!--comment--><?pi data?></x:note>")
+                    .append(i % 7 == 0 ? "<detail><a xmlns=\"urn:d\">1<b xmlns=\"\">2</b></a></detail>" : "")
+                    .append("</item>\n");
+        }
+        return builder.append("</root>").toString();
+    }
+
+    private static Transformer<Object> createTransformer(String xml, boolean pipelined) throws TransformException {
+        Transformer<Object> transformer = new Transformer<>(xml);
+        transformer.setPipelined(pipelined);
+        transformer.registerAfterAttributesHandler("item", (context, cargo, writer) -> {
+            writer.writeAttribute("prefix", context.getCurrentNamespaceContext().getPrefix("urn:x"));
+            return null;
+        });
+        transformer.registerCharactersHandler("name/*", (context, cargo, writer) -> {
+            writer.writeCharacters(context.getText().toUpperCase());
+            return ContinueState.SKIP_THIS;
+        });
+        transformer.registerStartElementHandler("detail", (context, cargo, writer) -> {
+            Element detail = context.readElement();
+            writer.writeStartElement("read").writeAttribute("children", String.valueOf(detail.getChildNodes().size()))
+                    .writeEndElement();
+            return ContinueState.SKIP_THIS_AND_DESCENDANTS;
+        });
+        transformer.registerCommentHandler((context, cargo, writer) -> ContinueState.SKIP_THIS);
+        return transformer;
+    }
+
+    @Test
+    public void testSameOutputAsUnpipelined() throws TransformException, XMLStreamException {
+        // more events than the capacity of the pipeline rings...
+        String xml = largeXml(PipelinedReader.DEFAULT_CAPACITY);
+        String expected = createTransformer(xml, false).transform();
+        assertEquals(expected, createTransformer(xml, true).transform());
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        createTransformer(xml, true).transform(outputStream);
+        assertEquals(expected, new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+        // identity...
+        Transformer<Object> identity = new Transformer<>(xml);
+        identity.setPipelined(true);
+        assertEquals(new Transformer<>(xml).transform(), identity.transform());
+    }
+
+    @Test
+    public void testPipelinedCompiledTransform() throws TransformException, XMLStreamException {
+        String xml = largeXml(50);
+        Transformer<Object> transformer = createTransformer(xml, true);
+        String expected = createTransformer(xml, false).transform();
+        CompiledTransform<Object> compiled = transformer.compile();
+        Transformer<Object> compiledTransformer = compiled.newTransformer(xml);
+        assertTrue(compiledTransformer.getPipelined());
+        assertEquals(expected, compiledTransformer.transform());
+        // the same transformer again (reset)...
+        assertEquals(expected, compiledTransformer.reset(TransformInput.of(xml)).transform());
+    }
+
+    @Test
+    public void testQuit() throws TransformException, XMLStreamException {
+        String xml = largeXml(PipelinedReader.DEFAULT_CAPACITY * 2);
+        Transformer<List<String>> transformer = new Transformer<>(xml);
+        transformer.setPipelined(true);
+        transformer.registerStartElementHandler("item", (context, cargo, writer) -> {
+            cargo.add(context.getAttributeValue("id"));
+            return (cargo.size() == 3 ? ContinueState.QUIT : null);
+        });
+        List<String> ids = new ArrayList<>();
+        transformer.setCargo(ids);
+        transformer.nullTransform();
+        assertEquals(3, ids.size());
+        assertEquals("2", ids.get(2));
+    }
+
+    @Test
+    public void testParseFailure() throws TransformException {
+        String xml = largeXml(100).replace("</root>", "</wrong>");
+        for (boolean pipelined : new boolean[] {false, true}) {
+            List<String> names = new ArrayList<>();
+            Transformer<List<String>> transformer = new Transformer<>(xml);
+            transformer.setPipelined(pipelined);
+            transformer.setCargo(names);
+            transformer.registerStartElementHandler("name", (context, cargo, writer) -> {
+                cargo.add(context.getLocalName());
+                return null;
+            });
+            try {
+                transformer.transform();
+                fail("Expected XMLStreamException");
+            } catch (XMLStreamException ex) {
+                // expected - after the events before the failure have been handled...
+                assertEquals(100, names.size());
+            }
+        }
+    }
+
+    @Test
+    public void testWriteFailure() throws TransformException {
+        String xml = largeXml(10);
+        for (boolean pipelined : new boolean[] {false, true}) {
+            Transformer<Object> transformer = new Transformer<>(xml);
+            transformer.setPipelined(pipelined);
+            // an attribute written where there is no open start element...
+            transformer.registerCharactersHandler("name/*", (context, cargo, writer) -> {
+                writer.writeCharacters("text").writeAttribute("bad", "attribute");
+                return null;
+            });
+            try {
+                transformer.transform();
+                fail("Expected XMLStreamException");
+            } catch (XMLStreamException ex) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testThreadsReused() throws TransformException, XMLStreamException {
+        String xml = largeXml(20);
+        Transformer<Object> transformer = createTransformer(xml, true);
+        String expected = createTransformer(xml, false).transform();
+        CompiledTransform<Object> compiled = transformer.compile();
+        Transformer<Object> compiledTransformer = compiled.newTransformer(xml);
+        int threadsBefore = countThreads("optimus-pipeline-");
+        for (int i = 0; i < 10; i++) {
+            assertEquals(expected, compiledTransformer.reset(TransformInput.of(xml)).transform());
+        }
+        // just the one reader and one writer thread for all the transforms...
+        assertTrue(countThreads("optimus-pipeline-") - threadsBefore <= 2);
+    }
+
+    private static int countThreads(String namePrefix) {
+        int result = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith(namePrefix)) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    @Test(timeout = 10000)
+    public void testQuitWithBlockedInput() throws TransformException, XMLStreamException {
+        CountDownLatch release = new CountDownLatch(1);
+        byte[] start = "<root><item id=\"1\"/>".getBytes(StandardCharsets.UTF_8);
+        // an input that blocks (ignoring interrupts) once its first bytes have been read...
+        InputStream blocking = new InputStream() {
+            private int at;
+
+            @Override
+            public int read() {
+                byte[] one = new byte[1];
+                return (read(one, 0, 1) == -1 ? -1 : one[0]);
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) {
+                if (at < start.length) {
+                    int count = Math.min(length, start.length - at);
+                    System.arraycopy(start, at, bytes, offset, count);
+                    at += count;
+                    return count;
+                }
+                while (release.getCount() > 0) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        // ignore - keep blocking
+                    }
+                }
+                return -1;
+            }
+        };
+        Transformer<List<String>> transformer = new Transformer<>(TransformInput.of(blocking));
+        transformer.setPipelined(true);
+        List<String> ids = new ArrayList<>();
+        transformer.setCargo(ids);
+        transformer.registerStartElementHandler("item", (context, cargo, writer) -> {
+            cargo.add(context.getAttributeValue("id"));
+            return ContinueState.QUIT;
+        });
+        try {
+            // closing the pipelined reader must not wait for the blocked reader thread...
+            transformer.nullTransform();
+            assertEquals(1, ids.size());
+        } finally {
+            release.countDown();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.adpetions.optimus;
+
+import com.adpetions.optimus.exceptions.TransformException;
+import com.adpetions.optimus.io.TransformInput;
+import org.junit.Test;
+
+import javax.xml.stream.XMLStreamException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TransformExecutorTests {
+
+    @Test
+    public void testTransformAll() throws TransformException, InterruptedException, ExecutionException, TimeoutException {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        Transformer<List<String>> transformer = new Transformer<>();
+        transformer.registerStartDocumentHandler((context, cargo, writer) -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            return null;
+        });
+        transformer.registerEndDocumentHandler((context, cargo, writer) -> {
+            running.decrementAndGet();
+            return null;
+        });
+        transformer.registerCharactersHandler("name/*", (context, cargo, writer) -> {
+            cargo.add(context.getText());
+            writer.writeCharacters(context.getText().toUpperCase());
+            return ContinueState.SKIP_THIS;
+        });
+        Map<String, String> outputs = new ConcurrentHashMap<>();
+        Map<String, List<String>> cargos = new ConcurrentHashMap<>();
+        Map<String, Throwable> failures = new ConcurrentHashMap<>();
+        try (TransformExecutor<List<String>> executor = new TransformExecutor<>(transformer.compile(), 3)) {
+            executor.transformAll(IntStream.range(0, 200).mapToObj(i -> TransformInput.of("<doc id=\"" + i + "\"><name>doc " + i + "</name><name>second</name></doc>")),
+                    input -> new ArrayList<>(), (input, cargo, output, failure) -> {
+                        String id = cargo.isEmpty() ? "?" : cargo.get(0);
+                        if (failure != null) {
+                            failures.put(id, failure);
+                        } else {
+                            outputs.put(id, new String(output, StandardCharsets.UTF_8));
+                            cargos.put(id, cargo);
+                        }
+                    }).get(30, TimeUnit.SECONDS);
+        }
+        assertTrue(failures.isEmpty());
+        assertEquals(200, outputs.size());
+        for (int i = 0; i < 200; i++) {
+            assertEquals("<doc id=\"" + i + "\"><name>DOC " + i + "</name><name>SECOND</name></doc>", outputs.get("doc " + i));
+            // each document had its own cargo...
+            List<String> cargo = cargos.get("doc " + i);
+            assertEquals(2, cargo.size());
+            assertEquals("second", cargo.get(1));
+        }
+        assertTrue(maxRunning.get() <= 3);
+    }
+
+    @Test
+    public void testSubmit() throws TransformException, InterruptedException, ExecutionException, TimeoutException {
+        Transformer<List<String>> transformer = new Transformer<>();
+        transformer.registerCharactersHandler("name/*", (context, cargo, writer) -> {
+            cargo.add(context.getText());
+            writer.writeCharacters(context.getText().toUpperCase());
+            return ContinueState.SKIP_THIS;
+        });
+        try (TransformExecutor<List<String>> executor = new TransformExecutor<>(transformer.compile(), 2)) {
+            List<String> cargo = new ArrayList<>();
+            assertEquals("<doc id=\"1\"><name>DOC 1</name><name>SECOND</name></doc>",
+                    executor.submit("<doc id=\"1\"><name>doc 1</name><name>second</name></doc>", cargo).get(10, TimeUnit.SECONDS));
+            assertEquals(2, cargo.size());
+            // larger than the writer buffer (so written in more than one flush)...
+            StringBuilder large = new StringBuilder("<doc>");
+            StringBuilder expected = new StringBuilder("<doc>");
+            for (int i = 0; i < 5000; i++) {
+                large.append("<name>doc ").append(i).append("</name>");
+                expected.append("<name>DOC ").append(i).append("</name>");
+            }
+            byte[] output = executor.submit(TransformInput.of(large.append("</doc>").toString()), new ArrayList<>()).get(10, TimeUnit.SECONDS);
+            assertEquals(expected.append("</doc>").toString(), new String(output, StandardCharsets.UTF_8));
+            try {
+                executor.submit("<doc><unclosed></doc>", new ArrayList<>()).get(10, TimeUnit.SECONDS);
+                fail("Expected ExecutionException");
+            } catch (ExecutionException ex) {
+                assertTrue(ex.getCause() instanceof XMLStreamException);
+            }
+        }
+    }
+
+    @Test
+    public void testTransformAllStreamFailure() throws TransformException, InterruptedException, TimeoutException {
+        Transformer<List<String>> transformer = new Transformer<>();
+        AtomicInteger created = new AtomicInteger();
+        AtomicInteger completed = new AtomicInteger();
+        IllegalStateException cargoFailure = new IllegalStateException("no cargo");
+        try (TransformExecutor<List<String>> executor = new TransformExecutor<>(transformer.compile(), 2)) {
+            CompletableFuture<Void> result = executor.transformAll(Stream.of("<a/>", "<b/>", "<c/>").map(TransformInput::of),
+                    input -> {
+                        if (created.incrementAndGet() == 3) {
+                            throw cargoFailure;
+                        }
+                        return new ArrayList<>();
+                    }, (input, cargo, output, failure) -> completed.incrementAndGet());
+            try {
+                result.get(10, TimeUnit.SECONDS);
+                fail("Expected ExecutionException");
+            } catch (ExecutionException ex) {
+                assertSame(cargoFailure, ex.getCause());
+            }
+            // the inputs submitted before the failure were still transformed...
+            assertEquals(2, completed.get());
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package com.adpetions.optimus;
+
+import com.adpetions.optimus.exceptions.TransformException;
+import org.junit.Test;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TransformFeedTests {
+
+    @Test
+    public void testFeedChunks() throws TransformException, InterruptedException, ExecutionException {
+        Transformer<StringBuilder> transformer = new Transformer<>();
+        transformer.registerCharactersHandler("item/*", (context, cargo, writer) -> {
+            cargo.append(context.getText());
+            writer.writeCharacters(context.getText().toUpperCase());
+            return ContinueState.SKIP_THIS;
+        });
+        TransformerPool<StringBuilder> pool = new TransformerPool<>(transformer.compile(), 2);
+        StringBuilder collector = new StringBuilder();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        TransformFeed<StringBuilder> feed = new TransformFeed<>(pool, outputStream, collector);
+        // fed in small chunks (splitting multi-byte characters)...
+        byte[] bytes = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><root><item>caf\u00e9</item>".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer chunk = ByteBuffer.wrap(bytes);
+        while (chunk.hasRemaining()) {
+            ByteBuffer split = chunk.duplicate();
+            split.limit(Math.min(chunk.position() + 3, chunk.limit()));
+            feed.feed(split);
+            assertFalse(split.hasRemaining());
+            chunk.position(split.position());
+        }
+        // the first item has been handled (on this thread) before the rest of the input is fed...
+        assertEquals("caf\u00e9", collector.toString());
+        assertFalse(feed.getCompletion().isDone());
+        bytes = "<item>na\u00efve</item><!-- done --></root>".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < bytes.length; i += 5) {
+            feed.feed(bytes, i, Math.min(5, bytes.length - i));
+        }
+        feed.endOfInput();
+        // the transform has finished (and the transformer is back in the pool)...
+        assertTrue(feed.getCompletion().isDone());
+        feed.getCompletion().get();
+        assertEquals(1, pool.getIdleCount());
+        assertEquals("caf\u00e9na\u00efve", collector.toString());
+        assertEquals("<root><item>CAF\u00c9</item><item>NA\u00cfVE</item><!-- done --></root>",
+                new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+        try {
+            feed.feed(new byte[] {'x'}, 0, 1);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testManySessions() throws TransformException, InterruptedException, ExecutionException {
+        Transformer<List<String>> transformer = new Transformer<>();
+        transformer.registerAttributeHandler("item/@id", (context, cargo, writer) -> {
+            cargo.add(context.getAttributeValue());
+            return null;
+        });
+        transformer.registerCharactersHandler("item/*", (context, cargo, writer) -> {
+            writer.writeCharacters(context.getText().toUpperCase());
+            return ContinueState.SKIP_THIS;
+        });
+        TransformerPool<List<String>> pool = new TransformerPool<>(transformer.compile(), 4);
+        List<TransformFeed<List<String>>> feeds = new ArrayList<>();
+        List<List<String>> cargos = new ArrayList<>();
+        List<ByteArrayOutputStream> outputStreams = new ArrayList<>();
+        // every session is part way through its document at the same time (all fed from this one thread)...
+        for (int i = 0; i < 500; i++) {
+            cargos.add(new ArrayList<>());
+            outputStreams.add(new ByteArrayOutputStream());
+            feeds.add(new TransformFeed<>(pool, outputStreams.get(i), cargos.get(i)));
+            feeds.get(i).feed(ByteBuffer.wrap(("<root><item id=\"" + i + "\">it").getBytes(StandardCharsets.UTF_8)));
+        }
+        for (int i = 0; i < 500; i++) {
+            assertFalse(feeds.get(i).getCompletion().isDone());
+            feeds.get(i).feed(ByteBuffer.wrap(("em " + i + "</item></root>").getBytes(StandardCharsets.UTF_8)));
+            feeds.get(i).endOfInput();
+            feeds.get(i).getCompletion().get();
+        }
+        for (int i = 0; i < 500; i++) {
+            assertEquals(1, cargos.get(i).size());
+            assertEquals(String.valueOf(i), cargos.get(i).get(0));
+            assertEquals("<root><item id=\"" + i + "\">ITEM " + i + "</item></root>",
+                    new String(outputStreams.get(i).toByteArray(), StandardCharsets.UTF_8));
+        }
+        assertEquals(4, pool.getIdleCount());
+    }
+
+    @Test
+    public void testFeedSkippingAndQuit() throws TransformException, InterruptedException, ExecutionException {
+        Transformer<StringBuilder> transformer = new Transformer<>();
+        transformer.setFastSkipping(true);
+        transformer.registerStartElementHandler("secret", (context, cargo, writer) -> ContinueState.SKIP_THIS_AND_DESCENDANTS);
+        transformer.registerCharactersHandler((context, cargo, writer) -> {
+            cargo.append(context.getText());
+            return null;
+        });
+        transformer.registerEndElementHandler("stop", (context, cargo, writer) -> ContinueState.QUIT);
+        TransformerPool<StringBuilder> pool = new TransformerPool<>(transformer.compile(), 2);
+        StringBuilder collector = new StringBuilder();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        TransformFeed<StringBuilder> feed = new TransformFeed<>(pool, outputStream, collector);
+        // the skipped element is split across chunks...
+        feed.feed(ByteBuffer.wrap("<root>a<secret>b<x>c".getBytes(StandardCharsets.UTF_8)));
+        feed.feed(ByteBuffer.wrap("</x>d</secret>e<stop/>".getBytes(StandardCharsets.UTF_8)));
+        // the handler quit - so the transform finished without the end of input...
+        assertTrue(feed.getCompletion().isDone());
+        feed.getCompletion().get();
+        assertEquals("ae", collector.toString());
+        assertFalse(new String(outputStream.toByteArray(), StandardCharsets.UTF_8).contains("secret"));
+        // further input is ignored...
+        feed.feed(ByteBuffer.wrap("f</root>".getBytes(StandardCharsets.UTF_8)));
+        feed.endOfInput();
+        assertEquals("ae", collector.toString());
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    public void testFeedFailures() throws TransformException, InterruptedException, ExecutionException {
+        Transformer<StringBuilder> transformer = new Transformer<>();
+        transformer.registerStartElementHandler("read", (context, cargo, writer) -> {
+            cargo.append(context.readElement().getAllText());
+            return null;
+        });
+        TransformerPool<StringBuilder> pool = new TransformerPool<>(transformer.compile(), 4);
+        // malformed input...
+        TransformFeed<StringBuilder> feed = new TransformFeed<>(pool, new ByteArrayOutputStream(), new StringBuilder());
+        feed.feed(ByteBuffer.wrap("<root><item></root>".getBytes(StandardCharsets.UTF_8)));
+        assertTrue(feed.getCompletion().isCompletedExceptionally());
+        try {
+            feed.getCompletion().get();
+            fail("Expected ExecutionException");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof XMLStreamException);
+        }
+        assertEquals(1, pool.getIdleCount());
+        // incomplete input...
+        feed = new TransformFeed<>(pool, new ByteArrayOutputStream(), new StringBuilder());
+        feed.feed(ByteBuffer.wrap("<root><item>".getBytes(StandardCharsets.UTF_8)));
+        feed.endOfInput();
+        try {
+            feed.getCompletion().get();
+            fail("Expected ExecutionException");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof XMLStreamException);
+        }
+        // a handler reading past the input fed so far...
+        feed = new TransformFeed<>(pool, new ByteArrayOutputStream(), new StringBuilder());
+        feed.feed(ByteBuffer.wrap("<root><read>text".getBytes(StandardCharsets.UTF_8)));
+        try {
+            feed.getCompletion().get();
+            fail("Expected ExecutionException");
+        } catch (ExecutionException ex) {
+            assertTrue(ex.getCause() instanceof XMLStreamException);
+        }
+        // ...but may read ahead within it...
+        StringBuilder collector = new StringBuilder();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        feed = new TransformFeed<>(pool, outputStream, collector);
+        feed.feed(ByteBuffer.wrap("<root><read>text</read>".getBytes(StandardCharsets.UTF_8)));
+        feed.feed(ByteBuffer.wrap("</root>".getBytes(StandardCharsets.UTF_8)));
+        feed.endOfInput();
+        assertTrue(feed.getCompletion().isDone());
+        assertEquals("text", collector.toString());
+        // (the read element is not output)...
+        assertEquals("<root/>", new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+        // aborted part way through the input (the transformer is back in the pool once aborted)...
+        feed = new TransformFeed<>(pool, new ByteArrayOutputStream(), new StringBuilder());
+        feed.feed(ByteBuffer.wrap("<root><item>".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(0, pool.getIdleCount());
+        feed.abort();
+        assertEquals(1, pool.getIdleCount());
+        try {
+            feed.getCompletion().get();
+            fail("Expected CancellationException");
+        } catch (CancellationException ex) {
+            // expected
+        }
+        // aborted before any input was fed...
+        feed = new TransformFeed<>(pool, new ByteArrayOutputStream(), new StringBuilder());
+        feed.abort();
+        assertTrue(feed.getCompletion().isCancelled());
+        feed.feed(ByteBuffer.wrap("<root/>".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(1, pool.getIdleCount());
+    }
+}
@@ -0,0 +1,148 @@
+package com.adpetions.optimus;
+
+import com.adpetions.optimus.exceptions.TransformException;
+import com.adpetions.optimus.namespaces.TransformNamespaceContext;
+import com.adpetions.optimus.writers.TransformSimpleWriter;
+import com.adpetions.optimus.writers.TransformUtf8Writer;
+import com.adpetions.optimus.writers.TransformXMLStreamWriter;
+import org.junit.Test;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TransformUtf8WriterTests {
+    private static final String testXml = "<?xml version=\"1.0\"?>" +
+            "<!--lead-->" +
+            "<root xmlns=\"urn:default\" xmlns:x=\"urn:x\" a=\"&lt;&amp;&quot;'&gt;&#9;&#10;&#13;\">" +
+            "<x:child x:att=\"\u00e9\u20ac\ud83d\ude00\">t&lt;&gt;&amp;\"'&#13;\n\t\u00e5\u00df\ud83d\ude00</x:child>" +
+            "<empty/><notEmpty></notEmpty>" +
+            "<![CDATA[<cdata> & \u00e9]]>" +
+            "<?pi?><?pi data?>" +
+            "<inner xmlns=\"urn:inner\"><deeper/></inner>" +
+            "</root>";
+
+    @Test
+    public void testSameOutputAsSimpleWriter() throws TransformException, XMLStreamException, UnsupportedEncodingException {
+        String expected = new Transformer(testXml).transform();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new Transformer(testXml).transform(outputStream);
+        assertEquals(expected, outputStream.toString("UTF-8"));
+        // a tiny buffer (that is flushed mid characters and mid names)...
+        outputStream.reset();
+        TransformUtf8Writer writer = new TransformUtf8Writer(outputStream, new TransformNamespaceContext(), 1);
+        Transformer transformer = new Transformer(testXml);
+        transformer.transform(writer);
+        writer.flush();
+        assertEquals(expected, outputStream.toString("UTF-8"));
+    }
+
+    @Test
+    public void testWriterMethods() throws TransformException, XMLStreamException {
+        TransformSimpleWriter simpleWriter = new TransformSimpleWriter();
+        writeTestNodes(simpleWriter);
+        String expected = simpleWriter.getXmlString();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        TransformUtf8Writer writer = new TransformUtf8Writer(outputStream);
+        writeTestNodes(writer);
+        writer.close();
+        assertEquals(expected, new String(outputStream.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals("<?xml version='1.0' encoding='UTF-8'?>" +
+                "<root xmlns:p=\"urn:p\" b=\"last\" a=\"1\">" +
+                "<p:child p:att=\"&lt;x>&amp;&quot;'\"/>" +
+                "<empty c=\"2\"/>" +
+                "text&lt;&gt;&amp;\"'\u00e9" +
+                "<!--comment-->&ent;" +
+                "<open><inner></inner></open></root>", expected);
+    }
+
+    private void writeTestNodes(TransformXMLStreamWriter writer) throws XMLStreamException {
+        writer.writeStartDocument()
+                .writeStartElement("root")
+                .writeAttribute("b", "first")
+                .writeNamespace("p", "urn:p")
+                .writeAttribute("a", "1")
+                .writeAttribute("b", "last")
+                .writeStartElement("urn:p", "child")
+                .writeAttribute("p", "urn:p", "att", "<x>&\"'")
+                .writeEndElement()
+                .writeEmptyElement("empty")
+                .writeAttribute("c", "2")
+                .writeCharacters("text<>&\"'\u00e9".toCharArray(), 0, 10)
+                .writeComment("comment")
+                .writeEntityRef("ent")
+                .writeStartElement("open")
+                .writeStartElement("inner")
+                .writeCharacters("");
+    }
+
+    @Test
+    public void testIllegalContent() throws XMLStreamException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        TransformUtf8Writer writer = new TransformUtf8Writer(outputStream);
+        writer.writeStartElement("root");
+        try {
+            writer.writeCData("a]]>b");
+            fail("Expected XMLStreamException");
+        } catch (XMLStreamException ex) {
+            // expected - cannot be written in a CDATA section
+        }
+        try {
+            writer.writeCharacters("a\u0001");
+            fail("Expected XMLStreamException");
+        } catch (XMLStreamException ex) {
+            // expected - control characters cannot be written
+        }
+        try {
+            writer.writeCharacters("a\ud800b");
+            fail("Expected XMLStreamException");
+        } catch (XMLStreamException ex) {
+            // expected - broken surrogate pair
+        }
+        try {
+            writer.writeStartElement("urn:unbound", "child");
+            fail("Expected XMLStreamException");
+        } catch (XMLStreamException ex) {
+            assertEquals("Unbound namespace URI 'urn:unbound'", ex.getMessage());
+        }
+    }
+
+    @Test
+    public void testReset() throws XMLStreamException {
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        TransformUtf8Writer writer = new TransformUtf8Writer(first);
+        writer.writeStartElement("root").writeNamespace("p", "urn:p").writeAttribute("a", "1")
+                .writeStartElement("urn:p", "child");
+        // reset part way through a document - the unwritten output, open elements and bindings are discarded...
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+        writer.reset(second);
+        writer.writeStartElement("other").writeAttribute("b", "2").writeEndElement();
+        writer.flush();
+        assertEquals(0, first.size());
+        assertEquals("<other b=\"2\"/>", new String(second.toByteArray(), StandardCharsets.UTF_8));
+        try {
+            writer.writeStartElement("urn:p", "child");
+            fail("Expected XMLStreamException");
+        } catch (XMLStreamException ex) {
+            assertEquals("Unbound namespace URI 'urn:p'", ex.getMessage());
+        }
+        // reset to a channel (and back to a stream)...
+        ByteArrayOutputStream third = new ByteArrayOutputStream();
+        writer.writeStartElement("unflushed");
+        writer.reset(Channels.newChannel(third));
+        writer.writeStartElement("channel").writeCharacters("\u00e9").writeEndElement();
+        writer.flush();
+        assertEquals("<channel>\u00e9</channel>", new String(third.toByteArray(), StandardCharsets.UTF_8));
+        ByteArrayOutputStream fourth = new ByteArrayOutputStream();
+        writer.reset(fourth);
+        writer.writeStartElement("stream").writeEndElement();
+        writer.flush();
+        assertEquals("<channel>\u00e9</channel>", new String(third.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals("<stream/>", new String(fourth.toByteArray(), StandardCharsets.UTF_8));
+    }
+}
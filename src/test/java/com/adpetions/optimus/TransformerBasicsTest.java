@@ -1,6 +1,8 @@
 package com.adpetions.optimus;
 
 import com.adpetions.optimus.exceptions.TransformException;
+import com.adpetions.optimus.factories.DefaultXMLFactoryProvider;
+import com.adpetions.optimus.factories.XMLFactoryProvider;
 import com.adpetions.optimus.nodes.Element;
 import com.adpetions.optimus.nodes.NodeCollection;
 import com.adpetions.optimus.nodes.WriterNode;
@@ -8,6 +10,8 @@ import com.adpetions.optimus.writers.TransformSimpleWriter;
 import org.junit.Test;
 
 import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
 import javax.xml.stream.XMLStreamException;
 
 import java.util.ArrayList;
@@ -219,4 +223,40 @@ public class TransformerBasicsTest {
             fail("Unexpected exception");
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testCustomXmlFactoryProvider() {
+        String inputXml = "<root><test>a<![CDATA[b]]>c</test></root>";
+        final int[] inputFactoryCalls = new int[]{0};
+        final int[] outputFactoryCalls = new int[]{0};
+        final DefaultXMLFactoryProvider defaultProvider = DefaultXMLFactoryProvider.getInstance();
+        try {
+            Transformer transformer = new Transformer(inputXml);
+            transformer.setCoalescing(true);
+            transformer.setXmlFactoryProvider(new XMLFactoryProvider() {
+                @Override
+                public XMLInputFactory getInputFactory(boolean coalescing) {
+                    inputFactoryCalls[0]++;
+                    return defaultProvider.getInputFactory(coalescing);
+                }
+
+                @Override
+                public XMLOutputFactory getOutputFactory() {
+                    outputFactoryCalls[0]++;
+                    return defaultProvider.getOutputFactory();
+                }
+            });
+            transformer.registerStartElementHandler("test", (context, cargo, writer) -> {
+                writer.writeFragment("<fragment/>");
+                return null;
+            });
+            String outputXml = transformer.transform();
+            assertEquals("<root><fragment/><test>abc</test></root>", outputXml);
+            // one for the transform and one for the nested fragment transform...
+            assertEquals(2, inputFactoryCalls[0]);
+            assertEquals(1, outputFactoryCalls[0]);
+        } catch (TransformException | XMLStreamException e) {
+            fail("Unexpected exception");
+        }
+    }
+}
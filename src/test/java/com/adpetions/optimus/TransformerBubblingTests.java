@@ -1,8 +1,12 @@
 package com.adpetions.optimus;
 
+import com.adpetions.optimus.exceptions.TransformException;
+import com.adpetions.optimus.nodes.NodeCollection;
 import com.adpetions.optimus.templates.BubblingTestTransformTemplate;
 import org.junit.Test;
 
+import javax.xml.stream.XMLStreamException;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
@@ -101,4 +105,36 @@ public class TransformerBubblingTests {
         }
     }
 
+
+    @Test
+    public void testNestedCallChains() throws TransformException, XMLStreamException {
+        StringBuilder resultBuilder = new StringBuilder();
+        Transformer<StringBuilder> transformer = new Transformer<>("<root><test><x/><y/></test></root>");
+        transformer.setCargo(resultBuilder);
+        transformer.registerStartElementHandler("test", 20, (context, cargo, writer) -> {
+            if (!context.isApplying()) {
+                cargo.append("[apply]");
+                // applying causes nested events (and call chains) whilst this chain is still running...
+                context.apply(new NodeCollection(context.readElement()));
+                cargo.append("[applied]");
+            }
+            return null;
+        });
+        transformer.registerStartElementHandler("test", 10, (context, cargo, writer) -> {
+            cargo.append(context.isApplying() ? "[nested-next]" : "[next]");
+            return null;
+        });
+        transformer.registerStartElementHandler("x", (context, cargo, writer) -> {
+            cargo.append("[x]");
+            context.callNext();
+            return null;
+        });
+        transformer.registerStartElementHandler("*", -10, (context, cargo, writer) -> {
+            cargo.append("[").append(context.getLocalName()).append("*]");
+            context.cancelNext();
+            return null;
+        });
+        transformer.nullTransform();
+        assertEquals("[root*][apply][nested-next][test*][x][x*][y*][applied][next][test*]", resultBuilder.toString());
+    }
 }
@@ -0,0 +1,137 @@
+package com.adpetions.optimus;
+
+import com.adpetions.optimus.exceptions.TransformException;
+import com.adpetions.optimus.factories.DefaultXMLFactoryProvider;
+import com.adpetions.optimus.io.MappedFileInputStream;
+import com.adpetions.optimus.io.TransformInput;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.assertEquals;
+
+public class TransformerInputTests {
+    private static final String latin1Xml = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><root><name>Ren\u00e9e</name></root>";
+    private static final String utf8Xml = "<root><name>\u00e5\u00df\u20ac</name></root>";
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    @Test
+    public void testBytesInput() throws TransformException, XMLStreamException {
+        // the declared encoding is honoured...
+        assertEquals("<root><name>Ren\u00e9e</name></root>", new Transformer(latin1Xml.getBytes(StandardCharsets.ISO_8859_1)).transform());
+        assertEquals(utf8Xml, new Transformer(utf8Xml.getBytes(StandardCharsets.UTF_8)).transform());
+        byte[] padded = ("xx" + utf8Xml + "yy").getBytes(StandardCharsets.UTF_8);
+        assertEquals(utf8Xml, new Transformer(TransformInput.of(padded, 2, padded.length - 4)).transform());
+    }
+
+    @Test
+    public void testInputStreamInput() throws TransformException, XMLStreamException {
+        assertEquals("<root><name>Ren\u00e9e</name></root>",
+                new Transformer(new ByteArrayInputStream(latin1Xml.getBytes(StandardCharsets.ISO_8859_1))).transform());
+    }
+
+    @Test
+    public void testByteBufferInput() throws TransformException, XMLStreamException {
+        byte[] bytes = utf8Xml.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length + 1);
+        direct.put((byte)' ').put(bytes).flip();
+        direct.position(1);
+        ByteBuffer heap = ByteBuffer.wrap(bytes);
+        assertEquals(utf8Xml, new Transformer(direct).transform());
+        assertEquals(utf8Xml, new Transformer(heap).transform());
+        // the buffers are not consumed...
+        assertEquals(1, direct.position());
+        assertEquals(0, heap.position());
+    }
+
+    @Test
+    public void testPathInput() throws TransformException, XMLStreamException, IOException {
+        Path path = testFolder.newFile("input.xml").toPath();
+        Files.write(path, latin1Xml.getBytes(StandardCharsets.ISO_8859_1));
+        Transformer transformer = new Transformer(path);
+        assertEquals("<root><name>Ren\u00e9e</name></root>", transformer.transform());
+        // the file is re-opened for each transform...
+        transformer.reset(TransformInput.of(path));
+        assertEquals("<root><name>Ren\u00e9e</name></root>", transformer.transform());
+        // and closed afterwards...
+        Files.delete(path);
+    }
+
+    @Test
+    public void testPathInputReadConcurrently() throws XMLStreamException, IOException {
+        Path path = testFolder.newFile("shared.xml").toPath();
+        // (larger than the parser's buffer - so the file is still being read after the second reader is closed)...
+        StringBuilder xml = new StringBuilder("<root><a/>");
+        for (int i = 0; i < 10000; i++) {
+            xml.append("<!-- padding -->");
+        }
+        Files.write(path, xml.append("<b/></root>").toString().getBytes(StandardCharsets.UTF_8));
+        XMLInputFactory inputFactory = DefaultXMLFactoryProvider.getInstance().getInputFactory(false);
+        for (TransformInput input : new TransformInput[] {TransformInput.of(path), TransformInput.ofMapped(path)}) {
+            // each reader of the input opens (and closes) the file itself...
+            XMLStreamReader first = input.createXMLStreamReader(inputFactory);
+            XMLStreamReader second = input.createXMLStreamReader(inputFactory);
+            assertEquals(XMLStreamConstants.START_ELEMENT, first.nextTag());
+            assertEquals(XMLStreamConstants.START_ELEMENT, second.nextTag());
+            second.close();
+            input.close();
+            // the first is unaffected by the second finishing...
+            assertEquals("a", nextName(first));
+            assertEquals("b", nextName(first));
+            first.close();
+        }
+        // and the files are closed afterwards...
+        Files.delete(path);
+    }
+
+    private static String nextName(XMLStreamReader reader) throws XMLStreamException {
+        while (reader.next() != XMLStreamConstants.START_ELEMENT) {
+            // skip to the next element
+        }
+        return reader.getLocalName();
+    }
+
+    @Test
+    public void testMappedInputAndChannelOutput() throws TransformException, XMLStreamException, IOException {
+        Path inputPath = testFolder.newFile("mapped.xml").toPath();
+        Path outputPath = testFolder.newFile("output.xml").toPath();
+        StringBuilder xmlBuilder = new StringBuilder("<root>");
+        for (int i = 0; i < 1000; i++) {
+            xmlBuilder.append("<item id=\"").append(i).append("\">\u00e5\u20ac").append(i).append("</item>");
+        }
+        String xml = xmlBuilder.append("</root>").toString();
+        Files.write(inputPath, ("JUNK!!" + xml).getBytes(StandardCharsets.UTF_8));
+        try (FileChannel input = FileChannel.open(inputPath, StandardOpenOption.READ);
+             FileChannel output = FileChannel.open(outputPath, StandardOpenOption.WRITE)) {
+            // the channel is read from its current position...
+            input.position(6);
+            new Transformer(input).transform(output);
+            // which is unchanged...
+            assertEquals(6, input.position());
+        }
+        assertEquals(xml, new String(Files.readAllBytes(outputPath), StandardCharsets.UTF_8));
+        Files.write(inputPath, xml.getBytes(StandardCharsets.UTF_8));
+        // a small window (that splits multi-byte characters) is slid across the file...
+        try (FileChannel input = FileChannel.open(inputPath, StandardOpenOption.READ)) {
+            MappedFileInputStream inputStream = new MappedFileInputStream(input, 0, input.size(), 7);
+            assertEquals(xml, new Transformer(inputStream).transform());
+        }
+        assertEquals(xml, new Transformer(TransformInput.ofMapped(inputPath)).transform());
+        Files.delete(inputPath);
+    }
+}
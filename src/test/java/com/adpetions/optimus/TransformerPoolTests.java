@@ -0,0 +1,84 @@
+package com.adpetions.optimus;
+
+import com.adpetions.optimus.exceptions.TransformException;
+import com.adpetions.optimus.templates.UpperCaseTextTemplate;
+import org.junit.Test;
+
+import javax.xml.stream.XMLStreamException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TransformerPoolTests {
+
+    @Test
+    public void testTransformerReset() throws TransformException, XMLStreamException {
+        Transformer<StringBuilder> transformer = new Transformer<>("<root><foo>one</foo></root>");
+        transformer.registerCharactersHandler("foo/*", (context, cargo, writer) -> {
+            cargo.append(context.getText());
+            return null;
+        });
+        StringBuilder collector = new StringBuilder();
+        transformer.setCargo(collector);
+        assertEquals("<root><foo>one</foo></root>", transformer.transform());
+        TransformContext firstContext = transformer.context;
+        transformer.reset("<root><foo>two</foo><foo>three</foo></root>");
+        assertNull(transformer.getCargo());
+        transformer.setCargo(collector);
+        assertEquals("<root><foo>two</foo><foo>three</foo></root>", transformer.transform());
+        assertEquals("onetwothree", collector.toString());
+        assertSame(firstContext, transformer.context);
+    }
+
+    @Test
+    public void testPoolReusesTransformers() throws TransformException, XMLStreamException {
+        Transformer<StringBuilder> transformer = new Transformer<>();
+        transformer.registerCharactersHandler("foo/*", (context, cargo, writer) -> {
+            cargo.append(context.getText());
+            return ContinueState.SKIP_THIS;
+        });
+        TransformerPool<StringBuilder> pool = new TransformerPool<>(transformer.compile(), 2);
+        Transformer<StringBuilder> first = pool.acquire("<root/>");
+        pool.release(first);
+        assertEquals(1, pool.getIdleCount());
+        Transformer<StringBuilder> second = pool.acquire("<root><foo>text</foo></root>");
+        assertSame(first, second);
+        assertEquals(0, pool.getIdleCount());
+        StringBuilder collector = new StringBuilder();
+        second.setCargo(collector);
+        assertEquals("<root><foo/></root>", second.transform());
+        assertEquals("text", collector.toString());
+        pool.release(second);
+        StringBuilder collector2 = new StringBuilder();
+        assertEquals("<root><foo/></root>", pool.transform("<root><foo>more</foo></root>", collector2));
+        assertEquals("more", collector2.toString());
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    @Test
+    public void testPoolConcurrently() throws Exception {
+        TransformerPool<Object> pool = new TransformerPool<>(new CompiledTransform<>(UpperCaseTextTemplate::new), 4);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                final String inputXml = "<root><foo>text " + i + "</foo></root>";
+                futures.add(executor.submit((Callable<String>) () -> pool.transform(inputXml, null)));
+            }
+            for (int i = 0; i < 100; i++) {
+                assertEquals("<root><foo>TEXT " + i + "</foo></root>", futures.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(pool.getIdleCount() <= 4);
+    }
+}
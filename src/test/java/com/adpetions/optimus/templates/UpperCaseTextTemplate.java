@@ -0,0 +1,39 @@
+package com.adpetions.optimus.templates;
+
+import com.adpetions.optimus.ContinueState;
+import com.adpetions.optimus.EventType;
+import com.adpetions.optimus.templating.AbstractTransformTemplate;
+import com.adpetions.optimus.templating.OptimusTransformTemplate;
+import com.adpetions.optimus.templating.annotations.EventTemplate;
+
+import javax.xml.namespace.QName;
+import java.util.ArrayList;
+import java.util.List;
+
+public class UpperCaseTextTemplate extends AbstractTransformTemplate implements OptimusTransformTemplate {
+    private int textCount = 0;
+
+    @Override
+    public List<OptimusTransformTemplate> getImports() throws Exception {
+        List<OptimusTransformTemplate> result = new ArrayList<>();
+        result.add(new ImportedTemplate());
+        return result;
+    }
+
+    @EventTemplate(event= EventType.CHARACTERS, matchPath="foo/*", priority = 1)
+    public ContinueState handleFooText() {
+        textCount++;
+        context.setOverrideText(context.getText().toUpperCase());
+        return null;
+    }
+
+    @EventTemplate(event= EventType.START_ELEMENT, matchPath="bar")
+    public ContinueState handleBarElement() {
+        context.setOverrideName(new QName("baz"));
+        return null;
+    }
+
+    public int getTextCount() {
+        return textCount;
+    }
+}